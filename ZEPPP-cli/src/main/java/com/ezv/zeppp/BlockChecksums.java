@@ -0,0 +1,54 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## BlockChecksums                                                                                             ##
+// ##                                                                                                            ##
+// ## Running checksums of the memory areas read from the PIC, worked out as the blocks arrive.                  ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.hardware.CRC16;
+
+// For each area, a CRC the same as the interface CRC command gives for it (see CRC16.computeWords), and the
+// 16-bit sum of its words. Reading an area again starts its checksums over.
+public class BlockChecksums implements MemoryBlockListener {
+    private static final int AREAS = 4;
+
+    private final int[] crc = new int[AREAS];
+    private final int[] sum = new int[AREAS];
+    private final int[] words = new int[AREAS];
+
+    public void onBlock (int memoryArea, int startWord, int[] data, int count) {
+        if (startWord == 0) {
+            crc[memoryArea] = CRC16.INITIAL_VALUE;
+            sum[memoryArea] = 0;
+            words[memoryArea] = 0;
+        }
+        int mask = memoryArea == ZEPPPClient.MEMORY_AREA_DATA ? 0xff : 0xffff;
+        int c = crc[memoryArea];
+        int s = sum[memoryArea];
+        for (int w = 0; w < count; w++) {
+            int word = data[w] & mask;
+            c = CRC16.update(CRC16.update(c, word), word >> 8);
+            s += word;
+        }
+        crc[memoryArea] = c;
+        sum[memoryArea] = s & 0xffff;
+        words[memoryArea] += count;
+    }
+
+    public int getCrc (int memoryArea) {
+        return crc[memoryArea];
+    }
+
+    public int getSum (int memoryArea) {
+        return sum[memoryArea];
+    }
+
+    // Words the checksums cover
+    public int getWordCount (int memoryArea) {
+        return words[memoryArea];
+    }
+}
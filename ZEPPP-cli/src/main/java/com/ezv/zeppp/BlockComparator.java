@@ -0,0 +1,72 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## BlockComparator                                                                                            ##
+// ##                                                                                                            ##
+// ## Compares the memory read from the PIC with an expected image, as the blocks arrive.                        ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.pic.PicDevice;
+
+// Either stops the read at the first difference, or counts them all and keeps the first one of each area
+public class BlockComparator implements MemoryBlockListener {
+    private static final int AREAS = 4;
+
+    private final PicDevice expected;
+    private final boolean stopAtFirst;
+    private final int[] mismatches = new int[AREAS];
+    private final int[] firstMismatch = {-1, -1, -1, -1};
+
+    public BlockComparator (PicDevice expected, boolean stopAtFirst) {
+        this.expected = expected;
+        this.stopAtFirst = stopAtFirst;
+    }
+
+    public void onBlock (int memoryArea, int startWord, int[] words, int count) throws ZEPPPCommandException {
+        HexBuffer buffer = bufferOf(memoryArea);
+        int mask = memoryArea == ZEPPPClient.MEMORY_AREA_DATA ? 0xff : 0xffff;
+
+        for (int w = 0; w < count; w++) {
+            int word = startWord + w;
+            int expectedWord = buffer.getWord(word * 2) & mask;
+            if ((words[w] & mask) == expectedWord) continue;
+
+            if (stopAtFirst) {
+                throw new ZEPPPCommandException(
+                        String.format("Expected 0x%04x. Received 0x%04x instead", expectedWord, words[w]),
+                        String.format("Compare data at offset 0x%04x!", word)
+                );
+            }
+            if (mismatches[memoryArea]++ == 0) firstMismatch[memoryArea] = word;
+        }
+    }
+
+    public int getMismatches (int memoryArea) {
+        return mismatches[memoryArea];
+    }
+
+    // -1 if the area matched
+    public int getFirstMismatch (int memoryArea) {
+        return firstMismatch[memoryArea];
+    }
+
+    public boolean matches () {
+        for (int m : mismatches) {
+            if (m > 0) return false;
+        }
+        return true;
+    }
+
+    private HexBuffer bufferOf (int memoryArea) {
+        switch (memoryArea) {
+            case ZEPPPClient.MEMORY_AREA_DATA:       return expected.getDataMem();
+            case ZEPPPClient.MEMORY_AREA_USER_IDS:   return expected.getUserIds();
+            case ZEPPPClient.MEMORY_AREA_CONF_WORDS: return expected.getConfWords();
+            default:                                 return expected.getProgramMem();
+        }
+    }
+}
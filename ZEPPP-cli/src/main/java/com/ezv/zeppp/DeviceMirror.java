@@ -0,0 +1,92 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## DeviceMirror                                                                                               ##
+// ##                                                                                                            ##
+// ## What is known of the contents of the connected PIC, block by block: filled by reads, updated by confirmed  ##
+// ## writes and verifications, and dropped by erases or whenever the device could have changed. Lets the       ##
+// ## client answer repeated reads and verifies without going to the interface again.                          ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.config.PICDeviceConfigEntry;
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.pic.PicDevice;
+
+import java.util.BitSet;
+
+public class DeviceMirror implements MemoryBlockListener {
+    private static final int AREAS = 4;
+    // Blocks of PGM and Data memory, as read and verified. User IDs and Config Words are a block each.
+    public static final int BLOCK_WORDS = ZEPPPClient.DATA_UNITS_PER_READWRITE;
+
+    private final PICDeviceConfigEntry deviceCfg;
+    private final int[][] words = new int[AREAS][];
+    // Words whose value is known. A block is only taken from the mirror if all of its words are.
+    private final BitSet[] known = new BitSet[AREAS];
+
+    public DeviceMirror (PICDeviceConfigEntry deviceCfg) {
+        this.deviceCfg = deviceCfg;
+        words[ZEPPPClient.MEMORY_AREA_PGM] = new int[deviceCfg.getPgmMemSize()];
+        words[ZEPPPClient.MEMORY_AREA_DATA] = new int[deviceCfg.getDataSize()];
+        words[ZEPPPClient.MEMORY_AREA_USER_IDS] = new int[PicDevice.USER_IDS_COUNT];
+        words[ZEPPPClient.MEMORY_AREA_CONF_WORDS] = new int[deviceCfg.getConfWords()];
+        for (int area = 0; area < AREAS; area++) known[area] = new BitSet(words[area].length);
+    }
+
+    public PICDeviceConfigEntry getDeviceCfg () {
+        return deviceCfg;
+    }
+
+    public int getSize (int memoryArea) {
+        return words[memoryArea].length;
+    }
+
+    // Reads (see ZEPPPClient.addBlockListener)
+    public void onBlock (int memoryArea, int startWord, int[] src, int count) {
+        int n = Math.min(count, words[memoryArea].length - startWord);
+        if (n <= 0) return;
+        System.arraycopy(src, 0, words[memoryArea], startWord, n);
+        known[memoryArea].set(startWord, startWord + n);
+    }
+
+    // Words the device was confirmed to hold: written and read back, or verified
+    public void store (int memoryArea, HexBuffer buffer, int startWord, int count) {
+        int end = Math.min(startWord + count, words[memoryArea].length);
+        for (int w = startWord; w < end; w++) words[memoryArea][w] = buffer.getWord(w * 2);
+        if (end > startWord) known[memoryArea].set(startWord, end);
+    }
+
+    public boolean isKnown (int memoryArea, int startWord, int count) {
+        if (count <= 0) return true;
+        int end = startWord + count;
+        return end <= words[memoryArea].length && known[memoryArea].nextClearBit(startWord) >= end;
+    }
+
+    public boolean isKnown (int memoryArea) {
+        return isKnown(memoryArea, 0, words[memoryArea].length);
+    }
+
+    // The words of a known range, into dest from offset 0
+    public void getWords (int memoryArea, int startWord, int[] dest, int count) {
+        System.arraycopy(words[memoryArea], startWord, dest, 0, count);
+    }
+
+    // Whole blocks, as the block they start in may have been changed by a partial write
+    public void invalidate (int memoryArea, int startWord, int count) {
+        if (count <= 0) return;
+        int from = startWord / BLOCK_WORDS * BLOCK_WORDS;
+        int to = Math.min((startWord + count + BLOCK_WORDS - 1) / BLOCK_WORDS * BLOCK_WORDS, words[memoryArea].length);
+        known[memoryArea].clear(from, to);
+    }
+
+    public void invalidate (int memoryArea) {
+        known[memoryArea].clear();
+    }
+
+    public void invalidateAll () {
+        for (BitSet area : known) area.clear();
+    }
+}
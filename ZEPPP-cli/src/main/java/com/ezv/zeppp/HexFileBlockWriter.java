@@ -0,0 +1,103 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## HexFileBlockWriter                                                                                         ##
+// ##                                                                                                            ##
+// ## Writes the memory read from the PIC to an Intel HEX file while it is being read.                          ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.config.PICDeviceConfigEntry;
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.intelhex.IntelHexFile;
+import com.ezv.zeppp.intelhex.IntelHexParsingException;
+import com.ezv.zeppp.pic.PicDevice;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Same records as PicDevice.saveToHexFile: PGM and Data memory in records of ENTRIES_PER_HEX_FILE_WHEN_SAVING
+// words (blank ones left out), User IDs and Config Words in one record each. They are in the order the areas are
+// read rather than sorted by address.
+public class HexFileBlockWriter implements MemoryBlockListener, Closeable {
+    private static final int RECORD_WORDS = PicDevice.ENTRIES_PER_HEX_FILE_WHEN_SAVING;
+
+    private final PICDeviceConfigEntry deviceCfg;
+    private final String path;
+    private final IntelHexFile.Writer writer;
+    // Record being filled
+    private int recordArea = -1;
+    private int recordStart = 0;
+    private final HexBuffer record;
+    private int recordWords = 0;
+
+    public HexFileBlockWriter (PICDeviceConfigEntry deviceCfg, String path) throws IntelHexParsingException, IOException {
+        this.deviceCfg = deviceCfg;
+        this.path = path;
+        this.writer = new IntelHexFile.Writer(path);
+        this.record = new HexBuffer(Math.max(RECORD_WORDS, Math.max(PicDevice.USER_IDS_COUNT, deviceCfg.getConfWords())) * 2);
+    }
+
+    public void onBlock (int memoryArea, int startWord, int[] words, int count) throws ZEPPPCommandException {
+        boolean configArea = memoryArea == ZEPPPClient.MEMORY_AREA_USER_IDS || memoryArea == ZEPPPClient.MEMORY_AREA_CONF_WORDS;
+
+        for (int w = 0; w < count; w++) {
+            int word = startWord + w;
+            if (memoryArea != recordArea || word != recordStart + recordWords || (!configArea && word % RECORD_WORDS == 0)) {
+                flush();
+                recordArea = memoryArea;
+                recordStart = word;
+            }
+            record.setWord(recordWords * 2, (short) words[w]);
+            recordWords++;
+        }
+    }
+
+    public void onAreaRead (int memoryArea) throws ZEPPPCommandException {
+        flush();
+    }
+
+    // Writes the End Of File record: the file is complete
+    public void close () throws IOException {
+        writer.close();
+    }
+
+    private void flush () throws ZEPPPCommandException {
+        if (recordWords == 0) return;
+
+        int baseWord;
+        boolean skipBlank = true;
+        switch (recordArea) {
+            case ZEPPPClient.MEMORY_AREA_DATA:
+                baseWord = deviceCfg.getDataHexFileLogicalAddress();
+                break;
+            case ZEPPPClient.MEMORY_AREA_USER_IDS:
+                baseWord = deviceCfg.getConfMemAddress();
+                skipBlank = false;
+                break;
+            case ZEPPPClient.MEMORY_AREA_CONF_WORDS:
+                baseWord = deviceCfg.getConfMemAddress() + PicDevice.CONF_WORD_OFFSET;
+                skipBlank = false;
+                break;
+            default:
+                baseWord = 0;
+        }
+
+        int erased = recordArea == ZEPPPClient.MEMORY_AREA_DATA ? PicDevice.DEFAULT_DATA_MEM_CONTENT : PicDevice.DEFAULT_MEM_CONTENT;
+        boolean blank = true;
+        for (int w = 0; w < recordWords; w++) {
+            if (record.getWord(w * 2) != erased) blank = false;
+        }
+
+        try {
+            if (!blank || !skipBlank) {
+                writer.write((baseWord + recordStart) * 2, new HexBuffer(record.getBytes(0, recordWords * 2)));
+            }
+        } catch (IntelHexParsingException | IOException e) {
+            throw new ZEPPPCommandException(e.getMessage(), "Write to " + path);
+        }
+        recordWords = 0;
+    }
+}
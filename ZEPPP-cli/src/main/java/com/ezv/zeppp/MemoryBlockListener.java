@@ -0,0 +1,23 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## MemoryBlockListener                                                                                        ##
+// ##                                                                                                            ##
+// ## Gets the words read from the PIC block by block, as they arrive from the interface.                        ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+
+// Blocks of an area come in address order, blank ones included (with the erased value), so a listener sees the
+// whole area exactly once per read. See ZEPPPClient.addBlockListener.
+public interface MemoryBlockListener {
+    // memoryArea is one of the ZEPPPClient.MEMORY_AREA_* values. words holds count words read from startWord on
+    // (bytes, for Data memory), and is reused once the call returns.
+    void onBlock (int memoryArea, int startWord, int[] words, int count) throws ZEPPPCommandException;
+
+    // Every block of the area has been delivered
+    default void onAreaRead (int memoryArea) throws ZEPPPCommandException {
+    }
+}
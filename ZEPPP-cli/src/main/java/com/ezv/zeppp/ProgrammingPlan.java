@@ -0,0 +1,146 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## ProgrammingPlan                                                                                            ##
+// ##                                                                                                            ##
+// ## The segments a memory area is written (and verified) in, compiled once per image. Several ways of splitting ##
+// ## it are tried, and the one estimated to take the least time on the interface is kept.                      ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.intelhex.HexBuffer;
+
+import java.util.List;
+
+public class ProgrammingPlan {
+    // Shortest run worth a fill or a skip, for each of the plans tried
+    public static final int[] MIN_RUN_CANDIDATES = {4, 8, 16, 32};
+    // Each command (parsing it, and its response) costs about this much on top of its bytes and program cycles
+    public static final int COMMAND_OVERHEAD_US  = 200;
+
+    private final String memArea;
+    private final String variant;
+    private final List<WordRunSegmenter.Segment> segments;
+    private final int usedWords;
+    private final int sizeInWords;
+    private final long wireBytes;
+    private final int programCycles;
+    private final long estimatedUs;
+    // What the plan was compiled from, to tell whether it still applies (see matches)
+    private final Object settings;
+    private final byte[] image;
+    private ZEPPPCommandStream stream = null;
+
+    private ProgrammingPlan (String memArea, String variant, List<WordRunSegmenter.Segment> segments, int usedWords,
+                             int sizeInWords, long wireBytes, int programCycles, long estimatedUs, Object settings, byte[] image) {
+        this.memArea = memArea;
+        this.variant = variant;
+        this.segments = segments;
+        this.usedWords = usedWords;
+        this.sizeInWords = sizeInWords;
+        this.wireBytes = wireBytes;
+        this.programCycles = programCycles;
+        this.estimatedUs = estimatedUs;
+        this.settings = settings;
+        this.image = image;
+    }
+
+    // Plans the writes of a PGM (or Data) memory area, erased beforehand, up to its last word in use. Segments are
+    // kept to whole erase rows (see WordRunSegmenter.withEraseRowSize). programTimeUs is what each program cycle
+    // takes, and settings everything else the commands depend on (see matches).
+    public static ProgrammingPlan compile (String memArea, boolean dataMem, HexBuffer memory, int rowSize, int eraseRowSize, int erasedValue,
+                                          int programTimeUs, ZEPPPTransferStrategy strategy, ZEPPPCommandEncoder encoder,
+                                          int baudRate, Object settings) {
+        int sizeInWords = memory.getBufferSize() / 2;
+        int usedWords = sizeInWords;
+        while (usedWords > 0 && memory.getWord((usedWords - 1) * 2) == erasedValue) usedWords--;
+        byte[] image = memory.getBytes(0, memory.getBufferSize());
+
+        ProgrammingPlan best = null;
+        for (boolean fills : strategy.useFillCommands() ? new boolean[] {true, false} : new boolean[] {false}) {
+            for (int minRun : MIN_RUN_CANDIDATES) {
+                WordRunSegmenter segmenter = new WordRunSegmenter(rowSize, erasedValue, strategy.getMaxWriteWords(), fills, minRun)
+                        .withEraseRowSize(eraseRowSize);
+                List<WordRunSegmenter.Segment> segments = segmenter.split(memory, usedWords);
+
+                long bytes = 0;
+                int cycles = 0;
+                for (WordRunSegmenter.Segment segment : segments) {
+                    bytes += encoder.segmentCommandSize(segment, dataMem);
+                    if (segment.getType() != WordRunSegmenter.SegmentType.SKIP) cycles += (segment.getLength() + rowSize - 1) / rowSize;
+                }
+                long transferUs = bytes * 10 * 1000000L / baudRate;
+                long programUs = (long) cycles * programTimeUs;
+                // With pipelining, the next commands come in while the current one is programmed
+                long estimated = (strategy.getPipelineCommands() > 1 ? Math.max(transferUs, programUs) : transferUs + programUs) +
+                        (long) segments.size() * COMMAND_OVERHEAD_US;
+
+                if (best == null || estimated < best.estimatedUs) {
+                    String variant = String.format("%s, runs from %d words", fills ? "fills" : "no fills", minRun);
+                    best = new ProgrammingPlan(memArea, variant, segments, usedWords, sizeInWords, bytes, cycles, estimated, settings, image);
+                }
+            }
+        }
+        return best;
+    }
+
+    // True if the plan was compiled from the same settings and memory contents
+    public boolean matches (HexBuffer memory, Object settings) {
+        if (!this.settings.equals(settings) || memory.getBufferSize() != image.length) return false;
+        for (int i = 0; i < image.length; i++) {
+            if ((byte) memory.getByte(i) != image[i]) return false;
+        }
+        return true;
+    }
+
+    // The commands of the plan, encoded once (ahead, see ZEPPPCommandStream) and kept for the next chip
+    public synchronized ZEPPPCommandStream getStream (HexBuffer memory, ZEPPPCommandStream.SegmentEncoder encoder) {
+        if (stream == null) stream = ZEPPPCommandStream.encode(memArea, memory, segments, settings, encoder);
+        return stream;
+    }
+
+    public List<WordRunSegmenter.Segment> getSegments () {
+        return segments;
+    }
+
+    // Words up to the last one that isn't blank. Nothing after it is written or verified.
+    public int getUsedWords () {
+        return usedWords;
+    }
+
+    public long getWireBytes () {
+        return wireBytes;
+    }
+
+    public int getProgramCycles () {
+        return programCycles;
+    }
+
+    public long getEstimatedUs () {
+        return estimatedUs;
+    }
+
+    // What a dry run shows
+    public String describe (boolean withSegments) {
+        int writes = 0, fills = 0, skips = 0;
+        for (WordRunSegmenter.Segment segment : segments) {
+            switch (segment.getType()) {
+                case SKIP: skips++; break;
+                case FILL: fills++; break;
+                default:   writes++;
+            }
+        }
+        StringBuilder sb = new StringBuilder(String.format(
+                "%s plan (%s): %d of %d words in use%n-- %d writes, %d fills, %d skips: %d bytes, %d program cycles, ~%d ms",
+                memArea, variant, usedWords, sizeInWords, writes, fills, skips, wireBytes, programCycles, estimatedUs / 1000));
+        if (withSegments) {
+            for (WordRunSegmenter.Segment segment : segments) {
+                sb.append(String.format("%n-- 0x%04x %-5s %3d words", segment.getStart(), segment.getType(), segment.getLength()));
+                if (segment.getType() == WordRunSegmenter.SegmentType.FILL) sb.append(String.format(" of 0x%04x", segment.getValue()));
+            }
+        }
+        return sb.toString();
+    }
+}
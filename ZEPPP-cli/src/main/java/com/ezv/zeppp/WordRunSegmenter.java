@@ -0,0 +1,193 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## WordRunSegmenter                                                                                           ##
+// ##                                                                                                            ##
+// ## Splits a memory area into the blocks sent to the ZEPPP interface: runs of a repeated word become a single ##
+// ## fill command (or an address skip if they hold the erased value), everything else is written as is.       ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.intelhex.HexBuffer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class WordRunSegmenter {
+    // Shorter runs cost more as a separate command (and its response) than inline in a write command
+    public static final int MIN_RUN_WORDS   = 8;
+    // Fills take as long to program as a regular write block, so they are kept to the same size
+    public static final int MAX_FILL_WORDS  = ZEPPPClient.DATA_UNITS_PER_READWRITE;
+    public static final int MAX_WRITE_WORDS = ZEPPPClient.DATA_UNITS_PER_READWRITE;
+    // The skip count of the IAD command is a single byte
+    public static final int MAX_SKIP_WORDS  = 0xff;
+
+    public enum SegmentType {
+        SKIP,
+        FILL,
+        WRITE
+    }
+
+    public static class Segment {
+        private final SegmentType type;
+        private final int start;
+        private final int length;
+        private final int value;
+
+        Segment (SegmentType type, int start, int length, int value) {
+            this.type = type;
+            this.start = start;
+            this.length = length;
+            this.value = value;
+        }
+
+        public SegmentType getType () {
+            return type;
+        }
+
+        public int getStart () {
+            return start;
+        }
+
+        public int getLength () {
+            return length;
+        }
+
+        // The repeated word, for SKIP and FILL segments
+        public int getValue () {
+            return value;
+        }
+    }
+
+    private final int rowSize;
+    private final int erasedValue;
+    private int maxWriteWords;
+    // Segments start and end on multiples of this (see withEraseRowSize)
+    private int alignWords;
+    private final boolean useFills;
+    private final int minRunWords;
+
+    // rowSize is the number of words the device programs at once (1 for word-write devices). Segments always
+    // start and end on a row boundary. Memory is expected to be erased before writing, so runs of erasedValue
+    // are just skipped.
+    public WordRunSegmenter (int rowSize, int erasedValue) {
+        this(rowSize, erasedValue, MAX_WRITE_WORDS, true);
+    }
+
+    // Without fills (for firmware that lacks the fill commands) other runs are written like everything else
+    public WordRunSegmenter (int rowSize, int erasedValue, int maxWriteWords, boolean useFills) {
+        this(rowSize, erasedValue, maxWriteWords, useFills, MIN_RUN_WORDS);
+    }
+
+    // Runs shorter than minRunWords stay inline in the write blocks (see ProgrammingPlan, which tries several)
+    public WordRunSegmenter (int rowSize, int erasedValue, int maxWriteWords, boolean useFills, int minRunWords) {
+        this.minRunWords = Math.max(1, minRunWords);
+        this.rowSize = Math.max(1, rowSize);
+        this.erasedValue = erasedValue;
+        this.maxWriteWords = Math.max(this.rowSize, maxWriteWords / this.rowSize * this.rowSize);
+        this.alignWords = this.rowSize;
+        this.useFills = useFills;
+    }
+
+    // Block writes start by erasing the whole erase row they begin in (the 32-word rows of the 16F87/88), which
+    // would take with it whatever the previous segment wrote there. Segments are then kept to whole erase rows.
+    public WordRunSegmenter withEraseRowSize (int eraseRowSize) {
+        alignWords = Math.max(1, (eraseRowSize + rowSize - 1) / rowSize) * rowSize;
+        maxWriteWords = Math.max(alignWords, maxWriteWords / alignWords * alignWords);
+        return this;
+    }
+
+    // Segments covering words 0 to sizeInWords (rounded up to a whole row, within the buffer)
+    public List<Segment> split (HexBuffer memArea, int sizeInWords) {
+        int bufferWords = memArea.getBufferSize() / 2;
+        int end = Math.min(bufferWords, (sizeInWords + rowSize - 1) / rowSize * rowSize);
+        int maxSkip = MAX_SKIP_WORDS / alignWords * alignWords;
+        int maxFill = Math.max(alignWords, MAX_FILL_WORDS / alignWords * alignWords);
+        List<Segment> segments = new ArrayList<>();
+
+        int pos = 0;
+        while (pos < end) {
+            int value = memArea.getWord(pos * 2);
+            int run = runLength(memArea, pos, end);
+
+            if (run >= minRunWords && (useFills || value == erasedValue)) {
+                if (value == erasedValue) {
+                    run = Math.min(run, maxSkip);
+                    segments.add(new Segment(SegmentType.SKIP, pos, run, value));
+                } else {
+                    run = Math.min(run, maxFill);
+                    segments.add(new Segment(SegmentType.FILL, pos, run, value));
+                }
+                pos += run;
+            } else {
+                int len = 0;
+                do {
+                    len += alignWords;
+                } while (len < maxWriteWords && pos + len < end && !isRunWorthSplitting(memArea, pos + len, end));
+
+                len = Math.min(len, end - pos);
+                segments.add(new Segment(SegmentType.WRITE, pos, len, 0));
+                pos += len;
+            }
+        }
+        return segments;
+    }
+
+    // Segments that write the rows holding any of the changed words, and skip the rest (within sizeInWords). No
+    // trailing skip is added. Nothing is erased beforehand: rows are reprogrammed in place, except with erase rows
+    // (see withEraseRowSize), where each write is a single erase row that its Begin Erase clears first.
+    public List<Segment> splitChanged (BitSet changedWords, int sizeInWords) {
+        int end = (sizeInWords + rowSize - 1) / rowSize * rowSize;
+        int maxSkip = MAX_SKIP_WORDS / alignWords * alignWords;
+        int maxLen = alignWords > rowSize ? alignWords : maxWriteWords;
+        List<Segment> segments = new ArrayList<>();
+
+        int pos = 0;
+        int next;
+        while ((next = changedWords.nextSetBit(pos)) >= 0 && next < end) {
+            int rowStart = next / alignWords * alignWords;
+            while (pos < rowStart) {
+                int skip = Math.min(rowStart - pos, maxSkip);
+                segments.add(new Segment(SegmentType.SKIP, pos, skip, erasedValue));
+                pos += skip;
+            }
+
+            int len = 0;
+            do {
+                len += alignWords;
+            } while (len < maxLen && rowStart + len < end && isRowChanged(changedWords, rowStart + len));
+            len = Math.min(len, end - rowStart);
+            segments.add(new Segment(SegmentType.WRITE, rowStart, len, 0));
+            pos = rowStart + len;
+        }
+        return segments;
+    }
+
+    private boolean isRowChanged (BitSet changedWords, int rowStart) {
+        int next = changedWords.nextSetBit(rowStart);
+        return next >= 0 && next < rowStart + alignWords;
+    }
+
+    private boolean isRunWorthSplitting (HexBuffer memArea, int start, int end) {
+        if (!useFills && memArea.getWord(start * 2) != erasedValue) return false;
+        return runLength(memArea, start, end) >= minRunWords;
+    }
+
+    // Number of words from start (in whole rows) that hold the same value
+    private int runLength (HexBuffer memArea, int start, int end) {
+        int value = memArea.getWord(start * 2);
+        int len = 0;
+
+        while (start + len < end) {
+            int rowEnd = Math.min(start + len + alignWords, end);
+            for (int w = start + len; w < rowEnd; w++) {
+                if (memArea.getWord(w * 2) != value) return len;
+            }
+            len = rowEnd - start;
+        }
+        return len;
+    }
+}
@@ -25,7 +25,19 @@ public class ZEPPPCLICommand {
         CLI_COMMAND_ERASE_EEPROM,
         CLI_COMMAND_CHIP_ERASE,
         CLI_COMMAND_PROGRAM,
+        CLI_COMMAND_PROGRAM_CHANGES,
         CLI_COMMAND_WAIT,
+        CLI_COMMAND_TEXT_MODE,
+        CLI_COMMAND_BAUD_RATE,
+        CLI_COMMAND_SKIP_UNCHANGED,
+        CLI_COMMAND_DRY_RUN,
+        CLI_COMMAND_VERIFY_WHILE_WRITING,
+        CLI_COMMAND_FORCE_READS,
+        CLI_COMMAND_ICSP_CLOCK,
+        CLI_COMMAND_CALIBRATE_CLOCK,
+        CLI_COMMAND_BRIDGE,
+        CLI_COMMAND_RECORD,
+        CLI_COMMAND_REPLAY_SPEED,
         CLI_COMMAND_HELP,
         CLI_COMMAND_VERSION
     }
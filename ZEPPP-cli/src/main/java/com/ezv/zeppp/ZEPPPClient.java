@@ -11,29 +11,99 @@ package com.ezv.zeppp;
 // ################################################################################################################
 import com.ezv.zeppp.config.AppConfig;
 import com.ezv.zeppp.config.PICDeviceConfigEntry;
+import com.ezv.zeppp.hardware.CRC16;
 import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.hardware.ZEPPPCapabilities;
 import com.ezv.zeppp.hardware.ZEPPPResponse;
 import com.ezv.zeppp.hardware.CommPort;
+import com.ezv.zeppp.hardware.RecordingCommPort;
 import com.ezv.zeppp.intelhex.HexBuffer;
 import com.ezv.zeppp.intelhex.HexFileParseUtils;
 import com.ezv.zeppp.intelhex.IntelHexParsingException;
 import com.ezv.zeppp.pic.PicDevice;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
 public class ZEPPPClient {
     public static final int DATA_UNITS_PER_READWRITE        = 32;
-    public static final String ZEPPP_EXPECTED_VERSION      = "1.0.0";
+    public static final String ZEPPP_EXPECTED_VERSION      = "1.2.0";
     public static final int ZEPPP_BAUD_RATE                = 115200;
+    public static final int PIPELINE_MAX_COMMANDS          = 4;
+    // Rates the interface can switch to, in the order it numbers them
+    public static final int[] ZEPPP_SUPPORTED_BAUD_RATES   = {115200, 250000, 500000, 1000000};
+    public static final int BAUD_RATE_CONFIRM_PATTERN      = 0x55AA;
+    public static final int BAUD_RATE_CONFIRM_TIMEOUT      = 1000;
+    public static final int MEMORY_AREA_PGM                = 0;
+    public static final int MEMORY_AREA_DATA               = 1;
+    // Only used on this side, to tell MemoryBlockListeners what was read
+    public static final int MEMORY_AREA_USER_IDS           = 2;
+    public static final int MEMORY_AREA_CONF_WORDS         = 3;
+    public static final int MEMORY_DUMP_MAX_WORDS          = 0xffff;
+    public static final int MEMORY_DUMP_MAX_ATTEMPTS       = 3;
+    // Words per response of a dump, as the interface streams them
+    public static final int MEMORY_DUMP_CHUNK_WORDS        = 64;
+    // Most words per CRC and blank check command. Fewer are sent at slower ICSP clocks (see wordsPerCommand).
+    public static final int MEMORY_CRC_MAX_WORDS           = 512;
+    public static final int BLANK_CHECK_MAX_WORDS          = 1024;
+    // What reading a word (and moving past it) takes on the interface: 28 ICSP clocks of four half periods and three
+    // pin writes each, plus the command delays. Commands that read word by word must answer within the budget.
+    public static final int ICSP_CLOCKS_PER_WORD_READ      = 28;
+    public static final int ICSP_CLOCK_OVERHEAD_US         = 12;
+    public static final int ICSP_WORD_READ_OVERHEAD_US     = 40;
+    public static final int COMMAND_TIME_BUDGET_MS         = CommPort.COMMAND_FIRST_READ_TIMEOUT * 4 / 5;
+    // Slowest ICSP clock (half period, us) at which a dump chunk, the longest read that can't be split, still
+    // answers in time
+    public static final int ICSP_HALF_CLOCK_LIMIT          = ((COMMAND_TIME_BUDGET_MS * 1000 / MEMORY_DUMP_CHUNK_WORDS
+            - ICSP_WORD_READ_OVERHEAD_US) / ICSP_CLOCKS_PER_WORD_READ - ICSP_CLOCK_OVERHEAD_US) / 4;
+    // ICSP clock half period (us) and its calibration
+    public static final int ICSP_HALF_CLOCK_DEFAULT        = 2;
+    public static final int ICSP_HALF_CLOCK_MAX            = 10;
+    public static final int ICSP_CALIBRATION_READS         = 10;
+    public static final int ICSP_CALIBRATION_MARGIN        = 1;
+    // Most words in a response: a text read of 255 words
+    public static final int RESPONSE_MAX_WORDS             = 0xff;
     public static final String VERIFICATION_SKIPPED         = "Verification skipped. ZEPPP does read-back verification for word-based writes.";
 
     CommPort comm = null;
     boolean currentlyInLVPMode;
+    int icspHalfClockUs = ICSP_HALF_CLOCK_DEFAULT;
+    // Where the address counter of the PIC is, as far as we know: a word of PGM/Data memory (both share it), or of
+    // the config area. -1 when unknown: out of LVP mode, or while (and after a failed) operation walks it.
+    boolean cursorInConfig = false;
+    int cursorWord = -1;
     int currentlyVerifiedDeviceID = 0;
     boolean isConnected = false;
-
+    ZEPPPCapabilities capabilities = ZEPPPCapabilities.LEGACY;
+    ZEPPPTransferStrategy strategy = ZEPPPTransferStrategy.select(ZEPPPCapabilities.LEGACY, true);
+    boolean textOnly = false;
+    boolean skipUnchanged = false;
+    ZEPPPCommandEncoder encoder = new ZEPPPCommandEncoder();
+    // Words of the response being handled. Read and verify loops decode into it rather than allocate per block.
+    final int[] responseWords = new int[RESPONSE_MAX_WORDS];
+    boolean dryRun = false;
+    boolean verifyWhileWriting = false;
+    // Last plans compiled (and their streams), kept for the verification and the next chip that gets the same image
+    private ProgrammingPlan pgmPlan = null;
+    private ProgrammingPlan dataPlan = null;
+    private final List<MemoryBlockListener> blockListeners = new ArrayList<>();
+    private final int[] blankWords = new int[DATA_UNITS_PER_READWRITE];
+    // Known contents of the device (see DeviceMirror), for the device of the last operation
+    private DeviceMirror mirror = null;
+    boolean forceReads = false;
+
+    // A serial port name, or tcp://host:port for an interface served by a bridge on another machine
     public ZEPPPClient (String port) throws ZEPPPCommandException {
         this.currentlyInLVPMode = false;
 
-        this.comm =  new CommPort(port, ZEPPP_BAUD_RATE);
+        try {
+            this.comm = CommPort.forDescriptor(port, ZEPPP_BAUD_RATE);
+        } catch (IllegalArgumentException e) {
+            throw new ZEPPPCommandException(e.getMessage(), "Open port " + port);
+        }
 
         ZEPPPConsole.msg("Opening port " + port + "...");
         if (!this.comm.open()){
@@ -41,21 +111,298 @@ public class ZEPPPClient {
         }
     }
 
+    // Over a port that is already open
+    public ZEPPPClient (CommPort comm) {
+        this.currentlyInLVPMode = false;
+        this.comm = comm;
+    }
+
+    public CommPort getCommPort () {
+        return this.comm;
+    }
+
+    // Everything exchanged with the interface from now on goes to a SessionTrace, which can be played back later
+    // with a "replay:<trace file>" port. Has to start before connecting, so the replay goes through the same steps.
+    public void recordSession (String tracePath) throws ZEPPPCommandException {
+        String action = "Record session to " + tracePath;
+        if (isConnected) throw new ZEPPPCommandException("Already connected to the interface", action);
+        try {
+            this.comm = new RecordingCommPort(this.comm, tracePath);
+        } catch (IOException e) {
+            throw new ZEPPPCommandException(e.getMessage(), action);
+        }
+    }
+
+    public void close () {
+        this.comm.close();
+    }
+
     public void connect() throws ZEPPPCommandException {
         if (isConnected) return;
+        mirror = null;
 
         ZEPPPConsole.msg("Connecting to ZEPPP interface...");
         ZEPPPResponse response = ZEPPP.checkZEPPPInterface(this.comm, ZEPPP_EXPECTED_VERSION);
         throwExceptionOnFailure (response, "Connect to interface");
         ZEPPPConsole.msg("-- Interface detected: " + response.getMessage());
 
+        negotiateCapabilities();
         isConnected = true;
     }
 
+    // Old firmware doesn't know CAP, and gets today's text commands one at a time
+    private void negotiateCapabilities () {
+        capabilities = ZEPPP.queryCapabilities(this.comm);
+        applyTransferStrategy();
+        ZEPPPConsole.msg("-- Transfer mode: " + strategy);
+    }
+
+    private void applyTransferStrategy () {
+        strategy = ZEPPPTransferStrategy.select(capabilities, textOnly);
+        encoder.setBinaryMode(strategy.useBinaryFrames());
+    }
+
+    // Both ends switch to the new rate, and the link is then checked with an echo. If that fails the interface
+    // goes back to the default rate by itself, so we do the same and carry on at that rate.
+    public void setBaudRate (int baudRate) throws ZEPPPCommandException, InterruptedException {
+        int rateCode = -1;
+        for (int i = 0; i < ZEPPP_SUPPORTED_BAUD_RATES.length; i++) {
+            if (ZEPPP_SUPPORTED_BAUD_RATES[i] == baudRate) rateCode = i;
+        }
+        String action = "Set baud rate to " + baudRate;
+        if (rateCode < 0) {
+            throw new ZEPPPCommandException("Supported rates are " + Arrays.toString(ZEPPP_SUPPORTED_BAUD_RATES), action);
+        }
+        if (!comm.canChangeBaudRate()) {
+            ZEPPPConsole.warning("The baud rate of a remote interface is set on its bridge. Ignoring " + baudRate);
+            return;
+        }
+        if (baudRate == comm.getBaudRate()) return;
+        if (!strategy.supportsBaudRate(baudRate)) {
+            ZEPPPConsole.warning("The interface firmware can't switch to " + baudRate + " baud. Staying at " + comm.getBaudRate());
+            return;
+        }
+
+        throwExceptionOnFailure(sendCommandWithByte(ZEPPP.ZEPPP_CMD_SET_BAUD_RATE, (byte) rateCode), action);
+        long switchTime = System.currentTimeMillis();
+        comm.setBaudRate(baudRate);
+        if (isBaudRateConfirmed()) {
+            ZEPPPConsole.msg("-- Baud rate set to " + baudRate);
+            return;
+        }
+
+        comm.setBaudRate(ZEPPP_BAUD_RATE);
+        long remaining = switchTime + BAUD_RATE_CONFIRM_TIMEOUT - System.currentTimeMillis();
+        if (remaining > 0) Thread.sleep(remaining + CommPort.READ_TIMEOUT);
+        throwExceptionOnFailure(ZEPPP.checkZEPPPInterface(this.comm, ZEPPP_EXPECTED_VERSION), action);
+        ZEPPPConsole.warning("Could not confirm the link at " + baudRate + " baud. Staying at " + ZEPPP_BAUD_RATE);
+    }
+
+    // Not resynced on failure: the interface is back at the default rate by then, and not halted
+    private boolean isBaudRateConfirmed () {
+        ZEPPPResponse echo = ZEPPP.sendCommand(this.comm, ZEPPP.ZEPPP_CMD_CONFIRM_BAUD_RATE + " " + HexFileParseUtils.hexWordString(BAUD_RATE_CONFIRM_PATTERN));
+        try {
+            return echo.getCode() == ZEPPPResponse.StatusCode.STATUS_OK && echo.getMessageWord() == BAUD_RATE_CONFIRM_PATTERN;
+        } catch (IntelHexParsingException e) {
+            return false;
+        }
+    }
+
+    private ZEPPPCommandPipeline newPipeline () {
+        return new ZEPPPCommandPipeline(this.comm, strategy.getPipelineCommands(), strategy.getPipelineWindowBytes())
+                .withResyncOnError(capabilities.has(ZEPPPCapabilities.CAP_HALT_ON_ERROR));
+    }
+
+    // After an error the interface ignores everything until it gets RSY
+    private void resync () {
+        if (!capabilities.has(ZEPPPCapabilities.CAP_HALT_ON_ERROR)) return;
+        if (!ZEPPP.resync(this.comm)) ZEPPPConsole.warning("The interface didn't answer the resync");
+    }
+
+    // The listener gets every block read from now on, as it arrives
+    public void addBlockListener (MemoryBlockListener listener) {
+        blockListeners.add(listener);
+    }
+
+    public void removeBlockListener (MemoryBlockListener listener) {
+        blockListeners.remove(listener);
+    }
+
+    private void publishBlock (int memoryArea, int startWord, int[] words, int count) throws ZEPPPCommandException {
+        if (mirror != null) mirror.onBlock(memoryArea, startWord, words, count);
+        for (MemoryBlockListener listener : blockListeners) listener.onBlock(memoryArea, startWord, words, count);
+    }
+
+    // Blocks that were not read because the interface found them blank
+    private void publishBlank (int memoryArea, int startWord, int count) throws ZEPPPCommandException {
+        if (blockListeners.isEmpty() && mirror == null) return;
+        Arrays.fill(blankWords, memoryArea == MEMORY_AREA_DATA ? PicDevice.DEFAULT_DATA_MEM_CONTENT : PicDevice.DEFAULT_MEM_CONTENT);
+        for (int w = startWord; w < startWord + count; w += blankWords.length) {
+            publishBlock(memoryArea, w, blankWords, Math.min(blankWords.length, startWord + count - w));
+        }
+    }
+
+    private void publishAreaRead (int memoryArea) throws ZEPPPCommandException {
+        for (MemoryBlockListener listener : blockListeners) listener.onAreaRead(memoryArea);
+    }
+
     public boolean isConnected() {
         return this.isConnected;
     }
 
+    public long getCpuTimeMs () {
+        return this.comm.getCpuTimeNanos() / 1000000;
+    }
+
+    public int getBaudRate () {
+        return this.comm.getBaudRate();
+    }
+
+    public long getBytesSent () {
+        return this.comm.getBytesSent();
+    }
+
+    public long getBytesReceived () {
+        return this.comm.getBytesReceived();
+    }
+
+    // Binary frames carry memory reads and writes in far fewer bytes than the text commands, so they are used
+    // whenever the interface supports them. This forces text commands for everything.
+    public void setTextOnly (boolean textOnly) {
+        this.textOnly = textOnly;
+        applyTransferStrategy();
+    }
+
+    // Word writes skip the words that already hold the value, if the interface supports it
+    public void setSkipUnchanged (boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+        if (!skipUnchanged) return;
+        if (strategy.supportsSkipUnchanged()) {
+            ZEPPPConsole.msg("Unchanged words will be skipped");
+        } else {
+            ZEPPPConsole.warning("The ZEPPP Interface can't skip unchanged words. All of them will be written");
+        }
+    }
+
+    // PGM memory and User IDs are written a word at a time, each one read back by the interface right after its
+    // program cycle (as EEPROM always is), rather than in blocks verified in a second pass. The address counter
+    // never has to go back, and a failure stops the write at the block it happened in. On block write devices it
+    // takes a program cycle per word instead of per block.
+    public void setVerifyWhileWriting (boolean verifyWhileWriting) {
+        this.verifyWhileWriting = verifyWhileWriting;
+        if (verifyWhileWriting) ZEPPPConsole.msg("Each word will be verified as it is written");
+    }
+
+    // Reads and verifies always go to the device, rather than being answered from what is known of its contents
+    public void setForceReads (boolean forceReads) {
+        this.forceReads = forceReads;
+        if (forceReads) ZEPPPConsole.msg("Reads and verifications will always go to the device");
+    }
+
+    // The mirror of the device picDevice is for. Nothing is known of a different device.
+    private DeviceMirror mirror (PicDevice picDevice) {
+        if (mirror == null || mirror.getDeviceCfg() != picDevice.getDeviceCfg()) mirror = new DeviceMirror(picDevice.getDeviceCfg());
+        return mirror;
+    }
+
+    private boolean isMirrored (PicDevice picDevice, int memoryArea) {
+        return !forceReads && mirror(picDevice).isKnown(memoryArea);
+    }
+
+    private void forget (int memoryArea) {
+        if (mirror != null) mirror.invalidate(memoryArea);
+    }
+
+    // Takes the area from the mirror as if it had been read
+    private void readFromMirror (int memoryArea, HexBuffer memBuffer) throws ZEPPPCommandException {
+        ZEPPPConsole.msg("-- Known from an earlier operation. Not read again");
+        int sizeInWords = mirror.getSize(memoryArea);
+        for (int w = 0; w < sizeInWords; w += DATA_UNITS_PER_READWRITE) {
+            int count = Math.min(DATA_UNITS_PER_READWRITE, sizeInWords - w);
+            mirror.getWords(memoryArea, w, responseWords, count);
+            saveWordBuffer(memBuffer, w * 2, responseWords, count);
+            publishBlock(memoryArea, w, responseWords, count);
+        }
+        publishAreaRead(memoryArea);
+    }
+
+    // Checks the given blocks of an area, up to sizeInWords (as the plan does: nothing after the last word in use),
+    // against the mirror if all of them are known. False if the device has to be read instead.
+    private boolean verifyFromMirror (PicDevice picDevice, int memoryArea, HexBuffer memBuffer, BitSet blocks, int sizeInWords) throws ZEPPPCommandException {
+        DeviceMirror known = mirror(picDevice);
+        if (forceReads || blocks.isEmpty()) return false;
+        for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1)) {
+            int start = b * DATA_UNITS_PER_READWRITE;
+            if (!known.isKnown(memoryArea, start, Math.min(DATA_UNITS_PER_READWRITE, sizeInWords - start))) return false;
+        }
+
+        ZEPPPConsole.msg("-- Checked against what is known of the device contents");
+        for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1)) {
+            int start = b * DATA_UNITS_PER_READWRITE;
+            int count = Math.min(DATA_UNITS_PER_READWRITE, sizeInWords - start);
+            known.getWords(memoryArea, start, responseWords, count);
+            verifyWordBuffer(memBuffer, start * 2, responseWords, count);
+        }
+        return true;
+    }
+
+    // The blocks a verification of PGM or Data memory goes through: the non-empty ones, up to sizeInWords
+    private BitSet verifiedBlocks (PicDevice picDevice, boolean dataMem, int sizeInWords) {
+        BitSet blocks = new BitSet();
+        for (int w = 0; w < sizeInWords; w += DATA_UNITS_PER_READWRITE) {
+            if (!isBlockEmpty(picDevice, dataMem, w)) blocks.set(w / DATA_UNITS_PER_READWRITE);
+        }
+        return blocks;
+    }
+
+    private static BitSet firstBlock () {
+        BitSet blocks = new BitSet();
+        blocks.set(0);
+        return blocks;
+    }
+
+    // Writes change the blocks they go to. They are known again once written and read back, or verified.
+    private void forgetWrites (PicDevice picDevice, int memoryArea, ZEPPPCommandStream stream) {
+        for (int i = 0; i < stream.size(); i++) {
+            WordRunSegmenter.Segment segment = stream.getSegment(i);
+            if (segment.getType() != WordRunSegmenter.SegmentType.SKIP) mirror(picDevice).invalidate(memoryArea, segment.getStart(), segment.getLength());
+        }
+    }
+
+    private void storeWrites (int memoryArea, HexBuffer memBuffer, ZEPPPCommandStream stream) {
+        for (int i = 0; i < stream.size(); i++) {
+            WordRunSegmenter.Segment segment = stream.getSegment(i);
+            if (segment.getType() != WordRunSegmenter.SegmentType.SKIP) mirror.store(memoryArea, memBuffer, segment.getStart(), segment.getLength());
+        }
+    }
+
+    // Words programmed by each program cycle
+    private byte pgmWriteSize (PicDevice picDevice) {
+        return verifyWhileWriting ? 1 : picDevice.getDeviceCfg().getPgmWriteSize();
+    }
+
+    // Each PGM program cycle: word writes without an erase mode erase the word as they program it
+    private int pgmCycleTime (PicDevice picDevice) {
+        PICDeviceConfigEntry picCfg = picDevice.getDeviceCfg();
+        return pgmWriteSize(picDevice) < 2 && picCfg.getPgmEraseMode() == 0 ? picCfg.getPgmEraseProgramTime() : picCfg.getPgmProgramTime();
+    }
+
+    // Words the Begin Erase of each block write clears. Word writes don't have it.
+    private int pgmEraseRowSize (PicDevice picDevice) {
+        return pgmWriteSize(picDevice) < 2 ? 1 : Math.max(1, picDevice.getDeviceCfg().getPgmEraseRowSize());
+    }
+
+    // Nothing is erased or written: the plans are shown instead
+    public void setDryRun (boolean dryRun) {
+        this.dryRun = dryRun;
+        if (dryRun) ZEPPPConsole.msg("Dry run: the device won't be erased or written");
+    }
+
+    private boolean isDryRun (String skipped) {
+        if (dryRun) ZEPPPConsole.msg("-- Dry run: " + skipped);
+        return dryRun;
+    }
+
     public void verifyDeviceID (PICDeviceConfigEntry picCfg, AppConfig loadedConfig) throws ZEPPPCommandException, IntelHexParsingException {
         int expectedId = picCfg.getDeviceId();
 
@@ -68,19 +415,33 @@ public class ZEPPPClient {
             );
         }
         currentlyVerifiedDeviceID = expectedId;
+        applyDeviceTimings(picCfg);
     }
 
     public PICDeviceConfigEntry autodetectDevice (AppConfig loadedConfig) throws ZEPPPCommandException, IntelHexParsingException {
         PICDeviceConfigEntry connectedDevice = getConnectedDevice(loadedConfig);
         currentlyVerifiedDeviceID = connectedDevice.getDeviceId();
+        applyDeviceTimings(connectedDevice);
         return connectedDevice;
     }
 
+    // The interface starts with delays long enough for every supported device. Once we know which one is
+    // connected, it can use that device's own (usually shorter) program times.
+    private void applyDeviceTimings (PICDeviceConfigEntry picCfg) throws ZEPPPCommandException {
+        if (!strategy.useDeviceTimings()) return;
+
+        byte[] cmd = encoder.timingsCommand(picCfg.getPgmProgramTime(), picCfg.getPgmEraseProgramTime(), picCfg.getDataProgramTime(),
+                picCfg.getEraseTime(), picCfg.getShortDelay(), picCfg.getLongDelay());
+        throwExceptionOnFailure(sendEncodedCommand(cmd), "Set device timings");
+        ZEPPPConsole.msg(String.format("-- Program time:    %d us", picCfg.getPgmProgramTime()));
+    }
+
     private PICDeviceConfigEntry getConnectedDevice (AppConfig loadedConfig) throws ZEPPPCommandException, IntelHexParsingException  {
         ZEPPPConsole.msg("Detecting connected device...");
         selectConfigMemStart(PicDevice.DEVICE_ID_OFFSET);
         ZEPPPResponse response = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ, (byte)1);
         throwExceptionOnFailure(response, "Read Device ID");
+        walkedTo(true, PicDevice.DEVICE_ID_OFFSET + 1);
 
         int deviceIdFull = response.getMessageWord();
 
@@ -102,101 +463,263 @@ public class ZEPPPClient {
         return detectedDevice;
     }
 
+    public void setIcspHalfClock (int halfClockUs) throws ZEPPPCommandException {
+        if (!strategy.supportsIcspClock()) {
+            throw new ZEPPPCommandException("Not supported by the ZEPPP Interface", "Set ICSP clock");
+        }
+        if (halfClockUs < 0 || halfClockUs > 0xff) {
+            throw new ZEPPPCommandException(String.format("Invalid half period: %d us", halfClockUs), "Set ICSP clock");
+        }
+        if (halfClockUs > ICSP_HALF_CLOCK_LIMIT) {
+            throw new ZEPPPCommandException(String.format("Half period of %d us too long: reads wouldn't answer in time (%d us at most)",
+                    halfClockUs, ICSP_HALF_CLOCK_LIMIT), "Set ICSP clock");
+        }
+        throwExceptionOnFailure(sendCommandWithByte(ZEPPP.ZEPPP_CMD_SET_ICSP_CLOCK, (byte) halfClockUs), "Set ICSP clock");
+        icspHalfClockUs = halfClockUs;
+    }
+
+    // Interface time (us) to read a word at the given ICSP clock half period
+    public static int wordReadTimeUs (int halfClockUs) {
+        return ICSP_CLOCKS_PER_WORD_READ * (4 * halfClockUs + ICSP_CLOCK_OVERHEAD_US) + ICSP_WORD_READ_OVERHEAD_US;
+    }
+
+    // Most words a command reading them one by one gets through within the time budget at the given half period,
+    // in whole blocks (one at least) and up to maxWords
+    public static int wordsPerCommand (int halfClockUs, int maxWords) {
+        int words = (int) (COMMAND_TIME_BUDGET_MS * 1000L / wordReadTimeUs(halfClockUs));
+        return Math.min(maxWords, Math.max(1, words / DATA_UNITS_PER_READWRITE) * DATA_UNITS_PER_READWRITE);
+    }
+
+    // Speeds up the ICSP clock until reading the Device ID and first Config Word returns something different from
+    // what was read at the slowest clock. The last clock that read them right every time, plus a margin, is used
+    // from then on (and returned).
+    public int calibrateIcspClock () throws ZEPPPCommandException, IntelHexParsingException {
+        ZEPPPConsole.msg("Calibrating ICSP clock...");
+        setIcspHalfClock(ICSP_HALF_CLOCK_MAX);
+        int[] reference = readDeviceIdAndConfig();
+        if (allWordsEqual(reference, 0) || allWordsEqual(reference, PicDevice.DEFAULT_MEM_CONTENT)) {
+            setIcspHalfClock(ICSP_HALF_CLOCK_DEFAULT);
+            throw new ZEPPPCommandException("No PIC device seems to be connected", "Calibrate ICSP clock");
+        }
+
+        int fastest = ICSP_HALF_CLOCK_MAX;
+        for (int halfClock = ICSP_HALF_CLOCK_MAX - 1; halfClock >= 0 && readsConsistently(halfClock, reference); halfClock--) {
+            fastest = halfClock;
+        }
+
+        int calibrated = Math.min(fastest + ICSP_CALIBRATION_MARGIN, ICSP_HALF_CLOCK_MAX);
+        setIcspHalfClock(calibrated);
+        ZEPPPConsole.msg(String.format("-- Fastest reliable half period: %d us", fastest));
+        ZEPPPConsole.msg(String.format("-- ICSP clock half period set to %d us (use -clk %d to skip the calibration next time)",
+                calibrated, calibrated));
+        return calibrated;
+    }
+
+    // A read that fails outright (garbled beyond parsing) counts as inconsistent too, so the sweep stops and the
+    // clock is still set to the calibrated value
+    private boolean readsConsistently (int halfClockUs, int[] reference) throws ZEPPPCommandException {
+        setIcspHalfClock(halfClockUs);
+        try {
+            for (int i = 0; i < ICSP_CALIBRATION_READS; i++) {
+                if (!Arrays.equals(readDeviceIdAndConfig(), reference)) return false;
+            }
+        } catch (ZEPPPCommandException | IntelHexParsingException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private int[] readDeviceIdAndConfig () throws ZEPPPCommandException, IntelHexParsingException {
+        selectConfigMemStart(PicDevice.DEVICE_ID_OFFSET);
+        ZEPPPResponse response = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ, (byte) (PicDevice.CONF_WORD_OFFSET - PicDevice.DEVICE_ID_OFFSET + 1));
+        throwExceptionOnFailure(response, "Read Device ID and Config Word");
+        walkedTo(true, PicDevice.CONF_WORD_OFFSET + 1);
+        return response.getMessageWordArray();
+    }
+
     private void enterLVPMode() throws ZEPPPCommandException {
         if (currentlyInLVPMode) return;
         throwExceptionOnFailure(sendCommand(ZEPPP.ZEPPP_CMD_ENTER_LVP_MODE), "Enter LVP Mode");
         currentlyInLVPMode = true;
+        cursorInConfig = false;
+        cursorWord = 0;
     }
 
-    // Let's make this one NOT throw an exception.
+    // Let's make this one NOT throw an exception. Out of programming mode the device could be changed (or swapped),
+    // so nothing is known of it afterwards.
     public void exitLVPMode()  {
+        mirror = null;
+        leaveLVPMode();
+    }
+
+    private void leaveLVPMode () {
+        cursorWord = -1;
         if (sendCommand(ZEPPP.ZEPPP_CMD_EXIT_LVP_MODE).getCode() == ZEPPPResponse.StatusCode.STATUS_OK) currentlyInLVPMode = false;
     }
 
+    // Gets the address counter to a word of PGM/Data memory. It is walked forward from where the last operation left
+    // it whenever possible: LVP mode is only left when it would have to go backwards (or out of the config area).
+    // The caller then reports where it leaves the counter (see walkedTo). selectConfigMemStart does the same for
+    // the config area.
+    private void seek (int word, String areaName) throws ZEPPPCommandException, IntelHexParsingException {
+        if (!isCursorAtOrBefore(false, word)) resetLVP();
+        int from = cursorWord;
+        cursorWord = -1;
+        skipWords(from, word, areaName);
+    }
+
+    private boolean isCursorAtOrBefore (boolean configArea, int word) {
+        return currentlyInLVPMode && cursorWord >= 0 && cursorInConfig == configArea && cursorWord <= word;
+    }
+
+    private void walkedTo (boolean configArea, int word) {
+        cursorInConfig = configArea;
+        cursorWord = word;
+    }
+
     public void resetLVP () throws ZEPPPCommandException {
         if (currentlyInLVPMode) {
-            exitLVPMode();
+            leaveLVPMode();
         }
         enterLVPMode();
     }
 
     public void verifyUserIDs (PicDevice picDevice) throws ZEPPPCommandException, IntelHexParsingException {
-        resetLVP();
         ZEPPPConsole.msg("Verifying User IDs...");
-        throwExceptionOnFailure(sendCommand(ZEPPP.ZEPPP_CMD_SELECT_CFG_MEM), "Select CFG Memory Area");
+        if (verifyFromMirror(picDevice, MEMORY_AREA_USER_IDS, picDevice.getUserIds(), firstBlock(), PicDevice.USER_IDS_COUNT)) return;
+        selectConfigMemStart(0);
 
         ZEPPPResponse response = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ, (byte)PicDevice.USER_IDS_COUNT);
         throwExceptionOnFailure(response, "Read User IDs");
+        walkedTo(true, PicDevice.USER_IDS_COUNT);
 
         int[] uids = response.getMessageWordArray();
         if (uids.length != PicDevice.USER_IDS_COUNT) throw new ZEPPPCommandException("Data size mismatch", "Verify User ID Memory");
         verifyWordBuffer (picDevice.getUserIds(), 0, uids);
+        mirror.store(MEMORY_AREA_USER_IDS, picDevice.getUserIds(), 0, PicDevice.USER_IDS_COUNT);
     }
 
     public void verifyConfigWords (PicDevice picDevice) throws ZEPPPCommandException, IntelHexParsingException {
         ZEPPPConsole.msg("Verifying Config Words...");
 
+        int confWords = picDevice.getDeviceCfg().getConfWords();
+        if (verifyFromMirror(picDevice, MEMORY_AREA_CONF_WORDS, picDevice.getConfWords(), firstBlock(), confWords)) return;
+        if (strategy.useMemoryCrc()) {
+            selectConfigMemStart(PicDevice.CONF_WORD_OFFSET);
+            ZEPPPResponse response = sendEncodedCommand(encoder.memoryCrcCommand((byte) MEMORY_AREA_PGM, confWords));
+            throwExceptionOnFailure(response, "Config Words CRC");
+            walkedTo(true, PicDevice.CONF_WORD_OFFSET + confWords);
+            if (response.getMessageWord() == CRC16.computeWords(picDevice.getConfWords(), 0, confWords, 0xffff)) {
+                mirror.store(MEMORY_AREA_CONF_WORDS, picDevice.getConfWords(), 0, confWords);
+                return;
+            }
+            // Read them back to report the mismatch
+        }
+
         selectConfigMemStart(PicDevice.CONF_WORD_OFFSET);
         ZEPPPResponse response = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ, (byte)picDevice.getDeviceCfg().getConfWords());
         throwExceptionOnFailure(response, "Read Config Words");
+        walkedTo(true, PicDevice.CONF_WORD_OFFSET + confWords);
 
         int []dataReceived = response.getMessageWordArray();
         if (dataReceived.length != picDevice.getDeviceCfg().getConfWords()) throw new ZEPPPCommandException("Data size mismatch", "Verify Configuration Memory");
         verifyWordBuffer (picDevice.getConfWords(), 0, dataReceived);
+        mirror.store(MEMORY_AREA_CONF_WORDS, picDevice.getConfWords(), 0, confWords);
     }
 
     public void verifyPgmMem (PicDevice picDevice) throws IntelHexParsingException, ZEPPPCommandException {
-        HexBuffer pgmMem = picDevice.getProgramMem();
-        int pgmMemSizeInWords = getMaxWrittenWords(pgmMem);
+        ProgrammingPlan plan = pgmPlan(picDevice);
 
-        resetLVP();
         ZEPPPConsole.msg ("Verifying PGM Memory...");
-        for (int i = 0; i < pgmMemSizeInWords; i += DATA_UNITS_PER_READWRITE) {
-            if (picDevice.isPgmBlockEmpty(i, DATA_UNITS_PER_READWRITE)) {
-                throwExceptionOnFailure(
-                        sendCommandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) DATA_UNITS_PER_READWRITE),
-                        String.format("Skip empty PGM Memory block 0x%04x", i)
-                );
-            }else {
-                ZEPPPResponse readResponse = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ,(byte)DATA_UNITS_PER_READWRITE);
+        if (verifyFromMirror(picDevice, MEMORY_AREA_PGM, picDevice.getProgramMem(), verifiedBlocks(picDevice, false, plan.getUsedWords()), plan.getUsedWords())) return;
+        if (strategy.useMemoryCrc()) {
+            verifyRangesByCrc(picDevice, MEMORY_AREA_PGM, plan.getUsedWords());
+            return;
+        }
+        verifyByPlan(plan, MEMORY_AREA_PGM, picDevice.getProgramMem());
+    }
 
-                throwExceptionOnFailure(
-                        readResponse,
-                        String.format("Read PGM Memory block 0x%04x", i)
+    // Reads back what the plan writes, skipping the address over the rest
+    private void verifyByPlan (ProgrammingPlan plan, int memoryArea, HexBuffer memBuffer) throws IntelHexParsingException, ZEPPPCommandException {
+        boolean dataMem = memoryArea == MEMORY_AREA_DATA;
+        String areaName = dataMem ? "Data Memory" : "PGM Memory";
+        String readCmd = dataMem ? ZEPPP.ZEPPP_CMD_DATA_MEM_READ : ZEPPP.ZEPPP_CMD_PGM_MEM_READ;
+        int readWords = wordsPerCommand(icspHalfClockUs, strategy.getMaxReadWords());
+        seek(0, areaName);
+        int position = 0;
+        ZEPPPCommandPipeline pipeline = newPipeline();
+        for (WordRunSegmenter.Segment segment : plan.getSegments()) {
+            int end = segment.getStart() + segment.getLength();
+            position = end;
+            if (segment.getType() == WordRunSegmenter.SegmentType.SKIP) {
+                pipeline.submit(
+                        encoder.commandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) segment.getLength()),
+                        String.format("Skip empty %s block 0x%04x", areaName, segment.getStart()),
+                        null
+                );
+                continue;
+            }
+            for (int i = segment.getStart(); i < end; i += readWords) {
+                final int blockStart = i;
+                final int blockWords = Math.min(readWords, end - i);
+                pipeline.submit(
+                        encoder.commandWithByte(readCmd, (byte) blockWords),
+                        String.format("Read %s block 0x%04x", areaName, i),
+                        response -> {
+                            verifyWordBuffer(memBuffer, blockStart * 2, responseWords, response.getMessageWords(responseWords));
+                            mirror.store(memoryArea, memBuffer, blockStart, blockWords);
+                        }
                 );
-                int [] words = readResponse.getMessageWordArray();
-                verifyWordBuffer(pgmMem, i*2, words);
             }
         }
+        pipeline.flush();
+        walkedTo(false, position);
     }
 
     public void readPgmMem (PicDevice picDevice) throws IntelHexParsingException, ZEPPPCommandException {
         HexBuffer pgmMem = picDevice.getProgramMem();
         int pgmMemSizeInWords = pgmMem.getBufferSize() / 2;
 
-        resetLVP();
         ZEPPPConsole.msg ("Reading PGM Memory...");
-        for (int i = 0; i < pgmMemSizeInWords; i += DATA_UNITS_PER_READWRITE) {
-            ZEPPPResponse readResponse = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ,(byte) DATA_UNITS_PER_READWRITE);
-            throwExceptionOnFailure(
-                    readResponse,
-                    String.format("Read PGM Memory block 0x%04x", i)
-            );
-            int [] words = readResponse.getMessageWordArray();
-            saveWordBuffer(pgmMem, i*2, words);
+        if (isMirrored(picDevice, MEMORY_AREA_PGM)) {
+            readFromMirror(MEMORY_AREA_PGM, pgmMem);
+            return;
+        }
+        BitSet populated = populatedBlocks(picDevice, MEMORY_AREA_PGM, pgmMemSizeInWords);
+        if (strategy.useMemoryDump()) {
+            int position = 0;
+            for (int[] range : blockRanges(populated, pgmMemSizeInWords)) {
+                publishBlank(MEMORY_AREA_PGM, position, range[0] - position);
+                readRange(picDevice, MEMORY_AREA_PGM, range[0], range[1]);
+                position = range[0] + range[1];
+            }
+            publishBlank(MEMORY_AREA_PGM, position, pgmMemSizeInWords - position);
+            publishAreaRead(MEMORY_AREA_PGM);
+            return;
         }
+
+        readBlocks(MEMORY_AREA_PGM, pgmMem, pgmMemSizeInWords, populated);
+        publishAreaRead(MEMORY_AREA_PGM);
     }
 
     public void readConfigWords (PicDevice picDevice) throws IntelHexParsingException, ZEPPPCommandException {
         HexBuffer confMem = picDevice.getConfWords();
 
         ZEPPPConsole.msg ("Reading Config Words...");
+        if (isMirrored(picDevice, MEMORY_AREA_CONF_WORDS)) {
+            readFromMirror(MEMORY_AREA_CONF_WORDS, confMem);
+            ZEPPPConsole.msg("-- :" + confMem.toStringAsWords());
+            return;
+        }
         selectConfigMemStart(PicDevice.CONF_WORD_OFFSET);
 
         ZEPPPResponse readResponse = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ,(byte)picDevice.getDeviceCfg().getConfWords());
         throwExceptionOnFailure(readResponse, "Read Config Words");
+        walkedTo(true, PicDevice.CONF_WORD_OFFSET + picDevice.getDeviceCfg().getConfWords());
         int [] words = readResponse.getMessageWordArray();
         saveWordBuffer(confMem, 0, words);
+        publishBlock(MEMORY_AREA_CONF_WORDS, 0, words, words.length);
+        publishAreaRead(MEMORY_AREA_CONF_WORDS);
         ZEPPPConsole.msg("-- :" + confMem.toStringAsWords());
     }
 
@@ -204,11 +727,19 @@ public class ZEPPPClient {
         HexBuffer uidMem = picDevice.getUserIds();
 
         ZEPPPConsole.msg ("Reading User IDs...");
+        if (isMirrored(picDevice, MEMORY_AREA_USER_IDS)) {
+            readFromMirror(MEMORY_AREA_USER_IDS, uidMem);
+            ZEPPPConsole.msg("-- :" + uidMem.toStringAsWords());
+            return;
+        }
         selectConfigMemStart(0);
         ZEPPPResponse readResponse = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ,(byte)PicDevice.USER_IDS_COUNT);
         throwExceptionOnFailure(readResponse, "Read User IDs");
+        walkedTo(true, PicDevice.USER_IDS_COUNT);
         int [] words = readResponse.getMessageWordArray();
         saveWordBuffer(uidMem, 0, words);
+        publishBlock(MEMORY_AREA_USER_IDS, 0, words, words.length);
+        publishAreaRead(MEMORY_AREA_USER_IDS);
         ZEPPPConsole.msg("-- :" + uidMem.toStringAsWords());
     }
 
@@ -216,48 +747,326 @@ public class ZEPPPClient {
         HexBuffer dataMem = picDevice.getDataMem();
         int dataMemSizeInWords = dataMem.getBufferSize() / 2;
 
-        resetLVP();
         ZEPPPConsole.msg ("Reading Data Memory...");
-        for (int i = 0; i < dataMemSizeInWords; i += DATA_UNITS_PER_READWRITE) {
-            ZEPPPResponse readResponse = sendCommandWithByte(ZEPPP.ZEPPP_CMD_DATA_MEM_READ,(byte)DATA_UNITS_PER_READWRITE);
-            throwExceptionOnFailure(
-                    readResponse,
-                    String.format("Read Data Memory block 0x%04x", i)
+        if (isMirrored(picDevice, MEMORY_AREA_DATA)) {
+            readFromMirror(MEMORY_AREA_DATA, dataMem);
+            return;
+        }
+        BitSet populated = populatedBlocks(picDevice, MEMORY_AREA_DATA, dataMemSizeInWords);
+        if (strategy.useMemoryDump()) {
+            int position = 0;
+            for (int[] range : blockRanges(populated, dataMemSizeInWords)) {
+                publishBlank(MEMORY_AREA_DATA, position, range[0] - position);
+                readRange(picDevice, MEMORY_AREA_DATA, range[0], range[1]);
+                position = range[0] + range[1];
+            }
+            publishBlank(MEMORY_AREA_DATA, position, dataMemSizeInWords - position);
+            publishAreaRead(MEMORY_AREA_DATA);
+            return;
+        }
+
+        readBlocks(MEMORY_AREA_DATA, dataMem, dataMemSizeInWords, populated);
+        publishAreaRead(MEMORY_AREA_DATA);
+    }
+
+    // Reads the populated blocks of a memory area and moves the address past the blank ones. Runs of populated
+    // blocks are read with as many words per command as the interface returns and the ICSP clock allows.
+    private void readBlocks (int memoryArea, HexBuffer memBuffer, int sizeInWords, BitSet populated) throws IntelHexParsingException, ZEPPPCommandException {
+        boolean dataMem = memoryArea == MEMORY_AREA_DATA;
+        String areaName = dataMem ? "Data Memory" : "PGM Memory";
+        String readCmd = dataMem ? ZEPPP.ZEPPP_CMD_DATA_MEM_READ : ZEPPP.ZEPPP_CMD_PGM_MEM_READ;
+        int readWords = wordsPerCommand(icspHalfClockUs, strategy.getMaxReadWords());
+
+        seek(0, areaName);
+        ZEPPPCommandPipeline pipeline = newPipeline();
+        int i = 0;
+        while (i < sizeInWords) {
+            final int blockStart = i;
+            if (!populated.get(i / DATA_UNITS_PER_READWRITE)) {
+                final int blankWords = Math.min(DATA_UNITS_PER_READWRITE, sizeInWords - i);
+                pipeline.submit(
+                        encoder.commandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) DATA_UNITS_PER_READWRITE),
+                        String.format("Skip blank %s block 0x%04x", areaName, i),
+                        response -> publishBlank(memoryArea, blockStart, blankWords)
+                );
+                i += DATA_UNITS_PER_READWRITE;
+                continue;
+            }
+            int runEnd = populated.nextClearBit(i / DATA_UNITS_PER_READWRITE) * DATA_UNITS_PER_READWRITE;
+            int words = Math.min(readWords, runEnd - i);
+            final int storedWords = Math.min(words, sizeInWords - i);
+            pipeline.submit(
+                    encoder.commandWithByte(readCmd, (byte) words),
+                    String.format("Read %s block 0x%04x", areaName, i),
+                    response -> {
+                        int count = response.getMessageWords(responseWords);
+                        saveWordBuffer(memBuffer, blockStart * 2, responseWords, count);
+                        publishBlock(memoryArea, blockStart, responseWords, Math.min(count, storedWords));
+                    }
+            );
+            i += words;
+        }
+        pipeline.flush();
+        walkedTo(false, (sizeInWords + DATA_UNITS_PER_READWRITE - 1) / DATA_UNITS_PER_READWRITE * DATA_UNITS_PER_READWRITE);
+    }
+
+    // Blocks of a memory area that have to be read. With blank check support only the non-blank ones, and the
+    // buffer is set to the erased value for the rest; otherwise all of them.
+    private BitSet populatedBlocks (PicDevice picDevice, int memoryArea, int sizeInWords) throws ZEPPPCommandException, IntelHexParsingException {
+        int blocks = (sizeInWords + DATA_UNITS_PER_READWRITE - 1) / DATA_UNITS_PER_READWRITE;
+        BitSet populated;
+
+        if (!strategy.useBlankCheck()) {
+            populated = new BitSet(blocks);
+            populated.set(0, blocks);
+            return populated;
+        }
+
+        populated = blankCheck(memoryArea, sizeInWords);
+        HexBuffer memBuffer = memoryArea == MEMORY_AREA_DATA ? picDevice.getDataMem() : picDevice.getProgramMem();
+        int erasedValue = memoryArea == MEMORY_AREA_DATA ? PicDevice.DEFAULT_DATA_MEM_CONTENT : PicDevice.DEFAULT_MEM_CONTENT;
+        for (int w = 0; w < sizeInWords; w++) {
+            if (!populated.get(w / DATA_UNITS_PER_READWRITE)) memBuffer.setWord(w * 2, (short) erasedValue);
+        }
+        ZEPPPConsole.msg(String.format("-- %d of %d blocks in use", populated.cardinality(), blocks));
+        return populated;
+    }
+
+    // Scans a memory area on the interface and returns the 32-word blocks that are not blank
+    public BitSet blankCheck (int memoryArea, int sizeInWords) throws ZEPPPCommandException, IntelHexParsingException {
+        String areaName = memoryArea == MEMORY_AREA_DATA ? "Data Memory" : "PGM Memory";
+        BitSet populated = new BitSet();
+
+        int maxWords = wordsPerCommand(icspHalfClockUs, BLANK_CHECK_MAX_WORDS);
+
+        seek(0, areaName);
+        ZEPPPCommandPipeline pipeline = newPipeline();
+        for (int i = 0; i < sizeInWords; i += maxWords) {
+            final int firstBlock = i / DATA_UNITS_PER_READWRITE;
+            pipeline.submit(
+                    encoder.blankCheckCommand((byte) memoryArea, Math.min(maxWords, sizeInWords - i)),
+                    String.format("Blank check %s 0x%04x", areaName, i),
+                    response -> decodeBlockBitmap(responseWords, response.getMessageWords(responseWords), firstBlock, populated)
             );
-            int [] bytes = readResponse.getMessageWordArray();
-            saveWordBuffer(dataMem, i*2, bytes);
+        }
+        pipeline.flush();
+        walkedTo(false, sizeInWords);
+        return populated;
+    }
+
+    // Blank check replies: one bit per block, 16 blocks per word, starting at bit 0 of the first word
+    public static void decodeBlockBitmap (int[] bitmap, int firstBlock, BitSet dest) {
+        decodeBlockBitmap(bitmap, bitmap.length, firstBlock, dest);
+    }
+
+    public static void decodeBlockBitmap (int[] bitmap, int bitmapWords, int firstBlock, BitSet dest) {
+        for (int b = 0; b < bitmapWords * 16; b++) {
+            if (((bitmap[b / 16] >> (b % 16)) & 1) != 0) dest.set(firstBlock + b);
         }
     }
 
+    // Runs of consecutive blocks in the set, as {start word, number of words}, within sizeInWords
+    public static List<int[]> blockRanges (BitSet blocks, int sizeInWords) {
+        List<int[]> ranges = new ArrayList<>();
+        int start = blocks.nextSetBit(0);
+        while (start >= 0 && start * DATA_UNITS_PER_READWRITE < sizeInWords) {
+            int end = blocks.nextClearBit(start);
+            int startWord = start * DATA_UNITS_PER_READWRITE;
+            ranges.add(new int[] {startWord, Math.min(end * DATA_UNITS_PER_READWRITE, sizeInWords) - startWord});
+            start = blocks.nextSetBit(end);
+        }
+        return ranges;
+    }
 
+    // True if nothing on the chip has to be erased: PGM and Data memory, User IDs and Config Words all blank
+    public boolean isChipBlank (PicDevice picDevice) throws ZEPPPCommandException, IntelHexParsingException {
+        int pgmWords = picDevice.getProgramMem().getBufferSize() / 2;
+        int dataWords = picDevice.getDataMem().getBufferSize() / 2;
+        if (!blankCheck(MEMORY_AREA_PGM, pgmWords).isEmpty()) return false;
+        if (!blankCheck(MEMORY_AREA_DATA, dataWords).isEmpty()) return false;
+
+        selectConfigMemStart(0);
+        ZEPPPResponse response = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ, (byte) PicDevice.USER_IDS_COUNT);
+        throwExceptionOnFailure(response, "Read User IDs");
+        walkedTo(true, PicDevice.USER_IDS_COUNT);
+        if (!allWordsEqual(response.getMessageWordArray(), PicDevice.DEFAULT_MEM_CONTENT)) return false;
+
+        selectConfigMemStart(PicDevice.CONF_WORD_OFFSET);
+        response = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ, (byte) picDevice.getDeviceCfg().getConfWords());
+        throwExceptionOnFailure(response, "Read Config Words");
+        walkedTo(true, PicDevice.CONF_WORD_OFFSET + picDevice.getDeviceCfg().getConfWords());
+        return allWordsEqual(response.getMessageWordArray(), PicDevice.DEFAULT_MEM_CONTENT);
+    }
+
+    private static boolean allWordsEqual (int[] words, int value) {
+        for (int w : words) {
+            if (w != value) return false;
+        }
+        return true;
+    }
+
+    // Streams a range of PGM or Data memory into the PIC memory buffer with a single dump command. The words
+    // come in checksummed chunks, and are stored as each one arrives. If a chunk doesn't arrive intact, the rest
+    // of the stream is dropped and the dump starts over from that chunk.
+    public void readRange (PicDevice picDevice, int memoryArea, int startWord, int numberOfWords) throws ZEPPPCommandException, IntelHexParsingException {
+        HexBuffer memBuffer = memoryArea == MEMORY_AREA_DATA ? picDevice.getDataMem() : picDevice.getProgramMem();
+        String areaName = memoryArea == MEMORY_AREA_DATA ? "Data Memory" : "PGM Memory";
+        int position = startWord;
+        int end = startWord + numberOfWords;
+        int failures = 0;
+
+        ZEPPPResponse chunk = new ZEPPPResponse();
+
+        while (position < end) {
+            seek(position, areaName);
+
+            int streamEnd = position + Math.min(end - position, MEMORY_DUMP_MAX_WORDS);
+            ZEPPP.sendEncodedCommandNoWait(this.comm, encoder.memoryDumpCommand((byte) memoryArea, streamEnd - position));
+            while (position < streamEnd) {
+                ZEPPP.receiveResponse(this.comm, chunk);
+                int count = chunk.getCode() == ZEPPPResponse.StatusCode.STATUS_OK ? chunk.getMessageWords(responseWords) : 0;
+
+                if (count == 0 || position + count > streamEnd) {
+                    String action = String.format("Read %s at 0x%04x", areaName, position);
+                    String reason = chunk.getCode() == ZEPPPResponse.StatusCode.STATUS_OK ? "Unexpected chunk size" : chunk.getMessage();
+                    // A failed dump halts the interface (after a damaged chunk, resyncing just drops the rest)
+                    if (chunk.getCode() != ZEPPPResponse.StatusCode.STATUS_OK) resync();
+                    if (++failures >= MEMORY_DUMP_MAX_ATTEMPTS) throw new ZEPPPCommandException(reason, action);
+
+                    ZEPPPConsole.warning(String.format("%s (%s). Retrying...", action, reason));
+                    ZEPPP.drainResponses(this.comm);
+                    break;
+                }
+                saveWordBuffer(memBuffer, position * 2, responseWords, count);
+                try {
+                    publishBlock(memoryArea, position, responseWords, count);
+                } catch (ZEPPPCommandException e) {
+                    // The rest of the dump is still on its way
+                    ZEPPP.drainResponses(this.comm);
+                    throw e;
+                }
+                position += count;
+            }
+            if (position == streamEnd) walkedTo(false, streamEnd);
+        }
+    }
+
+    // Moves the address pointer forward, from one word of the current memory area to another
+    private void skipWords (int fromWord, int toWord, String areaName) throws ZEPPPCommandException, IntelHexParsingException {
+        int numberOfWords = toWord - fromWord;
+        ZEPPPCommandPipeline pipeline = newPipeline();
+        for (int skipped = 0; skipped < numberOfWords; ) {
+            int count = Math.min(numberOfWords - skipped, WordRunSegmenter.MAX_SKIP_WORDS);
+            pipeline.submit(
+                    encoder.commandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) count),
+                    String.format("Skip to %s 0x%04x", areaName, toWord),
+                    null
+            );
+            skipped += count;
+        }
+        pipeline.flush();
+    }
 
     public void verifyDataMem (PicDevice picDevice) throws IntelHexParsingException, ZEPPPCommandException {
-        HexBuffer dataMem = picDevice.getDataMem();
-        int dataMemSizeInWords = dataMem.getBufferSize() / 2;
+        ProgrammingPlan plan = dataPlan(picDevice);
 
-        resetLVP();
         ZEPPPConsole.msg ("Verifying Data Memory...");
+        if (verifyFromMirror(picDevice, MEMORY_AREA_DATA, picDevice.getDataMem(), verifiedBlocks(picDevice, true, plan.getUsedWords()), plan.getUsedWords())) return;
+        if (strategy.useMemoryCrc()) {
+            verifyRangesByCrc(picDevice, MEMORY_AREA_DATA, plan.getUsedWords());
+            return;
+        }
+        verifyByPlan(plan, MEMORY_AREA_DATA, picDevice.getDataMem());
+    }
 
-        for (int i = 0; i < dataMemSizeInWords; i += DATA_UNITS_PER_READWRITE) {
-            if (picDevice.isDataBlockEmpty(i, DATA_UNITS_PER_READWRITE)) {
-                throwExceptionOnFailure(
-                        sendCommandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) DATA_UNITS_PER_READWRITE),
-                        String.format("Skip empty Data Memory block 0x%04x", i)
+    // Verifies the non-empty blocks of PGM or Data memory with one CRC command per run of them (empty blocks are
+    // skipped, as in the block-wise verification). Only the runs whose CRC doesn't match are read back, block by
+    // block, to find the offending word.
+    private void verifyRangesByCrc (PicDevice picDevice, int memoryArea, int sizeInWords) throws ZEPPPCommandException, IntelHexParsingException {
+        boolean dataMem = memoryArea == MEMORY_AREA_DATA;
+        HexBuffer memBuffer = dataMem ? picDevice.getDataMem() : picDevice.getProgramMem();
+        String areaName = dataMem ? "Data Memory" : "PGM Memory";
+        int mask = dataMem ? 0xff : 0xffff;
+        int end = Math.min(memBuffer.getBufferSize() / 2,
+                (sizeInWords + DATA_UNITS_PER_READWRITE - 1) / DATA_UNITS_PER_READWRITE * DATA_UNITS_PER_READWRITE);
+        int maxSkip = WordRunSegmenter.MAX_SKIP_WORDS / DATA_UNITS_PER_READWRITE * DATA_UNITS_PER_READWRITE;
+        int maxCrcWords = wordsPerCommand(icspHalfClockUs, MEMORY_CRC_MAX_WORDS);
+        List<int[]> mismatches = new ArrayList<>();
+
+        seek(0, areaName);
+        ZEPPPCommandPipeline pipeline = newPipeline();
+        for (int i = 0; i < end; ) {
+            final int start = i;
+            boolean empty = isBlockEmpty(picDevice, dataMem, i);
+            int maxLen = empty ? maxSkip : maxCrcWords;
+            do {
+                i += DATA_UNITS_PER_READWRITE;
+            } while (i < end && i - start < maxLen && isBlockEmpty(picDevice, dataMem, i) == empty);
+            final int len = Math.min(i, end) - start;
+            i = start + len;
+
+            if (empty) {
+                pipeline.submit(
+                        encoder.commandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) len),
+                        String.format("Skip empty %s block 0x%04x", areaName, start),
+                        null
                 );
-            }else {
-                ZEPPPResponse readResponse = sendCommandWithByte(ZEPPP.ZEPPP_CMD_DATA_MEM_READ,(byte) DATA_UNITS_PER_READWRITE);
-                throwExceptionOnFailure(
-                        readResponse,
-                        String.format("Read Data Memory block 0x%04x", i)
+            } else {
+                final int expected = CRC16.computeWords(memBuffer, start, len, mask);
+                pipeline.submit(
+                        encoder.memoryCrcCommand((byte) memoryArea, len),
+                        String.format("%s CRC 0x%04x-0x%04x", areaName, start, start + len - 1),
+                        response -> {
+                            if (response.getMessageWord() != expected) {
+                                mismatches.add(new int[] {start, len});
+                            } else {
+                                mirror.store(memoryArea, memBuffer, start, len);
+                            }
+                        }
                 );
-                int [] bytes = readResponse.getMessageWordArray();
-                verifyWordBuffer(dataMem, i*2, bytes);
             }
         }
+        pipeline.flush();
+        walkedTo(false, end);
+
+        for (int[] range : mismatches) {
+            locateMismatch(memBuffer, memoryArea, range[0], range[1]);
+        }
+    }
+
+    private boolean isBlockEmpty (PicDevice picDevice, boolean dataMem, int wordStart) {
+        return dataMem ? picDevice.isDataBlockEmpty(wordStart, DATA_UNITS_PER_READWRITE)
+                       : picDevice.isPgmBlockEmpty(wordStart, DATA_UNITS_PER_READWRITE);
+    }
+
+    // Reads back a range that failed its CRC check, and throws at the first word that doesn't match
+    private void locateMismatch (HexBuffer memBuffer, int memoryArea, int startWord, int numberOfWords) throws ZEPPPCommandException, IntelHexParsingException {
+        boolean dataMem = memoryArea == MEMORY_AREA_DATA;
+        String areaName = dataMem ? "Data Memory" : "PGM Memory";
+        String readCmd = dataMem ? ZEPPP.ZEPPP_CMD_DATA_MEM_READ : ZEPPP.ZEPPP_CMD_PGM_MEM_READ;
+
+        seek(startWord, areaName);
+        ZEPPPCommandPipeline pipeline = newPipeline();
+        for (int i = startWord; i < startWord + numberOfWords; i += DATA_UNITS_PER_READWRITE) {
+            final int blockOffset = i*2;
+            pipeline.submit(
+                    encoder.commandWithByte(readCmd, (byte) Math.min(DATA_UNITS_PER_READWRITE, startWord + numberOfWords - i)),
+                    String.format("Read %s block 0x%04x", areaName, i),
+                    response -> verifyWordBuffer(memBuffer, blockOffset, responseWords, response.getMessageWords(responseWords))
+            );
+        }
+        pipeline.flush();
+
+        // Same words, different CRC: the data changed between both reads
+        throw new ZEPPPCommandException("CRC mismatch, but the data read back matches", String.format("Verify %s at 0x%04x", areaName, startWord));
     }
 
     public void verifyWordBuffer (HexBuffer picDeviceBuffer, int startOffset, int [] dataReceived) throws ZEPPPCommandException {
-        for (int i = 0; i < dataReceived.length; i++) {
+        verifyWordBuffer(picDeviceBuffer, startOffset, dataReceived, dataReceived.length);
+    }
+
+    public void verifyWordBuffer (HexBuffer picDeviceBuffer, int startOffset, int [] dataReceived, int count) throws ZEPPPCommandException {
+        for (int i = 0; i < count; i++) {
             int expected = picDeviceBuffer.getWord(startOffset + i*2);
             if (dataReceived[i] != expected) {
                 throw new ZEPPPCommandException(
@@ -269,7 +1078,11 @@ public class ZEPPPClient {
     }
 
     public void saveWordBuffer (HexBuffer picDeviceBuffer, int startOffset, int [] dataReceived) {
-        for (int i = 0; i < dataReceived.length; i++) {
+        saveWordBuffer(picDeviceBuffer, startOffset, dataReceived, dataReceived.length);
+    }
+
+    public void saveWordBuffer (HexBuffer picDeviceBuffer, int startOffset, int [] dataReceived, int count) {
+        for (int i = 0; i < count; i++) {
             picDeviceBuffer.setWord(startOffset + i*2, (short)dataReceived[i]);
         }
     }
@@ -282,12 +1095,20 @@ public class ZEPPPClient {
 
     public void erasePgmAndConfigMemory(PicDevice picDevice)  throws ZEPPPCommandException {
         // This causes all PGM and config memory to be wiped-out in devices that don't support chip erase, apparently.
+        if (isDryRun("Config and PGM Memory would be erased")) return;
+        forget(MEMORY_AREA_PGM);
+        forget(MEMORY_AREA_USER_IDS);
+        forget(MEMORY_AREA_CONF_WORDS);
         selectConfigMemStart(0);
         ZEPPPConsole.msg("Erasing Configuration and Program Memory...");
         throwExceptionOnFailure(sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_ERASE, picDevice.getDeviceCfg().getPgmEraseMode()), "Erase Config & Program Memory");
     }
 
     public void erasePgmMem(PicDevice picDevice)  throws ZEPPPCommandException {
+        if (isDryRun("PGM Memory would be erased")) return;
+        forget(MEMORY_AREA_PGM);
+        // Some devices erase the Config Words with it
+        forget(MEMORY_AREA_CONF_WORDS);
         resetLVP();
         ZEPPPConsole.msg("Erasing PGM Memory...");
         ZEPPPConsole.info("In some devices this may also erase all Config Words");
@@ -295,94 +1116,155 @@ public class ZEPPPClient {
     }
 
     public void eraseDataMem(PicDevice picDevice)  throws ZEPPPCommandException {
+        if (isDryRun("Data Memory would be erased")) return;
+        forget(MEMORY_AREA_DATA);
         resetLVP();
         ZEPPPConsole.msg("Erasing Data Memory...");
         throwExceptionOnFailure(sendCommandWithByte(ZEPPP.ZEPPP_CMD_DATA_MEM_ERASE, picDevice.getDeviceCfg().getPgmEraseMode()), "Erase Data Memory");
     }
 
+    // Chip erase, unless the interface can tell the chip is already blank (e.g. new parts off the reel)
+    public void chipEraseIfNotBlank(PicDevice picDevice) throws ZEPPPCommandException, IntelHexParsingException {
+        if (strategy.useBlankCheck() && isChipBlank(picDevice)) {
+            ZEPPPConsole.msg("CHIP is blank. Erase skipped");
+            return;
+        }
+        chipErase(picDevice);
+    }
+
     public void chipErase(PicDevice picDevice)  throws ZEPPPCommandException {
+        if (isDryRun("the chip would be erased")) return;
+        // Whether the erase did its job is only known once the chip is read
+        if (mirror != null) mirror.invalidateAll();
         ZEPPPConsole.msg("Erasing CHIP Memory...");
         if (picDevice.getDeviceCfg().getChipErase() == 0) {
             ZEPPPConsole.info("Selected PIC does not support the CHIP Erase command. All memory areas will be erased separately.");
             erasePgmAndConfigMemory(picDevice);
             eraseDataMem(picDevice);
         } else {
-            resetLVP();
             selectConfigMemStart(0);
             throwExceptionOnFailure(sendCommand(ZEPPP.ZEPPP_CMD_CHIP_ERASE), "Erase CHIP");
+            // Erasing doesn't move the address counter
+            walkedTo(true, 0);
         }
     }
 
 
-    public void writePgmMem (PicDevice picDevice) throws IntelHexParsingException, ZEPPPCommandException {
+    // Returns the number of words skipped because they already held the value (see setSkipUnchanged)
+    public int writePgmMem (PicDevice picDevice) throws IntelHexParsingException, ZEPPPCommandException {
         HexBuffer pgmMem = picDevice.getProgramMem();
-        int pgmMemSizeInWords = getMaxWrittenWords(pgmMem);
-        byte writeSize = picDevice.getDeviceCfg().getPgmWriteSize();
-        byte eraseMode = picDevice.getDeviceCfg().getPgmEraseMode();
+        byte writeSize = pgmWriteSize(picDevice);
+        boolean skipping = writeSize < 2 && isSkippingUnchanged();
+        byte eraseMode = writeMode(picDevice, skipping);
+        int[] skipped = {0};
+
+        ProgrammingPlan plan = pgmPlan(picDevice);
+        if (dryRun) {
+            ZEPPPConsole.msg(plan.describe(true));
+            return 0;
+        }
+        ZEPPPCommandStream stream = plan.getStream(pgmMem, segment -> encoder.pgmSegmentCommand(segment, writeSize, eraseMode, pgmMem));
 
-        resetLVP();
+        forgetWrites(picDevice, MEMORY_AREA_PGM, stream);
+        seek(0, "PGM Memory");
         ZEPPPConsole.msg("Writing PGM Memory...");
-        for (int i = 0; i < pgmMemSizeInWords; i += DATA_UNITS_PER_READWRITE) {
-            if (picDevice.isPgmBlockEmpty(i, DATA_UNITS_PER_READWRITE)) {
-                throwExceptionOnFailure(
-                        sendCommandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) DATA_UNITS_PER_READWRITE),
-                        String.format("Skip empty PGM Memory block 0x%04x", i)
-                );
-            } else {
-                throwExceptionOnFailure(
-                        sendPgmWriteCommand(writeSize, eraseMode, pgmMem, i, DATA_UNITS_PER_READWRITE),
-                        String.format("Write PGM Memory block 0x%04x", i)
-                );
-            }
-        }
+        newPipeline().submitStream(stream, skipCounter(stream, skipping, skipped));
+        walkedTo(false, streamEnd(stream));
+        // Word writes are read back by the interface. Blocks are checked by the verification that follows.
+        if (writeSize == 1) storeWrites(MEMORY_AREA_PGM, pgmMem, stream);
+        reportSkippedWords(skipping, skipped[0]);
         if (writeSize == 1) {
             ZEPPPConsole.info(VERIFICATION_SKIPPED);
         }else {
             verifyPgmMem(picDevice);
         }
+        return skipped[0];
     }
 
-    private int getMaxWrittenWords (HexBuffer pgmMem) {
-        int pgmMemSizeInWords = pgmMem.getBufferSize() / 2;
+    private boolean isSkippingUnchanged () {
+        return skipUnchanged && strategy.supportsSkipUnchanged();
+    }
 
-        for (int i = pgmMemSizeInWords-1; i >= 0; i--) {
-            if (pgmMem.getWord(i*2) != PicDevice.DEFAULT_MEM_CONTENT) return i;
+    private byte writeMode (PicDevice picDevice, boolean skipping) {
+        byte eraseMode = picDevice.getDeviceCfg().getPgmEraseMode();
+        return skipping ? (byte) (eraseMode | ZEPPP.WRITE_SKIP_UNCHANGED) : eraseMode;
+    }
+
+    // With skipping on, write and fill responses carry the number of words skipped
+    private ZEPPPCommandPipeline.StreamHandler skipCounter (ZEPPPCommandStream stream, boolean skipping, int[] skipped) {
+        if (!skipping) return null;
+        return (index, response) -> {
+            if (stream.getSegment(index).getType() != WordRunSegmenter.SegmentType.SKIP) skipped[0] += response.getMessageWord();
+        };
+    }
+
+    private void reportSkippedWords (boolean skipping, int skipped) {
+        if (skipping) ZEPPPConsole.msg(String.format("-- %d words already held their value and were not written", skipped));
+    }
+
+    // Compiled again only if the image or the settings changed since the last one
+    private ProgrammingPlan pgmPlan (PicDevice picDevice) {
+        PICDeviceConfigEntry picCfg = picDevice.getDeviceCfg();
+        byte writeSize = pgmWriteSize(picDevice);
+        byte eraseMode = writeMode(picDevice, writeSize < 2 && isSkippingUnchanged());
+        int eraseRowSize = pgmEraseRowSize(picDevice);
+        Object settings = Arrays.asList(encoder.isBinaryMode(), writeSize, eraseRowSize, eraseMode, strategy.getMaxWriteWords(), strategy.useFillCommands());
+
+        if (pgmPlan == null || !pgmPlan.matches(picDevice.getProgramMem(), settings)) {
+            pgmPlan = ProgrammingPlan.compile("PGM Memory", false, picDevice.getProgramMem(), writeSize, eraseRowSize, PicDevice.DEFAULT_MEM_CONTENT,
+                    pgmCycleTime(picDevice), strategy, encoder, comm.getBaudRate(), settings);
         }
-        return 0;
+        return pgmPlan;
     }
 
-    public void writeDataMem (PicDevice picDevice) throws ZEPPPCommandException {
-        HexBuffer dataMem = picDevice.getDataMem();
-        int dataMemSizeInWords = dataMem.getBufferSize() / 2;
-        byte eraseMode = picDevice.getDeviceCfg().getPgmEraseMode();
+    private ProgrammingPlan dataPlan (PicDevice picDevice) {
+        byte eraseMode = writeMode(picDevice, isSkippingUnchanged());
+        Object settings = Arrays.asList(encoder.isBinaryMode(), eraseMode, strategy.getMaxWriteWords(), strategy.useFillCommands());
 
-        resetLVP();
+        if (dataPlan == null || !dataPlan.matches(picDevice.getDataMem(), settings)) {
+            dataPlan = ProgrammingPlan.compile("Data Memory", true, picDevice.getDataMem(), 1, 1, PicDevice.DEFAULT_DATA_MEM_CONTENT,
+                    picDevice.getDeviceCfg().getDataProgramTime(), strategy, encoder, comm.getBaudRate(), settings);
+        }
+        return dataPlan;
+    }
 
-        ZEPPPConsole.msg("Writing Data Memory...");
-        for (int i = 0; i < dataMemSizeInWords; i += DATA_UNITS_PER_READWRITE) {
-            if (picDevice.isDataBlockEmpty(i, DATA_UNITS_PER_READWRITE)) {
-                throwExceptionOnFailure(
-                        sendCommandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) DATA_UNITS_PER_READWRITE),
-                        String.format("Skip empty Data Memory block 0x%04x", i)
-                );
-            } else {
-                throwExceptionOnFailure(
-                        sendDataWriteCommand(eraseMode, dataMem, i, DATA_UNITS_PER_READWRITE),
-                        String.format("Write Data Memory block 0x%04x", i)
-                );
-            }
+    // Returns the number of bytes skipped because they already held the value (see setSkipUnchanged)
+    public int writeDataMem (PicDevice picDevice) throws ZEPPPCommandException, IntelHexParsingException {
+        HexBuffer dataMem = picDevice.getDataMem();
+        boolean skipping = isSkippingUnchanged();
+        byte eraseMode = writeMode(picDevice, skipping);
+        int[] skipped = {0};
+
+        ProgrammingPlan plan = dataPlan(picDevice);
+        if (dryRun) {
+            ZEPPPConsole.msg(plan.describe(true));
+            return 0;
         }
+        ZEPPPCommandStream stream = plan.getStream(dataMem, segment -> encoder.dataSegmentCommand(segment, eraseMode, dataMem));
+
+        forgetWrites(picDevice, MEMORY_AREA_DATA, stream);
+        seek(0, "Data Memory");
+        ZEPPPConsole.msg("Writing Data Memory...");
+        newPipeline().submitStream(stream, skipCounter(stream, skipping, skipped));
+        walkedTo(false, streamEnd(stream));
+        storeWrites(MEMORY_AREA_DATA, dataMem, stream);
+        reportSkippedWords(skipping, skipped[0]);
         ZEPPPConsole.info(VERIFICATION_SKIPPED);
+        return skipped[0];
     }
 
     public void writeUserIDs (PicDevice picDevice) throws ZEPPPCommandException, IntelHexParsingException {
-        byte writeSize = (byte)Math.min (picDevice.getDeviceCfg().getPgmWriteSize(), PicDevice.USER_IDS_COUNT );
+        byte writeSize = (byte)Math.min (pgmWriteSize(picDevice), PicDevice.USER_IDS_COUNT );
         byte eraseMode = picDevice.getDeviceCfg().getPgmEraseMode();
 
+        if (isDryRun("the User IDs would be written")) return;
         ZEPPPConsole.msg("Writing User IDs...");
+        mirror(picDevice).invalidate(MEMORY_AREA_USER_IDS);
         selectConfigMemStart(0);
-        sendPgmWriteCommand(writeSize, eraseMode, picDevice.getUserIds(), 0, PicDevice.USER_IDS_COUNT);
+        throwExceptionOnFailure(sendPgmWriteCommand(writeSize, eraseMode, picDevice.getUserIds(), 0, PicDevice.USER_IDS_COUNT), "Write User IDs");
+        walkedTo(true, PicDevice.USER_IDS_COUNT);
         if (writeSize < 2) {
+            mirror.store(MEMORY_AREA_USER_IDS, picDevice.getUserIds(), 0, PicDevice.USER_IDS_COUNT);
             ZEPPPConsole.info(VERIFICATION_SKIPPED);
         } else {
             verifyUserIDs(picDevice);
@@ -393,10 +1275,15 @@ public class ZEPPPClient {
         int confWordsCount = picDevice.getDeviceCfg().getConfWords();
         byte eraseMode = picDevice.getDeviceCfg().getPgmEraseMode();
 
+        if (isDryRun("the Config Words would be written")) return;
         ZEPPPConsole.msg("Writing Config Words...");
+        // Not known until read or verified: some bits (like LVP) may not take the value written
+        forget(MEMORY_AREA_CONF_WORDS);
         selectConfigMemStart(PicDevice.CONF_WORD_OFFSET);
 
-        sendPgmWriteCommand((byte)1, eraseMode, picDevice.getConfWords(), 0, confWordsCount);
+        if (sendPgmWriteCommand((byte)1, eraseMode, picDevice.getConfWords(), 0, confWordsCount).getCode() == ZEPPPResponse.StatusCode.STATUS_OK) {
+            walkedTo(true, PicDevice.CONF_WORD_OFFSET + confWordsCount);
+        }
         if ((picDevice.getConfWords().getWord(0) & PicDevice.CONF_WORD_LVP_MASK) == 0) {
             ZEPPPConsole.info("Your code seems to disable Low-Voltage Programming. This won't be saved in PIC memory!");
         }
@@ -404,78 +1291,305 @@ public class ZEPPPClient {
     }
 
     public void writeAll (PicDevice picDevice) throws ZEPPPCommandException, IntelHexParsingException {
-        writeUserIDs(picDevice);
+        // PGM and Data memory first, as they both start from address 0, then the User IDs on the way to the
+        // Config Words
         writePgmMem(picDevice);
         writeDataMem(picDevice);
+        writeUserIDs(picDevice);
         // Write configuration last, because if code-protection is enabled we won't be able to
         // verify memory in the previous steps.
         writeConfigWords(picDevice);
     }
 
-    public void selectConfigMemStart (int withOffSet) throws ZEPPPCommandException {
-        resetLVP();
-        throwExceptionOnFailure(sendCommand(ZEPPP.ZEPPP_CMD_SELECT_CFG_MEM), "Select CFG Memory Area");
-        if (withOffSet > 0) {
-            throwExceptionOnFailure(sendCommandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte)withOffSet), "Move to Address");
+    // Differential programming: only what differs from the contents of the device is written, without erasing the
+    // chip. Changed words (or rows, on block write devices) are reprogrammed in place, which can only clear bits;
+    // on devices whose block writes erase whole rows (the 16F87/88) each changed erase row is rewritten from the
+    // image instead. If a change needs bits set that can't be erased in place, or the writes and erases would take
+    // as long as erasing and writing everything (a different image, or a code protected chip that reads back as
+    // zeros), the chip is fully programmed instead. Returns the number of PGM words and EEPROM bytes written.
+    public int programChanges (PicDevice picDevice) throws ZEPPPCommandException, IntelHexParsingException {
+        PICDeviceConfigEntry picCfg = picDevice.getDeviceCfg();
+        byte writeSize = pgmWriteSize(picDevice);
+        int rowSize = Math.max(1, writeSize);
+        int eraseRowSize = pgmEraseRowSize(picDevice);
+        int pgmWords = picDevice.getProgramMem().getBufferSize() / 2;
+        int dataWords = picDevice.getDataMem().getBufferSize() / 2;
+        // Word writes without an erase mode erase each word; block writes only erase the rows they start in
+        boolean pgmErased = writeSize < 2 ? picCfg.getPgmEraseMode() == 0 : eraseRowSize > writeSize;
+        boolean configErased = picCfg.getPgmEraseMode() == 0 && Math.min(writeSize, PicDevice.USER_IDS_COUNT) < 2;
+
+        ZEPPPConsole.msg("Looking for changes...");
+        BitSet pgmSettingBits = new BitSet();
+        BitSet pgmChanged = changedWords(picDevice, MEMORY_AREA_PGM, null, pgmSettingBits);
+        BitSet dataChanged = changedWords(picDevice, MEMORY_AREA_DATA, null);
+        int[] userIds = bufferWords(picDevice.getUserIds(), PicDevice.USER_IDS_COUNT);
+        int[] deviceUserIds = readConfigArea(0, PicDevice.USER_IDS_COUNT, "Read User IDs");
+        int[] confWords = bufferWords(picDevice.getConfWords(), picCfg.getConfWords());
+        int[] deviceConfWords = readConfigArea(PicDevice.CONF_WORD_OFFSET, picCfg.getConfWords(), "Read Config Words");
+        boolean userIdsChanged = !Arrays.equals(deviceUserIds, userIds);
+        boolean confChanged = !Arrays.equals(deviceConfWords, confWords);
+        ZEPPPConsole.msg(String.format("-- %d PGM words and %d EEPROM bytes differ", pgmChanged.cardinality(), dataChanged.cardinality()));
+
+        List<WordRunSegmenter.Segment> pgmSegments = new WordRunSegmenter(rowSize, PicDevice.DEFAULT_MEM_CONTENT,
+                strategy.getMaxWriteWords(), false).withEraseRowSize(eraseRowSize).splitChanged(pgmChanged, pgmWords);
+        List<WordRunSegmenter.Segment> dataSegments = new WordRunSegmenter(1, PicDevice.DEFAULT_DATA_MEM_CONTENT,
+                strategy.getMaxWriteWords(), false).splitChanged(dataChanged, dataWords);
+        int pgmWritten = writtenWords(pgmSegments);
+        int dataWritten = writtenWords(dataSegments);
+
+        // Block writes start with an erase cycle each, as does a full programming (the chip erase)
+        int pgmErases = writeSize < 2 ? 0 : writtenSegments(pgmSegments);
+        long changesUs = (long) pgmWritten / rowSize * pgmCycleTime(picDevice) + (long) pgmErases * picCfg.getEraseTime() +
+                (long) dataWritten * picCfg.getDataProgramTime();
+        ProgrammingPlan pgmPlan = pgmPlan(picDevice);
+        long fullUs = picCfg.getEraseTime() + (long) pgmPlan.getProgramCycles() * pgmCycleTime(picDevice) +
+                (long) (writeSize < 2 ? 0 : writtenSegments(pgmPlan.getSegments())) * picCfg.getEraseTime() +
+                (long) dataPlan(picDevice).getProgramCycles() * picCfg.getDataProgramTime();
+
+        boolean needsErase = (!pgmErased && !pgmSettingBits.isEmpty()) ||
+                (!configErased && (settingBits(deviceUserIds, userIds) || settingBits(deviceConfWords, confWords)));
+        if (needsErase || changesUs >= fullUs) {
+            ZEPPPConsole.msg(needsErase ? "-- Bits have to be set that only an erase can set. Programming it all"
+                                        : "-- Most of the device has to be rewritten. Programming it all");
+            chipErase(picDevice);
+            writeAll(picDevice);
+            return usedRows(picDevice.getProgramMem(), 1, PicDevice.DEFAULT_MEM_CONTENT) + usedRows(picDevice.getDataMem(), 1, PicDevice.DEFAULT_DATA_MEM_CONTENT);
         }
+        if (pgmSegments.isEmpty() && dataSegments.isEmpty() && !userIdsChanged && !confChanged) {
+            ZEPPPConsole.msg("-- The device already holds this image. Nothing to write");
+            return 0;
+        }
+
+        if (isDryRun(String.format("%d PGM words and %d EEPROM bytes would be rewritten", pgmWritten, dataWritten))) {
+            return pgmWritten + dataWritten;
+        }
+        if (userIdsChanged) writeUserIDs(picDevice);
+        if (!pgmSegments.isEmpty()) {
+            byte eraseMode = picCfg.getPgmEraseMode();
+            HexBuffer pgmMem = picDevice.getProgramMem();
+            ZEPPPConsole.msg(String.format("Writing %d changed PGM Memory words...", pgmWritten));
+            writeSegments(picDevice, MEMORY_AREA_PGM, ZEPPPCommandStream.encode("PGM Memory", pgmMem, pgmSegments, Arrays.asList(writeSize, eraseMode),
+                    segment -> encoder.pgmSegmentCommand(segment, writeSize, eraseMode, pgmMem)));
+            if (writeSize < 2) {
+                ZEPPPConsole.info(VERIFICATION_SKIPPED);
+            } else {
+                verifyWrittenBlocks(picDevice, pgmSegments);
+            }
+        }
+        if (!dataSegments.isEmpty()) {
+            byte eraseMode = picCfg.getPgmEraseMode();
+            HexBuffer dataMem = picDevice.getDataMem();
+            ZEPPPConsole.msg(String.format("Writing %d changed Data Memory bytes...", dataWritten));
+            writeSegments(picDevice, MEMORY_AREA_DATA, ZEPPPCommandStream.encode("Data Memory", dataMem, dataSegments, Arrays.asList(eraseMode),
+                    segment -> encoder.dataSegmentCommand(segment, eraseMode, dataMem)));
+            ZEPPPConsole.info(VERIFICATION_SKIPPED);
+        }
+        // Last, as in writeAll
+        if (confChanged) writeConfigWords(picDevice);
+        return pgmWritten + dataWritten;
     }
 
-    private void throwExceptionOnFailure (ZEPPPResponse response, String action) throws ZEPPPCommandException {
-        if (response.getCode() != ZEPPPResponse.StatusCode.STATUS_OK) {
-            throw new ZEPPPCommandException(response.getMessage(), action);
+    private interface BlockCommand {
+        void submit (ZEPPPCommandPipeline pipeline, int startWord, int numberOfWords) throws ZEPPPCommandException, IntelHexParsingException;
+    }
+
+    // Submits a command for each of the 32-word blocks in the set, skipping the address over the rest
+    private void forEachBlock (BitSet blocks, int sizeInWords, String areaName, BlockCommand command) throws ZEPPPCommandException, IntelHexParsingException {
+        if (blocks.isEmpty()) return;
+
+        seek(0, areaName);
+        ZEPPPCommandPipeline pipeline = newPipeline();
+        int position = 0;
+        for (int block = blocks.nextSetBit(0); block >= 0 && block * DATA_UNITS_PER_READWRITE < sizeInWords; block = blocks.nextSetBit(block + 1)) {
+            int start = block * DATA_UNITS_PER_READWRITE;
+            while (position < start) {
+                int count = Math.min(start - position, WordRunSegmenter.MAX_SKIP_WORDS);
+                pipeline.submit(
+                        encoder.commandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) count),
+                        String.format("Skip to %s 0x%04x", areaName, start),
+                        null
+                );
+                position += count;
+            }
+            int len = Math.min(DATA_UNITS_PER_READWRITE, sizeInWords - start);
+            command.submit(pipeline, start, len);
+            position = start + len;
         }
+        pipeline.flush();
+        walkedTo(false, position);
     }
 
-    private ZEPPPResponse sendCommand (String cmd) {
-        return ZEPPP.sendCommand(this.comm, cmd);
+    private int[] readConfigArea (int offset, int count, String action) throws ZEPPPCommandException, IntelHexParsingException {
+        selectConfigMemStart(offset);
+        ZEPPPResponse response = sendCommandWithByte(ZEPPP.ZEPPP_CMD_PGM_MEM_READ, (byte) count);
+        throwExceptionOnFailure(response, action);
+        walkedTo(true, offset + count);
+        return response.getMessageWordArray();
     }
 
-    private ZEPPPResponse sendCommandWithByte (String cmd, byte byteParam) {
-        return ZEPPP.sendCommand(this.comm, cmd + " " + HexFileParseUtils.hexByteString(byteParam));
+    private static int[] bufferWords (HexBuffer buffer, int count) {
+        int[] words = new int[count];
+        for (int w = 0; w < count; w++) words[w] = buffer.getWord(w * 2);
+        return words;
     }
 
-    private ZEPPPResponse sendPgmWriteCommand (byte writeSize, byte eraseMode, HexBuffer wordBuffer, int startWordNdx, int numberOfWords)  {
-        if (writeSize < 2) {
-            return sendPgmCmndWithByteAndBuffer (ZEPPP.ZEPPP_CMD_PGM_MEM_WRITE, eraseMode, wordBuffer, startWordNdx, numberOfWords);
-        } else {
-            // Devices that support block write normally has eraseMode = 1
-            return sendPgmCmndWithByteAndBuffer (ZEPPP.ZEPPP_CMD_PGM_MEM_BLOCKWRITE, writeSize, wordBuffer, startWordNdx, numberOfWords);
+    private static int writtenSegments (List<WordRunSegmenter.Segment> segments) {
+        int count = 0;
+        for (WordRunSegmenter.Segment segment : segments) {
+            if (segment.getType() != WordRunSegmenter.SegmentType.SKIP) count++;
         }
+        return count;
     }
 
-    private ZEPPPResponse sendPgmCmndWithByteAndBuffer (String cmd, byte byteParam, HexBuffer wordBuffer, int startWordNdx, int numberOfWords)  {
-        StringBuilder cmdStrBuilder =  new StringBuilder();
-        int bufferSizeInWords = wordBuffer.getBufferSize() / 2;
+    // True if any word of next has a bit set that is clear in the same word of current
+    private static boolean settingBits (int[] current, int[] next) {
+        for (int w = 0; w < Math.min(current.length, next.length); w++) {
+            if ((next[w] & ~current[w]) != 0) return true;
+        }
+        return false;
+    }
 
-        cmdStrBuilder.append(cmd);
-        cmdStrBuilder.append(' ');
-        cmdStrBuilder.append(HexFileParseUtils.hexByteString(byteParam));
+    private static int writtenWords (List<WordRunSegmenter.Segment> segments) {
+        int words = 0;
+        for (WordRunSegmenter.Segment segment : segments) {
+            if (segment.getType() == WordRunSegmenter.SegmentType.WRITE) words += segment.getLength();
+        }
+        return words;
+    }
 
-        int limit = startWordNdx + numberOfWords < bufferSizeInWords ? numberOfWords : bufferSizeInWords - startWordNdx;
-        for (int w = 0; w < limit; w++) {
-            cmdStrBuilder.append(' ');
-            int wordNdx = startWordNdx + w;
-            cmdStrBuilder.append(HexFileParseUtils.hexWordString(wordBuffer.getWord(wordNdx * 2)));
+    // Rows holding anything but the erased value: program cycles needed to write the area after an erase
+    private static int usedRows (HexBuffer memBuffer, int rowSize, int erasedValue) {
+        int sizeInWords = memBuffer.getBufferSize() / 2;
+        int rows = 0;
+        for (int row = 0; row < sizeInWords; row += rowSize) {
+            for (int w = row; w < Math.min(row + rowSize, sizeInWords); w++) {
+                if (memBuffer.getWord(w * 2) != erasedValue) {
+                    rows++;
+                    break;
+                }
+            }
         }
+        return rows;
+    }
 
-        return ZEPPP.sendCommand(this.comm, cmdStrBuilder.toString());
+    private void writeSegments (PicDevice picDevice, int memoryArea, ZEPPPCommandStream stream) throws ZEPPPCommandException, IntelHexParsingException {
+        forgetWrites(picDevice, memoryArea, stream);
+        seek(0, memoryArea == MEMORY_AREA_DATA ? "Data Memory" : "PGM Memory");
+        newPipeline().submitStream(stream, null);
+        walkedTo(false, streamEnd(stream));
     }
 
-    private ZEPPPResponse sendDataWriteCommand (byte eraseMode, HexBuffer byteBuffer, int start, int numberOfBytes)  {
-        StringBuilder cmdStrBuilder =  new StringBuilder();
-        int bufferSize = byteBuffer.getBufferSize();
+    // Where the address counter is left once a stream is written
+    private static int streamEnd (ZEPPPCommandStream stream) {
+        if (stream.size() == 0) return 0;
+        WordRunSegmenter.Segment last = stream.getSegment(stream.size() - 1);
+        return last.getStart() + last.getLength();
+    }
+
+    // Row writes are not checked by the interface: the blocks they went to must no longer differ
+    private void verifyWrittenBlocks (PicDevice picDevice, List<WordRunSegmenter.Segment> segments) throws ZEPPPCommandException, IntelHexParsingException {
+        BitSet blocks = new BitSet();
+        for (WordRunSegmenter.Segment segment : segments) {
+            if (segment.getType() != WordRunSegmenter.SegmentType.WRITE) continue;
+            blocks.set(segment.getStart() / DATA_UNITS_PER_READWRITE, (segment.getStart() + segment.getLength() - 1) / DATA_UNITS_PER_READWRITE + 1);
+        }
+        BitSet stillChanged = changedWords(picDevice, MEMORY_AREA_PGM, blocks);
+        if (!stillChanged.isEmpty()) {
+            int word = stillChanged.nextSetBit(0);
+            throw new ZEPPPCommandException(String.format("Expected 0x%04x", picDevice.getProgramMem().getWord(word * 2)),
+                    String.format("Verify PGM Memory at 0x%04x", word));
+        }
+    }
+
+    // Words of PGM or Data memory on the device that differ from picDevice, within the given 32-word blocks (all
+    // of them if null). With CRC support a CRC of each block tells which ones changed, and only those are read.
+    public BitSet changedWords (PicDevice picDevice, int memoryArea, BitSet blocks) throws ZEPPPCommandException, IntelHexParsingException {
+        return changedWords(picDevice, memoryArea, blocks, new BitSet());
+    }
+
+    // Same, also setting in settingBits the changed words that have bits to set (from 0 to 1): only an erase does that
+    public BitSet changedWords (PicDevice picDevice, int memoryArea, BitSet blocks, BitSet settingBits) throws ZEPPPCommandException, IntelHexParsingException {
+        boolean dataMem = memoryArea == MEMORY_AREA_DATA;
+        HexBuffer memBuffer = dataMem ? picDevice.getDataMem() : picDevice.getProgramMem();
+        String areaName = dataMem ? "Data Memory" : "PGM Memory";
+        int sizeInWords = memBuffer.getBufferSize() / 2;
+        BitSet candidates = blocks;
+        if (candidates == null) {
+            candidates = new BitSet();
+            candidates.set(0, (sizeInWords + DATA_UNITS_PER_READWRITE - 1) / DATA_UNITS_PER_READWRITE);
+        }
+
+        if (strategy.useMemoryCrc()) {
+            BitSet mismatched = new BitSet();
+            forEachBlock(candidates, sizeInWords, areaName, (pipeline, start, len) -> {
+                int expected = CRC16.computeWords(memBuffer, start, len, dataMem ? 0xff : 0xffff);
+                pipeline.submit(
+                        encoder.memoryCrcCommand((byte) memoryArea, len),
+                        String.format("%s CRC 0x%04x", areaName, start),
+                        response -> {
+                            if (response.getMessageWord() != expected) mismatched.set(start / DATA_UNITS_PER_READWRITE);
+                        }
+                );
+            });
+            candidates = mismatched;
+        }
+
+        BitSet changed = new BitSet();
+        String readCmd = dataMem ? ZEPPP.ZEPPP_CMD_DATA_MEM_READ : ZEPPP.ZEPPP_CMD_PGM_MEM_READ;
+        forEachBlock(candidates, sizeInWords, areaName, (pipeline, start, len) -> pipeline.submit(
+                encoder.commandWithByte(readCmd, (byte) len),
+                String.format("Read %s block 0x%04x", areaName, start),
+                response -> {
+                    int count = response.getMessageWords(responseWords);
+                    for (int w = 0; w < count; w++) {
+                        int word = memBuffer.getWord((start + w) * 2);
+                        if (responseWords[w] == word) continue;
+                        changed.set(start + w);
+                        if ((word & ~responseWords[w]) != 0) settingBits.set(start + w);
+                    }
+                }
+        ));
+        return changed;
+    }
 
-        cmdStrBuilder.append(ZEPPP.ZEPPP_CMD_DATA_MEM_WRITE);
-        cmdStrBuilder.append(' ');
-        cmdStrBuilder.append(HexFileParseUtils.hexByteString(eraseMode));
+    // Load Configuration works from anywhere in PGM memory, so LVP mode is only left if the address counter is
+    // already past the offset (see seek)
+    public void selectConfigMemStart (int withOffSet) throws ZEPPPCommandException {
+        if (!isCursorAtOrBefore(true, withOffSet)) {
+            boolean inPgmMemory = currentlyInLVPMode && cursorWord >= 0 && !cursorInConfig;
+            if (!inPgmMemory) resetLVP();
+            throwExceptionOnFailure(sendCommand(ZEPPP.ZEPPP_CMD_SELECT_CFG_MEM), "Select CFG Memory Area");
+            walkedTo(true, 0);
+        }
+        int from = cursorWord;
+        cursorWord = -1;
+        if (withOffSet > from) {
+            throwExceptionOnFailure(sendCommandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte)(withOffSet - from)), "Move to Address");
+        }
+    }
 
-        int limit = start + numberOfBytes < bufferSize ? numberOfBytes : bufferSize - start;
-        for (int w = 0; w < limit; w++) {
-            cmdStrBuilder.append(' ');
-            int byteNdx = start + w;
-            cmdStrBuilder.append(HexFileParseUtils.hexByteString((byte)(byteBuffer.getWord(byteNdx*2) & 0xff)));
+    private void throwExceptionOnFailure (ZEPPPResponse response, String action) throws ZEPPPCommandException {
+        if (response.getCode() != ZEPPPResponse.StatusCode.STATUS_OK) {
+            throw new ZEPPPCommandException(response.getMessage(), action);
         }
+    }
 
-        return ZEPPP.sendCommand(this.comm, cmdStrBuilder.toString());
+    // Every command sent one at a time goes through here, so a failure always leaves the link in sync
+    private ZEPPPResponse sendEncodedCommand (byte[] cmd) {
+        ZEPPPResponse response = ZEPPP.sendEncodedCommand(this.comm, cmd);
+        if (response.getCode() != ZEPPPResponse.StatusCode.STATUS_OK) resync();
+        return response;
+    }
+
+    private ZEPPPResponse sendCommand (String cmd) {
+        return sendEncodedCommand(ZEPPP.encodeTextCommand(cmd));
+    }
+
+    private ZEPPPResponse sendCommandWithByte (String cmd, byte byteParam) {
+        return sendEncodedCommand(encoder.commandWithByte(cmd, byteParam));
+    }
+
+    private ZEPPPResponse sendPgmWriteCommand (byte writeSize, byte eraseMode, HexBuffer wordBuffer, int startWordNdx, int numberOfWords)  {
+        return sendEncodedCommand(encoder.pgmWriteCommand(writeSize, eraseMode, wordBuffer, startWordNdx, numberOfWords));
     }
 }
@@ -0,0 +1,183 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## ZEPPPCommandEncoder                                                                                        ##
+// ##                                                                                                            ##
+// ## Builds the bytes of the memory commands sent to the ZEPPP interface, either as text or as binary frames.   ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.hardware.ZEPPPBinaryCodec;
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.intelhex.HexFileParseUtils;
+
+public class ZEPPPCommandEncoder {
+    private boolean binaryMode = false;
+
+    public boolean isBinaryMode () {
+        return binaryMode;
+    }
+
+    public void setBinaryMode (boolean binaryMode) {
+        this.binaryMode = binaryMode;
+    }
+
+    public byte[] commandWithByte (String cmd, byte byteParam) {
+        if (binaryMode) return ZEPPPBinaryCodec.encodeCommand(cmd, byteParam);
+        return textCommandWithByte(cmd, byteParam, 0);
+    }
+
+    public byte[] pgmWriteCommand (byte writeSize, byte eraseMode, HexBuffer wordBuffer, int startWordNdx, int numberOfWords)  {
+        if (writeSize < 2) {
+            return pgmCmndWithByteAndBuffer (ZEPPP.ZEPPP_CMD_PGM_MEM_WRITE, eraseMode, wordBuffer, startWordNdx, numberOfWords);
+        } else {
+            // Devices that support block write normally has eraseMode = 1
+            return pgmCmndWithByteAndBuffer (ZEPPP.ZEPPP_CMD_PGM_MEM_BLOCKWRITE, writeSize, wordBuffer, startWordNdx, numberOfWords);
+        }
+    }
+
+    public byte[] pgmFillCommand (byte writeSize, byte eraseMode, int numberOfWords, int value) {
+        if (writeSize < 2) {
+            return fillCommand(ZEPPP.ZEPPP_CMD_PGM_MEM_FILL, eraseMode, numberOfWords, value, true);
+        } else {
+            return fillCommand(ZEPPP.ZEPPP_CMD_PGM_MEM_BLOCKFILL, writeSize, numberOfWords, value, true);
+        }
+    }
+
+    public byte[] dataWriteCommand (byte eraseMode, HexBuffer byteBuffer, int start, int numberOfBytes)  {
+        int bufferSize = byteBuffer.getBufferSize();
+        int limit = start + numberOfBytes < bufferSize ? numberOfBytes : bufferSize - start;
+
+        if (binaryMode) return ZEPPPBinaryCodec.encodeCommand(ZEPPP.ZEPPP_CMD_DATA_MEM_WRITE, eraseMode, byteBuffer, start, limit);
+
+        byte[] cmd = textCommandWithByte(ZEPPP.ZEPPP_CMD_DATA_MEM_WRITE, eraseMode, limit * 3);
+        int pos = ZEPPP.ZEPPP_CMD_DATA_MEM_WRITE.length() + 3;
+
+        for (int w = 0; w < limit; w++) {
+            cmd[pos++] = ' ';
+            int byteNdx = start + w;
+            pos = HexFileParseUtils.putHexByte(cmd, pos, byteBuffer.getWord(byteNdx*2));
+        }
+        return cmd;
+    }
+
+    public byte[] dataFillCommand (byte eraseMode, int numberOfBytes, int value) {
+        return fillCommand(ZEPPP.ZEPPP_CMD_DATA_MEM_FILL, eraseMode, numberOfBytes, value & 0xff, false);
+    }
+
+    // Dump of a whole memory range, which comes back as a stream of binary frames
+    public byte[] memoryDumpCommand (byte memoryArea, int numberOfWords) {
+        return memoryRangeCommand(ZEPPP.ZEPPP_CMD_MEMORY_DUMP, memoryArea, numberOfWords);
+    }
+
+    // CRC of a memory range, computed by the interface
+    public byte[] memoryCrcCommand (byte memoryArea, int numberOfWords) {
+        return memoryRangeCommand(ZEPPP.ZEPPP_CMD_MEMORY_CRC, memoryArea, numberOfWords);
+    }
+
+    // The command for one of the segments of PGM memory given by WordRunSegmenter
+    public byte[] pgmSegmentCommand (WordRunSegmenter.Segment segment, byte writeSize, byte eraseMode, HexBuffer pgmMem) {
+        switch (segment.getType()) {
+            case SKIP: return commandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) segment.getLength());
+            case FILL: return pgmFillCommand(writeSize, eraseMode, segment.getLength(), segment.getValue());
+            default:   return pgmWriteCommand(writeSize, eraseMode, pgmMem, segment.getStart(), segment.getLength());
+        }
+    }
+
+    // The command for one of the segments of Data memory given by WordRunSegmenter
+    public byte[] dataSegmentCommand (WordRunSegmenter.Segment segment, byte eraseMode, HexBuffer dataMem) {
+        switch (segment.getType()) {
+            case SKIP: return commandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) segment.getLength());
+            case FILL: return dataFillCommand(eraseMode, segment.getLength(), segment.getValue());
+            default:   return dataWriteCommand(eraseMode, dataMem, segment.getStart(), segment.getLength());
+        }
+    }
+
+    // Bytes the command of a segment takes on the wire, without encoding it. All command names are 3 chars long.
+    public int segmentCommandSize (WordRunSegmenter.Segment segment, boolean dataMem) {
+        switch (segment.getType()) {
+            case SKIP: return binaryMode ? ZEPPPBinaryCodec.FRAME_OVERHEAD + 2 : 7;
+            case FILL:
+                if (binaryMode) return ZEPPPBinaryCodec.FRAME_OVERHEAD + (dataMem ? 5 : 6);
+                return dataMem ? 15 : 17;
+            default:
+                if (binaryMode) return ZEPPPBinaryCodec.FRAME_OVERHEAD + 2 + segment.getLength() * 2;
+                return 7 + segment.getLength() * (dataMem ? 3 : 5);
+        }
+    }
+
+    private byte[] pgmCmndWithByteAndBuffer (String cmd, byte byteParam, HexBuffer wordBuffer, int startWordNdx, int numberOfWords)  {
+        int bufferSizeInWords = wordBuffer.getBufferSize() / 2;
+        int limit = startWordNdx + numberOfWords < bufferSizeInWords ? numberOfWords : bufferSizeInWords - startWordNdx;
+
+        if (binaryMode) return ZEPPPBinaryCodec.encodeCommand(cmd, byteParam, wordBuffer, startWordNdx, limit);
+
+        byte[] cmdBytes = textCommandWithByte(cmd, byteParam, limit * 5);
+        int pos = cmd.length() + 3;
+
+        for (int w = 0; w < limit; w++) {
+            cmdBytes[pos++] = ' ';
+            int wordNdx = startWordNdx + w;
+            pos = HexFileParseUtils.putHexWord(cmdBytes, pos, wordBuffer.getWord(wordNdx * 2));
+        }
+        return cmdBytes;
+    }
+
+    // "<cmd> <byte>" and its terminator, with room in between for the given number of argument chars
+    private static byte[] textCommandWithByte (String cmd, byte byteParam, int argChars) {
+        byte[] cmdBytes = new byte[cmd.length() + 3 + argChars + ZEPPP.CMD_TERMINATOR.length()];
+        for (int c = 0; c < cmd.length(); c++) cmdBytes[c] = (byte) cmd.charAt(c);
+        cmdBytes[cmd.length()] = ' ';
+        HexFileParseUtils.putHexByte(cmdBytes, cmd.length() + 1, byteParam);
+        cmdBytes[cmdBytes.length - 1] = (byte) ZEPPP.CMD_TERMINATOR.charAt(0);
+        return cmdBytes;
+    }
+
+    // Bitmap of the non-blank blocks of a memory range
+    public byte[] blankCheckCommand (byte memoryArea, int numberOfWords) {
+        return memoryRangeCommand(ZEPPP.ZEPPP_CMD_BLANK_CHECK, memoryArea, numberOfWords);
+    }
+
+    // Programming timings (us): [PGM program word] [PGM erase+program word] [DATA program word] [Erase word]
+    // [Short delay byte] [Long delay byte]
+    public byte[] timingsCommand (int pgmProgramTime, int pgmEraseProgramTime, int dataProgramTime, int eraseTime, int shortDelay, int longDelay) {
+        if (binaryMode) {
+            return ZEPPPBinaryCodec.encodeCommand(ZEPPP.ZEPPP_CMD_SET_TIMINGS, new byte[] {
+                    (byte) pgmProgramTime, (byte) (pgmProgramTime >> 8),
+                    (byte) pgmEraseProgramTime, (byte) (pgmEraseProgramTime >> 8),
+                    (byte) dataProgramTime, (byte) (dataProgramTime >> 8),
+                    (byte) eraseTime, (byte) (eraseTime >> 8),
+                    (byte) shortDelay, (byte) longDelay
+            });
+        }
+        return ZEPPP.encodeTextCommand(ZEPPP.ZEPPP_CMD_SET_TIMINGS + " " + HexFileParseUtils.hexWordString(pgmProgramTime) + " " +
+                HexFileParseUtils.hexWordString(pgmEraseProgramTime) + " " + HexFileParseUtils.hexWordString(dataProgramTime) + " " + HexFileParseUtils.hexWordString(eraseTime) + " " +
+                HexFileParseUtils.hexByteString((byte) shortDelay) + " " + HexFileParseUtils.hexByteString((byte) longDelay));
+    }
+
+    // Range commands: [Memory area byte] [Count word]
+    private byte[] memoryRangeCommand (String cmd, byte memoryArea, int numberOfWords) {
+        if (binaryMode) {
+            return ZEPPPBinaryCodec.encodeCommand(cmd, new byte[] {memoryArea, (byte) numberOfWords, (byte) (numberOfWords >> 8)});
+        }
+        return ZEPPP.encodeTextCommand(cmd + " " + HexFileParseUtils.hexByteString(memoryArea) + " " +
+                HexFileParseUtils.hexWordString(numberOfWords));
+    }
+
+    // Fill commands: [Mode/Write size byte] [Count word] [Value word, or byte for data memory]
+    private byte[] fillCommand (String cmd, byte byteParam, int count, int value, boolean wordValue) {
+        if (binaryMode) {
+            byte[] args = wordValue
+                    ? new byte[] {byteParam, (byte) count, (byte) (count >> 8), (byte) value, (byte) (value >> 8)}
+                    : new byte[] {byteParam, (byte) count, (byte) (count >> 8), (byte) value};
+            return ZEPPPBinaryCodec.encodeCommand(cmd, args);
+        }
+
+        String valueStr = wordValue ? HexFileParseUtils.hexWordString(value) : HexFileParseUtils.hexByteString((byte) value);
+        return ZEPPP.encodeTextCommand(cmd + " " + HexFileParseUtils.hexByteString(byteParam) + " " +
+                HexFileParseUtils.hexWordString(count) + " " + valueStr);
+    }
+}
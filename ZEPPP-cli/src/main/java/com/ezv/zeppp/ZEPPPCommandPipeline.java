@@ -0,0 +1,253 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## ZEPPPCommandPipeline                                                                                       ##
+// ##                                                                                                            ##
+// ## Keeps several commands in flight to the ZEPPP interface, and matches their responses back in order.        ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.hardware.CommPort;
+import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.hardware.ZEPPPResponse;
+import com.ezv.zeppp.intelhex.IntelHexParsingException;
+
+import java.util.ArrayDeque;
+
+public class ZEPPPCommandPipeline {
+    // Responses are loaded into one instance the pipeline keeps reusing, so handlers must take what they need
+    // from it before returning.
+    public interface ResponseHandler {
+        void onResponse (ZEPPPResponse response) throws ZEPPPCommandException, IntelHexParsingException;
+    }
+
+    // Same, for the commands of a ZEPPPCommandStream
+    public interface StreamHandler {
+        void onResponse (int index, ZEPPPResponse response) throws ZEPPPCommandException, IntelHexParsingException;
+    }
+
+    private static class PendingCommand {
+        final int size;
+        final String action;
+        final ResponseHandler handler;
+
+        PendingCommand (int size, String action, ResponseHandler handler) {
+            this.size = size;
+            this.action = action;
+            this.handler = handler;
+        }
+    }
+
+    private final CommPort comm;
+    private final int windowCommands;
+    private final int windowBytes;
+    private final ArrayDeque<PendingCommand> pending = new ArrayDeque<>();
+    private int pendingBytes = 0;
+    private boolean resyncOnError = false;
+    private final ZEPPPResponse response = new ZEPPPResponse();
+
+    // The byte window must not exceed the interface input queue, or commands would be dropped while it's busy.
+    // A window of 1 command is plain stop-and-wait.
+    public ZEPPPCommandPipeline (CommPort comm, int windowCommands, int windowBytes) {
+        this.comm = comm;
+        this.windowCommands = Math.max(1, windowCommands);
+        this.windowBytes = windowBytes;
+    }
+
+    // For firmware that drops every command after an error until it gets RSY (see ZEPPP.resync)
+    public ZEPPPCommandPipeline withResyncOnError (boolean resyncOnError) {
+        this.resyncOnError = resyncOnError;
+        return this;
+    }
+
+    // Sends a command once there is room for it in the window, handling the oldest responses first if needed.
+    // The handler (if any) gets the response when it arrives. A failure is reported against the action of the
+    // exact command that failed.
+    public void submit (byte[] cmd, String action, ResponseHandler handler) throws ZEPPPCommandException, IntelHexParsingException {
+        int size = cmd.length;
+
+        while (!pending.isEmpty() && (pending.size() >= windowCommands || pendingBytes + size > windowBytes)) {
+            completeOldest();
+        }
+        ZEPPP.sendEncodedCommandNoWait(comm, cmd);
+        pending.add(new PendingCommand(size, action, handler));
+        pendingBytes += size;
+    }
+
+    // Waits for every command still in flight.
+    public void flush () throws ZEPPPCommandException, IntelHexParsingException {
+        while (!pending.isEmpty()) completeOldest();
+    }
+
+    private void completeOldest () throws ZEPPPCommandException, IntelHexParsingException {
+        PendingCommand cmd = pending.poll();
+        pendingBytes -= cmd.size;
+
+        ZEPPP.receiveResponse(comm, response);
+        try {
+            if (response.getCode() != ZEPPPResponse.StatusCode.STATUS_OK) {
+                throw new ZEPPPCommandException(response.getMessage(), cmd.action);
+            }
+            if (cmd.handler != null) cmd.handler.onResponse(response);
+        } catch (ZEPPPCommandException | IntelHexParsingException e) {
+            // Stop the window, and leave the link in sync for whatever comes next
+            discardPending();
+            throw e;
+        }
+    }
+
+    // Sends every command of the stream and handles their responses, with the same window as submit(). If the port
+    // is full duplex the commands go out from a thread of its own, the moment a response makes room for them.
+    // Otherwise they are sent from here, in between responses.
+    public void submitStream (ZEPPPCommandStream stream, StreamHandler handler) throws ZEPPPCommandException, IntelHexParsingException {
+        flush();
+        StreamSender sender = new StreamSender(stream);
+        Thread senderThread = null;
+        if (comm.isFullDuplex()) {
+            senderThread = new Thread(sender, "ZEPPP command sender");
+            senderThread.setDaemon(true);
+            senderThread.start();
+        }
+
+        int received = 0;
+        try {
+            for (; received < stream.size(); received++) {
+                if (senderThread == null) sender.sendWhileRoom();
+                int size = sender.awaitSent(received);
+
+                ZEPPP.receiveResponse(comm, response);
+                sender.release(size);
+                if (response.getCode() != ZEPPPResponse.StatusCode.STATUS_OK) {
+                    throw new ZEPPPCommandException(response.getMessage(), stream.getAction(received));
+                }
+                if (handler != null) handler.onResponse(received, response);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopStream(sender, senderThread);
+            throw new ZEPPPCommandException("Interrupted", stream.getAction(received));
+        } catch (ZEPPPCommandException | IntelHexParsingException | RuntimeException e) {
+            stopStream(sender, senderThread);
+            throw e;
+        }
+    }
+
+    // As with submit(), the link is left in sync before giving up
+    private void stopStream (StreamSender sender, Thread senderThread) {
+        int sent = sender.stop();
+        if (senderThread != null) {
+            try {
+                senderThread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            sent = sender.stop();
+        }
+        if (resyncOnError) {
+            ZEPPP.resync(comm);
+        } else {
+            for (int i = sender.getReleased(); i < sent; i++) ZEPPP.receiveResponse(comm, response);
+        }
+    }
+
+    // Sends the commands of a stream as the window allows, keeping count of what is in flight
+    private class StreamSender implements Runnable {
+        private final ZEPPPCommandStream stream;
+        private int sent = 0;
+        private int released = 0;
+        private int inFlightBytes = 0;
+        private boolean stopped = false;
+        private RuntimeException failure = null;
+
+        StreamSender (ZEPPPCommandStream stream) {
+            this.stream = stream;
+        }
+
+        public void run () {
+            try {
+                for (int i = 0; i < stream.size(); i++) {
+                    byte[] cmd = stream.getCommand(i);
+                    synchronized (this) {
+                        while (!stopped && !hasRoom(cmd.length)) wait();
+                        if (stopped) return;
+                    }
+                    send(cmd);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+            }
+        }
+
+        // Without a thread of its own. Sends what fits in the window, and at least the next command if none is
+        // in flight.
+        void sendWhileRoom () throws InterruptedException {
+            while (sent < stream.size()) {
+                byte[] cmd = stream.getCommand(sent);
+                if (!hasRoom(cmd.length)) return;
+                send(cmd);
+            }
+        }
+
+        private synchronized boolean hasRoom (int size) {
+            int inFlight = sent - released;
+            return inFlight == 0 || (inFlight < windowCommands && inFlightBytes + size <= windowBytes);
+        }
+
+        private void send (byte[] cmd) {
+            ZEPPP.sendEncodedCommandNoWait(comm, cmd);
+            synchronized (this) {
+                sent++;
+                inFlightBytes += cmd.length;
+                notifyAll();
+            }
+        }
+
+        // Waits until the command is on its way, and returns its size
+        synchronized int awaitSent (int index) throws InterruptedException {
+            while (sent <= index) {
+                if (failure != null) throw failure;
+                wait();
+            }
+            return stream.getCommand(index).length;
+        }
+
+        synchronized void release (int size) {
+            released++;
+            inFlightBytes -= size;
+            notifyAll();
+        }
+
+        // Number of responses taken
+        synchronized int getReleased () {
+            return released;
+        }
+
+        // Returns the number of commands sent
+        synchronized int stop () {
+            stopped = true;
+            notifyAll();
+            return sent;
+        }
+    }
+
+    // Firmware that halts on errors has dropped the commands sent after the failed one. Older firmware still runs
+    // them, so their responses are collected (and ignored).
+    private void discardPending () {
+        if (resyncOnError) {
+            pending.clear();
+            ZEPPP.resync(comm);
+        }
+        while (!pending.isEmpty()) {
+            pending.poll();
+            ZEPPP.receiveResponse(comm, response);
+        }
+        pendingBytes = 0;
+    }
+}
@@ -0,0 +1,114 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## ZEPPPCommandStream                                                                                         ##
+// ##                                                                                                            ##
+// ## Every command needed to write a memory area, encoded ahead of time by a thread of its own. The same stream ##
+// ## can be sent to any number of chips.                                                                        ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.intelhex.HexBuffer;
+
+import java.util.List;
+
+// Commands are handed out as soon as they are encoded, so sending can start while the rest are still being built
+// (see ZEPPPCommandPipeline.submitStream). Once encoded they never change.
+public class ZEPPPCommandStream {
+    public interface SegmentEncoder {
+        byte[] encode (WordRunSegmenter.Segment segment);
+    }
+
+    private final String memArea;
+    private final List<WordRunSegmenter.Segment> segments;
+    private final byte[][] commands;
+    // What the commands were built from, to tell whether they still apply (see matches)
+    private final Object settings;
+    private final byte[] image;
+    private int encoded = 0;
+    private long encodedBytes = 0;
+    private RuntimeException failure = null;
+
+    private ZEPPPCommandStream (String memArea, List<WordRunSegmenter.Segment> segments, Object settings, byte[] image) {
+        this.memArea = memArea;
+        this.segments = segments;
+        this.commands = new byte[segments.size()][];
+        this.settings = settings;
+        this.image = image;
+    }
+
+    // Starts encoding the segments of memory. settings should hold everything else the encoder depends on
+    // (mode, write size...), and be comparable with equals().
+    public static ZEPPPCommandStream encode (String memArea, HexBuffer memory, List<WordRunSegmenter.Segment> segments,
+                                             Object settings, SegmentEncoder encoder) {
+        ZEPPPCommandStream stream = new ZEPPPCommandStream(memArea, segments, settings,
+                memory.getBytes(0, memory.getBufferSize()));
+        Thread producer = new Thread(() -> stream.produce(encoder), "ZEPPP " + memArea + " encoder");
+        producer.setDaemon(true);
+        producer.start();
+        return stream;
+    }
+
+    private void produce (SegmentEncoder encoder) {
+        try {
+            for (int i = 0; i < commands.length; i++) {
+                byte[] cmd = encoder.encode(segments.get(i));
+                synchronized (this) {
+                    commands[i] = cmd;
+                    encoded = i + 1;
+                    encodedBytes += cmd.length;
+                    notifyAll();
+                }
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        }
+    }
+
+    // True if the stream was built from the same settings and memory contents
+    public boolean matches (HexBuffer memory, Object settings) {
+        if (!this.settings.equals(settings) || memory.getBufferSize() != image.length) return false;
+        for (int i = 0; i < image.length; i++) {
+            if ((byte) memory.getByte(i) != image[i]) return false;
+        }
+        return true;
+    }
+
+    public int size () {
+        return commands.length;
+    }
+
+    public WordRunSegmenter.Segment getSegment (int index) {
+        return segments.get(index);
+    }
+
+    // Waits until the command has been encoded
+    public synchronized byte[] getCommand (int index) throws InterruptedException {
+        while (index >= encoded) {
+            if (failure != null) throw failure;
+            wait();
+        }
+        return commands[index];
+    }
+
+    // Waits until the whole stream has been encoded, and returns its size in bytes
+    public synchronized long awaitEncoded () throws InterruptedException {
+        if (commands.length > 0) getCommand(commands.length - 1);
+        return encodedBytes;
+    }
+
+    // Only built when something has to be reported about the command
+    public String getAction (int index) {
+        WordRunSegmenter.Segment segment = segments.get(index);
+        switch (segment.getType()) {
+            case SKIP: return String.format("Skip empty %s block 0x%04x", memArea, segment.getStart());
+            case FILL: return String.format("Fill %s block 0x%04x", memArea, segment.getStart());
+            default:   return String.format("Write %s block 0x%04x", memArea, segment.getStart());
+        }
+    }
+}
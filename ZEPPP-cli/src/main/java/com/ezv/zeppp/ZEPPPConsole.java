@@ -11,11 +11,17 @@ package com.ezv.zeppp;
 // ################################################################################################################
 import com.ezv.zeppp.config.AppConfig;
 import com.ezv.zeppp.config.PICDeviceConfigEntry;
+import com.ezv.zeppp.hardware.CommPortBridge;
+import com.ezv.zeppp.hardware.ReplayCommPort;
 import com.ezv.zeppp.intelhex.IntelHexParsingException;
 import com.ezv.zeppp.pic.PicDevice;
+import com.ezv.zeppp.simulator.SimulatedPic;
+import com.ezv.zeppp.simulator.ZEPPPSimulator;
 
+import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.List;
 
 import static com.ezv.zeppp.ZEPPPCLICommand.CLICommandCode.*;
 
@@ -26,6 +32,12 @@ public class ZEPPPConsole {
     private static AppConfig programConfig = new AppConfig();
     private static ZEPPPClient zepppBridge = null;
     private static PicDevice picDevice = null;
+    // Arguments being parsed, and where the next command starts
+    private static ZEPPPSessionPlan session = new ZEPPPSessionPlan(new ArrayList<>());
+    private static int nextStep = 0;
+    // Hex file being written while reading (see -o), and the read commands still to go into it
+    private static HexFileBlockWriter streamingOutput = null;
+    private static int streamingReadsLeft = 0;
 
     private static ArrayList<ZEPPPCLICommand> commandList;
     private static boolean initialized = false;
@@ -42,7 +54,10 @@ public class ZEPPPConsole {
                 "Shows current CLI version."));
 
         commandList.add(new ZEPPPCLICommand(CLI_COMMAND_COMM, "c", "comm-port", "<COMM PORT>",
-                "Selects the COMM port where the interface is plugged in, and attempts to establish connection."));
+                "Selects the COMM port where the interface is plugged in, and attempts to establish connection. An interface\n\t"+
+                           "served by a bridge on another machine is reached with tcp://<host>:<TCP port>. With sim:<pic device>\n\t"+
+                           "a simulated interface with a blank PIC is used instead, taking the time the real ones would.\n\t"+
+                           "replay:<trace file> plays back a session recorded with -rec."));
 
         commandList.add(new ZEPPPCLICommand(CLI_COMMAND_DEVICE, "d", "device", "<pic device>",
                 "Selects the PIC device. Must be set before most other operations. If not specified\n\t"+
@@ -52,7 +67,8 @@ public class ZEPPPConsole {
                  "Reads an Intel HEX file into the PIC memory buffer."));
 
         commandList.add(new ZEPPPCLICommand(CLI_COMMAND_OUTPUT,"o", "output", "<filename>",
-                 "Writes the PIC memory buffer to an Intel HEX file."));
+                 "Writes the PIC memory buffer to an Intel HEX file. Placed before read commands, what they read is\n\t"+
+                           "written to the file as it arrives instead, and the file is complete as soon as the last one ends."));
 
         commandList.add(new ZEPPPCLICommand(CLI_COMMAND_READ_PGM_MEM,"rp", "read-pgm-mem", null,
                 "Reads PROGRAM Memory from the connected PIC device into the PIC memory buffer."));
@@ -112,6 +128,11 @@ public class ZEPPPConsole {
         commandList.add(new ZEPPPCLICommand(CLI_COMMAND_PROGRAM, "p", "program", null,
                 "Shorthand for a full 'chip erase' followed by a 'write all' operation."));
 
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_PROGRAM_CHANGES, "pc", "program-changes", null,
+                "Same result as 'program', but only rewrites the words that differ from what the connected PIC device\n\t"+
+                           "already holds, without erasing it. Re-flashing a small change takes seconds. If most of the\n\t"+
+                           "device would have to be rewritten anyway, it is fully programmed instead."));
+
         commandList.add(new ZEPPPCLICommand(CLI_COMMAND_WAIT, null, "wait", "<milliseconds>",
                 "Waits a given amount of time before continuing. Useful when you need to wait before the next step.\n\t"+
                            "Several Arduinos for instance reset themselves when a serial connection is established, and the\n\t"+
@@ -119,6 +140,52 @@ public class ZEPPPConsole {
                            "for this project, you'll need to add a 2000ms delay after the port has been opened, and before\n\t"+
                            "any operation on the PIC device or the interface is attempted."));
 
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_TEXT_MODE, "txt", "text-mode", null,
+                "Uses text commands only, even if the interface supports the more compact binary frames."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_BAUD_RATE, "b", "baud-rate", "<baud rate>",
+                "Switches the link with the interface to a faster baud rate: 250000, 500000 or 1000000. If the\n\t"+
+                           "interface can't be reached at the new rate, both ends go back to 115200."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_SKIP_UNCHANGED, "su", "skip-unchanged", null,
+                "Doesn't program the PGM and EEPROM words that already hold the value being written, saving a program\n\t"+
+                           "cycle for each of them. Only for devices that write one word at a time."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_DRY_RUN, "dry", "dry-run", null,
+                "Goes through the commands that follow without erasing or writing the PIC device. Writes show the\n\t"+
+                           "plan they would follow instead: the blocks, fills and skips, and how long they should take."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_VERIFY_WHILE_WRITING, "vw", "verify-while-writing", null,
+                "Writes PROGRAM Memory and User IDs one word at a time, each one read back by the interface as soon as\n\t"+
+                           "it is programmed (as EEPROM always is), instead of verifying them in a second pass. A failure\n\t"+
+                           "stops the write at once. Block write devices take a program cycle per word this way."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_FORCE_READS, "fr", "force-reads", null,
+                "Reads and verifies always go to the PIC device. Otherwise, what is already known of its contents\n\t"+
+                           "(read, written and read back, or verified earlier in the session) is not read again."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_ICSP_CLOCK, "clk", "icsp-clock", "<microseconds>",
+                "Sets the half period of the ICSP clock (2 by default, " + ZEPPPClient.ICSP_HALF_CLOCK_LIMIT + " at most). Use the value found by\n\t"+
+                           "a previous calibration."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_CALIBRATE_CLOCK, "cal", "calibrate-clock", null,
+                "Finds the fastest ICSP clock at which the Device ID and Config Word can be read over and over without\n\t"+
+                           "errors, and uses it (plus a safety margin) from then on."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_BRIDGE, "br", "bridge", "<TCP port>",
+                "Serves the interface on the given TCP port until the program is stopped, so it can be used from another\n\t"+
+                           "machine with -c tcp://<this host>:<TCP port>. Set the baud rate before this option, the remote end\n\t"+
+                           "can't change it."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_RECORD, "rec", "record", "<trace file>",
+                "Records every command and response exchanged with the interface, and when it happened, to the given file.\n\t"+
+                           "Must come right after -c. Running the same options with -c replay:<trace file> goes through the\n\t"+
+                           "session again without the interface."));
+
+        commandList.add(new ZEPPPCLICommand(CLI_COMMAND_REPLAY_SPEED, "rs", "replay-speed", "<factor>",
+                "Plays back a recorded session faster (e.g. 10) or slower (e.g. 0.5) than it went. 0 doesn't wait for\n\t"+
+                           "the responses at all."));
+
         commandList.add(new ZEPPPCLICommand(CLI_COMMAND_HELP, "h", "help", "<command>",
                 "Shows the description and parameters of a specific command or option."));
 
@@ -138,23 +205,33 @@ public class ZEPPPConsole {
             printHelp();
             return;
         }
-        try {
-            for (int i = 0; i < args.length; i += argumentsToSkip) {
-                argumentsToSkip = 1;
-                String key;
-                String value = "";
-
-                // Obtain a key-value pair, if possible
-                if (args[i].startsWith("-")) {
-                    key = args[i].substring(1);
-                    if (i < args.length - 1 && !args[i + 1].startsWith("-")) {
-                        value = args[i + 1];
-                        argumentsToSkip = 2;
-                    }
-                    runCommand (key, value);
-                } else {
-                    ZEPPPConsole.warning(String.format("Invalid argument '%s'", args[i]));
+        List<ZEPPPSessionPlan.Step> commands = new ArrayList<>();
+        for (int i = 0; i < args.length; i += argumentsToSkip) {
+            argumentsToSkip = 1;
+            String key;
+            String value = "";
+
+            // Obtain a key-value pair, if possible
+            if (args[i].startsWith("-")) {
+                key = args[i].substring(1);
+                if (i < args.length - 1 && !args[i + 1].startsWith("-")) {
+                    value = args[i + 1];
+                    argumentsToSkip = 2;
                 }
+                ZEPPPCLICommand command = identifyCommand(key);
+                commands.add(new ZEPPPSessionPlan.Step(key, command != null ? command.getCode() : null, value));
+            } else {
+                ZEPPPConsole.warning(String.format("Invalid argument '%s'", args[i]));
+            }
+        }
+
+        session = new ZEPPPSessionPlan(commands);
+        if (session.isReordered()) ZEPPPConsole.msg("Running the commands as: " + describeSession());
+        try {
+            List<List<ZEPPPSessionPlan.Step>> steps = session.getSteps();
+            for (int i = 0; i < steps.size(); i++) {
+                nextStep = i + 1;
+                runStep (steps.get(i));
             }
         } catch (ZEPPPCommandException ace) {
             critical(ace.getMessage());
@@ -173,13 +250,46 @@ public class ZEPPPConsole {
     }
 
     private static void closeInterface(){
-        if (zepppBridge != null) zepppBridge.exitLVPMode();
+        if (streamingOutput != null) {
+            ZEPPPConsole.warning("The reads to the Hex file did not complete");
+            finishStreamingOutput();
+        }
+        if (zepppBridge == null) return;
+        try {
+            zepppBridge.exitLVPMode();
+        } finally {
+            zepppBridge.close();
+        }
+    }
+
+    private static String describeSession () {
+        StringBuilder sb = new StringBuilder();
+        for (List<ZEPPPSessionPlan.Step> step : session.getSteps()) {
+            for (ZEPPPSessionPlan.Step command : step) {
+                sb.append(command.getCode() != null ? "-" + cmdStr(command.getCode()) : "-" + command.getKey());
+                if (!command.getValue().isEmpty()) sb.append(' ').append(command.getValue());
+                sb.append(' ');
+            }
+        }
+        return sb.toString().trim();
     }
 
-    private static void runCommand (String key, String value) throws Exception {
+    private static void runStep (List<ZEPPPSessionPlan.Step> step) throws Exception {
         long timeStart = System.currentTimeMillis();
-        boolean isTimed = parseCommandReturnTrueIfTimed(key, value);
-        if (isTimed) ZEPPPConsole.msg("That took " + (System.currentTimeMillis() - timeStart) + " ms");
+        long cpuStart = zepppBridge != null ? zepppBridge.getCpuTimeMs() : 0;
+        long sentStart = zepppBridge != null ? zepppBridge.getBytesSent() : 0;
+        long receivedStart = zepppBridge != null ? zepppBridge.getBytesReceived() : 0;
+        boolean isTimed = false;
+        for (ZEPPPSessionPlan.Step command : step) {
+            isTimed |= parseCommandReturnTrueIfTimed(command);
+        }
+        if (isTimed) {
+            ZEPPPConsole.msg("That took " + (System.currentTimeMillis() - timeStart) + " ms" +
+                    " (interface CPU time: " + (zepppBridge.getCpuTimeMs() - cpuStart) + " ms, " +
+                    (zepppBridge.getBytesSent() - sentStart) + " bytes sent, " +
+                    (zepppBridge.getBytesReceived() - receivedStart) + " bytes received" +
+                    (zepppBridge.getBaudRate() > 0 ? " at " + zepppBridge.getBaudRate() + " baud)" : " through the bridge)"));
+        }
     }
 
     private static ZEPPPCLICommand identifyCommand (String cmdName) {
@@ -190,20 +300,22 @@ public class ZEPPPConsole {
         return null;
     }
 
-    private static boolean parseCommandReturnTrueIfTimed (String key, String val) throws Exception {
-        String trimValue = val.trim();
-        ZEPPPCLICommand command;
+    private static boolean parseCommandReturnTrueIfTimed (ZEPPPSessionPlan.Step command) throws Exception {
+        String trimValue = command.getValue().trim();
 
-        command  = identifyCommand(key);
-        if (command == null) {
-            ZEPPPConsole.error(String.format("Unknown command '%s'", key));
+        if (command.getCode() == null) {
+            ZEPPPConsole.error(String.format("Unknown command '%s'", command.getKey()));
             printHelp();
             return false;
         }
 
         switch (command.getCode()) {
             case CLI_COMMAND_COMM:
-                zepppBridge = new ZEPPPClient(trimValue);
+                if (trimValue.startsWith(ZEPPPSimulator.DESCRIPTOR_PREFIX)) {
+                    zepppBridge = simulatedInterface(trimValue.substring(ZEPPPSimulator.DESCRIPTOR_PREFIX.length()));
+                } else {
+                    zepppBridge = new ZEPPPClient(trimValue);
+                }
                 return false;
 
             case CLI_COMMAND_INPUT:
@@ -214,8 +326,20 @@ public class ZEPPPConsole {
 
             case CLI_COMMAND_OUTPUT:
                 requirePICDevice();
-                ZEPPPConsole.msg("Saving buffers to Hex file: " + trimValue);
-                picDevice.saveToHexFile(trimValue);
+                if (streamingOutput != null) {
+                    ZEPPPConsole.warning("The reads to the Hex file did not complete");
+                    finishStreamingOutput();
+                }
+                int readsAhead = session.readsFrom(nextStep);
+                if (zepppBridge != null && readsAhead > 0) {
+                    ZEPPPConsole.msg("Saving what is read next to Hex file: " + trimValue);
+                    streamingOutput = new HexFileBlockWriter(picDevice.getDeviceCfg(), trimValue);
+                    streamingReadsLeft = readsAhead;
+                    zepppBridge.addBlockListener(streamingOutput);
+                } else {
+                    ZEPPPConsole.msg("Saving buffers to Hex file: " + trimValue);
+                    picDevice.saveToHexFile(trimValue);
+                }
                 return false;
 
             case CLI_COMMAND_DEVICE:
@@ -232,10 +356,10 @@ public class ZEPPPConsole {
 
             case CLI_COMMAND_VERIFY_ALL:
                 requireInterfaceAndPIC();
-                zepppBridge.verifyUserIDs(picDevice);
-                zepppBridge.verifyConfigWords(picDevice);
                 zepppBridge.verifyPgmMem(picDevice);
                 zepppBridge.verifyDataMem(picDevice);
+                zepppBridge.verifyUserIDs(picDevice);
+                zepppBridge.verifyConfigWords(picDevice);
                 break;
 
             case CLI_COMMAND_VERIFY_EEPROM:
@@ -305,10 +429,10 @@ public class ZEPPPConsole {
 
             case CLI_COMMAND_READ_ALL:
                 requireInterfaceAndPIC();
-                zepppBridge.readUserIDs (picDevice);
-                zepppBridge.readConfigWords (picDevice);
                 zepppBridge.readPgmMem (picDevice);
                 zepppBridge.readDataMem (picDevice);
+                zepppBridge.readUserIDs (picDevice);
+                zepppBridge.readConfigWords (picDevice);
                 break;
 
             case CLI_COMMAND_ERASE_PGM_MEM:
@@ -328,11 +452,75 @@ public class ZEPPPConsole {
 
             case CLI_COMMAND_PROGRAM:
                 requireInterfaceAndPIC();
-                // Erase all, then write all.
-                zepppBridge.chipErase(picDevice);
+                // Erase all (if there is anything to erase), then write all.
+                zepppBridge.chipEraseIfNotBlank(picDevice);
                 zepppBridge.writeAll(picDevice);
                 break;
 
+            case CLI_COMMAND_PROGRAM_CHANGES:
+                requireInterfaceAndPIC();
+                zepppBridge.programChanges(picDevice);
+                break;
+
+            case CLI_COMMAND_TEXT_MODE:
+                requireZEPPPInterface();
+                zepppBridge.setTextOnly(true);
+                ZEPPPConsole.msg("Text transfer mode enabled");
+                return false;
+
+            case CLI_COMMAND_BAUD_RATE:
+                requireZEPPPInterface();
+                zepppBridge.setBaudRate(Integer.parseInt(trimValue));
+                return false;
+
+            case CLI_COMMAND_SKIP_UNCHANGED:
+                requireZEPPPInterface();
+                zepppBridge.setSkipUnchanged(true);
+                return false;
+
+            case CLI_COMMAND_DRY_RUN:
+                requireZEPPPInterface();
+                zepppBridge.setDryRun(true);
+                return false;
+
+            case CLI_COMMAND_VERIFY_WHILE_WRITING:
+                requireZEPPPInterface();
+                zepppBridge.setVerifyWhileWriting(true);
+                return false;
+
+            case CLI_COMMAND_FORCE_READS:
+                requireZEPPPInterface();
+                zepppBridge.setForceReads(true);
+                return false;
+
+            case CLI_COMMAND_ICSP_CLOCK:
+                requireZEPPPInterface();
+                zepppBridge.setIcspHalfClock(Integer.parseInt(trimValue));
+                return false;
+
+            case CLI_COMMAND_CALIBRATE_CLOCK:
+                requireZEPPPInterface();
+                zepppBridge.calibrateIcspClock();
+                break;
+
+            case CLI_COMMAND_BRIDGE:
+                requireZEPPPInterface();
+                serveBridge(Integer.parseInt(trimValue));
+                return false;
+
+            case CLI_COMMAND_RECORD:
+                if (zepppBridge == null) ZEPPPConsole.critical("You need to select the interface first!");
+                zepppBridge.recordSession(trimValue);
+                ZEPPPConsole.msg("Recording session to " + trimValue);
+                return false;
+
+            case CLI_COMMAND_REPLAY_SPEED:
+                if (zepppBridge == null || !(zepppBridge.getCommPort() instanceof ReplayCommPort)) {
+                    throw new ZEPPPCommandException("Only for sessions played back with -c replay:<trace file>", "Set replay speed");
+                }
+                ((ReplayCommPort) zepppBridge.getCommPort()).setSpeed(Double.parseDouble(trimValue));
+                return false;
+
             case CLI_COMMAND_WAIT:
                 long ms = Long.parseLong(trimValue);
                 ZEPPPConsole.msg(String.format("Waiting %d ms ...", ms));
@@ -355,8 +543,26 @@ public class ZEPPPConsole {
 
         }
 
+        if (streamingOutput != null && isReadCommand(command.getCode()) && --streamingReadsLeft == 0) {
+            finishStreamingOutput();
+        }
         return true;
     }
+
+    private static boolean isReadCommand (ZEPPPCLICommand.CLICommandCode code) {
+        return code == CLI_COMMAND_READ_PGM_MEM || code == CLI_COMMAND_READ_CONF_WORDS || code == CLI_COMMAND_READ_USER_IDS ||
+               code == CLI_COMMAND_READ_EEPROM || code == CLI_COMMAND_READ_ALL;
+    }
+
+    private static void finishStreamingOutput () {
+        zepppBridge.removeBlockListener(streamingOutput);
+        try {
+            streamingOutput.close();
+        } catch (IOException e) {
+            error("Could not complete the Hex file: " + e.getMessage());
+        }
+        streamingOutput = null;
+    }
     // ##############################################################################################################
     // ##                                                                                                          ##
     // ##                           S  U  P  P  O  R  T     F  U  N  C  T  I  O  N  S                              ##
@@ -381,7 +587,7 @@ public class ZEPPPConsole {
     private static void printHelp () {
         msg ("USAGE:\n\t" + ZEPPP_CLI_APP_NAME + " <OPTIONS ....>\n");
         msg ("* Setting the COM port (where the interface is connected) is mandatory.");
-        msg ("* Options are run one by one in the same order they were passed.");
+        msg ("* Options are run one by one in the same order they were passed. Consecutive reads, verifies or writes\n  of single memory areas run together, in address order (CONFIG words last).");
         msg ("* This application has an internal PIC 'Memory' buffer that acts as a layer where data\n  can be read / written before it goes to a physical PIC or a file.\n");
         msg ("OPTIONS:");
         for (ZEPPPCLICommand cmd : commandList) {
@@ -393,6 +599,21 @@ public class ZEPPPConsole {
         msg ("\t" + String.format("%s -%s COM2 -%s 2000 -%s 16f877a -%s hex_file_with_eeprom_data.hex -%s", ZEPPP_CLI_APP_NAME, cmdStr(CLI_COMMAND_COMM), cmdStr(CLI_COMMAND_WAIT), cmdStr(CLI_COMMAND_DEVICE), cmdStr(CLI_COMMAND_INPUT), cmdStr(CLI_COMMAND_WRITE_EEPROM)));
     }
 
+    private static void serveBridge (int tcpPort) throws IOException {
+        CommPortBridge bridge = new CommPortBridge(zepppBridge.getCommPort(), tcpPort);
+        bridge.setListener(new CommPortBridge.Listener() {
+            public void clientConnected (String address) {
+                msg("-- Client connected from " + address);
+            }
+
+            public void clientDisconnected (String address) {
+                msg("-- Client at " + address + " disconnected");
+            }
+        });
+        msg("Serving the interface on TCP port " + bridge.getLocalPort() + ". Press Ctrl+C to stop.");
+        bridge.serve();
+    }
+
     private static void requirePICDevice () throws ZEPPPCommandException, IntelHexParsingException {
         if (picDevice == null) {
             PICDeviceConfigEntry picCfg = zepppBridge.autodetectDevice(programConfig);
@@ -405,6 +626,16 @@ public class ZEPPPConsole {
         requirePICDevice();
     }
 
+    private static ZEPPPClient simulatedInterface (String deviceName) throws ZEPPPCommandException {
+        PICDeviceConfigEntry picCfg = programConfig.getSupportedPIC(deviceName);
+        if (picCfg == null) {
+            throw new ZEPPPCommandException(String.format("Unsupported device '%s'. Valid devices are: %s", deviceName,
+                    programConfig.getSupportedPICDevices()), "Start simulated interface");
+        }
+        ZEPPPConsole.msg(String.format("Using a simulated interface with a blank %s", picCfg.getDeviceName()));
+        return new ZEPPPClient(new ZEPPPSimulator(new SimulatedPic(picCfg), true).createPort());
+    }
+
     private static void requireZEPPPInterface () throws ZEPPPCommandException {
         if (zepppBridge == null) ZEPPPConsole.critical("You need to connect to the interface first!");
         if (!zepppBridge.isConnected()) zepppBridge.connect();
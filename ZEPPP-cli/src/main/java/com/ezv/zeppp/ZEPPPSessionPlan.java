@@ -0,0 +1,137 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## ZEPPPSessionPlan                                                                                           ##
+// ##                                                                                                            ##
+// ## Turns the command line into the steps of a session. Consecutive reads (or verifies, or writes) of single   ##
+// ## memory areas are merged into one step and put in address order (PGM and Data memory, User IDs, then the   ##
+// ## Config Words), so the address counter is walked forward instead of reset for each of them.                ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.ezv.zeppp.ZEPPPCLICommand.CLICommandCode.*;
+
+public class ZEPPPSessionPlan {
+    // Same memory area order for each kind: the Config Words always go last (see ZEPPPClient.writeAll)
+    private static final List<ZEPPPCLICommand.CLICommandCode> READS = Arrays.asList(
+            CLI_COMMAND_READ_PGM_MEM, CLI_COMMAND_READ_EEPROM, CLI_COMMAND_READ_USER_IDS, CLI_COMMAND_READ_CONF_WORDS);
+    private static final List<ZEPPPCLICommand.CLICommandCode> VERIFIES = Arrays.asList(
+            CLI_COMMAND_VERIFY_PGM_MEM, CLI_COMMAND_VERIFY_EEPROM, CLI_OOMMAND_VERIFY_USER_IDS, CLI_COMMAND_VERIFY_CONF_WORDS);
+    private static final List<ZEPPPCLICommand.CLICommandCode> WRITES = Arrays.asList(
+            CLI_COMMAND_WRITE_PGM_MEM, CLI_COMMAND_WRITE_EEPROM, CLI_COMMAND_WRITE_USER_IDS, CLI_COMMAND_WRITE_CONF_WORDS);
+
+    public static class Step {
+        private final String key;
+        private final ZEPPPCLICommand.CLICommandCode code;
+        private final String value;
+
+        // code is null for commands that weren't recognized
+        public Step (String key, ZEPPPCLICommand.CLICommandCode code, String value) {
+            this.key = key;
+            this.code = code;
+            this.value = value;
+        }
+
+        public String getKey () {
+            return key;
+        }
+
+        public ZEPPPCLICommand.CLICommandCode getCode () {
+            return code;
+        }
+
+        public String getValue () {
+            return value;
+        }
+    }
+
+    private final List<List<Step>> steps = new ArrayList<>();
+    private boolean reordered = false;
+
+    // Commands in the order they were passed
+    public ZEPPPSessionPlan (List<Step> commands) {
+        List<Step> run = new ArrayList<>();
+        List<ZEPPPCLICommand.CLICommandCode> runKind = null;
+
+        for (Step command : commands) {
+            List<Step> expanded = expand(command);
+            List<ZEPPPCLICommand.CLICommandCode> kind = kindOf(expanded.get(0).getCode());
+            if (kind == null || kind != runKind) {
+                addRun(run);
+                run = new ArrayList<>();
+            }
+            runKind = kind;
+            if (kind == null) {
+                steps.add(expanded);
+            } else {
+                run.addAll(expanded);
+            }
+        }
+        addRun(run);
+    }
+
+    // "All" commands are the four single area ones
+    private static List<Step> expand (Step command) {
+        List<ZEPPPCLICommand.CLICommandCode> areas = null;
+        if (command.getCode() == CLI_COMMAND_READ_ALL) areas = READS;
+        if (command.getCode() == CLI_COMMAND_VERIFY_ALL) areas = VERIFIES;
+        if (areas == null) return Arrays.asList(command);
+
+        List<Step> expanded = new ArrayList<>();
+        for (ZEPPPCLICommand.CLICommandCode code : areas) expanded.add(new Step(command.getKey(), code, command.getValue()));
+        return expanded;
+    }
+
+    private static List<ZEPPPCLICommand.CLICommandCode> kindOf (ZEPPPCLICommand.CLICommandCode code) {
+        if (READS.contains(code)) return READS;
+        if (VERIFIES.contains(code)) return VERIFIES;
+        if (WRITES.contains(code)) return WRITES;
+        return null;
+    }
+
+    // A run of the same kind becomes a single step, in area order and with each area once
+    private void addRun (List<Step> run) {
+        if (run.isEmpty()) return;
+        List<ZEPPPCLICommand.CLICommandCode> kind = kindOf(run.get(0).getCode());
+        List<Step> fused = new ArrayList<>();
+        for (Step step : run) {
+            boolean repeated = false;
+            for (Step other : fused) repeated |= other.getCode() == step.getCode();
+            if (!repeated) fused.add(step);
+        }
+        fused.sort(Comparator.comparingInt(step -> kind.indexOf(step.getCode())));
+
+        if (fused.size() != run.size()) reordered = true;
+        for (int i = 0; i < fused.size(); i++) reordered |= fused.get(i) != run.get(i);
+        steps.add(fused);
+    }
+
+    // Each step is timed as a whole, and its commands run in order
+    public List<List<Step>> getSteps () {
+        return steps;
+    }
+
+    // True if anything was merged or moved (beyond expanding "all" commands)
+    public boolean isReordered () {
+        return reordered;
+    }
+
+    // Read commands in the steps from the given one on, up to the next output file (which takes the reads after it)
+    public int readsFrom (int step) {
+        int reads = 0;
+        for (int i = step; i < steps.size(); i++) {
+            for (Step command : steps.get(i)) {
+                if (command.getCode() == CLI_COMMAND_OUTPUT) return reads;
+                if (READS.contains(command.getCode())) reads++;
+            }
+        }
+        return reads;
+    }
+}
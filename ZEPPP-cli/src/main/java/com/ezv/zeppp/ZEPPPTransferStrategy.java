@@ -0,0 +1,142 @@
+package com.ezv.zeppp;
+
+// ################################################################################################################
+// ## ZEPPPTransferStrategy                                                                                      ##
+// ##                                                                                                            ##
+// ## Picks the fastest way of moving data to and from the interface, out of what its firmware supports.         ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.hardware.ZEPPPCapabilities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ZEPPPTransferStrategy {
+    private final int pipelineCommands;
+    private final int pipelineWindowBytes;
+    private final boolean binaryFrames;
+    private final boolean fillCommands;
+    private final boolean memoryDump;
+    private final boolean memoryCrc;
+    private final boolean blankCheck;
+    private final boolean skipUnchanged;
+    private final boolean setTimings;
+    private final boolean icspClock;
+    private final int maxWriteWords;
+    private final int maxReadWords;
+    private final int baudRateCount;
+
+    private ZEPPPTransferStrategy (int pipelineCommands, int pipelineWindowBytes, boolean binaryFrames, boolean fillCommands,
+                                   boolean memoryDump, boolean memoryCrc, boolean blankCheck,
+                                   boolean skipUnchanged, boolean setTimings, boolean icspClock,
+                                   int maxWriteWords, int maxReadWords, int baudRateCount) {
+        this.pipelineCommands = pipelineCommands;
+        this.pipelineWindowBytes = pipelineWindowBytes;
+        this.binaryFrames = binaryFrames;
+        this.fillCommands = fillCommands;
+        this.memoryDump = memoryDump;
+        this.memoryCrc = memoryCrc;
+        this.blankCheck = blankCheck;
+        this.skipUnchanged = skipUnchanged;
+        this.setTimings = setTimings;
+        this.icspClock = icspClock;
+        this.maxWriteWords = maxWriteWords;
+        this.maxReadWords = maxReadWords;
+        this.baudRateCount = baudRateCount;
+    }
+
+    // Binary frames are used whenever available, unless textOnly is set (e.g. to watch the traffic on a sniffer)
+    public static ZEPPPTransferStrategy select (ZEPPPCapabilities caps, boolean textOnly) {
+        int windowBytes = caps.getInputQueueSize();
+        return new ZEPPPTransferStrategy(
+                windowBytes > 0 ? ZEPPPClient.PIPELINE_MAX_COMMANDS : 1,
+                windowBytes > 0 ? windowBytes : Integer.MAX_VALUE,
+                !textOnly && caps.has(ZEPPPCapabilities.CAP_BINARY_FRAMES),
+                caps.has(ZEPPPCapabilities.CAP_FILL_COMMANDS),
+                // The dump is always streamed as binary frames
+                !textOnly && caps.has(ZEPPPCapabilities.CAP_MEMORY_DUMP),
+                caps.has(ZEPPPCapabilities.CAP_MEMORY_CRC),
+                caps.has(ZEPPPCapabilities.CAP_BLANK_CHECK),
+                caps.has(ZEPPPCapabilities.CAP_SKIP_UNCHANGED),
+                caps.has(ZEPPPCapabilities.CAP_SET_TIMINGS),
+                caps.has(ZEPPPCapabilities.CAP_ICSP_CLOCK),
+                Math.min(ZEPPPClient.DATA_UNITS_PER_READWRITE, caps.getMaxWriteWords()),
+                Math.min(ZEPPPClient.RESPONSE_MAX_WORDS, caps.getMaxReadWords()),
+                Math.min(ZEPPPClient.ZEPPP_SUPPORTED_BAUD_RATES.length, caps.getBaudRateCount())
+        );
+    }
+
+    public int getPipelineCommands () {
+        return pipelineCommands;
+    }
+
+    public int getPipelineWindowBytes () {
+        return pipelineWindowBytes;
+    }
+
+    public boolean useBinaryFrames () {
+        return binaryFrames;
+    }
+
+    public boolean useFillCommands () {
+        return fillCommands;
+    }
+
+    public boolean useMemoryDump () {
+        return memoryDump;
+    }
+
+    public boolean useMemoryCrc () {
+        return memoryCrc;
+    }
+
+    public boolean useBlankCheck () {
+        return blankCheck;
+    }
+
+    // Only reported: skipping unchanged words is up to the user
+    public boolean supportsSkipUnchanged () {
+        return skipUnchanged;
+    }
+
+    public boolean useDeviceTimings () {
+        return setTimings;
+    }
+
+    public boolean supportsIcspClock () {
+        return icspClock;
+    }
+
+    public int getMaxWriteWords () {
+        return maxWriteWords;
+    }
+
+    // Most words a single read command returns. Fewer are asked for at slow ICSP clocks (see ZEPPPClient.wordsPerCommand).
+    public int getMaxReadWords () {
+        return maxReadWords;
+    }
+
+    public boolean supportsBaudRate (int baudRate) {
+        for (int i = 0; i < baudRateCount; i++) {
+            if (ZEPPPClient.ZEPPP_SUPPORTED_BAUD_RATES[i] == baudRate) return true;
+        }
+        return false;
+    }
+
+    public String toString () {
+        List<String> features = new ArrayList<>();
+
+        if (pipelineCommands > 1) features.add(String.format("pipelining (%d commands / %d bytes)", pipelineCommands, pipelineWindowBytes));
+        features.add(binaryFrames ? "binary frames" : "text commands");
+        if (fillCommands) features.add("fill commands");
+        if (memoryDump) features.add("memory dump");
+        if (memoryCrc) features.add("CRC verify");
+        if (blankCheck) features.add("blank check");
+        if (setTimings) features.add("device timings");
+        if (baudRateCount > 1) features.add("up to " + ZEPPPClient.ZEPPP_SUPPORTED_BAUD_RATES[baudRateCount - 1] + " baud");
+        return String.join(", ", features);
+    }
+}
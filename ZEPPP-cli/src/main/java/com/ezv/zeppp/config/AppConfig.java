@@ -14,6 +14,18 @@ import java.util.Map;
 import java.util.Set;
 
 public class AppConfig {
+    // PGM program cycle times (us): the maximum from each family's programming specification, plus a margin.
+    // DATA program and erase times are left at the (worst case) defaults.
+    private static final int PGM_TIME_16F6XX  = 3000;
+    private static final int PGM_TIME_16F87XA = 2000;
+    private static final int PGM_TIME_16F8X   = 2000;
+    // Begin Erase Programming cycle (08h) times (us), for word writes and the Config Words. The cycle erases before
+    // it programs, so it keeps the old 5 ms: the spec maximum is 5 ms on the 16F62xA (DS41196), 4 ms on the
+    // 16F87XA (DS39589) and 2 ms on the 16F87/88 (DS39607).
+    private static final int ERASE_PGM_TIME_16F6XX  = 5000;
+    private static final int ERASE_PGM_TIME_16F87XA = 5000;
+    private static final int ERASE_PGM_TIME_16F8X   = 5000;
+
     PICDeviceConfigEntry selectedDevice;
     private HashMap<String, PICDeviceConfigEntry> supportedPICs;
 
@@ -39,6 +51,8 @@ public class AppConfig {
                         .withChipErase((byte)0)
                         .withPgmEraseMode((byte)0)
                         .withPgmWriteSize((byte)1)
+                        .withPgmProgramTime(PGM_TIME_16F6XX)
+                        .withPgmEraseProgramTime(ERASE_PGM_TIME_16F6XX)
         );
 
         addSupportedPIC (
@@ -53,6 +67,8 @@ public class AppConfig {
                         .withChipErase((byte)0)
                         .withPgmEraseMode((byte)0)
                         .withPgmWriteSize((byte)1)
+                        .withPgmProgramTime(PGM_TIME_16F6XX)
+                        .withPgmEraseProgramTime(ERASE_PGM_TIME_16F6XX)
         );
 
         addSupportedPIC (
@@ -67,6 +83,8 @@ public class AppConfig {
                         .withChipErase((byte)0)
                         .withPgmEraseMode((byte)0)
                         .withPgmWriteSize((byte)1)
+                        .withPgmProgramTime(PGM_TIME_16F6XX)
+                        .withPgmEraseProgramTime(ERASE_PGM_TIME_16F6XX)
         );
     }
 
@@ -83,6 +101,8 @@ public class AppConfig {
                         .withChipErase((byte)1)
                         .withPgmEraseMode((byte)0)
                         .withPgmWriteSize((byte)8)
+                        .withPgmProgramTime(PGM_TIME_16F87XA)
+                        .withPgmEraseProgramTime(ERASE_PGM_TIME_16F87XA)
         );
 
         addSupportedPIC (
@@ -97,6 +117,8 @@ public class AppConfig {
                         .withChipErase((byte)1)
                         .withPgmEraseMode((byte)0)
                         .withPgmWriteSize((byte)8)
+                        .withPgmProgramTime(PGM_TIME_16F87XA)
+                        .withPgmEraseProgramTime(ERASE_PGM_TIME_16F87XA)
         );
 
         addSupportedPIC (
@@ -111,6 +133,8 @@ public class AppConfig {
                         .withChipErase((byte)1)
                         .withPgmEraseMode((byte)0)
                         .withPgmWriteSize((byte)8)
+                        .withPgmProgramTime(PGM_TIME_16F87XA)
+                        .withPgmEraseProgramTime(ERASE_PGM_TIME_16F87XA)
         );
 
         addSupportedPIC (
@@ -125,6 +149,8 @@ public class AppConfig {
                         .withChipErase((byte)1)
                         .withPgmEraseMode((byte)0)
                         .withPgmWriteSize((byte)8)
+                        .withPgmProgramTime(PGM_TIME_16F87XA)
+                        .withPgmEraseProgramTime(ERASE_PGM_TIME_16F87XA)
         );
     }
 
@@ -141,6 +167,9 @@ public class AppConfig {
                         .withChipErase((byte)1)
                         .withPgmEraseMode((byte)1)
                         .withPgmWriteSize((byte)4)
+                        .withPgmEraseRowSize(32)
+                        .withPgmProgramTime(PGM_TIME_16F8X)
+                        .withPgmEraseProgramTime(ERASE_PGM_TIME_16F8X)
         );
 
         addSupportedPIC (
@@ -155,14 +184,21 @@ public class AppConfig {
                         .withChipErase((byte)1)
                         .withPgmEraseMode((byte)1)
                         .withPgmWriteSize((byte)4)
+                        .withPgmEraseRowSize(32)
+                        .withPgmProgramTime(PGM_TIME_16F8X)
+                        .withPgmEraseProgramTime(ERASE_PGM_TIME_16F8X)
         );
     }
 
     public boolean setSelectedDevice (String name) {
-        this.selectedDevice = this.supportedPICs.get(name.toLowerCase());
+        this.selectedDevice = getSupportedPIC(name);
         return this.selectedDevice != null;
     }
 
+    public PICDeviceConfigEntry getSupportedPIC (String name) {
+        return this.supportedPICs.get(name.toLowerCase());
+    }
+
     public PICDeviceConfigEntry getSelectedDevice () {
         return selectedDevice;
     }
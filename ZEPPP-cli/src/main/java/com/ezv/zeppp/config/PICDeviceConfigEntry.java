@@ -21,6 +21,22 @@ public class PICDeviceConfigEntry {
     private byte chipErase = 0;
     private byte pgmEraseMode = 0;
     private byte pgmWriteSize = 1;
+    // Words erased by the Begin Erase that starts each block write: the row the address is in. 0 if it only erases
+    // the words it programs.
+    private int pgmEraseRowSize = 0;
+    // Programming timings in microseconds. The defaults are the worst case of all the supported devices.
+    private int pgmProgramTime = DEFAULT_PROGRAM_TIME;
+    // Begin Erase Programming cycle (08h) on PGM/config memory: the word is erased and then programmed
+    private int pgmEraseProgramTime = DEFAULT_PROGRAM_TIME;
+    private int dataProgramTime = DEFAULT_PROGRAM_TIME;
+    private int eraseTime = DEFAULT_ERASE_TIME;
+    private int shortDelay = DEFAULT_SHORT_DELAY;
+    private int longDelay = DEFAULT_LONG_DELAY;
+
+    public static final int DEFAULT_PROGRAM_TIME = 5000;
+    public static final int DEFAULT_ERASE_TIME   = 5000;
+    public static final int DEFAULT_SHORT_DELAY  = 5;
+    public static final int DEFAULT_LONG_DELAY   = 10;
 
     public PICDeviceConfigEntry (String deviceName) {
         this.deviceName = deviceName;
@@ -66,6 +82,34 @@ public class PICDeviceConfigEntry {
         return pgmWriteSize;
     }
 
+    public int getPgmEraseRowSize () {
+        return pgmEraseRowSize;
+    }
+
+    public int getPgmProgramTime () {
+        return pgmProgramTime;
+    }
+
+    public int getPgmEraseProgramTime () {
+        return pgmEraseProgramTime;
+    }
+
+    public int getDataProgramTime () {
+        return dataProgramTime;
+    }
+
+    public int getEraseTime () {
+        return eraseTime;
+    }
+
+    public int getShortDelay () {
+        return shortDelay;
+    }
+
+    public int getLongDelay () {
+        return longDelay;
+    }
+
     public String getDeviceName () {
         return deviceName;
     }
@@ -119,4 +163,39 @@ public class PICDeviceConfigEntry {
         this.pgmWriteSize = pgmWriteSize;
         return this;
     }
+
+    public PICDeviceConfigEntry withPgmEraseRowSize (int pgmEraseRowSize) {
+        this.pgmEraseRowSize = pgmEraseRowSize;
+        return this;
+    }
+
+    public PICDeviceConfigEntry withPgmProgramTime (int pgmProgramTime) {
+        this.pgmProgramTime = pgmProgramTime;
+        return this;
+    }
+
+    public PICDeviceConfigEntry withPgmEraseProgramTime (int pgmEraseProgramTime) {
+        this.pgmEraseProgramTime = pgmEraseProgramTime;
+        return this;
+    }
+
+    public PICDeviceConfigEntry withDataProgramTime (int dataProgramTime) {
+        this.dataProgramTime = dataProgramTime;
+        return this;
+    }
+
+    public PICDeviceConfigEntry withEraseTime (int eraseTime) {
+        this.eraseTime = eraseTime;
+        return this;
+    }
+
+    public PICDeviceConfigEntry withShortDelay (int shortDelay) {
+        this.shortDelay = shortDelay;
+        return this;
+    }
+
+    public PICDeviceConfigEntry withLongDelay (int longDelay) {
+        this.longDelay = longDelay;
+        return this;
+    }
 }
\ No newline at end of file
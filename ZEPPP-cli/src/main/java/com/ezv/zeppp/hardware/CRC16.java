@@ -0,0 +1,55 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## CRC16                                                                                                      ##
+// ##                                                                                                            ##
+// ## CRC-16/CCITT (poly 0x1021, init 0xFFFF), the same checksum the ZEPPP firmware uses for binary frames.      ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.intelhex.HexBuffer;
+
+public class CRC16 {
+    public static final int INITIAL_VALUE = 0xFFFF;
+    private static final int POLYNOMIAL   = 0x1021;
+    private static final int[] TABLE      = new int[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int crc = b << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            TABLE[b] = crc & 0xffff;
+        }
+    }
+
+    private CRC16 () {
+    }
+
+    public static int update (int crc, int b) {
+        return ((crc << 8) ^ TABLE[((crc >> 8) ^ b) & 0xff]) & 0xffff;
+    }
+
+    public static int update (int crc, byte[] data, int offset, int len) {
+        for (int i = offset; i < offset + len; i++) crc = update(crc, data[i]);
+        return crc;
+    }
+
+    public static int compute (byte[] data, int offset, int len) {
+        return update(INITIAL_VALUE, data, offset, len);
+    }
+
+    // CRC of a range of words in a memory buffer, as the firmware CRC command computes it: each word LSB first,
+    // masked to the bits the memory actually holds.
+    public static int computeWords (HexBuffer buffer, int startWord, int numberOfWords, int mask) {
+        int crc = INITIAL_VALUE;
+        for (int w = startWord; w < startWord + numberOfWords; w++) {
+            int word = buffer.getWord(w * 2) & mask;
+            crc = update(update(crc, word), word >> 8);
+        }
+        return crc;
+    }
+}
@@ -3,63 +3,80 @@ package com.ezv.zeppp.hardware;
 // ################################################################################################################
 // ## CommPort                                                                                                   ##
 // ##                                                                                                            ##
-// ## Helper class to initialize and manage a serial port using jSerialComm.                                     ##
+// ## Link with the ZEPPP interface: a local serial port, a bridge on another machine, or something in memory.   ##
 // ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
 // ##                                                                                                            ##
 // ## Author: Elias Zacarias                                                                                     ##
 // ##                                                                                                            ##
 // ################################################################################################################
-import com.fazecast.jSerialComm.SerialPort;
-import java.io.InputStream;
-
-public class CommPort {
-    public static final int READ_TIMEOUT = 50;
-    public static final int COMMAND_FIRST_READ_TIMEOUT = 500;
-
-    private SerialPort port;
-
-    public CommPort (String descriptor, int baudRate) {
-        port = SerialPort.getCommPort(descriptor);
-        port.setBaudRate(baudRate);
-        port.setNumDataBits(8);
-        port.setNumStopBits(1);
-        port.setParity(SerialPort.NO_PARITY);
-        port.setFlowControl(SerialPort.FLOW_CONTROL_DISABLED);
-    }
+import java.io.IOException;
+
+public interface CommPort {
+    int READ_TIMEOUT = 50;
+    int COMMAND_FIRST_READ_TIMEOUT = 500;
+    String TCP_DESCRIPTOR_PREFIX = "tcp://";
+    String REPLAY_DESCRIPTOR_PREFIX = "replay:";
+
+    boolean open ();
+
+    void close ();
+
+    // 0 when the rate is not known on this end (e.g. it's set by a remote bridge)
+    int getBaudRate ();
+
+    // Changes the rate of the open port. Whatever was received at the old rate is dropped.
+    void setBaudRate (int baudRate);
+
+    boolean canChangeBaudRate ();
+
+    byte[] sendAndWaitResponse (byte[] data);
 
-    public boolean open() {
-        port.openPort();
-        return port.isOpen();
+    // Sends without waiting for a response, so several commands can be in flight at once.
+    // Their responses must then be collected in order with awaitResponse().
+    void send (byte[] data);
+
+    byte[] awaitResponse ();
+
+    // Same as awaitResponse(), straight into a response the caller reuses. Ports that can hand out the bytes
+    // without copying them first override it.
+    default void awaitResponse (ZEPPPResponse response) {
+        byte[] data = awaitResponse();
+        response.load(data, 0, data.length);
     }
 
-    public void close() {
-        port.closePort();
+    // Drops whatever was received and not yet picked up
+    void discardInput ();
+
+    // Whether one thread can send while another waits for responses
+    default boolean isFullDuplex () {
+        return false;
     }
 
-    public String sendAndWaitResponse (String str) {
-        StringBuilder responseBuilder = new StringBuilder();
-
-        port.writeBytes(str.getBytes(), str.length());
-
-        // Using the input stream is faster than using "readBytes" with a buffer and the timeout.
-        InputStream stream = port.getInputStream();
-
-        // It also allows us to have a different timeout for the first byte (that should take longer
-        // since the other end has to first parse and execute the command we just sent before sending data)
-        // than the bytes that follow.
-        int timeOut = COMMAND_FIRST_READ_TIMEOUT;
-        try {
-            long lastTime = System.currentTimeMillis();
-            while (System.currentTimeMillis() - lastTime < timeOut) {
-                if (stream.available() != 0) {
-                    responseBuilder.append((char)stream.read());
-                    lastTime = System.currentTimeMillis();
-                    timeOut = READ_TIMEOUT;
-                }
+    // CPU time spent by this port, both by the callers waiting on responses and by the receive side.
+    // Returns 0 if the JVM can't measure thread CPU time.
+    long getCpuTimeNanos ();
+
+    long getBytesSent ();
+
+    long getBytesReceived ();
+
+    // "tcp://host:port" for an interface served by a bridge, "replay:<trace file>" for a recorded session (see
+    // RecordingCommPort), anything else is the name of a serial port
+    static CommPort forDescriptor (String descriptor, int baudRate) {
+        if (descriptor.toLowerCase().startsWith(REPLAY_DESCRIPTOR_PREFIX)) {
+            String tracePath = descriptor.substring(REPLAY_DESCRIPTOR_PREFIX.length());
+            try {
+                return new ReplayCommPort(tracePath);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can't read session trace " + tracePath + ": " + e.getMessage(), e);
             }
-        } catch (Exception e) {
-            return "";
         }
-        return responseBuilder.toString();
+        if (descriptor.toLowerCase().startsWith(TCP_DESCRIPTOR_PREFIX)) {
+            String address = descriptor.substring(TCP_DESCRIPTOR_PREFIX.length());
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) throw new IllegalArgumentException("Missing TCP port in " + descriptor);
+            return new TcpCommPort(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        }
+        return new SerialCommPort(descriptor, baudRate);
     }
 }
@@ -0,0 +1,120 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## CommPortBridge                                                                                             ##
+// ##                                                                                                            ##
+// ## Serves a CommPort over TCP, so the interface can be driven from another machine with a TcpCommPort.       ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+public class CommPortBridge {
+    private static final int RECEIVE_CHUNK_SIZE = 1024;
+
+    public interface Listener {
+        void clientConnected (String address);
+        void clientDisconnected (String address);
+    }
+
+    private final CommPort port;
+    private final ServerSocket server;
+    private volatile boolean running = true;
+    private Listener listener = null;
+
+    // A tcpPort of 0 picks any free port (see getLocalPort)
+    public CommPortBridge (CommPort port, int tcpPort) throws IOException {
+        this.port = port;
+        this.server = new ServerSocket();
+        this.server.setReuseAddress(true);
+        this.server.bind(new InetSocketAddress(tcpPort));
+    }
+
+    public void setListener (Listener listener) {
+        this.listener = listener;
+    }
+
+    public int getLocalPort () {
+        return server.getLocalPort();
+    }
+
+    // Serves one client at a time, until close() is called. Commands are passed on as they arrive and responses
+    // are sent back as soon as they are complete, so a client can keep several commands in flight. A client
+    // that leaves with a command still running may get its response sent to the next one.
+    public void serve () throws IOException {
+        while (running) {
+            Socket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!running) return;
+                throw e;
+            }
+            serveClient(client);
+        }
+    }
+
+    public void close () {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private void serveClient (Socket client) throws IOException {
+        String address = client.getRemoteSocketAddress().toString();
+        client.setTcpNoDelay(true);
+        // Whatever the previous client left unanswered is not for this one
+        port.discardInput();
+        if (listener != null) listener.clientConnected(address);
+
+        final OutputStream out = client.getOutputStream();
+        Thread responder = new Thread(() -> forwardResponses(client, out), "ZEPPP bridge responder");
+        responder.setDaemon(true);
+        responder.start();
+
+        InputStream in = client.getInputStream();
+        byte[] chunk = new byte[RECEIVE_CHUNK_SIZE];
+        try {
+            int read;
+            while (running && (read = in.read(chunk)) > 0) {
+                port.send(Arrays.copyOf(chunk, read));
+            }
+        } catch (IOException e) {
+            // Client gone
+        } finally {
+            client.close();
+            responder.interrupt();
+            try {
+                responder.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (listener != null) listener.clientDisconnected(address);
+    }
+
+    // Responses are already framed by the port; a timeout just returns whatever was received (often nothing)
+    private void forwardResponses (Socket client, OutputStream out) {
+        try {
+            while (!client.isClosed() && !Thread.currentThread().isInterrupted()) {
+                byte[] response = port.awaitResponse();
+                if (response.length == 0) continue;
+                out.write(response);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Client gone
+        }
+    }
+}
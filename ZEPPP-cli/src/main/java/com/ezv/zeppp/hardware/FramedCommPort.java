@@ -0,0 +1,111 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## FramedCommPort                                                                                             ##
+// ##                                                                                                            ##
+// ## Common part of the CommPort implementations: response framing, timeouts and traffic counters.             ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public abstract class FramedCommPort implements CommPort {
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final ResponseFramer framer = new ResponseFramer();
+    private final AtomicLong cpuTimeNanos = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    // Puts the bytes on the link, as they are
+    protected abstract void write (byte[] data);
+
+    // Called by the implementations with whatever arrives from the interface, from any thread
+    protected void received (byte[] data, int len) {
+        framer.feed(data, len);
+        bytesReceived.addAndGet(len);
+    }
+
+    public void discardInput () {
+        framer.reset();
+    }
+
+    protected void addCpuTime (long nanos) {
+        cpuTimeNanos.addAndGet(nanos);
+    }
+
+    protected static long threadCpuTime () {
+        return THREAD_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_BEAN.getCurrentThreadCpuTime() : 0;
+    }
+
+    public long getCpuTimeNanos () {
+        return cpuTimeNanos.get();
+    }
+
+    public byte[] sendAndWaitResponse (byte[] data) {
+        long cpuStart = threadCpuTime();
+        try {
+            discardInput();
+            countAndWrite(data);
+            return waitResponse();
+        } finally {
+            addCpuTime(threadCpuTime() - cpuStart);
+        }
+    }
+
+    public void send (byte[] data) {
+        long cpuStart = threadCpuTime();
+        countAndWrite(data);
+        addCpuTime(threadCpuTime() - cpuStart);
+    }
+
+    public byte[] awaitResponse () {
+        long cpuStart = threadCpuTime();
+        try {
+            return waitResponse();
+        } finally {
+            addCpuTime(threadCpuTime() - cpuStart);
+        }
+    }
+
+    // Loaded straight from the framer's buffer
+    public void awaitResponse (ZEPPPResponse response) {
+        long cpuStart = threadCpuTime();
+        try {
+            framer.awaitResponse(response, COMMAND_FIRST_READ_TIMEOUT, READ_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.load(new byte[0], 0, 0);
+        } finally {
+            addCpuTime(threadCpuTime() - cpuStart);
+        }
+    }
+
+    public long getBytesSent () {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived () {
+        return bytesReceived.get();
+    }
+
+    private void countAndWrite (byte[] data) {
+        bytesSent.addAndGet(data.length);
+        write(data);
+    }
+
+    private byte[] waitResponse () {
+        // The first byte gets a longer timeout, since the other end has to parse and execute the command we
+        // just sent before replying. Both timeouts only matter when the interface fails to answer.
+        try {
+            return framer.awaitResponse(COMMAND_FIRST_READ_TIMEOUT, READ_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new byte[0];
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## MemoryCommPort                                                                                             ##
+// ##                                                                                                            ##
+// ## CommPort whose other end is an object in the same JVM, for tests and for running without hardware.        ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+public class MemoryCommPort extends FramedCommPort {
+    // The other end. It gets the bytes as they are sent, and answers through reply() (right away or later,
+    // from any thread).
+    public interface Endpoint {
+        void received (byte[] data, MemoryCommPort port);
+    }
+
+    private final Endpoint endpoint;
+    private int baudRate;
+    private boolean open = false;
+    private boolean fullDuplex = false;
+
+    public MemoryCommPort (Endpoint endpoint, int baudRate) {
+        this.endpoint = endpoint;
+        this.baudRate = baudRate;
+    }
+
+    public boolean open () {
+        open = true;
+        return true;
+    }
+
+    public void close () {
+        open = false;
+    }
+
+    public int getBaudRate () {
+        return baudRate;
+    }
+
+    public void setBaudRate (int baudRate) {
+        this.baudRate = baudRate;
+        discardInput();
+    }
+
+    public boolean canChangeBaudRate () {
+        return true;
+    }
+
+    // Only for endpoints that can take commands from one thread while replies are picked up from another
+    public void setFullDuplex (boolean fullDuplex) {
+        this.fullDuplex = fullDuplex;
+    }
+
+    public boolean isFullDuplex () {
+        return fullDuplex;
+    }
+
+    // Bytes from the endpoint to whoever is using the port
+    public void reply (byte[] data) {
+        if (open) received(data, data.length);
+    }
+
+    protected void write (byte[] data) {
+        if (open) endpoint.received(data, this);
+    }
+}
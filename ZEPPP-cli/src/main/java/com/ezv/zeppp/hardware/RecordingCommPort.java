@@ -0,0 +1,94 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## RecordingCommPort                                                                                          ##
+// ##                                                                                                            ##
+// ## Passes everything through to another port, and writes it to a SessionTrace on the way.                   ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+public class RecordingCommPort implements CommPort {
+    private final CommPort port;
+    private final SessionTrace.Writer trace;
+
+    // The port should be open already. The trace is written until close().
+    public RecordingCommPort (CommPort port, String tracePath) throws IOException {
+        this.port = port;
+        this.trace = new SessionTrace.Writer(tracePath, port.canChangeBaudRate(), port.getBaudRate());
+    }
+
+    public boolean open () {
+        return port.open();
+    }
+
+    public void close () {
+        port.close();
+        try {
+            trace.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getBaudRate () {
+        return port.getBaudRate();
+    }
+
+    public void setBaudRate (int baudRate) {
+        port.setBaudRate(baudRate);
+        try {
+            trace.baudRate(baudRate);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public boolean canChangeBaudRate () {
+        return port.canChangeBaudRate();
+    }
+
+    public byte[] sendAndWaitResponse (byte[] data) {
+        record(SessionTrace.EventType.SENT, data);
+        return record(SessionTrace.EventType.RECEIVED, port.sendAndWaitResponse(data));
+    }
+
+    public void send (byte[] data) {
+        record(SessionTrace.EventType.SENT, data);
+        port.send(data);
+    }
+
+    public byte[] awaitResponse () {
+        return record(SessionTrace.EventType.RECEIVED, port.awaitResponse());
+    }
+
+    public void discardInput () {
+        port.discardInput();
+    }
+
+    public long getCpuTimeNanos () {
+        return port.getCpuTimeNanos();
+    }
+
+    public long getBytesSent () {
+        return port.getBytesSent();
+    }
+
+    public long getBytesReceived () {
+        return port.getBytesReceived();
+    }
+
+    // A session that can't be recorded is not worth carrying on with: it's being recorded for a reason
+    private byte[] record (SessionTrace.EventType type, byte[] data) {
+        try {
+            trace.data(type, data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return data;
+    }
+}
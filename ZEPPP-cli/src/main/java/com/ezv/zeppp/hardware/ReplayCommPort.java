@@ -0,0 +1,148 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## ReplayCommPort                                                                                             ##
+// ##                                                                                                            ##
+// ## Plays back a SessionTrace: the recorded responses come back as the same commands are sent again, taking   ##
+// ## as long as they did (or a fraction of that). No interface is needed.                                       ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+// The session has to go exactly as recorded. Anything else (another command, a different baud rate) throws an
+// IllegalStateException, as the responses in the trace no longer apply. From then on the port behaves like an
+// interface that was unplugged.
+public class ReplayCommPort implements CommPort {
+    private final SessionTrace trace;
+    private final List<SessionTrace.Event> events;
+    private double speed = 1;
+    private int next = 0;
+    private boolean diverged = false;
+    private int baudRate;
+    // Where the last command sent falls in the trace and in this session. Responses are timed from there.
+    private long sentTraceNanos = 0;
+    private long sentNanos = System.nanoTime();
+    private long bytesSent = 0;
+    private long bytesReceived = 0;
+
+    public ReplayCommPort (String tracePath) throws IOException {
+        this.trace = SessionTrace.read(tracePath);
+        this.events = trace.getEvents();
+        this.baudRate = trace.getBaudRate();
+    }
+
+    // 1 replays with the recorded timing, 2 twice as fast, and so on. 0 doesn't wait at all.
+    public void setSpeed (double speed) {
+        if (speed < 0) throw new IllegalArgumentException("Negative replay speed");
+        this.speed = speed;
+    }
+
+    public double getSpeed () {
+        return speed;
+    }
+
+    public boolean isFinished () {
+        return next >= events.size();
+    }
+
+    public boolean open () {
+        return true;
+    }
+
+    public void close () {
+    }
+
+    public int getBaudRate () {
+        return baudRate;
+    }
+
+    public synchronized void setBaudRate (int baudRate) {
+        if (diverged) return;
+        SessionTrace.Event event = nextEvent(SessionTrace.EventType.BAUD_RATE);
+        if (event.getBaudRate() != baudRate) {
+            throw diverged(String.format("baud rate set to %d, recorded %d", baudRate, event.getBaudRate()));
+        }
+        next++;
+        this.baudRate = baudRate;
+    }
+
+    public boolean canChangeBaudRate () {
+        return trace.canChangeBaudRate();
+    }
+
+    public byte[] sendAndWaitResponse (byte[] data) {
+        send(data);
+        return awaitResponse();
+    }
+
+    public synchronized void send (byte[] data) {
+        if (diverged) return;
+        SessionTrace.Event event = nextEvent(SessionTrace.EventType.SENT);
+        if (!Arrays.equals(event.getData(), data)) {
+            throw diverged(String.format("sent %s, recorded %s", printable(data), printable(event.getData())));
+        }
+        next++;
+        sentTraceNanos = event.getTimeNanos();
+        sentNanos = System.nanoTime();
+        bytesSent += data.length;
+    }
+
+    public synchronized byte[] awaitResponse () {
+        if (diverged) return new byte[0];
+        SessionTrace.Event event = nextEvent(SessionTrace.EventType.RECEIVED);
+        next++;
+        if (speed > 0) {
+            long due = sentNanos + (long) ((event.getTimeNanos() - sentTraceNanos) / speed);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+        }
+        bytesReceived += event.getData().length;
+        return event.getData();
+    }
+
+    // Whatever was dropped wasn't picked up in the recorded session either
+    public void discardInput () {
+    }
+
+    // Nothing runs on this side of the port but the callers
+    public long getCpuTimeNanos () {
+        return 0;
+    }
+
+    public long getBytesSent () {
+        return bytesSent;
+    }
+
+    public long getBytesReceived () {
+        return bytesReceived;
+    }
+
+    // The caller moves past it once it matches what was done
+    private SessionTrace.Event nextEvent (SessionTrace.EventType type) {
+        if (isFinished()) throw diverged("the recorded session is over");
+        SessionTrace.Event event = events.get(next);
+        if (event.getType() != type) throw diverged(String.format("%s, recorded %s", type, event.getType()));
+        return event;
+    }
+
+    private IllegalStateException diverged (String detail) {
+        diverged = true;
+        return new IllegalStateException(String.format("Session differs from the recording at event %d: %s", next, detail));
+    }
+
+    private static String printable (byte[] data) {
+        if (ZEPPPBinaryCodec.isFrame(data)) {
+            StringBuilder sb = new StringBuilder("frame");
+            for (byte b : data) sb.append(String.format(" %02X", b & 0xff));
+            return sb.toString();
+        }
+        return "'" + new String(data, StandardCharsets.ISO_8859_1).trim() + "'";
+    }
+}
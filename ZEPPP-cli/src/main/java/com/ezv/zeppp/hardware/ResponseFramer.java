@@ -0,0 +1,89 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## ResponseFramer                                                                                             ##
+// ##                                                                                                            ##
+// ## Collects the bytes received from the interface and hands them out one full response at a time.            ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import java.util.Arrays;
+
+public class ResponseFramer {
+    public static final byte RESPONSE_TERMINATOR = '\n';
+    private static final int DEFAULT_BUFFER_SIZE = 512;
+
+    // Reused for every response on the port. It only grows if the pending responses ever exceed its size.
+    // With pipelined commands it may hold several responses (or the start of the next one) at once.
+    private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+    private int length = 0;
+    private int scanned = 0;
+    private long lastByteTime = 0;
+
+    // Drops whatever is left from a previous exchange, so it is not mistaken for the next response.
+    public synchronized void reset () {
+        length = 0;
+        scanned = 0;
+    }
+
+    public synchronized void feed (byte[] data, int len) {
+        if (length + len > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + len));
+        System.arraycopy(data, 0, buffer, length, len);
+        length += len;
+
+        lastByteTime = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    // Blocks until a full response is available: a text line up to its terminator, or a binary frame as long
+    // as its length field says. The timeouts are only there to catch a dead or misbehaving interface:
+    // firstByteTimeOut applies until something is received, byteTimeOut to the gaps after that.
+    // Whatever was received up to that point is returned (and dropped) when any of them expires.
+    public synchronized byte[] awaitResponse (long firstByteTimeOut, long byteTimeOut) throws InterruptedException {
+        int end = awaitResponseEnd(firstByteTimeOut, byteTimeOut);
+        byte[] response = Arrays.copyOf(buffer, end);
+        drop(end);
+        return response;
+    }
+
+    // Same, loaded into a response the caller reuses rather than copied out
+    public synchronized void awaitResponse (ZEPPPResponse response, long firstByteTimeOut, long byteTimeOut) throws InterruptedException {
+        int end = awaitResponseEnd(firstByteTimeOut, byteTimeOut);
+        response.load(buffer, 0, end);
+        drop(end);
+    }
+
+    private int awaitResponseEnd (long firstByteTimeOut, long byteTimeOut) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        int end;
+
+        while ((end = findResponseEnd()) < 0) {
+            long now = System.currentTimeMillis();
+            long deadline = length == 0 ? start + firstByteTimeOut : Math.max(start, lastByteTime) + byteTimeOut;
+            if (now >= deadline) return length;
+            wait(deadline - now);
+        }
+        return end;
+    }
+
+    private int findResponseEnd () {
+        if (length > 0 && (buffer[0] & 0xff) == ZEPPPBinaryCodec.FRAME_SYNC) {
+            if (length < 2) return -1;
+            int frameSize = ZEPPPBinaryCodec.frameSize(buffer[1]);
+            return length >= frameSize ? frameSize : -1;
+        }
+
+        for (; scanned < length; scanned++) {
+            if (buffer[scanned] == RESPONSE_TERMINATOR) return scanned + 1;
+        }
+        return -1;
+    }
+
+    private void drop (int count) {
+        System.arraycopy(buffer, count, buffer, 0, length - count);
+        length -= count;
+        scanned = 0;
+    }
+}
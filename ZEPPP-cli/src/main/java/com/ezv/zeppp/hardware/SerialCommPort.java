@@ -0,0 +1,83 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## SerialCommPort                                                                                             ##
+// ##                                                                                                            ##
+// ## Helper class to initialize and manage a serial port using jSerialComm.                                     ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+public class SerialCommPort extends FramedCommPort {
+    private static final int RECEIVE_CHUNK_SIZE = 256;
+
+    private SerialPort port;
+    private final byte[] receiveChunk = new byte[RECEIVE_CHUNK_SIZE];
+
+    public SerialCommPort (String descriptor, int baudRate) {
+        port = SerialPort.getCommPort(descriptor);
+        port.setBaudRate(baudRate);
+        port.setNumDataBits(8);
+        port.setNumStopBits(1);
+        port.setParity(SerialPort.NO_PARITY);
+        port.setFlowControl(SerialPort.FLOW_CONTROL_DISABLED);
+    }
+
+    public boolean open() {
+        port.openPort();
+        if (!port.isOpen()) return false;
+
+        // Responses are framed as bytes arrive, so a command completes the moment its terminating newline
+        // shows up instead of after a fixed idle period.
+        port.addDataListener(new SerialPortDataListener() {
+            @Override
+            public int getListeningEvents () {
+                return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
+            }
+
+            @Override
+            public void serialEvent (SerialPortEvent event) {
+                long cpuStart = threadCpuTime();
+                int available;
+                while ((available = port.bytesAvailable()) > 0) {
+                    int read = port.readBytes(receiveChunk, Math.min(available, receiveChunk.length));
+                    if (read <= 0) break;
+                    received(receiveChunk, read);
+                }
+                addCpuTime(threadCpuTime() - cpuStart);
+            }
+        });
+        return true;
+    }
+
+    public int getBaudRate () {
+        return port.getBaudRate();
+    }
+
+    public void setBaudRate (int baudRate) {
+        port.setBaudRate(baudRate);
+        discardInput();
+    }
+
+    public boolean canChangeBaudRate () {
+        return true;
+    }
+
+    public void close() {
+        port.removeDataListener();
+        port.closePort();
+    }
+
+    public boolean isFullDuplex () {
+        return true;
+    }
+
+    protected void write (byte[] data) {
+        port.writeBytes(data, data.length);
+    }
+}
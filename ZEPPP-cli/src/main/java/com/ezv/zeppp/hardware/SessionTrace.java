@@ -0,0 +1,176 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## SessionTrace                                                                                               ##
+// ##                                                                                                            ##
+// ## File with everything sent to and received from the interface during a session, and when it happened.      ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Layout: [Magic "ZPTR"] [Version byte] [Flags byte] [Baud rate] then the events, each one
+// [Type byte] [ns since the previous event] followed by [Length] [Bytes] for data, or [Baud rate] for a rate change.
+// Numbers other than the header bytes are unsigned varints (7 bits per byte, LSB first).
+public class SessionTrace {
+    public static final int MAGIC                   = 0x5A505452;
+    public static final int VERSION                 = 1;
+    public static final int FLAG_CAN_CHANGE_BAUD    = 0x01;
+
+    public enum EventType {
+        SENT,
+        // A response as it was picked up. Empty when none came in time.
+        RECEIVED,
+        BAUD_RATE
+    }
+
+    public static class Event {
+        private final EventType type;
+        private final long timeNanos;
+        private final byte[] data;
+        private final int baudRate;
+
+        public Event (EventType type, long timeNanos, byte[] data, int baudRate) {
+            this.type = type;
+            this.timeNanos = timeNanos;
+            this.data = data;
+            this.baudRate = baudRate;
+        }
+
+        public EventType getType () {
+            return type;
+        }
+
+        // Since the start of the session
+        public long getTimeNanos () {
+            return timeNanos;
+        }
+
+        public byte[] getData () {
+            return data;
+        }
+
+        public int getBaudRate () {
+            return baudRate;
+        }
+    }
+
+    private final int flags;
+    private final int baudRate;
+    private final List<Event> events;
+
+    private SessionTrace (int flags, int baudRate, List<Event> events) {
+        this.flags = flags;
+        this.baudRate = baudRate;
+        this.events = events;
+    }
+
+    public boolean canChangeBaudRate () {
+        return (flags & FLAG_CAN_CHANGE_BAUD) != 0;
+    }
+
+    // Rate of the port when the session started
+    public int getBaudRate () {
+        return baudRate;
+    }
+
+    public List<Event> getEvents () {
+        return events;
+    }
+
+    public static SessionTrace read (String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC) throw new IOException(path + " is not a session trace");
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported session trace version " + version);
+            int flags = in.readUnsignedByte();
+            int baudRate = (int) readVarint(in);
+
+            List<Event> events = new ArrayList<>();
+            long time = 0;
+            int type;
+            while ((type = in.read()) >= 0) {
+                if (type >= EventType.values().length) throw new IOException("Corrupt session trace at event " + events.size());
+                time += readVarint(in);
+                EventType eventType = EventType.values()[type];
+                if (eventType == EventType.BAUD_RATE) {
+                    events.add(new Event(eventType, time, null, (int) readVarint(in)));
+                } else {
+                    byte[] data = new byte[(int) readVarint(in)];
+                    in.readFully(data);
+                    events.add(new Event(eventType, time, data, 0));
+                }
+            }
+            return new SessionTrace(flags, baudRate, events);
+        }
+    }
+
+    private static long readVarint (InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated session trace");
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    // Events are written as they happen, from any thread
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final long start = System.nanoTime();
+        private long last = start;
+
+        public Writer (String path, boolean canChangeBaudRate, int baudRate) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(canChangeBaudRate ? FLAG_CAN_CHANGE_BAUD : 0);
+            writeVarint(out, baudRate);
+        }
+
+        public synchronized void data (EventType type, byte[] data) throws IOException {
+            header(type);
+            writeVarint(out, data.length);
+            out.write(data);
+        }
+
+        public synchronized void baudRate (int baudRate) throws IOException {
+            header(EventType.BAUD_RATE);
+            writeVarint(out, baudRate);
+        }
+
+        private void header (EventType type) throws IOException {
+            long now = System.nanoTime();
+            out.writeByte(type.ordinal());
+            writeVarint(out, now - last);
+            last = now;
+        }
+
+        public synchronized void close () throws IOException {
+            out.close();
+        }
+
+        private static void writeVarint (OutputStream out, long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+}
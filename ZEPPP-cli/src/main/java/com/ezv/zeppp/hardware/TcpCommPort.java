@@ -0,0 +1,105 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## TcpCommPort                                                                                                ##
+// ##                                                                                                            ##
+// ## Link with an interface plugged into another machine, through the CommPortBridge running there.            ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+public class TcpCommPort extends FramedCommPort {
+    public static final int CONNECT_TIMEOUT = 5000;
+    private static final int RECEIVE_CHUNK_SIZE = 1024;
+
+    private final String host;
+    private final int tcpPort;
+    private Socket socket;
+    private OutputStream out;
+    private Thread receiver;
+
+    public TcpCommPort (String host, int tcpPort) {
+        this.host = host;
+        this.tcpPort = tcpPort;
+    }
+
+    public boolean open () {
+        try {
+            socket = new Socket();
+            // Commands are small, and each one is waited for (or part of a short pipeline): send them right away
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, tcpPort), CONNECT_TIMEOUT);
+            out = socket.getOutputStream();
+        } catch (IOException e) {
+            close();
+            return false;
+        }
+
+        final InputStream in;
+        try {
+            in = socket.getInputStream();
+        } catch (IOException e) {
+            close();
+            return false;
+        }
+        receiver = new Thread(() -> receive(in), "ZEPPP TCP receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        return true;
+    }
+
+    private void receive (InputStream in) {
+        byte[] chunk = new byte[RECEIVE_CHUNK_SIZE];
+        try {
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                long cpuStart = threadCpuTime();
+                received(chunk, read);
+                addCpuTime(threadCpuTime() - cpuStart);
+            }
+        } catch (IOException e) {
+            // Closed, either by us or by the bridge. Pending commands just time out.
+        }
+    }
+
+    // The serial link is on the bridge side, and runs at the rate it was given there
+    public int getBaudRate () {
+        return 0;
+    }
+
+    public void setBaudRate (int baudRate) {
+        throw new UnsupportedOperationException("The baud rate of a remote interface is set on its bridge");
+    }
+
+    public boolean canChangeBaudRate () {
+        return false;
+    }
+
+    public void close () {
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
+    public boolean isFullDuplex () {
+        return true;
+    }
+
+    protected void write (byte[] data) {
+        try {
+            out.write(data);
+            out.flush();
+        } catch (IOException e) {
+            // Seen by the caller as a missing response, like a serial port that went away
+        }
+    }
+}
@@ -9,6 +9,8 @@ package com.ezv.zeppp.hardware;
 // ## Author: Elias Zacarias                                                                                     ##
 // ##                                                                                                            ##
 // ################################################################################################################
+import java.nio.charset.StandardCharsets;
+
 public class ZEPPP {
     public static final String OK_STR_PREFIX                 = "OK: ";
     public static final String ERR_STR_PREFIX                = "ER: ";
@@ -28,6 +30,24 @@ public class ZEPPP {
     public static final String ZEPPP_CMD_PGM_MEM_WRITE       = "PMW";
     public static final String ZEPPP_CMD_PGM_MEM_BLOCKWRITE  = "PMB";
     public static final String ZEPPP_CMD_DATA_MEM_WRITE      = "DMW";
+    public static final String ZEPPP_CMD_INPUT_QUEUE_SIZE    = "IQS";
+    public static final String ZEPPP_CMD_PGM_MEM_FILL        = "PMF";
+    public static final String ZEPPP_CMD_PGM_MEM_BLOCKFILL   = "PBF";
+    public static final String ZEPPP_CMD_DATA_MEM_FILL       = "DMF";
+    public static final String ZEPPP_CMD_SET_BAUD_RATE       = "BDR";
+    public static final String ZEPPP_CMD_CONFIRM_BAUD_RATE   = "BDC";
+    public static final String ZEPPP_CMD_CAPABILITIES        = "CAP";
+    public static final String ZEPPP_CMD_MEMORY_DUMP         = "DMP";
+    public static final String ZEPPP_CMD_MEMORY_CRC          = "CRC";
+    public static final String ZEPPP_CMD_BLANK_CHECK         = "BLK";
+    public static final String ZEPPP_CMD_SET_TIMINGS         = "TIM";
+    public static final String ZEPPP_CMD_SET_ICSP_CLOCK      = "CLK";
+    public static final String ZEPPP_CMD_RESYNC              = "RSY";
+
+    public static final String CMD_TERMINATOR                = "\r";
+    // Erase mode flag of PMW/PMF/DMW/DMF: words that already hold the value are skipped, and counted in the reply
+    public static final byte WRITE_SKIP_UNCHANGED            = (byte) 0x80;
+    private static final String RESYNC_REPLY                 = "Resync";
 
     private ZEPPP () {
 
@@ -43,27 +63,72 @@ public class ZEPPP {
             if (responseParts.length < 3 || !responseParts[0].equals(ZEPPP_NAME_STRING)) {
                 return new ZEPPPResponse(ZEPPPResponse.StatusCode.STATUS_ERROR, "Invalid version string received: " + response.getMessage());
 
-            } else if (!responseParts[1].equals(expectedVersion)) {
-                return new ZEPPPResponse(ZEPPPResponse.StatusCode.STATUS_ERROR, "Interface version mismatch! Expected: " + expectedVersion + ". Received: " + responseParts[1]);
+            } else if (!isCompatibleVersion(expectedVersion, responseParts[1])) {
+                return new ZEPPPResponse(ZEPPPResponse.StatusCode.STATUS_ERROR, "Interface version mismatch! Expected: " + expectedVersion + " or compatible. Received: " + responseParts[1]);
             }
         }
 
         return response;
     }
 
+    // Any firmware with the same major version is accepted. What it can do beyond the basic commands is
+    // found out with queryCapabilities.
+    public static boolean isCompatibleVersion (String expectedVersion, String version) {
+        return version.split("\\.")[0].equals(expectedVersion.split("\\.")[0]);
+    }
+
+    public static ZEPPPCapabilities queryCapabilities (CommPort port) {
+        return ZEPPPCapabilities.fromResponse(sendCommand(port, ZEPPP_CMD_CAPABILITIES));
+    }
+
     public static ZEPPPResponse sendCommand (CommPort port, String cmd) {
-        String response = port.sendAndWaitResponse(cmd + "\r").trim();
+        return sendEncodedCommand(port, encodeTextCommand(cmd));
+    }
+
+    public static byte[] encodeTextCommand (String cmd) {
+        return (cmd + CMD_TERMINATOR).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Sends a command already encoded for the wire, either as text or as a binary frame.
+    public static ZEPPPResponse sendEncodedCommand (CommPort port, byte[] cmd) {
+        return parseResponse(port.sendAndWaitResponse(cmd));
+    }
+
+    // Pipelined counterpart of sendEncodedCommand: the response has to be picked up later with receiveResponse.
+    public static void sendEncodedCommandNoWait (CommPort port, byte[] cmd) {
+        port.send(cmd);
+    }
+
+    public static ZEPPPResponse receiveResponse (CommPort port) {
+        return parseResponse(port.awaitResponse());
+    }
 
-        if (response.startsWith(OK_STR_PREFIX)) {
-            return new ZEPPPResponse(ZEPPPResponse.StatusCode.STATUS_OK, response.substring(OK_STR_PREFIX.length()));
+    // Same, loading the response into one the caller keeps reusing
+    public static ZEPPPResponse receiveResponse (CommPort port, ZEPPPResponse response) {
+        port.awaitResponse(response);
+        return response;
+    }
 
-        }else if (response.startsWith(ERR_STR_PREFIX)) {
-            return new ZEPPPResponse(ZEPPPResponse.StatusCode.STATUS_ERROR, response.substring(ERR_STR_PREFIX.length()));
+    // Throws away whatever the interface is still sending, until the line goes quiet.
+    public static void drainResponses (CommPort port) {
+        while (port.awaitResponse().length > 0) {
+            // Keep discarding
+        }
+    }
 
-        } else if (response.isEmpty()) {
-            return new ZEPPPResponse(ZEPPPResponse.StatusCode.STATUS_ERROR, "No response from interface");
+    // After an error, firmware with CAP_HALT_ON_ERROR drops every command until RSY. Whatever responses are still
+    // owed come before the one to RSY, so they are all thrown away. False if the interface didn't answer.
+    public static boolean resync (CommPort port) {
+        port.send(encodeTextCommand(ZEPPP_CMD_RESYNC));
+        while (true) {
+            byte[] raw = port.awaitResponse();
+            if (raw.length == 0) return false;
+            ZEPPPResponse response = parseResponse(raw);
+            if (response.getCode() == ZEPPPResponse.StatusCode.STATUS_OK && RESYNC_REPLY.equals(response.getMessage())) return true;
         }
+    }
 
-        return new ZEPPPResponse(ZEPPPResponse.StatusCode.STATUS_ERROR, "Invalid response from interface: " + response);
+    private static ZEPPPResponse parseResponse (byte[] rawResponse) {
+        return new ZEPPPResponse().load(rawResponse, 0, rawResponse.length);
     }
 }
@@ -0,0 +1,153 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## ZEPPPBinaryCodec                                                                                           ##
+// ##                                                                                                            ##
+// ## Encoder/decoder for the compact binary frames understood by the ZEPPP firmware.                            ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.intelhex.HexBuffer;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Command:  [SYNC] [LEN] [CMD ID] [Args...] [CRC16 L] [CRC16 H]
+// Response: [SYNC] [LEN] [STATUS] [Data...] [CRC16 L] [CRC16 H]
+// LEN counts the CMD ID/STATUS byte plus args/data. The CRC covers LEN up to the last arg/data byte.
+// Words are sent LSB first. STATUS is 0 on success, or the firmware error code + 1.
+public class ZEPPPBinaryCodec {
+    public static final int FRAME_SYNC      = 0xA5;
+    public static final int FRAME_OVERHEAD  = 4;
+    public static final int STATUS_OK       = 0;
+    public static final int MAX_READ_WORDS  = 127;
+
+    // Indexed by binary command ID. Must match the ZEPPPCommand enum in the firmware.
+    private static final List<String> COMMAND_IDS = Arrays.asList(
+            null,
+            ZEPPP.ZEPPP_CMD_FIRMWARE_INFO,
+            ZEPPP.ZEPPP_CMD_ENTER_LVP_MODE,
+            ZEPPP.ZEPPP_CMD_EXIT_LVP_MODE,
+            ZEPPP.ZEPPP_CMD_CHIP_ERASE,
+            ZEPPP.ZEPPP_CMD_PGM_MEM_ERASE,
+            ZEPPP.ZEPPP_CMD_DATA_MEM_ERASE,
+            ZEPPP.ZEPPP_CMD_SELECT_CFG_MEM,
+            ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS,
+            ZEPPP.ZEPPP_CMD_DATA_MEM_READ,
+            ZEPPP.ZEPPP_CMD_PGM_MEM_READ,
+            ZEPPP.ZEPPP_CMD_PGM_MEM_BLOCKWRITE,
+            ZEPPP.ZEPPP_CMD_PGM_MEM_WRITE,
+            ZEPPP.ZEPPP_CMD_DATA_MEM_WRITE,
+            ZEPPP.ZEPPP_CMD_INPUT_QUEUE_SIZE,
+            ZEPPP.ZEPPP_CMD_PGM_MEM_FILL,
+            ZEPPP.ZEPPP_CMD_PGM_MEM_BLOCKFILL,
+            ZEPPP.ZEPPP_CMD_DATA_MEM_FILL,
+            ZEPPP.ZEPPP_CMD_SET_BAUD_RATE,
+            ZEPPP.ZEPPP_CMD_CAPABILITIES,
+            ZEPPP.ZEPPP_CMD_MEMORY_DUMP,
+            ZEPPP.ZEPPP_CMD_MEMORY_CRC,
+            ZEPPP.ZEPPP_CMD_BLANK_CHECK,
+            ZEPPP.ZEPPP_CMD_SET_TIMINGS,
+            ZEPPP.ZEPPP_CMD_SET_ICSP_CLOCK,
+            ZEPPP.ZEPPP_CMD_RESYNC
+    );
+
+    // Indexed by STATUS - 1. Same messages the firmware prints in text mode.
+    private static final String[] ERROR_MESSAGES = {
+            "space (32) char expected before argument",
+            "HEX byte value expected",
+            "HEX word value expected",
+            "Verification failed!",
+            "Value out of range",
+            "Unknown command",
+            "No device memory area selected",
+            "Frame CRC mismatch"
+    };
+
+    private ZEPPPBinaryCodec () {
+    }
+
+    // Command with the given binary ID, or null if there isn't one
+    public static String commandName (int cmdId) {
+        return cmdId > 0 && cmdId < COMMAND_IDS.size() ? COMMAND_IDS.get(cmdId) : null;
+    }
+
+    public static byte[] encodeCommand (String cmd) {
+        return newFrame(cmd, 0);
+    }
+
+    public static byte[] encodeCommand (String cmd, byte param) {
+        byte[] frame = newFrame(cmd, 1);
+        frame[3] = param;
+        return sealFrame(frame);
+    }
+
+    public static byte[] encodeCommand (String cmd, byte[] args) {
+        byte[] frame = newFrame(cmd, args.length);
+        System.arraycopy(args, 0, frame, 3, args.length);
+        return sealFrame(frame);
+    }
+
+    public static byte[] encodeCommand (String cmd, byte param, HexBuffer wordBuffer, int startWordNdx, int numberOfWords) {
+        byte[] frame = newFrame(cmd, 1 + numberOfWords * 2);
+        frame[3] = param;
+        for (int w = 0; w < numberOfWords; w++) {
+            int word = wordBuffer.getWord((startWordNdx + w) * 2);
+            frame[4 + w*2] = (byte) (word & 0xff);
+            frame[5 + w*2] = (byte) ((word >> 8) & 0xff);
+        }
+        return sealFrame(frame);
+    }
+
+    private static byte[] newFrame (String cmd, int argsLen) {
+        int cmdId = COMMAND_IDS.indexOf(cmd);
+        if (cmdId <= 0) throw new IllegalArgumentException("No binary ID for command " + cmd);
+        if (argsLen + 1 > 0xff) throw new IllegalArgumentException("Binary frame too long for command " + cmd);
+
+        byte[] frame = new byte[FRAME_OVERHEAD + 1 + argsLen];
+        frame[0] = (byte) FRAME_SYNC;
+        frame[1] = (byte) (argsLen + 1);
+        frame[2] = (byte) cmdId;
+        return argsLen == 0 ? sealFrame(frame) : frame;
+    }
+
+    private static byte[] sealFrame (byte[] frame) {
+        int crc = CRC16.compute(frame, 1, frame.length - 3);
+        frame[frame.length - 2] = (byte) (crc & 0xff);
+        frame[frame.length - 1] = (byte) ((crc >> 8) & 0xff);
+        return frame;
+    }
+
+    // Response frame as the firmware would send it
+    public static byte[] encodeResponse (int status, int... words) {
+        byte[] frame = new byte[FRAME_OVERHEAD + 1 + words.length * 2];
+        frame[0] = (byte) FRAME_SYNC;
+        frame[1] = (byte) (1 + words.length * 2);
+        frame[2] = (byte) status;
+        for (int w = 0; w < words.length; w++) {
+            frame[3 + w*2] = (byte) (words[w] & 0xff);
+            frame[4 + w*2] = (byte) ((words[w] >> 8) & 0xff);
+        }
+        return sealFrame(frame);
+    }
+
+    public static boolean isFrame (byte[] data) {
+        return data.length > 0 && (data[0] & 0xff) == FRAME_SYNC;
+    }
+
+    // Full size of a frame, given the value of its LEN field
+    public static int frameSize (byte lenField) {
+        return FRAME_OVERHEAD + (lenField & 0xff);
+    }
+
+    public static ZEPPPResponse decodeResponse (byte[] frame) {
+        return new ZEPPPResponse().load(frame, 0, frame.length);
+    }
+
+    // Message for the STATUS of a failed response
+    public static String errorMessage (int status) {
+        return status <= ERROR_MESSAGES.length ? ERROR_MESSAGES[status - 1] : "Unknown Error #" + (status - 1);
+    }
+}
@@ -0,0 +1,85 @@
+package com.ezv.zeppp.hardware;
+
+// ################################################################################################################
+// ## ZEPPPCapabilities                                                                                          ##
+// ##                                                                                                            ##
+// ## Features and buffer limits reported by the ZEPPP firmware.                                                 ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.intelhex.IntelHexParsingException;
+
+public class ZEPPPCapabilities {
+    // Must match the CAP_* bits in the firmware
+    public static final int CAP_PIPELINING      = 0x0001;
+    public static final int CAP_BINARY_FRAMES   = 0x0002;
+    public static final int CAP_FILL_COMMANDS   = 0x0004;
+    public static final int CAP_BAUD_RATE       = 0x0008;
+    public static final int CAP_MEMORY_DUMP     = 0x0010;
+    public static final int CAP_MEMORY_CRC      = 0x0020;
+    public static final int CAP_BLANK_CHECK     = 0x0040;
+    public static final int CAP_SKIP_UNCHANGED  = 0x0080;
+    public static final int CAP_SET_TIMINGS     = 0x0100;
+    public static final int CAP_ICSP_CLOCK      = 0x0200;
+    public static final int CAP_HALT_ON_ERROR   = 0x0400;
+
+    // What firmware without the CAP command can do: plain text commands, one at a time.
+    public static final ZEPPPCapabilities LEGACY = new ZEPPPCapabilities(0, 0, 32, 0xff, 1);
+
+    private final int flags;
+    private final int inputQueueSize;
+    private final int maxWriteWords;
+    private final int maxReadWords;
+    private final int baudRateCount;
+
+    public ZEPPPCapabilities (int flags, int inputQueueSize, int maxWriteWords, int maxReadWords, int baudRateCount) {
+        this.flags = flags;
+        this.inputQueueSize = inputQueueSize;
+        this.maxWriteWords = maxWriteWords;
+        this.maxReadWords = maxReadWords;
+        this.baudRateCount = baudRateCount;
+    }
+
+    // The response to CAP: [flags] [input queue size] [max write words] [max read words] [baud rate count].
+    // Firmware that doesn't know the command gets the LEGACY set. Words added at the end by newer firmware
+    // are ignored.
+    public static ZEPPPCapabilities fromResponse (ZEPPPResponse response) {
+        if (response.getCode() != ZEPPPResponse.StatusCode.STATUS_OK) return LEGACY;
+
+        int[] words;
+        try {
+            words = response.getMessageWordArray();
+        } catch (IntelHexParsingException e) {
+            return LEGACY;
+        }
+        if (words.length < 5) return LEGACY;
+        return new ZEPPPCapabilities(words[0], words[1], words[2], words[3], words[4]);
+    }
+
+    public boolean has (int capability) {
+        return (flags & capability) == capability;
+    }
+
+    public int getFlags () {
+        return flags;
+    }
+
+    public int getInputQueueSize () {
+        return has(CAP_PIPELINING) ? inputQueueSize : 0;
+    }
+
+    public int getMaxWriteWords () {
+        return maxWriteWords;
+    }
+
+    public int getMaxReadWords () {
+        return maxReadWords;
+    }
+
+    // Rates the interface can switch to, as indexes in the BDR rate list (the first one is the default rate)
+    public int getBaudRateCount () {
+        return has(CAP_BAUD_RATE) ? baudRateCount : 1;
+    }
+}
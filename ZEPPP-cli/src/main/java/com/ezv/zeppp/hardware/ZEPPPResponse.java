@@ -12,18 +12,121 @@ package com.ezv.zeppp.hardware;
 import com.ezv.zeppp.intelhex.HexFileParseUtils;
 import com.ezv.zeppp.intelhex.IntelHexParsingException;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// A response can be loaded over and over with the bytes of the next one (see ZEPPP.receiveResponse). Loading and
+// getting the words into the caller's array allocates nothing, so read loops can keep a single instance around.
 public class ZEPPPResponse {
     public enum StatusCode{
         STATUS_OK,
         STATUS_ERROR
     }
 
+    private static final String NO_RESPONSE = "No response from interface";
+
     private StatusCode code;
     private String message;
+    // Data carried by binary responses, already decoded. Null for text responses.
+    private int[] words;
+    // Bytes of a loaded response, and where its message (text) or data (binary frame) is in them
+    private byte[] raw = new byte[0];
+    private int rawLength = 0;
+    private int dataStart = 0;
+    private int dataEnd = 0;
+    private boolean binary = false;
+
+    // An empty response, to be loaded
+    public ZEPPPResponse () {
+        this(StatusCode.STATUS_ERROR, NO_RESPONSE);
+    }
 
     ZEPPPResponse (StatusCode code, String message) {
+        this(code, message, null);
+    }
+
+    ZEPPPResponse (StatusCode code, String message, int[] words) {
         this.code = code;
         this.message = message;
+        this.words = words;
+    }
+
+    // Takes the bytes of a response as received: a text line or a binary frame
+    public ZEPPPResponse load (byte[] data, int offset, int length) {
+        if (raw.length < length) raw = new byte[Math.max(length, raw.length * 2)];
+        System.arraycopy(data, offset, raw, 0, length);
+        rawLength = length;
+        words = null;
+        message = null;
+        dataStart = 0;
+        dataEnd = 0;
+        binary = length > 0 && (raw[0] & 0xff) == ZEPPPBinaryCodec.FRAME_SYNC;
+
+        if (binary) {
+            loadFrame();
+        } else {
+            loadText();
+        }
+        return this;
+    }
+
+    private void loadFrame () {
+        if (rawLength < ZEPPPBinaryCodec.FRAME_OVERHEAD + 1 || rawLength != ZEPPPBinaryCodec.frameSize(raw[1])) {
+            fail("Incomplete binary response from interface");
+            return;
+        }
+
+        int crc = (raw[rawLength - 2] & 0xff) | ((raw[rawLength - 1] & 0xff) << 8);
+        if (crc != CRC16.compute(raw, 1, rawLength - 3)) {
+            fail("Binary response CRC mismatch");
+            return;
+        }
+
+        int status = raw[2] & 0xff;
+        if (status != ZEPPPBinaryCodec.STATUS_OK) {
+            fail(ZEPPPBinaryCodec.errorMessage(status));
+            return;
+        }
+        code = StatusCode.STATUS_OK;
+        message = "";
+        dataStart = 3;
+        dataEnd = rawLength - 2;
+    }
+
+    // Same as trimming the line and looking at its prefix, without making a String out of it
+    private void loadText () {
+        int start = 0;
+        int end = rawLength;
+        while (start < end && raw[start] <= ' ') start++;
+        while (end > start && raw[end - 1] <= ' ') end--;
+
+        if (start == end) {
+            fail(NO_RESPONSE);
+        } else if (hasPrefix(start, end, ZEPPP.OK_STR_PREFIX)) {
+            code = StatusCode.STATUS_OK;
+        } else if (hasPrefix(start, end, ZEPPP.ERR_STR_PREFIX)) {
+            code = StatusCode.STATUS_ERROR;
+        } else {
+            fail("Invalid response from interface: " + new String(raw, start, end - start, StandardCharsets.ISO_8859_1));
+            return;
+        }
+        dataStart = start + ZEPPP.OK_STR_PREFIX.length();
+        dataEnd = end;
+    }
+
+    private boolean hasPrefix (int start, int end, String prefix) {
+        if (end - start < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (raw[start + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void fail (String msg) {
+        code = StatusCode.STATUS_ERROR;
+        message = msg;
+        binary = false;
+        rawLength = 0;
     }
 
     public StatusCode getCode () {
@@ -31,20 +134,75 @@ public class ZEPPPResponse {
     }
 
     public String getMessage () {
+        if (message == null) message = new String(raw, dataStart, dataEnd - dataStart, StandardCharsets.ISO_8859_1);
         return message;
     }
 
-    public int[] getMessageWordArray () throws IntelHexParsingException{
-        String[] hexWords = message.split(" ");
-        int[] array = new int[hexWords.length];
+    // Size of the response as received (0 if nothing came)
+    public int getLength () {
+        return rawLength;
+    }
 
-        for (int w = 0; w < hexWords.length; w++) {
-            array[w] = HexFileParseUtils.parseHexString(hexWords[w]);
+    // Decodes the words of the response into dest, and returns how many there were
+    public int getMessageWords (int[] dest) throws IntelHexParsingException {
+        if (words != null) {
+            checkRoom(words.length, dest);
+            System.arraycopy(words, 0, dest, 0, words.length);
+            return words.length;
+        }
+        if (binary) {
+            int count = (dataEnd - dataStart) / 2;
+            checkRoom(count, dest);
+            for (int w = 0; w < count; w++) {
+                dest[w] = (raw[dataStart + w*2] & 0xff) | ((raw[dataStart + w*2 + 1] & 0xff) << 8);
+            }
+            return count;
         }
-        return array;
+        if (rawLength == 0) {
+            // Built from a message rather than loaded
+            byte[] text = message.getBytes(StandardCharsets.ISO_8859_1);
+            return decodeHexWords(text, 0, text.length, dest);
+        }
+        return decodeHexWords(raw, dataStart, dataEnd, dest);
+    }
+
+    public int[] getMessageWordArray () throws IntelHexParsingException{
+        if (words != null) return words;
+
+        int[] array = new int[Math.max(dataEnd - dataStart, getMessage().length()) + 1];
+        return Arrays.copyOf(array, getMessageWords(array));
     }
 
     public int getMessageWord () throws IntelHexParsingException{
-        return HexFileParseUtils.parseHexString(message);
+        if (words != null) {
+            if (words.length == 0) throw new IntelHexParsingException("No data in response");
+            return words[0];
+        }
+        if (binary) {
+            if (dataEnd - dataStart < 2) throw new IntelHexParsingException("No data in response");
+            return (raw[dataStart] & 0xff) | ((raw[dataStart + 1] & 0xff) << 8);
+        }
+        if (rawLength == 0) return HexFileParseUtils.parseHexString(message);
+        return HexFileParseUtils.parseHex(raw, dataStart, dataEnd);
+    }
+
+    // Words separated by spaces, as in "3FFF 0123 2804"
+    private static int decodeHexWords (byte[] text, int start, int end, int[] dest) throws IntelHexParsingException {
+        int count = 0;
+        int pos = start;
+        do {
+            int tokenEnd = pos;
+            while (tokenEnd < end && text[tokenEnd] != ' ') tokenEnd++;
+            if (count == dest.length) checkRoom(count + 1, dest);
+            dest[count++] = HexFileParseUtils.parseHex(text, pos, tokenEnd);
+            pos = tokenEnd + 1;
+        } while (pos < end);
+        return count;
+    }
+
+    private static void checkRoom (int count, int[] dest) throws IntelHexParsingException {
+        if (count > dest.length) {
+            throw new IntelHexParsingException(String.format("Response has more than %d words", dest.length));
+        }
     }
 }
@@ -30,13 +30,11 @@ public class HexBuffer {
 
     public static HexBuffer fromString (String hexString) throws IntelHexParsingException {
         int recordLen = (hexString.length()) / 2;
-        HexBuffer ret = new HexBuffer(recordLen);
+        byte[] bytes = new byte[recordLen];
 
         // Convert the whole data to hex
-        for (int b = 0; b < recordLen; b++) {
-            ret.setByte(b, (byte) HexFileParseUtils.parseHexString(hexString.substring(b * 2, b * 2 + 2)));
-        }
-        return ret;
+        HexFileParseUtils.parseHexBytes(hexString, 0, bytes, 0, recordLen);
+        return new HexBuffer(bytes);
     }
 
     public int getByte (int offset) {
@@ -69,21 +67,17 @@ public class HexBuffer {
     }
 
     public String toString () {
-        StringBuilder strBuilder = new StringBuilder();
-
-        for (int i = 0; i < this.data.capacity(); i++) {
-            strBuilder.append(HexFileParseUtils.hexByteString((byte) getByte(i)));
-        }
-        return strBuilder.toString();
+        return HexFileParseUtils.appendHexBytes(new StringBuilder(this.data.capacity() * 2), this.data.array(), 0, this.data.capacity()).toString();
     }
 
     public String toStringAsWords () {
-        StringBuilder strBuilder = new StringBuilder();
+        char[] digits = new char[this.data.capacity() / 2 * 5];
+        int pos = 0;
 
-        for (int i = 0; i < this.data.capacity(); i+= 2) {
-            strBuilder.append(HexFileParseUtils.hexWordString((short)getWord(i)));
-            strBuilder.append(" ");
+        for (int i = 0; i + 1 < this.data.capacity(); i+= 2) {
+            pos = HexFileParseUtils.putHexWord(digits, pos, getWord(i));
+            digits[pos++] = ' ';
         }
-        return strBuilder.toString();
+        return new String(digits, 0, pos);
     }
 }
\ No newline at end of file
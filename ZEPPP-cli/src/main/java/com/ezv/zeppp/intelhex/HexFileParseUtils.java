@@ -9,39 +9,142 @@ package com.ezv.zeppp.intelhex;
 // ## Author: Elias Zacarias                                                                                     ##
 // ##                                                                                                            ##
 // ################################################################################################################
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Digits are looked up in tables both ways. The encoders write into a caller's array or buffer and return where
+// they stopped, so whole commands and records can be built without going through Strings.
 public class HexFileParseUtils {
     private static final String HEX_SET = "0123456789abcdef";
     private static final String BINARY_SET = "01";
+    // Value of each ASCII char as a hex digit, or -1
+    private static final byte[] HEX_DIGIT_VALUES = new byte[128];
+    // Both (uppercase) digits of every byte value, high digit first
+    private static final char[] BYTE_DIGITS = new char[512];
+
+    static {
+        Arrays.fill(HEX_DIGIT_VALUES, (byte) -1);
+        for (int d = 0; d < HEX_SET.length(); d++) {
+            HEX_DIGIT_VALUES[HEX_SET.charAt(d)] = (byte) d;
+            HEX_DIGIT_VALUES[Character.toUpperCase(HEX_SET.charAt(d))] = (byte) d;
+        }
+        for (int b = 0; b < 256; b++) {
+            BYTE_DIGITS[b * 2] = Character.toUpperCase(HEX_SET.charAt(b >> 4));
+            BYTE_DIGITS[b * 2 + 1] = Character.toUpperCase(HEX_SET.charAt(b & 0xf));
+        }
+    }
 
     private HexFileParseUtils () {
     }
 
     public static int parseHexString (String hexStr) throws IntelHexParsingException {
+        return parseHex(hexStr, 0, hexStr.length());
+    }
+
+    // Hex number in a range of ASCII bytes, e.g. straight from what the interface sent
+    public static int parseHex (byte[] data, int start, int end) throws IntelHexParsingException {
+        int value = 0;
+
+        for (int c = start; c < end; c++) {
+            value = (value << 4) | digitValue(data[c] & 0xff);
+        }
+        return value;
+    }
+
+    // Same, in a range of chars (e.g. a line of a hex file)
+    public static int parseHex (char[] data, int start, int end) throws IntelHexParsingException {
+        int value = 0;
+
+        for (int c = start; c < end; c++) {
+            value = (value << 4) | digitValue(data[c]);
+        }
+        return value;
+    }
+
+    // Same, in a range of a String
+    public static int parseHex (CharSequence data, int start, int end) throws IntelHexParsingException {
         int value = 0;
-        int multiplier = 1;
 
-        for (int c = hexStr.length() - 1; c >= 0; c--) {
-            byte digit = parseHexDigit(hexStr.charAt(c));
-            value += digit * multiplier;
-            multiplier *= 16;
+        for (int c = start; c < end; c++) {
+            value = (value << 4) | digitValue(data.charAt(c));
         }
         return value;
     }
 
+    // Pairs of digits from a String, one byte each, into dest
+    public static void parseHexBytes (CharSequence data, int start, byte[] dest, int destOffset, int count) throws IntelHexParsingException {
+        for (int b = 0; b < count; b++) {
+            int c = start + b * 2;
+            dest[destOffset + b] = (byte) ((digitValue(data.charAt(c)) << 4) | digitValue(data.charAt(c + 1)));
+        }
+    }
+
     public static byte parseHexDigit (char hc) throws IntelHexParsingException {
-        char digit = Character.toLowerCase(hc);
-        int index = HEX_SET.indexOf(digit);
-        if (index < 0 || index > 15) {
-            throw new IntelHexParsingException(String.format("%c is not a valid Hex digit!", hc));
+        return (byte) digitValue(hc);
+    }
+
+    // -1 if the char is not a hex digit
+    public static int hexDigitValue (int c) {
+        return c >= 0 && c < HEX_DIGIT_VALUES.length ? HEX_DIGIT_VALUES[c] : -1;
+    }
+
+    private static int digitValue (int c) throws IntelHexParsingException {
+        int digit = hexDigitValue(c);
+        if (digit < 0) throw new IntelHexParsingException(String.format("%c is not a valid Hex digit!", (char) c));
+        return digit;
+    }
+
+    // Two digits into dest at pos. Returns the position after them.
+    public static int putHexByte (byte[] dest, int pos, int b) {
+        int ndx = (b & 0xff) * 2;
+        dest[pos] = (byte) BYTE_DIGITS[ndx];
+        dest[pos + 1] = (byte) BYTE_DIGITS[ndx + 1];
+        return pos + 2;
+    }
+
+    // Four digits, high byte first
+    public static int putHexWord (byte[] dest, int pos, int w) {
+        return putHexByte(dest, putHexByte(dest, pos, w >> 8), w);
+    }
+
+    public static int putHexByte (char[] dest, int pos, int b) {
+        int ndx = (b & 0xff) * 2;
+        dest[pos] = BYTE_DIGITS[ndx];
+        dest[pos + 1] = BYTE_DIGITS[ndx + 1];
+        return pos + 2;
+    }
+
+    public static int putHexWord (char[] dest, int pos, int w) {
+        return putHexByte(dest, putHexByte(dest, pos, w >> 8), w);
+    }
+
+    // At the position of the buffer, which moves past them
+    public static void putHexByte (ByteBuffer dest, int b) {
+        int ndx = (b & 0xff) * 2;
+        dest.put((byte) BYTE_DIGITS[ndx]).put((byte) BYTE_DIGITS[ndx + 1]);
+    }
+
+    public static void putHexWord (ByteBuffer dest, int w) {
+        putHexByte(dest, w >> 8);
+        putHexByte(dest, w);
+    }
+
+    // Appends two digits per byte of the range
+    public static StringBuilder appendHexBytes (StringBuilder dest, byte[] data, int offset, int len) {
+        for (int b = offset; b < offset + len; b++) {
+            int ndx = (data[b] & 0xff) * 2;
+            dest.append(BYTE_DIGITS[ndx]).append(BYTE_DIGITS[ndx + 1]);
         }
-        return (byte) index;
+        return dest;
     }
 
     public static String hexByteString (byte b) {
-        return String.format("%02X", b);
+        return new String(BYTE_DIGITS, (b & 0xff) * 2, 2);
     }
 
     public static String hexWordString (int w) {
-        return String.format("%02X%02X", (w >> 8) & 0xff, (w & 0xff));
+        char[] digits = new char[4];
+        putHexWord(digits, 0, w);
+        return new String(digits);
     }
 }
@@ -10,6 +10,7 @@ package com.ezv.zeppp.intelhex;
 // ##                                                                                                            ##
 // ################################################################################################################
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
@@ -24,46 +25,59 @@ public class IntelHexFile {
     }
 
     public static void save (String intelHexFilePath, Map<Integer, HexBuffer> entries) throws IntelHexParsingException {
-        int addressH;
-        int addressL;
-        Path filePath = Paths.get(intelHexFilePath);
-
-        if (Files.exists(filePath)) throw new IntelHexParsingException(String.format("File '%s' already exists", intelHexFilePath));
-
-        try (BufferedWriter writer = Files.newBufferedWriter(filePath, Charset.forName("UTF-8"))){
-            int currentAddressH = 0;
-
-            saveIntelHexRecord (writer, IntelHexRecord.createExtendedAddressRecord(currentAddressH));
+        try (Writer writer = new Writer(intelHexFilePath)) {
             // Create a sorted map.
             TreeMap<Integer, HexBuffer> sortedMap = new TreeMap<>(entries);
             for (Map.Entry<Integer, HexBuffer> entry : sortedMap.entrySet()) {
-                HexBuffer buffer = entry.getValue();
-                int absoluteAddress = entry.getKey();
-                if (absoluteAddress > 0xffff) {
-                    addressH = (absoluteAddress >> 16) & 0xffff;
-                    addressL = absoluteAddress & 0xffff;
-                } else {
-                    addressH = 0;
-                    addressL = absoluteAddress;
-                }
-                // Create and add an entry that switches to this address mask.
-                if (addressH != currentAddressH) {
-                    currentAddressH = addressH;
-                    saveIntelHexRecord (writer, IntelHexRecord.createExtendedAddressRecord(addressH));
-                }
-                // Write the entry proper.
-                saveIntelHexRecord (
-                        writer,
-                        new IntelHexRecord((byte)IntelHexRecord.INTELHEX_RECORDTYPE_DATA, addressL, buffer,
-                                0, (byte)buffer.getBufferSize())
-                );
+                writer.write(entry.getKey(), entry.getValue());
             }
-            saveIntelHexRecord(writer, IntelHexRecord.createEndOfFileRecord());
+        } catch (IntelHexParsingException e) {
+            throw e;
         } catch (Exception e) {
             throw new IntelHexParsingException ("Couldn't save buffers to file! " + e.toString());
         }
     }
 
+    // Writes records as they come, in any order. The file is complete (End Of File record included) once closed.
+    public static class Writer implements Closeable {
+        private final BufferedWriter writer;
+        private int currentAddressH = 0;
+
+        public Writer (String intelHexFilePath) throws IntelHexParsingException, IOException {
+            Path filePath = Paths.get(intelHexFilePath);
+
+            if (Files.exists(filePath)) throw new IntelHexParsingException(String.format("File '%s' already exists", intelHexFilePath));
+            writer = Files.newBufferedWriter(filePath, Charset.forName("UTF-8"));
+            saveIntelHexRecord (writer, IntelHexRecord.createExtendedAddressRecord(currentAddressH));
+        }
+
+        // A data record at an absolute byte address
+        public void write (int absoluteAddress, HexBuffer buffer) throws IntelHexParsingException, IOException {
+            int addressH = (absoluteAddress >> 16) & 0xffff;
+            int addressL = absoluteAddress & 0xffff;
+
+            // Create and add an entry that switches to this address mask.
+            if (addressH != currentAddressH) {
+                currentAddressH = addressH;
+                saveIntelHexRecord (writer, IntelHexRecord.createExtendedAddressRecord(addressH));
+            }
+            // Write the entry proper.
+            saveIntelHexRecord (
+                    writer,
+                    new IntelHexRecord((byte)IntelHexRecord.INTELHEX_RECORDTYPE_DATA, addressL, buffer,
+                            0, (byte)buffer.getBufferSize())
+            );
+        }
+
+        public void close () throws IOException {
+            try {
+                saveIntelHexRecord(writer, IntelHexRecord.createEndOfFileRecord());
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
     private static void saveIntelHexRecord (BufferedWriter writer, IntelHexRecord record) throws IOException {
         writer.write(record.toString());
         writer.write("\n");
@@ -57,7 +57,9 @@ public class IntelHexRecord {
         if (!line.startsWith(":")) throw new IntelHexParsingException ("IntelHexRecord definition expected to start with :");
 
         int recordLen = (line.length()-1) / 2;
-        HexBuffer recBytes = HexBuffer.fromString(line.substring(1));
+        byte[] lineBytes = new byte[recordLen];
+        HexFileParseUtils.parseHexBytes(line, 1, lineBytes, 0, recordLen);
+        HexBuffer recBytes = new HexBuffer(lineBytes);
 
         int  recAddress     = recBytes.getWordHSBFirst(INTELHEX_RECORDFIELD_ADDRESS_OFFS);
         byte recType        = (byte) recBytes.getByte(INTELHEX_RECORDFIELD_TYPE_OFFS);
@@ -88,11 +90,16 @@ public class IntelHexRecord {
     }
 
     public String toString() {
-        HexBuffer dataBuffer = (this.data != null ? new HexBuffer(this.data) : null);
-
-        return ":" + HexFileParseUtils.hexByteString(this.size) +  HexFileParseUtils.hexWordString(this.address) +
-                     HexFileParseUtils.hexByteString(this.type) +  (dataBuffer != null ? dataBuffer.toString() : "") +
-                     HexFileParseUtils.hexByteString(this.checksum);
+        int dataLen = (this.data != null ? this.data.length : 0);
+        char[] line = new char[1 + (INTELHEX_RECORDFIELD_DATA_OFFS + dataLen + 1) * 2];
+
+        line[0] = ':';
+        int pos = HexFileParseUtils.putHexByte(line, 1, this.size);
+        pos = HexFileParseUtils.putHexWord(line, pos, this.address);
+        pos = HexFileParseUtils.putHexByte(line, pos, this.type);
+        for (int b = 0; b < dataLen; b++) pos = HexFileParseUtils.putHexByte(line, pos, this.data[b]);
+        HexFileParseUtils.putHexByte(line, pos, this.checksum);
+        return new String(line);
     }
 
     private static byte computeChecksum (HexBuffer data, int startPos, int len) {
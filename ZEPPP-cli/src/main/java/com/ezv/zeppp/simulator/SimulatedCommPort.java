@@ -0,0 +1,46 @@
+package com.ezv.zeppp.simulator;
+
+// ################################################################################################################
+// ## SimulatedCommPort                                                                                          ##
+// ##                                                                                                            ##
+// ## Port to a ZEPPPSimulator. Lets the simulator know when responses are picked up, so its clock follows the  ##
+// ## host.                                                                                                      ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.hardware.MemoryCommPort;
+import com.ezv.zeppp.hardware.ZEPPPResponse;
+
+class SimulatedCommPort extends MemoryCommPort {
+    private final ZEPPPSimulator simulator;
+
+    SimulatedCommPort (ZEPPPSimulator simulator) {
+        super(simulator, ZEPPPSimulator.DEFAULT_BAUD_RATE);
+        this.simulator = simulator;
+        setFullDuplex(true);
+    }
+
+    public byte[] awaitResponse () {
+        byte[] response = super.awaitResponse();
+        simulator.responseTaken(response.length);
+        return response;
+    }
+
+    public void awaitResponse (ZEPPPResponse response) {
+        super.awaitResponse(response);
+        simulator.responseTaken(response.getLength());
+    }
+
+    public byte[] sendAndWaitResponse (byte[] data) {
+        byte[] response = super.sendAndWaitResponse(data);
+        simulator.responseTaken(response.length);
+        return response;
+    }
+
+    public void discardInput () {
+        super.discardInput();
+        simulator.inputDiscarded();
+    }
+}
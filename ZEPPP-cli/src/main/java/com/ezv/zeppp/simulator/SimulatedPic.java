@@ -0,0 +1,240 @@
+package com.ezv.zeppp.simulator;
+
+// ################################################################################################################
+// ## SimulatedPic                                                                                               ##
+// ##                                                                                                            ##
+// ## Model of a PIC in LVP mode, as seen through the ICSP commands the firmware sends: PGM, config and DATA    ##
+// ## memory, the address pointer and the program latches.                                                     ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.config.PICDeviceConfigEntry;
+import com.ezv.zeppp.pic.PicDevice;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SimulatedPic {
+    public static final int CONFIG_AREA_START = 0x2000;
+    public static final int CONFIG_AREA_SIZE  = 0x20;
+    public static final int WORD_MASK         = 0x3fff;
+    public static final int DEVICE_REVISION   = 0x02;
+
+    private final PICDeviceConfigEntry cfg;
+    private final int[] pgmMem;
+    private final int[] dataMem;
+    private final int[] configMem = new int[CONFIG_AREA_SIZE];
+    private final int rowSize;
+    private final int eraseRowSize;
+
+    // Shortest waits (us) after which a program or erase cycle has actually completed. A cycle given less time
+    // leaves memory as it was.
+    private int pgmProgramTime;
+    private int pgmEraseProgramTime;
+    private int dataProgramTime;
+    private int eraseTime;
+
+    private boolean inProgramMode = false;
+    private boolean inConfigArea = false;
+    private int address = 0;
+    private int dataLatch = WORD_MASK;
+    // Words loaded since the last program cycle, by address
+    private final Map<Integer, Integer> pgmLatches = new HashMap<>();
+    private boolean dataLatchLoaded = false;
+    // A PGM word that keeps its value whatever is programmed (a worn out cell), or -1
+    private int stuckWord = -1;
+    // Program cycles run with something latched
+    private long programCycles = 0;
+
+    public SimulatedPic (PICDeviceConfigEntry cfg) {
+        this.cfg = cfg;
+        this.pgmMem = new int[cfg.getPgmMemSize()];
+        this.dataMem = new int[cfg.getDataSize()];
+        this.rowSize = Math.max(1, cfg.getPgmWriteSize());
+        this.eraseRowSize = Math.max(1, cfg.getPgmEraseRowSize());
+        this.pgmProgramTime = cfg.getPgmProgramTime();
+        this.pgmEraseProgramTime = cfg.getPgmEraseProgramTime();
+        this.dataProgramTime = cfg.getDataProgramTime();
+        this.eraseTime = cfg.getEraseTime();
+
+        Arrays.fill(pgmMem, PicDevice.DEFAULT_MEM_CONTENT);
+        Arrays.fill(dataMem, PicDevice.DEFAULT_DATA_MEM_CONTENT);
+        Arrays.fill(configMem, PicDevice.DEFAULT_MEM_CONTENT);
+        configMem[PicDevice.DEVICE_ID_OFFSET] = (cfg.getDeviceId() << cfg.getDeviceIdRevisionBits()) | DEVICE_REVISION;
+    }
+
+    public SimulatedPic withProgramTimes (int pgmProgramTime, int pgmEraseProgramTime, int dataProgramTime, int eraseTime) {
+        this.pgmProgramTime = pgmProgramTime;
+        this.pgmEraseProgramTime = pgmEraseProgramTime;
+        this.dataProgramTime = dataProgramTime;
+        this.eraseTime = eraseTime;
+        return this;
+    }
+
+    public SimulatedPic withStuckWord (int wordAddress) {
+        this.stuckWord = wordAddress;
+        return this;
+    }
+
+    public PICDeviceConfigEntry getDeviceCfg () {
+        return cfg;
+    }
+
+    public long getProgramCycles () {
+        return programCycles;
+    }
+
+    // ---- Direct access, for setting up and checking the contents of the chip --------------------------------------
+    public int getPgmWord (int wordAddress) {
+        return pgmMem[wordAddress];
+    }
+
+    public void setPgmWord (int wordAddress, int value) {
+        pgmMem[wordAddress] = value & WORD_MASK;
+    }
+
+    public int getDataByte (int byteAddress) {
+        return dataMem[byteAddress];
+    }
+
+    public void setDataByte (int byteAddress, int value) {
+        dataMem[byteAddress] = value & 0xff;
+    }
+
+    // Offset from the start of the config area: user IDs at 0-3, device ID at 6, config words from 7
+    public int getConfigWord (int offset) {
+        return configMem[offset];
+    }
+
+    public void setConfigWord (int offset, int value) {
+        configMem[offset] = value & WORD_MASK;
+    }
+
+    // ---- Programming mode ---------------------------------------------------------------------------------------
+    // Entering programming mode resets the address pointer to the start of PGM memory
+    public void enterProgramMode () {
+        inProgramMode = true;
+        inConfigArea = false;
+        address = 0;
+        pgmLatches.clear();
+        dataLatchLoaded = false;
+    }
+
+    public void exitProgramMode () {
+        inProgramMode = false;
+    }
+
+    public boolean isInProgramMode () {
+        return inProgramMode;
+    }
+
+    // ---- ICSP commands ------------------------------------------------------------------------------------------
+    // Moves to the start of the config area. Only a program cycle stores the loaded word there.
+    public void loadConfig (int word) {
+        if (!inProgramMode) return;
+        inConfigArea = true;
+        address = 0;
+        dataLatch = word & WORD_MASK;
+    }
+
+    public void loadPgm (int word) {
+        if (!inProgramMode) return;
+        pgmLatches.put(currentAddress(), word & WORD_MASK);
+    }
+
+    public void loadData (int value) {
+        if (!inProgramMode) return;
+        dataLatch = value & 0xff;
+        dataLatchLoaded = true;
+    }
+
+    public int readPgm () {
+        if (!inProgramMode) return 0;
+        return inConfigArea ? configMem[address % CONFIG_AREA_SIZE] : pgmMem[address % pgmMem.length];
+    }
+
+    public int readData () {
+        if (!inProgramMode) return 0;
+        return dataMem[address % dataMem.length];
+    }
+
+    public void incrementAddress () {
+        if (!inProgramMode) return;
+        address++;
+    }
+
+    // A program cycle stores the PGM latches of the current row, or the DATA latch. Program only cycles can only
+    // clear bits of the PGM words. An erase cycle (Begin Erase) erases the latched words first, and in PGM memory
+    // the whole erase row the address is in (see PICDeviceConfigEntry.getPgmEraseRowSize). waitUs is how long the
+    // programmer waited for it.
+    public void programCycle (int waitUs, boolean erase) {
+        if (!inProgramMode) return;
+        if (!pgmLatches.isEmpty() || dataLatchLoaded) programCycles++;
+
+        if (!pgmLatches.isEmpty()) {
+            int rowStart = currentAddress() / rowSize * rowSize;
+            if (waitUs >= (erase ? pgmEraseProgramTime : pgmProgramTime)) {
+                if (erase && !inConfigArea) eraseRow(currentAddress());
+                for (Map.Entry<Integer, Integer> latch : pgmLatches.entrySet()) {
+                    int latchAddress = latch.getKey();
+                    if (latchAddress >= rowStart && latchAddress < rowStart + rowSize) store(latchAddress, latch.getValue(), erase);
+                }
+            }
+            pgmLatches.clear();
+        }
+        if (dataLatchLoaded) {
+            if (waitUs >= dataProgramTime) dataMem[address % dataMem.length] = dataLatch;
+            dataLatchLoaded = false;
+        }
+    }
+
+    // Bulk erase of PGM memory. From the config area it takes the user IDs and config words too.
+    public void bulkErasePgm () {
+        if (!inProgramMode) return;
+        Arrays.fill(pgmMem, PicDevice.DEFAULT_MEM_CONTENT);
+        if (inConfigArea) eraseConfig();
+    }
+
+    public void bulkEraseData () {
+        if (!inProgramMode) return;
+        Arrays.fill(dataMem, PicDevice.DEFAULT_DATA_MEM_CONTENT);
+    }
+
+    public void chipErase (int waitUs) {
+        if (!inProgramMode || waitUs < eraseTime) return;
+        Arrays.fill(pgmMem, PicDevice.DEFAULT_MEM_CONTENT);
+        Arrays.fill(dataMem, PicDevice.DEFAULT_DATA_MEM_CONTENT);
+        eraseConfig();
+    }
+
+    private void eraseRow (int wordAddress) {
+        int rowStart = wordAddress / eraseRowSize * eraseRowSize;
+        for (int w = rowStart; w < Math.min(rowStart + eraseRowSize, pgmMem.length); w++) {
+            if (w != stuckWord) pgmMem[w] = PicDevice.DEFAULT_MEM_CONTENT;
+        }
+    }
+
+    private void eraseConfig () {
+        int deviceId = configMem[PicDevice.DEVICE_ID_OFFSET];
+        Arrays.fill(configMem, PicDevice.DEFAULT_MEM_CONTENT);
+        configMem[PicDevice.DEVICE_ID_OFFSET] = deviceId;
+    }
+
+    // Latches are kept by absolute address: config area addresses come after PGM memory
+    private int currentAddress () {
+        return inConfigArea ? CONFIG_AREA_START + address % CONFIG_AREA_SIZE : address % pgmMem.length;
+    }
+
+    private void store (int latchAddress, int word, boolean erased) {
+        if (latchAddress >= CONFIG_AREA_START) {
+            int offset = latchAddress - CONFIG_AREA_START;
+            // The device ID is read only
+            if (offset != PicDevice.DEVICE_ID_OFFSET) configMem[offset] = erased ? word : configMem[offset] & word;
+        } else if (latchAddress != stuckWord) {
+            pgmMem[latchAddress] = erased ? word : pgmMem[latchAddress] & word;
+        }
+    }
+}
@@ -0,0 +1,877 @@
+package com.ezv.zeppp.simulator;
+
+// ################################################################################################################
+// ## ZEPPPSimulator                                                                                             ##
+// ##                                                                                                            ##
+// ## The ZEPPP firmware and the PIC connected to it, running in the JVM behind a CommPort. Commands are        ##
+// ## executed as the firmware does it, and every step (serial link, ICSP bit banging, program cycles) takes    ##
+// ## the time it would take on an Arduino, so transfer times come out close to the real ones.                  ##
+// ## Part of the ZEPPP: Zero External Parts PIC Programmer project.                                             ##
+// ##                                                                                                            ##
+// ## Author: Elias Zacarias                                                                                     ##
+// ##                                                                                                            ##
+// ################################################################################################################
+import com.ezv.zeppp.hardware.CRC16;
+import com.ezv.zeppp.hardware.CommPort;
+import com.ezv.zeppp.hardware.MemoryCommPort;
+import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.hardware.ZEPPPBinaryCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+public class ZEPPPSimulator implements MemoryCommPort.Endpoint {
+    // Firmware release being modelled, and its limits
+    public static final String FIRMWARE_VERSION     = "1.2.0";
+    public static final String FIRMWARE_RELEASE     = "20261016";
+    public static final int CAPABILITIES            = 0x07ff;
+    public static final int INPUT_QUEUE_SIZE        = 384;
+    public static final int MAX_WRITE_WORDS         = 32;
+    public static final int MAX_READ_WORDS          = 127;
+    public static final int[] BAUD_RATES            = {115200, 250000, 500000, 1000000};
+    public static final int DUMP_CHUNK_WORDS        = 64;
+    public static final int BLANK_CHECK_BLOCK_WORDS = 32;
+    public static final int BLANK_CHECK_MAX_WORDS   = BLANK_CHECK_BLOCK_WORDS * 16 * MAX_WRITE_WORDS;
+    public static final int BAUD_CONFIRM_TIMEOUT_MS = 1000;
+    // Port descriptor for the CLI: sim:<pic device>
+    public static final String DESCRIPTOR_PREFIX    = "sim:";
+    private static final int MAX_SERIAL_IN_BUFFER   = MAX_WRITE_WORDS * 5 + 10;
+    private static final int MAX_FRAME_LEN          = MAX_SERIAL_IN_BUFFER - 3;
+    private static final int SKIP_UNCHANGED         = 0x80;
+
+    // Link defaults: a USB serial adapter that delivers what it gets about once per millisecond
+    public static final int DEFAULT_BAUD_RATE       = 115200;
+    public static final int DEFAULT_LINK_LATENCY_US = 1000;
+    // Firmware defaults (us), back after every reset
+    public static final int DEFAULT_PROGRAM_TIME    = 5000;
+    public static final int DEFAULT_ERASE_TIME      = 5000;
+    public static final int DEFAULT_SHORT_DELAY     = 5;
+    public static final int DEFAULT_LONG_DELAY      = 10;
+    public static final int DEFAULT_HALF_CLOCK      = 2;
+
+    // What the AVR itself takes: a digitalWrite/digitalRead, parsing and dispatching a command, and queueing a
+    // byte for transmission. The serial TX buffer is 64 bytes; past that, printing waits for the line.
+    // delayMicroseconds(n) returns about 1.25 us early, and right away for n <= 1.
+    private static final long PIN_IO_NS            = 4000;
+    private static final long DELAY_SHORTFALL_NS   = 1250;
+    private static final long DELAY_MIN_NS         = 250;
+    private static final long COMMAND_OVERHEAD_NS  = 30000;
+    private static final int TX_BUFFER_BYTES       = 64;
+    private static final int BITS_PER_SERIAL_BYTE  = 10;
+
+    private enum ReturnCode {
+        RET_ERR_SPACE_EXPECTED ("space (32) char expected before argument"),
+        RET_ERR_HEX_BYTE_EXPECTED ("HEX byte value expected"),
+        RET_ERR_HEX_WORD_EXPECTED ("HEX word value expected"),
+        RET_ERR_VERIFICATION_FAILED ("Verification failed!"),
+        RET_ERR_OUT_OF_RANGE ("Value out of range"),
+        RET_ERR_UNKNOWN_COMMAND ("Unknown command: "),
+        RET_ERR_NO_MEMORY_AREA_SELECTED ("No device memory area selected"),
+        RET_ERR_CRC_MISMATCH ("Frame CRC mismatch");
+
+        final String message;
+
+        ReturnCode (String message) {
+            this.message = message;
+        }
+    }
+
+    // Thrown by the command handlers to reply with an error
+    private static class CommandError extends Exception {
+        final ReturnCode code;
+
+        CommandError (ReturnCode code) {
+            super(code.message, null, false, false);
+            this.code = code;
+        }
+    }
+
+    private static class Delivery {
+        final long dueNanos;
+        final byte[] data;
+        final MemoryCommPort port;
+
+        Delivery (long dueNanos, byte[] data, MemoryCommPort port) {
+            this.dueNanos = dueNanos;
+            this.data = data;
+            this.port = port;
+        }
+    }
+
+    private final SimulatedPic pic;
+    private final boolean realTime;
+    private int linkLatencyUs = DEFAULT_LINK_LATENCY_US;
+    private int minReliableHalfClock = 0;
+
+    // Firmware state
+    private int baudRate = DEFAULT_BAUD_RATE;
+    private int delayPgmUs = DEFAULT_PROGRAM_TIME;
+    private int delayErasePgmUs = DEFAULT_PROGRAM_TIME;
+    private int delayDataPgmUs = DEFAULT_PROGRAM_TIME;
+    private int delayEraseUs = DEFAULT_ERASE_TIME;
+    private int delayShortUs = DEFAULT_SHORT_DELAY;
+    private int delayLongUs = DEFAULT_LONG_DELAY;
+    private int delayHalfClockUs = DEFAULT_HALF_CLOCK;
+    private boolean awaitingBaudConfirm = false;
+    private long baudConfirmDeadline;
+    private final ByteArrayOutputStream serialBuffer = new ByteArrayOutputStream();
+    private boolean binaryFrame = false;
+    private boolean binaryFrame0 = false;
+    private boolean inputHalted = false;
+    private int writeSkipCount;
+
+    // Timeline, in ns from the start of the session. The firmware runs ahead of the host: it knows when each
+    // command will arrive and when its reply reaches the other end of the link.
+    private final long origin = System.nanoTime();
+    private long rxLineFreeAt = 0;
+    private long txLineFreeAt = 0;
+    private long firmwareFreeAt = 0;
+    private long now;
+    private final ArrayDeque<long[]> queuedCommands = new ArrayDeque<>();
+    private long hostClock = 0;
+    private final ArrayDeque<Long> pendingResponses = new ArrayDeque<>();
+    private long droppedCommands = 0;
+    private long ignoredCommands = 0;
+    private long lateResponses = 0;
+    private long commandsExecuted = 0;
+    private LinkedBlockingQueue<Delivery> deliveries = null;
+
+    // With realTime, replies reach the port when they would arrive from the hardware. Otherwise they are there
+    // right away, and the time the session would have taken is kept in a virtual clock (see getElapsedNanos).
+    public ZEPPPSimulator (SimulatedPic pic, boolean realTime) {
+        this.pic = pic;
+        this.realTime = realTime;
+    }
+
+    public ZEPPPSimulator withLinkLatencyUs (int linkLatencyUs) {
+        this.linkLatencyUs = linkLatencyUs;
+        return this;
+    }
+
+    // Reads come back garbled when the ICSP clock is made faster than this (half period in us)
+    public ZEPPPSimulator withMinReliableHalfClock (int halfClockUs) {
+        this.minReliableHalfClock = halfClockUs;
+        return this;
+    }
+
+    public SimulatedPic getPic () {
+        return pic;
+    }
+
+    // A port to talk to the simulated interface, opened at the default rate
+    public CommPort createPort () {
+        MemoryCommPort port = new SimulatedCommPort(this);
+        port.open();
+        return port;
+    }
+
+    // Time the session has taken so far, as the host sees it
+    public synchronized long getElapsedNanos () {
+        return realTime ? System.nanoTime() - origin : hostClock;
+    }
+
+    public long getDroppedCommands () {
+        return droppedCommands;
+    }
+
+    // Commands thrown away after an error, until the host resynced
+    public long getIgnoredCommands () {
+        return ignoredCommands;
+    }
+
+    // Responses that arrived after the host would have stopped waiting for them
+    public long getLateResponses () {
+        return lateResponses;
+    }
+
+    public long getCommandsExecuted () {
+        return commandsExecuted;
+    }
+
+    public int getBaudRate () {
+        return baudRate;
+    }
+
+    // ##############################################################################################################
+    // ##                                        S E R I A L   L I N K                                             ##
+    // ##############################################################################################################
+    public synchronized void received (byte[] data, MemoryCommPort port) {
+        long sendTime = realTime ? System.nanoTime() - origin : hostClock;
+        long byteTime = byteTimeNanos();
+        long lineStart = Math.max(rxLineFreeAt, sendTime + linkLatencyUs * 1000L);
+
+        for (int i = 0; i < data.length; i++) {
+            long arrival = lineStart + (i + 1) * byteTime;
+            if (byteCompletesCommand(data[i] & 0xff)) commandReceived(arrival, port);
+        }
+        rxLineFreeAt = lineStart + data.length * byteTime;
+    }
+
+    // Same framing as the loop() of the firmware
+    private boolean byteCompletesCommand (int b) {
+        if (binaryFrame) {
+            serialBuffer.write(b);
+            int size = serialBuffer.size();
+            if (size == 1 && (b == 0 || b > MAX_FRAME_LEN)) {
+                binaryFrame0 = true;
+                return true;
+            }
+            return size > 1 && size == (serialBuffer.toByteArray()[0] & 0xff) + 3;
+        }
+        if (serialBuffer.size() == 0 && b == ZEPPPBinaryCodec.FRAME_SYNC) {
+            binaryFrame = true;
+            return false;
+        }
+        if (b == '\r') return true;
+        if (serialBuffer.size() < MAX_SERIAL_IN_BUFFER) serialBuffer.write(b);
+        return false;
+    }
+
+    private void commandReceived (long arrival, MemoryCommPort port) {
+        byte[] command = serialBuffer.toByteArray();
+        boolean binary = binaryFrame;
+        boolean badLength = binaryFrame0;
+        serialBuffer.reset();
+        binaryFrame = false;
+        binaryFrame0 = false;
+
+        // Commands that arrive while the firmware is busy wait in its input queue, if there is room
+        int size = command.length + 1;
+        while (!queuedCommands.isEmpty() && queuedCommands.peekFirst()[0] <= arrival) queuedCommands.pollFirst();
+        int queued = 0;
+        for (long[] entry : queuedCommands) queued += (int) entry[1];
+        if (queued + size > INPUT_QUEUE_SIZE) {
+            droppedCommands++;
+            return;
+        }
+
+        now = Math.max(arrival, firmwareFreeAt);
+        queuedCommands.addLast(new long[] {now, size});
+        now += COMMAND_OVERHEAD_NS;
+
+        if (awaitingBaudConfirm) {
+            confirmBaudRate(command, binary, arrival, port);
+        } else if (inputHalted && (badLength || !resumesInput(command, binary))) {
+            ignoredCommands++;
+            firmwareFreeAt = now;
+            return;
+        } else if (badLength) {
+            reply(port, ZEPPPBinaryCodec.encodeResponse(ReturnCode.RET_ERR_OUT_OF_RANGE.ordinal() + 1));
+            inputHalted = true;
+        } else {
+            inputHalted = false;
+            execute(command, binary, port);
+        }
+        commandsExecuted++;
+        firmwareFreeAt = now;
+    }
+
+    // After an error every command is dropped, until a text RSY (or the FWI of a new session)
+    private static boolean resumesInput (byte[] command, boolean binary) {
+        String text = new String(command, StandardCharsets.ISO_8859_1);
+        return !binary && (text.startsWith(ZEPPP.ZEPPP_CMD_RESYNC) || text.startsWith(ZEPPP.ZEPPP_CMD_FIRMWARE_INFO));
+    }
+
+    // Only "BDC <word>" at the new rate is accepted right after BDR. Anything else, or nothing in time, takes the
+    // firmware back to the default rate.
+    private void confirmBaudRate (byte[] command, boolean binary, long arrival, MemoryCommPort port) {
+        awaitingBaudConfirm = false;
+        String text = new String(command, StandardCharsets.ISO_8859_1);
+        if (!binary && arrival <= baudConfirmDeadline && port.getBaudRate() == baudRate && text.startsWith("BDC ")) {
+            try {
+                int pattern = new TextArgs(command).word();
+                reply(port, wordsReply(false, pattern));
+                return;
+            } catch (CommandError e) {
+                // Garbage: fall back
+            }
+        }
+        baudRate = DEFAULT_BAUD_RATE;
+    }
+
+    private long byteTimeNanos () {
+        return BITS_PER_SERIAL_BYTE * 1000000000L / baudRate;
+    }
+
+    // Queues a reply for transmission at the firmware's current time. Printing only blocks once the TX buffer is
+    // full, so long replies hold the firmware back until the line catches up.
+    private void reply (MemoryCommPort port, byte[] data) {
+        long byteTime = byteTimeNanos();
+        long lineStart = Math.max(txLineFreeAt, now);
+        txLineFreeAt = lineStart + data.length * byteTime;
+        now = Math.max(now + data.length * PIN_IO_NS / 4, txLineFreeAt - TX_BUFFER_BYTES * byteTime);
+        long arrival = txLineFreeAt + linkLatencyUs * 1000L;
+
+        if (realTime) {
+            deliverLater(new Delivery(origin + arrival, data, port));
+        } else {
+            pendingResponses.addLast(arrival);
+            port.reply(data);
+        }
+    }
+
+    private void deliverLater (Delivery delivery) {
+        if (deliveries == null) {
+            deliveries = new LinkedBlockingQueue<>();
+            Thread deliverer = new Thread(this::deliver, "ZEPPP simulator link");
+            deliverer.setDaemon(true);
+            deliverer.start();
+        }
+        deliveries.add(delivery);
+    }
+
+    private void deliver () {
+        try {
+            while (true) {
+                Delivery delivery = deliveries.take();
+                long wait;
+                while ((wait = delivery.dueNanos - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                delivery.port.reply(delivery.data);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The host picked up a response (or waited for one in vain): its clock moves to when that happened
+    synchronized void responseTaken (int length) {
+        if (realTime) return;
+        if (length == 0) {
+            hostClock += CommPort.COMMAND_FIRST_READ_TIMEOUT * 1000000L;
+        } else if (!pendingResponses.isEmpty()) {
+            long arrival = pendingResponses.pollFirst();
+            if (arrival - hostClock > CommPort.COMMAND_FIRST_READ_TIMEOUT * 1000000L) lateResponses++;
+            hostClock = Math.max(hostClock, arrival);
+        }
+    }
+
+    synchronized void inputDiscarded () {
+        if (realTime) return;
+        while (!pendingResponses.isEmpty()) hostClock = Math.max(hostClock, pendingResponses.pollFirst());
+    }
+
+    // ##############################################################################################################
+    // ##                                           C O M M A N D S                                                ##
+    // ##############################################################################################################
+    private interface Args {
+        int byteArg () throws CommandError;
+        int word () throws CommandError;
+        // Words (or bytes, as words) up to the end of the command
+        int[] wordList () throws CommandError;
+    }
+
+    private static class TextArgs implements Args {
+        private final byte[] cmd;
+        private int pos = 3;
+
+        TextArgs (byte[] cmd) {
+            this.cmd = cmd;
+        }
+
+        public int byteArg () throws CommandError {
+            if (!matchSpace()) throw new CommandError(ReturnCode.RET_ERR_SPACE_EXPECTED);
+            return hex(2, ReturnCode.RET_ERR_HEX_BYTE_EXPECTED);
+        }
+
+        public int word () throws CommandError {
+            if (!matchSpace()) throw new CommandError(ReturnCode.RET_ERR_SPACE_EXPECTED);
+            return hex(4, ReturnCode.RET_ERR_HEX_WORD_EXPECTED);
+        }
+
+        public int[] wordList () throws CommandError {
+            int[] words = new int[MAX_WRITE_WORDS + 1];
+            int count = 0;
+            while (matchSpace()) {
+                if (count > MAX_WRITE_WORDS) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                words[count++] = hex(4, ReturnCode.RET_ERR_HEX_WORD_EXPECTED);
+            }
+            return java.util.Arrays.copyOf(words, count);
+        }
+
+        private boolean matchSpace () {
+            if (pos >= cmd.length || cmd[pos] != ' ') return false;
+            pos++;
+            return true;
+        }
+
+        private int hex (int maxDigits, ReturnCode error) throws CommandError {
+            int value = 0;
+            int digits = 0;
+            while (digits < maxDigits && pos < cmd.length && Character.digit(cmd[pos], 16) >= 0) {
+                value = (value << 4) | Character.digit(cmd[pos], 16);
+                pos++;
+                digits++;
+            }
+            if (digits == 0) throw new CommandError(error);
+            return value;
+        }
+    }
+
+    // Frame contents after the command ID, up to the CRC
+    private static class FrameArgs implements Args {
+        private final byte[] frame;
+        private final int end;
+        private int pos = 2;
+
+        FrameArgs (byte[] frame) {
+            this.frame = frame;
+            this.end = (frame[0] & 0xff) + 1;
+        }
+
+        public int byteArg () throws CommandError {
+            if (pos >= end) throw new CommandError(ReturnCode.RET_ERR_HEX_BYTE_EXPECTED);
+            return frame[pos++] & 0xff;
+        }
+
+        public int word () throws CommandError {
+            if (pos + 1 >= end) throw new CommandError(ReturnCode.RET_ERR_HEX_WORD_EXPECTED);
+            int w = (frame[pos] & 0xff) | ((frame[pos + 1] & 0xff) << 8);
+            pos += 2;
+            return w;
+        }
+
+        public int[] wordList () throws CommandError {
+            if (((end - pos) & 1) != 0) throw new CommandError(ReturnCode.RET_ERR_HEX_WORD_EXPECTED);
+            if ((end - pos) / 2 > MAX_WRITE_WORDS) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+            int[] words = new int[(end - pos) / 2];
+            for (int i = 0; i < words.length; i++) words[i] = word();
+            return words;
+        }
+    }
+
+    private void execute (byte[] command, boolean binary, MemoryCommPort port) {
+        String name;
+        Args args;
+
+        if (binary) {
+            if (!frameCrcOk(command)) {
+                reply(port, ZEPPPBinaryCodec.encodeResponse(ReturnCode.RET_ERR_CRC_MISMATCH.ordinal() + 1));
+                inputHalted = true;
+                return;
+            }
+            name = ZEPPPBinaryCodec.commandName(command[1] & 0xff);
+            if (name == null || name.equals(ZEPPP.ZEPPP_CMD_FIRMWARE_INFO)) name = "";
+            args = new FrameArgs(command);
+        } else {
+            String text = new String(command, StandardCharsets.ISO_8859_1);
+            name = text.length() >= 3 ? text.substring(0, 3) : text;
+            args = new TextArgs(command);
+        }
+
+        try {
+            byte[] response = run(name, args, binary, port);
+            if (response != null) reply(port, response);
+        } catch (CommandError e) {
+            inputHalted = true;
+            if (binary) {
+                reply(port, ZEPPPBinaryCodec.encodeResponse(e.code.ordinal() + 1));
+            } else {
+                String msg = e.code == ReturnCode.RET_ERR_UNKNOWN_COMMAND
+                        ? e.code.message + new String(command, StandardCharsets.ISO_8859_1) : e.code.message;
+                reply(port, textLine("ER: " + msg));
+            }
+        }
+    }
+
+    // Runs a command and returns its reply, or null if it already sent it (memory dumps)
+    private byte[] run (String name, Args args, boolean binary, MemoryCommPort port) throws CommandError {
+        int b, eraseMode, count, value;
+
+        switch (name) {
+            case "LVP":
+                pinWrites(6);
+                delayUs(delayShortUs * 2);
+                pic.enterProgramMode();
+                return okReply(binary, "Entering LVP Programming Mode (Legacy method)");
+
+            case "EXT":
+                pinWrites(4);
+                delayUs(delayLongUs);
+                pic.exitProgramMode();
+                return okReply(binary, "Exiting LVP Programming Mode");
+
+            case "CHE":
+                icspCommand();
+                delayUs(delayEraseUs);
+                pic.chipErase(delayEraseUs);
+                return okReply(binary, "CHIP Erase");
+
+            case "PME":
+                eraseMode = args.byteArg();
+                if (eraseMode > 1) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                loadPgm(0x3fff);
+                icspCommand();
+                delayUs(delayLongUs);
+                pic.bulkErasePgm();
+                if (eraseMode != 0) eraseProgramCycle(delayEraseUs);
+                return okReply(binary, "PROGRAM Memory Erased");
+
+            case "DME":
+                eraseMode = args.byteArg();
+                if (eraseMode > 1) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                icspCommand();
+                delayUs(delayLongUs);
+                pic.bulkEraseData();
+                if (eraseMode != 0) eraseProgramCycle(delayEraseUs);
+                return okReply(binary, "DATA (EEPROM) Memory Erased");
+
+            case "SCM":
+                icspCommand();
+                icspLoadData();
+                pic.loadConfig(0x3fff);
+                return okReply(binary, "CONFIG Memory Selected");
+
+            case "IAD":
+                b = args.byteArg();
+                for (int n = 0; n < b; n++) incrementAddress();
+                return binary ? ZEPPPBinaryCodec.encodeResponse(ZEPPPBinaryCodec.STATUS_OK) : textLine("OK: Address Pointer increased " + b + " positions");
+
+            case "DMR":
+            case "PMR":
+                b = args.byteArg();
+                if (binary && b > MAX_READ_WORDS) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                boolean dataMem = name.equals("DMR");
+                if (dataMem) loadData(0xff); else loadPgm(0x3fff);
+                int[] words = new int[b];
+                for (int n = 0; n < b; n++) {
+                    words[n] = dataMem ? readData() : readPgm();
+                    incrementAddress();
+                }
+                return wordsReply(binary, words);
+
+            case "PMW":
+            case "PMF":
+                eraseMode = args.byteArg();
+                if ((eraseMode & ~SKIP_UNCHANGED) > 1) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                if (name.equals("PMW")) {
+                    writePgmWords(eraseMode, args.wordList());
+                } else {
+                    count = args.word();
+                    writePgmWords(eraseMode, filled(count, args.word()));
+                }
+                return writtenReply(binary, eraseMode, name.equals("PMW") ? "PGM block written" : "PGM block filled");
+
+            case "PMB":
+            case "PBF":
+                b = args.byteArg();
+                if (b < 2 || b > MAX_WRITE_WORDS) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                if (name.equals("PMB")) {
+                    writePgmRows(b, args.wordList());
+                    return okReply(binary, "PGM block written");
+                }
+                count = args.word();
+                writePgmRows(b, filled(count, args.word()));
+                return okReply(binary, "PGM block filled");
+
+            case "DMW":
+            case "DMF":
+                eraseMode = args.byteArg();
+                if ((eraseMode & ~SKIP_UNCHANGED) > 1) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                if (name.equals("DMW")) {
+                    writeDataBytes(eraseMode, args.wordList());
+                } else {
+                    count = args.word();
+                    writeDataBytes(eraseMode, filled(count, args.byteArg()));
+                }
+                return writtenReply(binary, eraseMode, name.equals("DMW") ? "DATA block written" : "DATA block filled");
+
+            case "FWI":
+                return textLine("OK: ZEPPP " + FIRMWARE_VERSION + " " + FIRMWARE_RELEASE);
+
+            case "IQS":
+                return wordsReply(binary, INPUT_QUEUE_SIZE);
+
+            case "RSY":
+                return okReply(binary, "Resync");
+
+            case "CAP":
+                return wordsReply(binary, CAPABILITIES, INPUT_QUEUE_SIZE, MAX_WRITE_WORDS, MAX_READ_WORDS, BAUD_RATES.length);
+
+            case "DMP":
+                b = memoryArea(args);
+                count = args.word();
+                dump(b == 1, count, port);
+                return null;
+
+            case "CRC":
+                b = memoryArea(args);
+                count = args.word();
+                return wordsReply(binary, crc(b == 1, count));
+
+            case "BLK":
+                b = memoryArea(args);
+                count = args.word();
+                if (count > BLANK_CHECK_MAX_WORDS) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                return wordsReply(binary, blankCheck(b == 1, count));
+
+            case "TIM":
+                int pgm = args.word();
+                int erasePgm = args.word();
+                int data = args.word();
+                int erase = args.word();
+                int shortUs = args.byteArg();
+                int longUs = args.byteArg();
+                if (pgm == 0 || erasePgm == 0 || data == 0 || erase == 0) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                delayPgmUs = pgm;
+                delayErasePgmUs = erasePgm;
+                delayDataPgmUs = data;
+                delayEraseUs = erase;
+                delayShortUs = shortUs;
+                delayLongUs = longUs;
+                return okReply(binary, "Timings set");
+
+            case "CLK":
+                delayHalfClockUs = args.byteArg();
+                return okReply(binary, "ICSP clock set");
+
+            case "BDR":
+                b = args.byteArg();
+                if (b >= BAUD_RATES.length) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+                reply(port, okReply(binary, "Switching baud rate"));
+                baudRate = BAUD_RATES[b];
+                awaitingBaudConfirm = true;
+                baudConfirmDeadline = txLineFreeAt + BAUD_CONFIRM_TIMEOUT_MS * 1000000L;
+                return null;
+
+            default:
+                throw new CommandError(ReturnCode.RET_ERR_UNKNOWN_COMMAND);
+        }
+    }
+
+    private static int memoryArea (Args args) throws CommandError {
+        int area = args.byteArg();
+        if (area > 1) throw new CommandError(ReturnCode.RET_ERR_OUT_OF_RANGE);
+        return area;
+    }
+
+    private static int[] filled (int count, int value) {
+        int[] words = new int[count];
+        java.util.Arrays.fill(words, value);
+        return words;
+    }
+
+    // ##############################################################################################################
+    // ##                                    M E M O R Y   O P E R A T I O N S                                     ##
+    // ##############################################################################################################
+    private void writePgmWords (int eraseMode, int[] words) throws CommandError {
+        boolean skipUnchanged = (eraseMode & SKIP_UNCHANGED) != 0;
+        eraseMode &= ~SKIP_UNCHANGED;
+        writeSkipCount = 0;
+
+        for (int w : words) {
+            if (skipUnchanged && readPgm() == w) {
+                writeSkipCount++;
+                incrementAddress();
+                continue;
+            }
+            loadPgm(w);
+            if (eraseMode == 0) {
+                eraseProgramCycle(delayErasePgmUs);
+            } else {
+                programCycle(delayPgmUs);
+                icspCommand();
+            }
+            if (readPgm() != w) throw new CommandError(ReturnCode.RET_ERR_VERIFICATION_FAILED);
+            incrementAddress();
+        }
+    }
+
+    // The last row is padded with 0x3FFF. The Begin Erase first clears the erase row the address is in.
+    private void writePgmRows (int writeSize, int[] words) {
+        loadPgm(0x3fff);
+        eraseProgramCycle(delayEraseUs);
+        icspCommand();
+        for (int b = 0; b < words.length; b += writeSize) {
+            for (int n = 0; n < writeSize; n++) {
+                loadPgm(b + n < words.length ? words[b + n] : 0x3fff);
+                if (n < writeSize - 1) incrementAddress();
+            }
+            programCycle(delayPgmUs);
+            icspCommand();
+            incrementAddress();
+        }
+    }
+
+    private void writeDataBytes (int eraseMode, int[] bytes) throws CommandError {
+        boolean skipUnchanged = (eraseMode & SKIP_UNCHANGED) != 0;
+        eraseMode &= ~SKIP_UNCHANGED;
+        writeSkipCount = 0;
+
+        if (eraseMode != 0) loadData(0xff);
+        for (int w : bytes) {
+            if (skipUnchanged && readData() == (w & 0xff)) {
+                writeSkipCount++;
+                incrementAddress();
+                continue;
+            }
+            if (eraseMode == 0) {
+                loadData(w);
+                eraseProgramCycle(delayDataPgmUs);
+            } else {
+                eraseProgramCycle(delayEraseUs);
+                icspCommand();
+                loadData(w);
+                programCycle(delayDataPgmUs);
+                icspCommand();
+            }
+            if (readData() != (w & 0xff)) throw new CommandError(ReturnCode.RET_ERR_VERIFICATION_FAILED);
+            incrementAddress();
+        }
+    }
+
+    // Always binary frames, sent as each chunk is read
+    private void dump (boolean dataMem, int count, MemoryCommPort port) {
+        if (dataMem) loadData(0xff); else loadPgm(0x3fff);
+        while (count > 0) {
+            int n = Math.min(count, DUMP_CHUNK_WORDS);
+            int[] words = new int[n];
+            for (int i = 0; i < n; i++) {
+                words[i] = dataMem ? readData() : readPgm();
+                incrementAddress();
+            }
+            reply(port, ZEPPPBinaryCodec.encodeResponse(ZEPPPBinaryCodec.STATUS_OK, words));
+            count -= n;
+        }
+    }
+
+    private int crc (boolean dataMem, int count) {
+        int crc = CRC16.INITIAL_VALUE;
+        if (dataMem) loadData(0xff); else loadPgm(0x3fff);
+        for (int i = 0; i < count; i++) {
+            int w = dataMem ? readData() : readPgm();
+            incrementAddress();
+            crc = CRC16.update(CRC16.update(crc, w & 0xff), w >> 8);
+        }
+        return crc;
+    }
+
+    private int[] blankCheck (boolean dataMem, int count) {
+        int blank = dataMem ? 0xff : 0x3fff;
+        int[] bitmap = new int[(count + BLANK_CHECK_BLOCK_WORDS * 16 - 1) / (BLANK_CHECK_BLOCK_WORDS * 16)];
+        if (dataMem) loadData(0xff); else loadPgm(0x3fff);
+        for (int i = 0; i < count; i++) {
+            int w = dataMem ? readData() : readPgm();
+            incrementAddress();
+            if (w != blank) {
+                int block = i / BLANK_CHECK_BLOCK_WORDS;
+                bitmap[block >> 4] |= 1 << (block & 0x0f);
+            }
+        }
+        return bitmap;
+    }
+
+    // ##############################################################################################################
+    // ##                                      I C S P   T I M I N G                                               ##
+    // ##############################################################################################################
+    private void delayUs (long us) {
+        now += us <= 1 ? DELAY_MIN_NS : us * 1000 - DELAY_SHORTFALL_NS;
+    }
+
+    private void pinWrites (int count) {
+        now += count * PIN_IO_NS;
+    }
+
+    // A bit is a clock pulse (two pin writes, each between two half periods) plus setting or reading the data pin
+    private void icspBits (int bits) {
+        for (int b = 0; b < bits * 4; b++) delayUs(delayHalfClockUs);
+        pinWrites(bits * 3);
+    }
+
+    private void icspCommand () {
+        pinWrites(1);
+        icspBits(6);
+        delayUs(delayShortUs);
+    }
+
+    private void icspLoadData () {
+        pinWrites(2);
+        icspBits(16);
+        delayUs(delayLongUs);
+    }
+
+    private int icspReceiveWord (int word) {
+        pinWrites(1);
+        delayUs(delayShortUs);
+        icspBits(16);
+        // Too fast for the target: the bits come one clock late
+        return delayHalfClockUs < minReliableHalfClock ? (word >> 1) | 0x2000 : word;
+    }
+
+    private int readPgm () {
+        icspCommand();
+        delayUs(delayShortUs);
+        return icspReceiveWord(pic.readPgm());
+    }
+
+    private int readData () {
+        icspCommand();
+        delayUs(delayShortUs);
+        return icspReceiveWord(pic.readData()) & 0xff;
+    }
+
+    private void loadPgm (int word) {
+        icspCommand();
+        icspLoadData();
+        pic.loadPgm(word);
+    }
+
+    private void loadData (int value) {
+        icspCommand();
+        icspLoadData();
+        pic.loadData(value);
+    }
+
+    private void incrementAddress () {
+        icspCommand();
+        delayUs(delayShortUs);
+        pic.incrementAddress();
+    }
+
+    // Begin Programming Only
+    private void programCycle (int waitUs) {
+        icspCommand();
+        delayUs(waitUs);
+        pic.programCycle(waitUs, false);
+    }
+
+    // Begin Erase (Programming Cycle)
+    private void eraseProgramCycle (int waitUs) {
+        icspCommand();
+        delayUs(waitUs);
+        pic.programCycle(waitUs, true);
+    }
+
+    // ##############################################################################################################
+    // ##                                           R E P L I E S                                                  ##
+    // ##############################################################################################################
+    private static byte[] textLine (String line) {
+        return (line + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] okReply (boolean binary, String msg) {
+        return binary ? ZEPPPBinaryCodec.encodeResponse(ZEPPPBinaryCodec.STATUS_OK) : textLine("OK: " + msg);
+    }
+
+    private byte[] writtenReply (boolean binary, int eraseMode, String msg) {
+        if ((eraseMode & SKIP_UNCHANGED) != 0) return wordsReply(binary, writeSkipCount);
+        return okReply(binary, msg);
+    }
+
+    private static byte[] wordsReply (boolean binary, int... words) {
+        if (binary) return ZEPPPBinaryCodec.encodeResponse(ZEPPPBinaryCodec.STATUS_OK, words);
+
+        StringBuilder sb = new StringBuilder("OK: ");
+        for (int w : words) sb.append(String.format("%04X ", w & 0xffff));
+        return (sb + "\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // The frame as received: [LEN] [CMD ID] [Args...] [CRC L] [CRC H]
+    private static boolean frameCrcOk (byte[] command) {
+        int len = command[0] & 0xff;
+        int crc = CRC16.compute(command, 0, len + 1);
+        return crc == ((command[len + 1] & 0xff) | ((command[len + 2] & 0xff) << 8));
+    }
+}
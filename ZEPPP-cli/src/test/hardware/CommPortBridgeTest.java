@@ -0,0 +1,110 @@
+package hardware;
+
+import com.ezv.zeppp.hardware.CommPort;
+import com.ezv.zeppp.hardware.CommPortBridge;
+import com.ezv.zeppp.hardware.MemoryCommPort;
+import com.ezv.zeppp.hardware.TcpCommPort;
+import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.hardware.ZEPPPResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class CommPortBridgeTest {
+    // Answers text commands like the firmware would: FWI gets the version, anything else is echoed back
+    private static class EchoInterface implements MemoryCommPort.Endpoint {
+        private final StringBuilder line = new StringBuilder();
+
+        public void received (byte[] data, MemoryCommPort port) {
+            for (byte b : data) {
+                if (b != '\r') {
+                    line.append((char) b);
+                    continue;
+                }
+                String cmd = line.toString();
+                line.setLength(0);
+                String reply = cmd.equals(ZEPPP.ZEPPP_CMD_FIRMWARE_INFO) ? "ZEPPP 1.2.0 test" : cmd;
+                port.reply((ZEPPP.OK_STR_PREFIX + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    private static CommPortBridge startBridge (CommPort port) throws IOException {
+        final CommPortBridge bridge = new CommPortBridge(port, 0);
+        Thread server = new Thread(() -> {
+            try {
+                bridge.serve();
+            } catch (IOException ignored) {
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        return bridge;
+    }
+
+    @Test
+    public void testMemoryPort () {
+        MemoryCommPort port = new MemoryCommPort(new EchoInterface(), 115200);
+        Assert.assertTrue("Open", port.open());
+
+        ZEPPPResponse response = ZEPPP.checkZEPPPInterface(port, "1.2.0");
+        Assert.assertEquals("Interface found", ZEPPPResponse.StatusCode.STATUS_OK, response.getCode());
+        Assert.assertEquals("Bytes sent", 4, port.getBytesSent());
+        Assert.assertEquals("Bytes received", "OK: ZEPPP 1.2.0 test\r\n".length(), port.getBytesReceived());
+        port.close();
+    }
+
+    @Test
+    public void testCommandsThroughTheBridge () throws IOException {
+        MemoryCommPort local = new MemoryCommPort(new EchoInterface(), 115200);
+        local.open();
+        CommPortBridge bridge = startBridge(local);
+
+        CommPort remote = CommPort.forDescriptor("tcp://localhost:" + bridge.getLocalPort(), 115200);
+        Assert.assertTrue("Remote port is TCP", remote instanceof TcpCommPort);
+        Assert.assertFalse("Baud rate is set on the bridge", remote.canChangeBaudRate());
+        try {
+            Assert.assertTrue("Connected to the bridge", remote.open());
+            Assert.assertEquals("Interface found through the bridge", ZEPPPResponse.StatusCode.STATUS_OK,
+                    ZEPPP.checkZEPPPInterface(remote, "1.2.0").getCode());
+
+            // Several commands in flight, as the pipeline sends them
+            for (int i = 0; i < 8; i++) ZEPPP.sendEncodedCommandNoWait(remote, ZEPPP.encodeTextCommand("IAD " + i));
+            for (int i = 0; i < 8; i++) {
+                Assert.assertEquals("Pipelined responses come back in order", "IAD " + i, ZEPPP.receiveResponse(remote).getMessage());
+            }
+        } finally {
+            remote.close();
+            bridge.close();
+        }
+    }
+
+    @Test
+    public void testBridgeServesTheNextClient () throws IOException {
+        MemoryCommPort local = new MemoryCommPort(new EchoInterface(), 115200);
+        local.open();
+        CommPortBridge bridge = startBridge(local);
+
+        try {
+            for (int client = 0; client < 2; client++) {
+                CommPort remote = new TcpCommPort("localhost", bridge.getLocalPort());
+                Assert.assertTrue("Client " + client + " connected", remote.open());
+                Assert.assertEquals("Client " + client + " gets its own response", "PMR 2",
+                        ZEPPP.sendCommand(remote, "PMR 2").getMessage());
+                remote.close();
+            }
+        } finally {
+            bridge.close();
+        }
+    }
+
+    @Test
+    public void testNoBridge () throws IOException {
+        CommPortBridge bridge = new CommPortBridge(new MemoryCommPort(new EchoInterface(), 115200), 0);
+        int unused = bridge.getLocalPort();
+        bridge.close();
+        Assert.assertFalse("Nothing listening", new TcpCommPort("localhost", unused).open());
+    }
+}
@@ -0,0 +1,126 @@
+package hardware;
+
+import com.ezv.zeppp.hardware.ResponseFramer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ResponseFramerTest {
+    private static void feedLater (final ResponseFramer framer, final String data, final long delayMs) {
+        new Thread(() -> {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException ignored) {
+            }
+            byte[] bytes = data.getBytes();
+            framer.feed(bytes, bytes.length);
+        }).start();
+    }
+
+    private static String awaitText (ResponseFramer framer, long firstByteTimeOut, long byteTimeOut) throws InterruptedException {
+        return new String(framer.awaitResponse(firstByteTimeOut, byteTimeOut));
+    }
+
+    @Test
+    public void testResponseCompletesOnTerminator () throws InterruptedException {
+        ResponseFramer framer = new ResponseFramer();
+        feedLater(framer, "OK: 3FFF 3FFF \r\n", 10);
+
+        long start = System.currentTimeMillis();
+        String response = awaitText(framer, 5000, 5000);
+        long elapsed = System.currentTimeMillis() - start;
+
+        Assert.assertEquals("Full response line", "OK: 3FFF 3FFF \r\n", response);
+        Assert.assertTrue("Response should not wait for the idle timeout (took " + elapsed + " ms)", elapsed < 1000);
+    }
+
+    @Test
+    public void testResponseSplitAcrossChunks () throws InterruptedException {
+        ResponseFramer framer = new ResponseFramer();
+        feedLater(framer, "OK: PGM bl", 5);
+        feedLater(framer, "ock written\r\n", 30);
+
+        Assert.assertEquals("Response put together from two chunks", "OK: PGM block written\r\n", awaitText(framer, 5000, 5000));
+    }
+
+    @Test
+    public void testPipelinedResponsesReturnedInOrder () throws InterruptedException {
+        ResponseFramer framer = new ResponseFramer();
+        byte[] bytes = "OK: first\r\nER: second\r\nOK: thi".getBytes();
+        framer.feed(bytes, bytes.length);
+        feedLater(framer, "rd\r\n", 10);
+
+        Assert.assertEquals("First queued response", "OK: first\r\n", awaitText(framer, 1000, 1000));
+        Assert.assertEquals("Second queued response", "ER: second\r\n", awaitText(framer, 1000, 1000));
+        Assert.assertEquals("Third response, completed later", "OK: third\r\n", awaitText(framer, 1000, 1000));
+    }
+
+    @Test
+    public void testBinaryFrameCompletesOnLength () throws InterruptedException {
+        ResponseFramer framer = new ResponseFramer();
+        // A response frame with two words, one of them 0x0A (the text terminator), followed by a text response
+        byte[] frame = {(byte) 0xA5, 0x05, 0x00, 0x0A, 0x00, (byte) 0xFF, 0x3F, 0x12, 0x34};
+        byte[] text = "OK: done\r\n".getBytes();
+        framer.feed(frame, 4);
+        framer.feed(Arrays.copyOfRange(frame, 4, frame.length), frame.length - 4);
+        framer.feed(text, text.length);
+
+        Assert.assertArrayEquals("Binary frame with an embedded newline", frame, framer.awaitResponse(1000, 1000));
+        Assert.assertEquals("Text response after a binary frame", "OK: done\r\n", awaitText(framer, 1000, 1000));
+    }
+
+    @Test
+    public void testIncompleteResponseTimesOut () throws InterruptedException {
+        ResponseFramer framer = new ResponseFramer();
+        feedLater(framer, "OK: 3FF", 5);
+
+        Assert.assertEquals("Partial response returned after the byte timeout", "OK: 3FF", awaitText(framer, 1000, 50));
+    }
+
+    @Test
+    public void testNoResponse () throws InterruptedException {
+        ResponseFramer framer = new ResponseFramer();
+        Assert.assertEquals("Nothing received", "", awaitText(framer, 20, 20));
+    }
+
+    @Test
+    public void testWaitingSessionsDoNotSpin () throws InterruptedException {
+        final int sessions = 32;
+        final int responsesPerSession = 10;
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final AtomicLong waiterCpuNanos = new AtomicLong();
+        List<Thread> waiters = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int s = 0; s < sessions; s++) {
+            final ResponseFramer framer = new ResponseFramer();
+            Thread waiter = new Thread(() -> {
+                long cpuStart = threadBean.getCurrentThreadCpuTime();
+                try {
+                    for (int r = 0; r < responsesPerSession; r++) {
+                        framer.reset();
+                        feedLater(framer, "OK: PGM block written\r\n", 20);
+                        framer.awaitResponse(5000, 5000);
+                    }
+                } catch (InterruptedException ignored) {
+                }
+                waiterCpuNanos.addAndGet(threadBean.getCurrentThreadCpuTime() - cpuStart);
+            });
+            waiters.add(waiter);
+            waiter.start();
+        }
+        for (Thread waiter : waiters) waiter.join();
+        long wallNanos = System.nanoTime() - start;
+
+        Assert.assertTrue(
+                String.format("%d waiting sessions used %d ms of CPU in %d ms", sessions, waiterCpuNanos.get() / 1000000, wallNanos / 1000000),
+                waiterCpuNanos.get() < wallNanos / 4
+        );
+    }
+}
@@ -0,0 +1,115 @@
+package hardware;
+
+import com.ezv.zeppp.hardware.CommPort;
+import com.ezv.zeppp.hardware.MemoryCommPort;
+import com.ezv.zeppp.hardware.RecordingCommPort;
+import com.ezv.zeppp.hardware.ReplayCommPort;
+import com.ezv.zeppp.hardware.SessionTrace;
+import com.ezv.zeppp.hardware.ZEPPP;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class SessionTraceTest {
+    private static final int RESPONSE_DELAY_MS = 20;
+
+    // Echoes each text command back, a while later
+    private static class SlowInterface implements MemoryCommPort.Endpoint {
+        private final StringBuilder line = new StringBuilder();
+        private final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor();
+
+        public void received (byte[] data, MemoryCommPort port) {
+            for (byte b : data) {
+                if (b != '\r') {
+                    line.append((char) b);
+                    continue;
+                }
+                byte[] reply = (ZEPPP.OK_STR_PREFIX + line + "\r\n").getBytes(StandardCharsets.US_ASCII);
+                line.setLength(0);
+                responder.schedule(() -> port.reply(reply), RESPONSE_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // A short session: two commands one at a time, a baud rate change, and three pipelined commands
+    private static List<String> session (CommPort port) {
+        List<String> responses = new ArrayList<>();
+        responses.add(new String(port.sendAndWaitResponse(ZEPPP.encodeTextCommand("FWI")), StandardCharsets.US_ASCII));
+        responses.add(new String(port.sendAndWaitResponse(ZEPPP.encodeTextCommand("CAP")), StandardCharsets.US_ASCII));
+        port.setBaudRate(250000);
+        for (int i = 0; i < 3; i++) port.send(ZEPPP.encodeTextCommand("IAD 0" + i));
+        for (int i = 0; i < 3; i++) responses.add(new String(port.awaitResponse(), StandardCharsets.US_ASCII));
+        return responses;
+    }
+
+    private static File recordSession (List<String> responses) throws IOException {
+        File trace = File.createTempFile("zeppp", ".zpt");
+        trace.deleteOnExit();
+        MemoryCommPort port = new MemoryCommPort(new SlowInterface(), 115200);
+        port.open();
+        RecordingCommPort recorder = new RecordingCommPort(port, trace.getPath());
+        responses.addAll(session(recorder));
+        recorder.close();
+        return trace;
+    }
+
+    @Test
+    public void testTraceContents () throws IOException {
+        List<String> responses = new ArrayList<>();
+        SessionTrace trace = SessionTrace.read(recordSession(responses).getPath());
+
+        Assert.assertEquals("Initial rate", 115200, trace.getBaudRate());
+        Assert.assertTrue("Rate could be changed", trace.canChangeBaudRate());
+        Assert.assertEquals("Events", 11, trace.getEvents().size());
+        Assert.assertEquals("Rate change", 250000, trace.getEvents().get(4).getBaudRate());
+
+        SessionTrace.Event sent = trace.getEvents().get(0);
+        SessionTrace.Event received = trace.getEvents().get(1);
+        Assert.assertEquals("Sent first", SessionTrace.EventType.SENT, sent.getType());
+        Assert.assertArrayEquals("Command", ZEPPP.encodeTextCommand("FWI"), sent.getData());
+        Assert.assertEquals("Response", "OK: FWI\r\n", new String(received.getData(), StandardCharsets.US_ASCII));
+        Assert.assertTrue("Response time", received.getTimeNanos() - sent.getTimeNanos() >= RESPONSE_DELAY_MS * 1000000L);
+    }
+
+    @Test
+    public void testReplay () throws IOException {
+        List<String> responses = new ArrayList<>();
+        File trace = recordSession(responses);
+
+        ReplayCommPort replay = new ReplayCommPort(trace.getPath());
+        long start = System.nanoTime();
+        Assert.assertEquals("Same responses", responses, session(replay));
+        long replayMs = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("Whole session replayed", replay.isFinished());
+        Assert.assertEquals("Rate after the change", 250000, replay.getBaudRate());
+        Assert.assertTrue("Recorded timing (" + replayMs + " ms)", replayMs >= 3 * RESPONSE_DELAY_MS);
+
+        replay = new ReplayCommPort(trace.getPath());
+        replay.setSpeed(0);
+        start = System.nanoTime();
+        Assert.assertEquals("Same responses without waiting", responses, session(replay));
+        Assert.assertTrue("No waiting", (System.nanoTime() - start) / 1000000 < replayMs / 2);
+    }
+
+    @Test
+    public void testReplayDiverges () throws IOException {
+        ReplayCommPort replay = new ReplayCommPort(recordSession(new ArrayList<>()).getPath());
+        replay.setSpeed(0);
+        replay.sendAndWaitResponse(ZEPPP.encodeTextCommand("FWI"));
+        try {
+            replay.send(ZEPPP.encodeTextCommand("IQS"));
+            Assert.fail("Another command was accepted");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue("Says where", e.getMessage().contains("event 2"));
+        }
+        Assert.assertEquals("No more responses", 0, replay.awaitResponse().length);
+    }
+}
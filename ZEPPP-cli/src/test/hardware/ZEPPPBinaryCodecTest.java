@@ -0,0 +1,91 @@
+package hardware;
+
+import com.ezv.zeppp.hardware.CRC16;
+import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.hardware.ZEPPPBinaryCodec;
+import com.ezv.zeppp.hardware.ZEPPPResponse;
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.intelhex.IntelHexParsingException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZEPPPBinaryCodecTest {
+    private static byte[] responseFrame (int status, int... words) {
+        byte[] frame = new byte[ZEPPPBinaryCodec.FRAME_OVERHEAD + 1 + words.length * 2];
+        frame[0] = (byte) ZEPPPBinaryCodec.FRAME_SYNC;
+        frame[1] = (byte) (1 + words.length * 2);
+        frame[2] = (byte) status;
+        for (int w = 0; w < words.length; w++) {
+            frame[3 + w*2] = (byte) (words[w] & 0xff);
+            frame[4 + w*2] = (byte) (words[w] >> 8);
+        }
+        int crc = CRC16.compute(frame, 1, frame.length - 3);
+        frame[frame.length - 2] = (byte) (crc & 0xff);
+        frame[frame.length - 1] = (byte) (crc >> 8);
+        return frame;
+    }
+
+    @Test
+    public void testCRC16 () {
+        byte[] check = "123456789".getBytes();
+        Assert.assertEquals("CRC-16/CCITT-FALSE check value", 0x29B1, CRC16.compute(check, 0, check.length));
+    }
+
+    @Test
+    public void testMemoryCRC () {
+        // Words go into the CRC LSB first, masked like the firmware reads them
+        HexBuffer data = new HexBuffer(8);
+        for (int w = 0; w < 4; w++) data.setWord(w * 2, (short) (0x3F00 | w * 0x11));
+        byte[] lsbFirst = {0x00, 0x3F, 0x11, 0x3F, 0x22, 0x3F, 0x33, 0x3F};
+        Assert.assertEquals("Same as the bytes on the wire", CRC16.compute(lsbFirst, 0, 8), CRC16.computeWords(data, 0, 4, 0xffff));
+        Assert.assertEquals("Range", CRC16.compute(lsbFirst, 2, 4), CRC16.computeWords(data, 1, 2, 0xffff));
+
+        byte[] dataBytes = {0x00, 0x00, 0x11, 0x00};
+        Assert.assertEquals("Data memory bytes", CRC16.compute(dataBytes, 0, 4), CRC16.computeWords(data, 0, 2, 0xff));
+        Assert.assertEquals("Empty range", CRC16.INITIAL_VALUE, CRC16.computeWords(data, 0, 0, 0xffff));
+    }
+
+    @Test
+    public void testEncodeBlockWrite () {
+        HexBuffer buffer = new HexBuffer(64);
+        for (int w = 0; w < 32; w++) buffer.setWord(w * 2, (short) (0x3000 + w));
+
+        byte[] frame = ZEPPPBinaryCodec.encodeCommand(ZEPPP.ZEPPP_CMD_PGM_MEM_BLOCKWRITE, (byte) 8, buffer, 0, 32);
+        Assert.assertEquals("Frame size", ZEPPPBinaryCodec.FRAME_OVERHEAD + 2 + 64, frame.length);
+        Assert.assertEquals("Sync byte", (byte) ZEPPPBinaryCodec.FRAME_SYNC, frame[0]);
+        Assert.assertEquals("Frame size from its length field", frame.length, ZEPPPBinaryCodec.frameSize(frame[1]));
+        Assert.assertEquals("Parameter", 8, frame[3]);
+        Assert.assertEquals("First word LSB", 0x00, frame[4]);
+        Assert.assertEquals("First word MSB", 0x30, frame[5]);
+
+        // The same command in text: "PMB 08" followed by " XXXX" per word, and the terminator
+        int textSize = 6 + 32 * 5 + 1;
+        Assert.assertTrue("Binary frame is less than half the text command size", frame.length * 2 < textSize);
+    }
+
+    @Test
+    public void testDecodeWords () throws IntelHexParsingException {
+        ZEPPPResponse response = ZEPPPBinaryCodec.decodeResponse(responseFrame(0, 0x3FFF, 0x000A, 0x1234));
+
+        Assert.assertEquals("Response status", ZEPPPResponse.StatusCode.STATUS_OK, response.getCode());
+        Assert.assertArrayEquals("Response words", new int[]{0x3FFF, 0x000A, 0x1234}, response.getMessageWordArray());
+        Assert.assertEquals("First response word", 0x3FFF, response.getMessageWord());
+    }
+
+    @Test
+    public void testDecodeErrorStatus () {
+        ZEPPPResponse response = ZEPPPBinaryCodec.decodeResponse(responseFrame(4));
+
+        Assert.assertEquals("Response status", ZEPPPResponse.StatusCode.STATUS_ERROR, response.getCode());
+        Assert.assertEquals("Error message", "Verification failed!", response.getMessage());
+    }
+
+    @Test
+    public void testDecodeCorruptedFrame () {
+        byte[] frame = responseFrame(0, 0x3FFF);
+        frame[3] ^= 0x01;
+
+        ZEPPPResponse response = ZEPPPBinaryCodec.decodeResponse(frame);
+        Assert.assertEquals("Corrupted frame rejected", ZEPPPResponse.StatusCode.STATUS_ERROR, response.getCode());
+    }
+}
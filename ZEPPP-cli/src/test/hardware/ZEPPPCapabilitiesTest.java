@@ -0,0 +1,53 @@
+package hardware;
+
+import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.hardware.ZEPPPBinaryCodec;
+import com.ezv.zeppp.hardware.ZEPPPCapabilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZEPPPCapabilitiesTest {
+    @Test
+    public void testCapabilitiesFromResponse () {
+        int flags = ZEPPPCapabilities.CAP_PIPELINING | ZEPPPCapabilities.CAP_BINARY_FRAMES;
+        ZEPPPCapabilities caps = ZEPPPCapabilities.fromResponse(
+                ZEPPPBinaryCodec.decodeResponse(ZEPPPBinaryCodec.encodeResponse(0, flags, 384, 32, 127, 4)));
+
+        Assert.assertTrue("Pipelining", caps.has(ZEPPPCapabilities.CAP_PIPELINING));
+        Assert.assertTrue("Binary frames", caps.has(ZEPPPCapabilities.CAP_BINARY_FRAMES));
+        Assert.assertFalse("Fill commands", caps.has(ZEPPPCapabilities.CAP_FILL_COMMANDS));
+        Assert.assertEquals("Input queue size", 384, caps.getInputQueueSize());
+        Assert.assertEquals("Max write words", 32, caps.getMaxWriteWords());
+        Assert.assertEquals("Max read words", 127, caps.getMaxReadWords());
+        Assert.assertEquals("No baud rate switching without its capability bit", 1, caps.getBaudRateCount());
+    }
+
+    @Test
+    public void testNewerFirmwareWithMoreWords () {
+        ZEPPPCapabilities caps = ZEPPPCapabilities.fromResponse(
+                ZEPPPBinaryCodec.decodeResponse(ZEPPPBinaryCodec.encodeResponse(0, 0xffff, 512, 64, 127, 4, 0x1234, 0x5678)));
+
+        Assert.assertTrue("Known capabilities still recognized", caps.has(ZEPPPCapabilities.CAP_FILL_COMMANDS));
+        Assert.assertEquals("Baud rate count", 4, caps.getBaudRateCount());
+    }
+
+    @Test
+    public void testOldFirmwareGetsLegacyCapabilities () {
+        // 6 = "Unknown command" + 1
+        ZEPPPCapabilities caps = ZEPPPCapabilities.fromResponse(
+                ZEPPPBinaryCodec.decodeResponse(ZEPPPBinaryCodec.encodeResponse(6)));
+        Assert.assertSame("Unknown command", ZEPPPCapabilities.LEGACY, caps);
+
+        caps = ZEPPPCapabilities.fromResponse(ZEPPPBinaryCodec.decodeResponse(ZEPPPBinaryCodec.encodeResponse(0, 0x000f)));
+        Assert.assertSame("Truncated response", ZEPPPCapabilities.LEGACY, caps);
+        Assert.assertEquals("No pipelining on legacy firmware", 0, caps.getInputQueueSize());
+    }
+
+    @Test
+    public void testCompatibleVersions () {
+        Assert.assertTrue("Same version", ZEPPP.isCompatibleVersion("1.2.0", "1.2.0"));
+        Assert.assertTrue("Older firmware, same major version", ZEPPP.isCompatibleVersion("1.2.0", "1.0.0"));
+        Assert.assertTrue("Newer firmware, same major version", ZEPPP.isCompatibleVersion("1.2.0", "1.5.3"));
+        Assert.assertFalse("Different major version", ZEPPP.isCompatibleVersion("1.2.0", "2.0.0"));
+    }
+}
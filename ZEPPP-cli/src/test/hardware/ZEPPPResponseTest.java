@@ -0,0 +1,119 @@
+package hardware;
+
+import com.ezv.zeppp.hardware.MemoryCommPort;
+import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.hardware.ZEPPPBinaryCodec;
+import com.ezv.zeppp.hardware.ZEPPPResponse;
+import com.ezv.zeppp.intelhex.IntelHexParsingException;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+public class ZEPPPResponseTest {
+    private static final int BLOCK_WORDS = 32;
+    private static final int BLOCKS      = 20000;
+
+    private static ZEPPPResponse load (String text) {
+        byte[] raw = text.getBytes(StandardCharsets.ISO_8859_1);
+        return new ZEPPPResponse().load(raw, 0, raw.length);
+    }
+
+    private static String textBlock () {
+        StringBuilder sb = new StringBuilder(ZEPPP.OK_STR_PREFIX);
+        for (int w = 0; w < BLOCK_WORDS; w++) sb.append(String.format("%04X ", (w * 0x1F3) & 0x3FFF));
+        return sb.append('\n').toString();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter () {
+        Assume.assumeTrue("Allocation counters available", ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocation counters enabled", threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads;
+    }
+
+    @Test
+    public void testTextResponses () throws IntelHexParsingException {
+        ZEPPPResponse response = load("OK: 3FFF 0123 abcd \n");
+        int[] words = new int[8];
+        Assert.assertEquals("Status", ZEPPPResponse.StatusCode.STATUS_OK, response.getCode());
+        Assert.assertEquals("Word count", 3, response.getMessageWords(words));
+        Assert.assertArrayEquals("Words", new int[] {0x3FFF, 0x0123, 0xABCD}, java.util.Arrays.copyOf(words, 3));
+        Assert.assertArrayEquals("Word array", new int[] {0x3FFF, 0x0123, 0xABCD}, response.getMessageWordArray());
+        Assert.assertEquals("Message", "3FFF 0123 abcd", response.getMessage());
+
+        response.load("OK: 55AA \n".getBytes(StandardCharsets.ISO_8859_1), 0, 10);
+        Assert.assertEquals("Reloaded", 0x55AA, response.getMessageWord());
+
+        response = load("ER: Value out of range\r\n");
+        Assert.assertEquals("Error", ZEPPPResponse.StatusCode.STATUS_ERROR, response.getCode());
+        Assert.assertEquals("Error message", "Value out of range", response.getMessage());
+
+        Assert.assertEquals("Nothing", "No response from interface", load("").getMessage());
+        Assert.assertEquals("Garbage", "Invalid response from interface: ???", load("???\r\n").getMessage());
+
+        try {
+            load("OK: 12G4 \n").getMessageWords(words);
+            Assert.fail("Bad digit accepted");
+        } catch (IntelHexParsingException ignored) {
+        }
+        try {
+            load("OK: 0001 0002 0003 \n").getMessageWords(new int[2]);
+            Assert.fail("Words beyond the array");
+        } catch (IntelHexParsingException ignored) {
+        }
+    }
+
+    @Test
+    public void testBinaryResponses () throws IntelHexParsingException {
+        byte[] frame = ZEPPPBinaryCodec.encodeResponse(0, 0x3FFF, 0x000A);
+        ZEPPPResponse response = new ZEPPPResponse().load(frame, 0, frame.length);
+        int[] words = new int[2];
+        Assert.assertEquals("Word count", 2, response.getMessageWords(words));
+        Assert.assertArrayEquals("Words", new int[] {0x3FFF, 0x000A}, words);
+        Assert.assertEquals("First word", 0x3FFF, response.getMessageWord());
+
+        frame = ZEPPPBinaryCodec.encodeResponse(5);
+        response.load(frame, 0, frame.length);
+        Assert.assertEquals("Error", ZEPPPResponse.StatusCode.STATUS_ERROR, response.getCode());
+        Assert.assertEquals("Error message", "Value out of range", response.getMessage());
+    }
+
+    // Blocks read through a port, the way the read loops do it: nothing should be allocated once warmed up
+    @Test
+    public void testAllocationPerBlock () throws IntelHexParsingException {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        byte[][] replies = {
+                textBlock().getBytes(StandardCharsets.ISO_8859_1),
+                ZEPPPBinaryCodec.encodeResponse(0, new int[BLOCK_WORDS])
+        };
+        byte[] cmd = ZEPPP.encodeTextCommand("PMR 20");
+
+        for (byte[] reply : replies) {
+            MemoryCommPort port = new MemoryCommPort((data, p) -> p.reply(reply), 115200);
+            port.open();
+            ZEPPPResponse response = new ZEPPPResponse();
+            int[] words = new int[BLOCK_WORDS];
+            long sum = 0;
+
+            long allocated = 0;
+            // Warm up, then measure
+            for (int run = 0; run < 2; run++) {
+                long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int b = 0; b < BLOCKS; b++) {
+                    port.send(cmd);
+                    ZEPPP.receiveResponse(port, response);
+                    sum += response.getMessageWords(words);
+                }
+                allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+            }
+            Assert.assertEquals("Every word decoded", 2L * BLOCKS * BLOCK_WORDS, sum);
+
+            String kind = ZEPPPBinaryCodec.isFrame(reply) ? "binary" : "text";
+            Assert.assertTrue(String.format("No allocation per block (%s): %d bytes", kind, allocated / BLOCKS),
+                    allocated / BLOCKS < 8);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package intelhex;
+
+import com.ezv.zeppp.ZEPPPCommandEncoder;
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.intelhex.HexFileParseUtils;
+import com.ezv.zeppp.intelhex.IntelHexParsingException;
+import com.ezv.zeppp.intelhex.IntelHexRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Times the table-driven hex encoding and decoding against the String.format and substring code it replaced.
+// Not a test: run its main by hand. No JMH in this build, so it takes the best of a few runs of each, once the
+// JIT has seen them.
+public class HexCodecBenchmark {
+    private static final int BENCHMARK_RUNS = 5;
+    private static final int RECORDS        = 20000;
+
+    // What the tables replaced
+    private static String formattedRecord (IntelHexRecord r) {
+        StringBuilder sb = new StringBuilder(":");
+        sb.append(String.format("%02X", r.getSize())).append(String.format("%02X%02X", (r.getAddress() >> 8) & 0xff, r.getAddress() & 0xff));
+        sb.append(String.format("%02X", r.getType()));
+        for (byte b : r.getData()) sb.append(String.format("%02X", b));
+        return sb.append(String.format("%02X", r.getChecksum())).toString();
+    }
+
+    private static byte[] formattedWriteCommand (HexBuffer words, int start, int count) {
+        StringBuilder sb = new StringBuilder("PMW ").append(String.format("%02X", 0));
+        for (int w = start; w < start + count; w++) {
+            int word = words.getWord(w * 2);
+            sb.append(' ').append(String.format("%02X%02X", (word >> 8) & 0xff, word & 0xff));
+        }
+        return sb.append('\r').toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static long bestOf (Runnable task) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void report (String what, long before, long now) {
+        System.out.printf("%s: %.1f ms before, %.1f ms with the tables (%.1fx)%n",
+                what, before / 1e6, now / 1e6, (double) before / now);
+    }
+
+    public static void main (String[] args) throws IntelHexParsingException {
+        HexBuffer image = new HexBuffer(RECORDS * 16);
+        for (int b = 0; b < image.getBufferSize(); b++) image.setByte(b, (byte) (b * 31 + 7));
+        IntelHexRecord[] records = new IntelHexRecord[RECORDS];
+        String[] lines = new String[RECORDS];
+        for (int r = 0; r < RECORDS; r++) {
+            records[r] = new IntelHexRecord((byte) IntelHexRecord.INTELHEX_RECORDTYPE_DATA, (r * 16) & 0xffff,
+                    new HexBuffer(image.getBytes(r * 16, 16)), 0, (byte) 16);
+            lines[r] = records[r].toString();
+            if (!lines[r].equals(formattedRecord(records[r]))) throw new IllegalStateException("Record text differs: " + lines[r]);
+        }
+        ZEPPPCommandEncoder encoder = new ZEPPPCommandEncoder();
+        int blocks = image.getBufferSize() / 64;
+        if (!Arrays.equals(formattedWriteCommand(image, 32, 32), encoder.pgmWriteCommand((byte) 1, (byte) 0, image, 32, 32))) {
+            throw new IllegalStateException("Write command differs");
+        }
+
+        long[] sink = {0};
+        report("Hex save", bestOf(() -> {
+            for (IntelHexRecord r : records) sink[0] += formattedRecord(r).length();
+        }), bestOf(() -> {
+            for (IntelHexRecord r : records) sink[0] += r.toString().length();
+        }));
+        byte[] decoded = new byte[21];
+        report("Hex load", bestOf(() -> {
+            for (String line : lines) {
+                // A substring per byte, and each digit looked up in a string
+                for (int b = 0; b < decoded.length; b++) {
+                    String pair = line.substring(1 + b * 2, 3 + b * 2);
+                    decoded[b] = (byte) ("0123456789abcdef".indexOf(Character.toLowerCase(pair.charAt(0))) << 4 |
+                            "0123456789abcdef".indexOf(Character.toLowerCase(pair.charAt(1))));
+                }
+                sink[0] += decoded[20];
+            }
+        }), bestOf(() -> {
+            try {
+                for (String line : lines) {
+                    HexFileParseUtils.parseHexBytes(line, 1, decoded, 0, decoded.length);
+                    sink[0] += decoded[20];
+                }
+            } catch (IntelHexParsingException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        report("Command encoding", bestOf(() -> {
+            for (int b = 0; b < blocks; b++) sink[0] += formattedWriteCommand(image, b * 32, 32).length;
+        }), bestOf(() -> {
+            for (int b = 0; b < blocks; b++) sink[0] += encoder.pgmWriteCommand((byte) 1, (byte) 0, image, b * 32, 32).length;
+        }));
+        // Keeps the JIT from dropping the work
+        System.out.println("(" + sink[0] + ")");
+    }
+}
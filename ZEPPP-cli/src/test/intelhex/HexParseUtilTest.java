@@ -2,9 +2,13 @@ package intelhex;
 
 import com.ezv.zeppp.intelhex.HexFileParseUtils;
 import com.ezv.zeppp.intelhex.IntelHexParsingException;
+import com.ezv.zeppp.intelhex.IntelHexRecord;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class HexParseUtilTest {
     @Test
     public void testHexDigitParseOK () throws IntelHexParsingException {
@@ -32,4 +36,37 @@ public class HexParseUtilTest {
     public void testHexStringParseError () throws IntelHexParsingException {
         HexFileParseUtils.parseHexString("0ABCDG");
     }
+
+    @Test
+    public void testHexEncodingMatchesFormat () throws IntelHexParsingException {
+        for (int b = 0; b < 256; b++) {
+            Assert.assertEquals("Byte " + b, String.format("%02X", b), HexFileParseUtils.hexByteString((byte) b));
+        }
+        byte[] bytes = new byte[4];
+        char[] chars = new char[4];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        for (int w = 0; w <= 0xffff; w++) {
+            String expected = String.format("%04X", w);
+            Assert.assertEquals("Word " + w, expected, HexFileParseUtils.hexWordString(w));
+
+            HexFileParseUtils.putHexWord(bytes, 0, w);
+            HexFileParseUtils.putHexWord(chars, 0, w);
+            buffer.clear();
+            HexFileParseUtils.putHexWord(buffer, w);
+            Assert.assertEquals("Word in bytes " + w, expected, new String(bytes, StandardCharsets.US_ASCII));
+            Assert.assertEquals("Word in chars " + w, expected, new String(chars));
+            Assert.assertEquals("Word in a buffer " + w, 4, buffer.position());
+            Assert.assertEquals("Parsed back " + w, w, HexFileParseUtils.parseHex(bytes, 0, 4));
+            Assert.assertEquals("Parsed back from chars " + w, w, HexFileParseUtils.parseHex(chars, 0, 4));
+        }
+        Assert.assertEquals("Only 16 bits", "2345", HexFileParseUtils.hexWordString(0x12345));
+        Assert.assertEquals("Range of a string", 0xab, HexFileParseUtils.parseHex(":10ab", 3, 5));
+
+        byte[] parsed = new byte[3];
+        HexFileParseUtils.parseHexBytes("x00fF7a", 1, parsed, 0, 3);
+        Assert.assertArrayEquals("Byte pairs", new byte[] {0x00, (byte) 0xff, 0x7a}, parsed);
+
+        String line = ":10010000214601360121470136007EFE09D2190140";
+        Assert.assertEquals("Record loads and saves back", line, IntelHexRecord.fromString(line).toString());
+    }
 }
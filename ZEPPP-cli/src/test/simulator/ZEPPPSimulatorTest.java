@@ -0,0 +1,463 @@
+package simulator;
+
+import com.ezv.zeppp.ZEPPPClient;
+import com.ezv.zeppp.ZEPPPCommandException;
+import com.ezv.zeppp.config.AppConfig;
+import com.ezv.zeppp.config.PICDeviceConfigEntry;
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.pic.PicDevice;
+import com.ezv.zeppp.simulator.SimulatedPic;
+import com.ezv.zeppp.simulator.ZEPPPSimulator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static zeppp.TestImages.code;
+
+public class ZEPPPSimulatorTest {
+    private static final AppConfig CONFIG = new AppConfig();
+
+    private static ZEPPPSimulator simulator (String deviceName) {
+        return new ZEPPPSimulator(new SimulatedPic(CONFIG.getSupportedPIC(deviceName)), false);
+    }
+
+    private static ZEPPPClient connect (ZEPPPSimulator simulator) throws Exception {
+        ZEPPPClient client = new ZEPPPClient(simulator.createPort());
+        client.connect();
+        return client;
+    }
+
+    private static void assertSameWords (String msg, HexBuffer expected, HexBuffer actual) {
+        for (int w = 0; w < expected.getBufferSize() / 2; w++) {
+            Assert.assertEquals(msg + " at word " + w, expected.getWord(w * 2), actual.getWord(w * 2));
+        }
+    }
+
+    @Test
+    public void testProgramAndReadBack () throws Exception {
+        ZEPPPSimulator simulator = simulator("16f628a");
+        ZEPPPClient client = connect(simulator);
+        PICDeviceConfigEntry picCfg = client.autodetectDevice(CONFIG);
+        Assert.assertEquals("Detected device", "16f628a", picCfg.getDeviceName());
+
+        PicDevice image = new PicDevice(picCfg);
+        code(image.getProgramMem(), 0, 300);
+        for (int b = 0; b < 16; b++) image.getDataMem().setWord(b * 2, (short) (b * 3));
+        image.getUserIds().setWord(0, (short) 0x1234);
+        image.getConfWords().setWord(0, (short) 0x3F10);
+
+        client.chipErase(image);
+        client.writeAll(image);
+        Assert.assertEquals("Code in the PIC", image.getProgramMem().getWord(299 * 2), simulator.getPic().getPgmWord(299));
+        Assert.assertEquals("EEPROM in the PIC", 15 * 3, simulator.getPic().getDataByte(15));
+        Assert.assertEquals("User ID in the PIC", 0x1234, simulator.getPic().getConfigWord(0));
+        Assert.assertEquals("Config word in the PIC", 0x3F10, simulator.getPic().getConfigWord(PicDevice.CONF_WORD_OFFSET));
+
+        client.verifyPgmMem(image);
+        PicDevice readBack = new PicDevice(picCfg);
+        client.readPgmMem(readBack);
+        client.readDataMem(readBack);
+        assertSameWords("PGM read back", image.getProgramMem(), readBack.getProgramMem());
+        assertSameWords("DATA read back", image.getDataMem(), readBack.getDataMem());
+        Assert.assertEquals("Nothing dropped", 0, simulator.getDroppedCommands());
+    }
+
+    @Test
+    public void testBlockWriteDevice () throws Exception {
+        ZEPPPSimulator simulator = simulator("16f877a");
+        ZEPPPClient client = connect(simulator);
+        PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+        code(image.getProgramMem(), 0, 100);
+        code(image.getProgramMem(), 4000, 13);
+
+        client.chipErase(image);
+        // Checked by the interface with CRCs
+        client.writePgmMem(image);
+        Assert.assertEquals("Row padding", PicDevice.DEFAULT_MEM_CONTENT, simulator.getPic().getPgmWord(4013));
+        Assert.assertEquals("Blank in between", PicDevice.DEFAULT_MEM_CONTENT, simulator.getPic().getPgmWord(2000));
+    }
+
+    // Each block write erases the 32-word row it starts in on the 16F87/88: code, a fill and a skip in the same
+    // rows all have to survive the writes that come after them
+    @Test
+    public void testEraseRows () throws Exception {
+        for (String deviceName : new String[] {"16f88", "16f877a"}) {
+            ZEPPPSimulator simulator = simulator(deviceName);
+            ZEPPPClient client = connect(simulator);
+            client.setForceReads(true);
+            PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+            code(image.getProgramMem(), 0, 4);
+            code(image.getProgramMem(), 20, 4);
+            for (int w = 36; w < 56; w++) image.getProgramMem().setWord(w * 2, (short) 0x0000);
+            code(image.getProgramMem(), 56, 4);
+
+            client.chipErase(image);
+            client.writePgmMem(image);
+            PicDevice readBack = new PicDevice(image.getDeviceCfg());
+            client.readPgmMem(readBack);
+            assertSameWords("PGM read back (" + deviceName + ")", image.getProgramMem(), readBack.getProgramMem());
+        }
+    }
+
+    // In place, writes can only clear bits. The 16F87/88 erase each changed 32-word row as they rewrite it, the
+    // 16F87XA has to be erased as a whole to set any
+    @Test
+    public void testProgramChanges () throws Exception {
+        for (String deviceName : new String[] {"16f628a", "16f88", "16f877a"}) {
+            ZEPPPSimulator simulator = simulator(deviceName);
+            ZEPPPClient client = connect(simulator);
+            PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+            code(image.getProgramMem(), 0, 300);
+            for (int b = 0; b < 16; b++) image.getDataMem().setWord(b * 2, (short) (b * 3));
+            Assert.assertTrue("Blank device is fully programmed", client.programChanges(image) >= 300);
+
+            // A small patch
+            image.getProgramMem().setWord(100 * 2, (short) 0x0123);
+            image.getProgramMem().setWord(1000 * 2, (short) 0x0456);
+            image.getDataMem().setWord(100 * 2, (short) 0x42);
+            image.getConfWords().setWord(0, (short) 0x3F10);
+            simulator.getPic().setPgmWord(1500, 0x0000);
+            int written = client.programChanges(image);
+            int eraseRowSize = Math.max(1, image.getDeviceCfg().getPgmEraseRowSize());
+            if (deviceName.equals("16f877a")) {
+                Assert.assertTrue("Erased and fully programmed (" + deviceName + ")", written > 300);
+            } else {
+                Assert.assertEquals("Only the changed rows (" + deviceName + ")", 3 * eraseRowSize + 1, written);
+            }
+
+            // Clearing bits can always be done in place
+            image.getProgramMem().setWord(2000 * 2, (short) 0x0000);
+            int rowSize = Math.max(eraseRowSize, image.getDeviceCfg().getPgmWriteSize());
+            Assert.assertEquals("Bits cleared in place (" + deviceName + ")", rowSize, client.programChanges(image));
+
+            PicDevice readBack = new PicDevice(image.getDeviceCfg());
+            client.setForceReads(true);
+            client.readPgmMem(readBack);
+            client.readDataMem(readBack);
+            assertSameWords("PGM after the patch", image.getProgramMem(), readBack.getProgramMem());
+            assertSameWords("DATA after the patch", image.getDataMem(), readBack.getDataMem());
+            Assert.assertEquals("Config word", 0x3F10, simulator.getPic().getConfigWord(PicDevice.CONF_WORD_OFFSET));
+            Assert.assertEquals("Nothing left to write", 0, client.programChanges(image));
+        }
+    }
+
+    // Rewriting an image with skipping on only takes program cycles for the words that changed
+    @Test
+    public void testSkipUnchanged () throws Exception {
+        ZEPPPSimulator simulator = simulator("16f628a");
+        ZEPPPClient client = connect(simulator);
+        PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+        code(image.getProgramMem(), 0, 300);
+        for (int b = 0; b < 16; b++) image.getDataMem().setWord(b * 2, (short) (b * 3));
+        client.writePgmMem(image);
+        client.writeDataMem(image);
+
+        image.getProgramMem().setWord(10 * 2, (short) 0x0123);
+        image.getProgramMem().setWord(200 * 2, (short) 0x0456);
+        image.getProgramMem().setWord(299 * 2, (short) 0x0789);
+        image.getDataMem().setWord(5 * 2, (short) 0x42);
+        client.setSkipUnchanged(true);
+        long cycles = simulator.getPic().getProgramCycles();
+        Assert.assertEquals("PGM words skipped", 300 - 3, client.writePgmMem(image));
+        Assert.assertEquals("Data bytes skipped", 16 - 1, client.writeDataMem(image));
+        Assert.assertEquals("Program cycles", 3 + 1, simulator.getPic().getProgramCycles() - cycles);
+
+        PicDevice readBack = new PicDevice(image.getDeviceCfg());
+        client.setForceReads(true);
+        client.readPgmMem(readBack);
+        client.readDataMem(readBack);
+        assertSameWords("PGM after the rewrite", image.getProgramMem(), readBack.getProgramMem());
+        assertSameWords("DATA after the rewrite", image.getDataMem(), readBack.getDataMem());
+    }
+
+    // The address counter is walked forward from one operation to the next: in address order the areas take fewer
+    // commands than the other way round, and read the same
+    @Test
+    public void testAddressOrder () throws Exception {
+        for (String deviceName : new String[] {"16f628a", "16f877a"}) {
+            ZEPPPSimulator simulator = simulator(deviceName);
+            ZEPPPClient client = connect(simulator);
+            // Every read goes to the device (see testDeviceMirror)
+            client.setForceReads(true);
+            PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+            code(image.getProgramMem(), 0, 600);
+            for (int b = 0; b < 16; b++) image.getDataMem().setWord(b * 2, (short) (b * 3));
+            image.getUserIds().setWord(2 * 2, (short) 0x1234);
+            image.getConfWords().setWord(0, (short) 0x3FBA);
+            client.chipEraseIfNotBlank(image);
+            client.writeAll(image);
+            Assert.assertEquals("User ID in the PIC (" + deviceName + ")", 0x1234, simulator.getPic().getConfigWord(2));
+            Assert.assertEquals("Config word in the PIC (" + deviceName + ")", 0x3FBA, simulator.getPic().getConfigWord(PicDevice.CONF_WORD_OFFSET));
+
+            PicDevice inOrder = new PicDevice(image.getDeviceCfg());
+            long start = simulator.getCommandsExecuted();
+            client.readPgmMem(inOrder);
+            client.readDataMem(inOrder);
+            client.readUserIDs(inOrder);
+            client.readConfigWords(inOrder);
+            long ordered = simulator.getCommandsExecuted() - start;
+
+            PicDevice reversed = new PicDevice(image.getDeviceCfg());
+            start = simulator.getCommandsExecuted();
+            client.readConfigWords(reversed);
+            client.readUserIDs(reversed);
+            client.readDataMem(reversed);
+            client.readPgmMem(reversed);
+            long other = simulator.getCommandsExecuted() - start;
+            Assert.assertTrue(String.format("%d commands in order, %d reversed (%s)", ordered, other, deviceName), ordered < other);
+
+            for (PicDevice readBack : new PicDevice[] {inOrder, reversed}) {
+                assertSameWords("PGM read back", image.getProgramMem(), readBack.getProgramMem());
+                assertSameWords("DATA read back", image.getDataMem(), readBack.getDataMem());
+                assertSameWords("User IDs read back", image.getUserIds(), readBack.getUserIds());
+                assertSameWords("Config word read back", image.getConfWords(), readBack.getConfWords());
+            }
+            client.verifyPgmMem(image);
+            client.verifyDataMem(image);
+            client.verifyUserIDs(image);
+            client.verifyConfigWords(image);
+        }
+    }
+
+    // What is known of the device is not read again, until it could have changed
+    @Test
+    public void testDeviceMirror () throws Exception {
+        for (String deviceName : new String[] {"16f628a", "16f877a"}) {
+            ZEPPPSimulator simulator = simulator(deviceName);
+            ZEPPPClient client = connect(simulator);
+            PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+            code(image.getProgramMem(), 0, 600);
+            for (int b = 0; b < 16; b++) image.getDataMem().setWord(b * 2, (short) (b * 3));
+            image.getUserIds().setWord(0, (short) 0x1234);
+            client.chipErase(image);
+            client.writeAll(image);
+
+            // Written words and verified blocks are known, the rest of the chip is not
+            long start = simulator.getCommandsExecuted();
+            client.verifyPgmMem(image);
+            client.verifyDataMem(image);
+            client.verifyUserIDs(image);
+            Assert.assertEquals("Verified from the mirror (" + deviceName + ")", start, simulator.getCommandsExecuted());
+
+            PicDevice first = new PicDevice(image.getDeviceCfg());
+            client.readPgmMem(first);
+            client.readDataMem(first);
+            client.readUserIDs(first);
+            client.readConfigWords(first);
+            start = simulator.getCommandsExecuted();
+            PicDevice second = new PicDevice(image.getDeviceCfg());
+            client.readPgmMem(second);
+            client.readDataMem(second);
+            client.readUserIDs(second);
+            client.readConfigWords(second);
+            client.verifyConfigWords(image);
+            Assert.assertEquals("Read from the mirror (" + deviceName + ")", start, simulator.getCommandsExecuted());
+            for (PicDevice readBack : new PicDevice[] {first, second}) {
+                assertSameWords("PGM read back", image.getProgramMem(), readBack.getProgramMem());
+                assertSameWords("DATA read back", image.getDataMem(), readBack.getDataMem());
+                assertSameWords("User IDs read back", image.getUserIds(), readBack.getUserIds());
+            }
+
+            // Changed behind the client's back: only a forced read sees it
+            simulator.getPic().setPgmWord(10, 0x0000);
+            client.verifyPgmMem(image);
+            client.setForceReads(true);
+            try {
+                client.verifyPgmMem(image);
+                Assert.fail("Change not seen");
+            } catch (ZEPPPCommandException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("Received 0x0000"));
+            }
+            client.setForceReads(false);
+
+            // Nothing is known after an erase, or once out of programming mode
+            client.eraseDataMem(image);
+            start = simulator.getCommandsExecuted();
+            client.readDataMem(second);
+            Assert.assertTrue("Read after the erase", simulator.getCommandsExecuted() > start);
+            Assert.assertEquals("Erased", PicDevice.DEFAULT_DATA_MEM_CONTENT, second.getDataMem().getWord(0));
+            client.exitLVPMode();
+            start = simulator.getCommandsExecuted();
+            client.readUserIDs(second);
+            Assert.assertTrue("Read after leaving LVP mode", simulator.getCommandsExecuted() > start);
+        }
+    }
+
+    // Block write device written a word at a time: each one is checked as it goes, and the write stops at a bad one
+    @Test
+    public void testVerifyWhileWriting () throws Exception {
+        PICDeviceConfigEntry picCfg = CONFIG.getSupportedPIC("16f877a");
+        for (int stuckWord : new int[] {-1, 100}) {
+            ZEPPPSimulator simulator = new ZEPPPSimulator(new SimulatedPic(picCfg).withStuckWord(stuckWord), false);
+            ZEPPPClient client = connect(simulator);
+            client.setVerifyWhileWriting(true);
+            PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+            code(image.getProgramMem(), 0, 600);
+            image.getUserIds().setWord(0, (short) 0x1234);
+            client.chipErase(image);
+
+            if (stuckWord < 0) {
+                client.writeAll(image);
+                Assert.assertEquals("User ID in the PIC", 0x1234, simulator.getPic().getConfigWord(0));
+                PicDevice readBack = new PicDevice(picCfg);
+                client.readPgmMem(readBack);
+                assertSameWords("PGM read back", image.getProgramMem(), readBack.getProgramMem());
+                continue;
+            }
+            try {
+                client.writePgmMem(image);
+                Assert.fail("Bad word not reported");
+            } catch (ZEPPPCommandException e) {
+                Assert.assertTrue("Where: " + e.getMessage(), e.getMessage().contains("Write PGM Memory block 0x00"));
+            }
+            Assert.assertEquals("Rest of the code not written", PicDevice.DEFAULT_MEM_CONTENT, simulator.getPic().getPgmWord(599));
+        }
+    }
+
+    // The commands in flight after a failed one are dropped by the interface, not run on the wrong addresses, and
+    // the link is back in sync right after. In real time, so the window is full when the error comes back.
+    @Test
+    public void testErrorHaltsInput () throws Exception {
+        PICDeviceConfigEntry picCfg = CONFIG.getSupportedPIC("16f628a");
+        ZEPPPSimulator simulator = new ZEPPPSimulator(new SimulatedPic(picCfg).withStuckWord(100), true);
+        ZEPPPClient client = connect(simulator);
+        client.setVerifyWhileWriting(true);
+        PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+        code(image.getProgramMem(), 0, 600);
+        try {
+            client.writePgmMem(image);
+            Assert.fail("Bad word not reported");
+        } catch (ZEPPPCommandException e) {
+            Assert.assertTrue("Where: " + e.getMessage(), e.getMessage().contains("Write PGM Memory block 0x00"));
+        }
+        Assert.assertTrue("Commands in flight dropped", simulator.getIgnoredCommands() > 0);
+        for (int w = 100 + ZEPPPSimulator.MAX_WRITE_WORDS; w < 600; w++) {
+            Assert.assertEquals("Not written after the error: " + w, PicDevice.DEFAULT_MEM_CONTENT, simulator.getPic().getPgmWord(w));
+        }
+
+        PicDevice readBack = new PicDevice(picCfg);
+        client.readPgmMem(readBack);
+        Assert.assertEquals("Read after the error", image.getProgramMem().getWord(99 * 2), readBack.getProgramMem().getWord(99 * 2));
+        Assert.assertEquals("No late responses", 0, simulator.getLateResponses());
+    }
+
+    // The calibration finds the fastest clock the target reads reliably at, and leaves a margin over it. The
+    // default clock is too fast for this one, so nothing can be detected before.
+    @Test
+    public void testCalibrateIcspClock () throws Exception {
+        ZEPPPSimulator simulator = simulator("16f628a").withMinReliableHalfClock(ZEPPPClient.ICSP_HALF_CLOCK_DEFAULT + 1);
+        ZEPPPClient client = connect(simulator);
+        Assert.assertEquals("Calibrated", ZEPPPClient.ICSP_HALF_CLOCK_DEFAULT + 1 + ZEPPPClient.ICSP_CALIBRATION_MARGIN,
+                client.calibrateIcspClock());
+        PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+
+        code(image.getProgramMem(), 0, 100);
+        client.writePgmMem(image);
+        PicDevice readBack = new PicDevice(image.getDeviceCfg());
+        client.setForceReads(true);
+        client.readPgmMem(readBack);
+        assertSameWords("Read at the calibrated clock", image.getProgramMem(), readBack.getProgramMem());
+    }
+
+    // Blank checks and CRCs are sized to the ICSP clock, so they answer in time even when it is slowed down, up to
+    // the slowest clock accepted
+    @Test
+    public void testSlowIcspClock () throws Exception {
+        for (int halfClock : new int[] {3, 5, ZEPPPClient.ICSP_HALF_CLOCK_MAX, ZEPPPClient.ICSP_HALF_CLOCK_LIMIT}) {
+            ZEPPPSimulator simulator = simulator("16f877a");
+            for (int w = 0; w < 600; w++) simulator.getPic().setPgmWord(w, w & 0x3fff);
+            ZEPPPClient client = connect(simulator);
+            client.setForceReads(true);
+            PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+            client.setIcspHalfClock(halfClock);
+
+            client.readPgmMem(image);
+            Assert.assertEquals("Last word read", 599, image.getProgramMem().getWord(599 * 2));
+            client.verifyPgmMem(image);
+            Assert.assertEquals("Responses in time at " + halfClock + " us", 0, simulator.getLateResponses());
+        }
+
+        ZEPPPClient client = connect(simulator("16f877a"));
+        try {
+            client.setIcspHalfClock(ZEPPPClient.ICSP_HALF_CLOCK_LIMIT + 1);
+            Assert.fail("Too slow to read a block in time");
+        } catch (ZEPPPCommandException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("too long"));
+        }
+    }
+
+    // Without the dump, reads take as many words per command as the interface returns, and fewer at slow ICSP
+    // clocks so they still answer in time
+    @Test
+    public void testReadBlockSize () throws Exception {
+        for (int halfClock : new int[] {ZEPPPClient.ICSP_HALF_CLOCK_DEFAULT, ZEPPPClient.ICSP_HALF_CLOCK_LIMIT}) {
+            ZEPPPSimulator simulator = simulator("16f648a");
+            for (int w = 0; w < 4096; w++) simulator.getPic().setPgmWord(w, w & 0x3fff);
+            ZEPPPClient client = connect(simulator);
+            client.setTextOnly(true);
+            PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+            client.setIcspHalfClock(halfClock);
+
+            long start = simulator.getCommandsExecuted();
+            client.readPgmMem(image);
+            long commands = simulator.getCommandsExecuted() - start;
+            if (halfClock == ZEPPPClient.ICSP_HALF_CLOCK_DEFAULT) {
+                // Well under one command per 32-word block, blank check and seeks included
+                Assert.assertTrue(commands + " commands", commands < 4096 / ZEPPPClient.DATA_UNITS_PER_READWRITE / 2);
+            }
+            for (int w = 0; w < 4096; w++) {
+                Assert.assertEquals("Word read at " + halfClock + " us", w & 0x3fff, image.getProgramMem().getWord(w * 2));
+            }
+            Assert.assertEquals("Responses in time at " + halfClock + " us", 0, simulator.getLateResponses());
+        }
+    }
+
+    // Program cycles dominate word writes, so the time taken follows the device program time
+    @Test
+    public void testWriteTime () throws Exception {
+        ZEPPPSimulator simulator = simulator("16f628a");
+        ZEPPPClient client = connect(simulator);
+        PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+        code(image.getProgramMem(), 0, 512);
+
+        long start = simulator.getElapsedNanos();
+        client.writePgmMem(image);
+        double ms = (simulator.getElapsedNanos() - start) / 1e6;
+        // Word writes on the 16F62xA are erase and program cycles
+        double programMs = 512 * image.getDeviceCfg().getPgmEraseProgramTime() / 1e3;
+        String times = String.format(" (%.1f ms, %.1f ms in program cycles)", ms, programMs);
+        Assert.assertTrue("At least the program cycles" + times, ms > programMs);
+        Assert.assertTrue("Not much more than the program cycles" + times, ms < programMs * 2);
+    }
+
+    // Reads are mostly ICSP bit banging, but the link still shows: the same read takes longer with text commands,
+    // and less at a higher baud rate
+    @Test
+    public void testReadTime () throws Exception {
+        double[] ms = new double[3];
+        for (int run = 0; run < ms.length; run++) {
+            ZEPPPSimulator simulator = simulator("16f648a");
+            for (int w = 0; w < 4096; w++) simulator.getPic().setPgmWord(w, w & 0x3fff);
+            ZEPPPClient client = connect(simulator);
+            if (run == 1) client.setTextOnly(true);
+            if (run == 2) client.setBaudRate(1000000);
+            PicDevice image = new PicDevice(client.autodetectDevice(CONFIG));
+
+            long start = simulator.getElapsedNanos();
+            client.readPgmMem(image);
+            ms[run] = (simulator.getElapsedNanos() - start) / 1e6;
+            Assert.assertEquals("Last word read", 4095, image.getProgramMem().getWord(4095 * 2));
+        }
+        String times = String.format(" (%.1f ms binary, %.1f ms text, %.1f ms binary at 1M baud)", ms[0], ms[1], ms[2]);
+        Assert.assertTrue("Text is slower" + times, ms[1] > ms[0]);
+        Assert.assertTrue("Faster link is faster" + times, ms[2] < ms[0]);
+    }
+
+    @Test
+    public void testUnconfirmedBaudRate () throws Exception {
+        ZEPPPSimulator simulator = simulator("16f628a");
+        ZEPPPClient client = connect(simulator);
+        client.setBaudRate(500000);
+        Assert.assertEquals("Both ends switched", 500000, simulator.getBaudRate());
+        Assert.assertEquals("Client switched", 500000, client.getBaudRate());
+    }
+}
@@ -0,0 +1,135 @@
+package zeppp;
+
+import com.ezv.zeppp.BlockChecksums;
+import com.ezv.zeppp.BlockComparator;
+import com.ezv.zeppp.HexFileBlockWriter;
+import com.ezv.zeppp.MemoryBlockListener;
+import com.ezv.zeppp.ZEPPPClient;
+import com.ezv.zeppp.ZEPPPCommandException;
+import com.ezv.zeppp.config.AppConfig;
+import com.ezv.zeppp.config.PICDeviceConfigEntry;
+import com.ezv.zeppp.hardware.CRC16;
+import com.ezv.zeppp.pic.PicDevice;
+import com.ezv.zeppp.simulator.SimulatedPic;
+import com.ezv.zeppp.simulator.ZEPPPSimulator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class MemoryBlockListenerTest {
+    private static final AppConfig CONFIG = new AppConfig();
+
+    // Checks that each area comes whole and in order
+    private static class OrderCheck implements MemoryBlockListener {
+        final int[] next = new int[4];
+        final int[] completed = new int[4];
+
+        public void onBlock (int memoryArea, int startWord, int[] words, int count) {
+            Assert.assertEquals("Block in order", next[memoryArea], startWord);
+            next[memoryArea] += count;
+        }
+
+        public void onAreaRead (int memoryArea) {
+            completed[memoryArea] = next[memoryArea];
+            next[memoryArea] = 0;
+        }
+    }
+
+    private static PicDevice programmedImage (ZEPPPSimulator simulator, PICDeviceConfigEntry picCfg) {
+        PicDevice image = new PicDevice(picCfg);
+        for (int w = 0; w < 300; w++) {
+            int word = (w * 0x1F3 + 0x2000) & 0x3FFF;
+            image.getProgramMem().setWord(w * 2, (short) word);
+            simulator.getPic().setPgmWord(w, word);
+        }
+        for (int w = 1500; w < 1510; w++) {
+            image.getProgramMem().setWord(w * 2, (short) w);
+            simulator.getPic().setPgmWord(w, w);
+        }
+        for (int b = 0; b < 16; b++) {
+            image.getDataMem().setWord(b * 2, (short) (b * 3));
+            simulator.getPic().setDataByte(b, b * 3);
+        }
+        image.getUserIds().setWord(0, (short) 0x1234);
+        simulator.getPic().setConfigWord(0, 0x1234);
+        return image;
+    }
+
+    private static void readAll (ZEPPPClient client, PicDevice picDevice) throws Exception {
+        client.readUserIDs(picDevice);
+        client.readConfigWords(picDevice);
+        client.readPgmMem(picDevice);
+        client.readDataMem(picDevice);
+    }
+
+    @Test
+    public void testStreamingConsumers () throws Exception {
+        for (boolean textOnly : new boolean[] {false, true}) {
+            PICDeviceConfigEntry picCfg = CONFIG.getSupportedPIC("16f628a");
+            ZEPPPSimulator simulator = new ZEPPPSimulator(new SimulatedPic(picCfg), false);
+            ZEPPPClient client = new ZEPPPClient(simulator.createPort());
+            client.setTextOnly(textOnly);
+            client.connect();
+            PicDevice image = programmedImage(simulator, picCfg);
+
+            File hexFile = File.createTempFile("zeppp-stream", ".hex");
+            hexFile.delete();
+            OrderCheck order = new OrderCheck();
+            BlockChecksums checksums = new BlockChecksums();
+            BlockComparator comparator = new BlockComparator(image, false);
+            client.addBlockListener(order);
+            client.addBlockListener(checksums);
+            client.addBlockListener(comparator);
+            try (HexFileBlockWriter writer = new HexFileBlockWriter(picCfg, hexFile.getPath())) {
+                client.addBlockListener(writer);
+                readAll(client, new PicDevice(picCfg));
+            }
+
+            String mode = textOnly ? " (text)" : " (binary)";
+            Assert.assertEquals("Whole PGM memory" + mode, picCfg.getPgmMemSize(), order.completed[ZEPPPClient.MEMORY_AREA_PGM]);
+            Assert.assertEquals("Whole Data memory" + mode, picCfg.getDataSize(), order.completed[ZEPPPClient.MEMORY_AREA_DATA]);
+            Assert.assertEquals("User IDs" + mode, PicDevice.USER_IDS_COUNT, order.completed[ZEPPPClient.MEMORY_AREA_USER_IDS]);
+            Assert.assertTrue("Same as the image" + mode, comparator.matches());
+            Assert.assertEquals("PGM CRC" + mode, CRC16.computeWords(image.getProgramMem(), 0, picCfg.getPgmMemSize(), 0xffff),
+                    checksums.getCrc(ZEPPPClient.MEMORY_AREA_PGM));
+            Assert.assertEquals("Data CRC" + mode, CRC16.computeWords(image.getDataMem(), 0, picCfg.getDataSize(), 0xff),
+                    checksums.getCrc(ZEPPPClient.MEMORY_AREA_DATA));
+
+            PicDevice loaded = new PicDevice(picCfg);
+            loaded.loadFromHexFile(hexFile.getPath());
+            hexFile.delete();
+            for (int w = 0; w < picCfg.getPgmMemSize(); w++) {
+                Assert.assertEquals("PGM from the file" + mode, image.getProgramMem().getWord(w * 2), loaded.getProgramMem().getWord(w * 2));
+            }
+            for (int b = 0; b < picCfg.getDataSize(); b++) {
+                Assert.assertEquals("Data from the file" + mode, image.getDataMem().getWord(b * 2), loaded.getDataMem().getWord(b * 2));
+            }
+            Assert.assertEquals("User ID from the file" + mode, 0x1234, loaded.getUserIds().getWord(0));
+        }
+    }
+
+    @Test
+    public void testCompareStopsRead () throws Exception {
+        PICDeviceConfigEntry picCfg = CONFIG.getSupportedPIC("16f628a");
+        ZEPPPSimulator simulator = new ZEPPPSimulator(new SimulatedPic(picCfg), false);
+        ZEPPPClient client = new ZEPPPClient(simulator.createPort());
+        client.connect();
+        PicDevice image = programmedImage(simulator, picCfg);
+        simulator.getPic().setPgmWord(100, 0x0123);
+
+        client.addBlockListener(new BlockComparator(image, true));
+        try {
+            client.readPgmMem(new PicDevice(picCfg));
+            Assert.fail("Difference not reported");
+        } catch (ZEPPPCommandException e) {
+            Assert.assertTrue("Where", e.getMessage().contains("0x0064"));
+        }
+
+        // The rest of the read was dropped, and the link is usable
+        client.addBlockListener(new BlockComparator(image, false));
+        PicDevice readBack = new PicDevice(picCfg);
+        client.readDataMem(readBack);
+        Assert.assertEquals("Data read after the failure", 15 * 3, readBack.getDataMem().getWord(15 * 2));
+    }
+}
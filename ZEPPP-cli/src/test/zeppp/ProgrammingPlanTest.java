@@ -0,0 +1,86 @@
+package zeppp;
+
+import com.ezv.zeppp.ProgrammingPlan;
+import com.ezv.zeppp.WordRunSegmenter.Segment;
+import com.ezv.zeppp.WordRunSegmenter.SegmentType;
+import com.ezv.zeppp.ZEPPPCommandEncoder;
+import com.ezv.zeppp.ZEPPPTransferStrategy;
+import com.ezv.zeppp.hardware.ZEPPPCapabilities;
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.pic.PicDevice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static zeppp.TestImages.code;
+import static zeppp.TestImages.erased;
+
+public class ProgrammingPlanTest {
+    private static final int PGM_WORDS = 2048;
+    private static final int ALL_CAPS = ZEPPPCapabilities.CAP_PIPELINING | ZEPPPCapabilities.CAP_BINARY_FRAMES |
+                                        ZEPPPCapabilities.CAP_FILL_COMMANDS | ZEPPPCapabilities.CAP_MEMORY_CRC;
+    private static final ZEPPPTransferStrategy STRATEGY = ZEPPPTransferStrategy.select(new ZEPPPCapabilities(ALL_CAPS, 384, 32, 127, 4), false);
+
+    private static ProgrammingPlan plan (HexBuffer pgm, int rowSize) {
+        ZEPPPCommandEncoder encoder = new ZEPPPCommandEncoder();
+        encoder.setBinaryMode(true);
+        return ProgrammingPlan.compile("PGM Memory", false, pgm, rowSize, rowSize, PicDevice.DEFAULT_MEM_CONTENT, 3000, STRATEGY,
+                encoder, 115200, Arrays.asList(true, rowSize));
+    }
+
+    @Test
+    public void testSkipsAndTrim () {
+        HexBuffer pgm = erased(PGM_WORDS, PicDevice.DEFAULT_MEM_CONTENT);
+        code(pgm, 0, 20);
+        code(pgm, 700, 13);
+
+        for (int rowSize : new int[] {1, 8}) {
+            ProgrammingPlan plan = plan(pgm, rowSize);
+            Assert.assertEquals("Trailing blank memory trimmed", 713, plan.getUsedWords());
+
+            int pos = 0;
+            int skips = 0;
+            for (Segment segment : plan.getSegments()) {
+                Assert.assertEquals("Contiguous", pos, segment.getStart());
+                Assert.assertEquals("Starts on a row", 0, segment.getStart() % rowSize);
+                if (segment.getType() == SegmentType.SKIP) {
+                    skips++;
+                    Assert.assertTrue("Within the IAD count", segment.getLength() <= 0xff);
+                }
+                pos += segment.getLength();
+            }
+            Assert.assertEquals("Largest skips the firmware takes", 3, skips);
+            Assert.assertTrue("Up to the last row in use", pos >= 713 && pos < 713 + rowSize);
+        }
+    }
+
+    // Each blank word written inline costs a program cycle, so a short gap is cheaper skipped
+    @Test
+    public void testCheapestPlan () {
+        HexBuffer pgm = erased(PGM_WORDS, PicDevice.DEFAULT_MEM_CONTENT);
+        code(pgm, 0, 10);
+        code(pgm, 15, 10);
+        ProgrammingPlan plan = plan(pgm, 1);
+
+        Assert.assertEquals("Only the code is programmed", 20, plan.getProgramCycles());
+        Assert.assertEquals("Gap skipped", SegmentType.SKIP, plan.getSegments().get(1).getType());
+        Assert.assertTrue("Estimate covers the program cycles", plan.getEstimatedUs() >= 20 * 3000);
+        Assert.assertTrue("Shown in a dry run", plan.describe(true).contains("0x000a SKIP"));
+    }
+
+    @Test
+    public void testReusedForTheSameImage () {
+        HexBuffer pgm = erased(PGM_WORDS, PicDevice.DEFAULT_MEM_CONTENT);
+        code(pgm, 0, 100);
+        ProgrammingPlan plan = plan(pgm, 1);
+        ZEPPPCommandEncoder encoder = new ZEPPPCommandEncoder();
+
+        Assert.assertTrue("Same image", plan.matches(pgm, Arrays.asList(true, 1)));
+        Assert.assertSame("Encoded once", plan.getStream(pgm, segment -> encoder.pgmSegmentCommand(segment, (byte) 1, (byte) 0, pgm)),
+                plan.getStream(pgm, segment -> encoder.pgmSegmentCommand(segment, (byte) 1, (byte) 0, pgm)));
+        Assert.assertFalse("Other settings", plan.matches(pgm, Arrays.asList(false, 1)));
+        pgm.setWord(1000 * 2, (short) 0);
+        Assert.assertFalse("Image changed", plan.matches(pgm, Arrays.asList(true, 1)));
+    }
+}
@@ -0,0 +1,24 @@
+package zeppp;
+
+import com.ezv.zeppp.intelhex.HexBuffer;
+
+// Memory images shared by the planning, segmenting and simulator tests
+public class TestImages {
+    private TestImages () {
+    }
+
+    public static HexBuffer erased (int words, int value) {
+        HexBuffer buffer = new HexBuffer(words * 2);
+        fill(buffer, 0, words, value);
+        return buffer;
+    }
+
+    public static void fill (HexBuffer buffer, int start, int count, int value) {
+        for (int w = start; w < start + count; w++) buffer.setWord(w * 2, (short) value);
+    }
+
+    // Something that looks like code: no two consecutive words alike
+    public static void code (HexBuffer buffer, int start, int count) {
+        for (int w = start; w < start + count; w++) buffer.setWord(w * 2, (short) ((w * 0x1F3 + 0x2000) & 0x3FFF));
+    }
+}
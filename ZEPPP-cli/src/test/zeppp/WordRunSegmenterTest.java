@@ -0,0 +1,261 @@
+package zeppp;
+
+import com.ezv.zeppp.WordRunSegmenter;
+import com.ezv.zeppp.WordRunSegmenter.Segment;
+import com.ezv.zeppp.WordRunSegmenter.SegmentType;
+import com.ezv.zeppp.ZEPPPClient;
+import com.ezv.zeppp.ZEPPPCommandEncoder;
+import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.pic.PicDevice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static zeppp.TestImages.code;
+import static zeppp.TestImages.erased;
+import static zeppp.TestImages.fill;
+
+public class WordRunSegmenterTest {
+    private static final int PGM_WORDS  = 2048;
+    private static final int DATA_BYTES = 128;
+    private static final int BLOCK      = ZEPPPClient.DATA_UNITS_PER_READWRITE;
+
+    // Program memory of a typical 16F628A project: code, a NOP sled, a RETLW 0 table and 0x3FFF padding
+    private static HexBuffer typicalPgmImage () {
+        HexBuffer pgm = erased(PGM_WORDS, PicDevice.DEFAULT_MEM_CONTENT);
+        code(pgm, 0, 5);
+        fill(pgm, 5, 40, 0x0000);
+        code(pgm, 45, 400);
+        fill(pgm, 0x200, 256, 0x3400);
+        code(pgm, 0x300, 100);
+        return pgm;
+    }
+
+    // EEPROM with a few settings, a zeroed table and the rest erased
+    private static HexBuffer typicalDataImage () {
+        HexBuffer data = erased(DATA_BYTES, PicDevice.DEFAULT_DATA_MEM_CONTENT);
+        for (int b = 0; b < 12; b++) data.setWord(b * 2, (short) (b * 7 + 1));
+        fill(data, 16, 64, 0x00);
+        return data;
+    }
+
+    private static int lastWrittenWord (HexBuffer buffer, int emptyValue) {
+        for (int w = buffer.getBufferSize() / 2 - 1; w >= 0; w--) {
+            if (buffer.getWord(w * 2) != emptyValue) return w + 1;
+        }
+        return 0;
+    }
+
+    private static boolean isBlockEmpty (HexBuffer buffer, int start, int emptyValue) {
+        for (int w = start; w < start + BLOCK && w < buffer.getBufferSize() / 2; w++) {
+            if (buffer.getWord(w * 2) != emptyValue) return false;
+        }
+        return true;
+    }
+
+    // Bytes of a response to a write/fill/skip command. Text responses are a fixed message.
+    private static int responseSize (ZEPPPCommandEncoder encoder, String textResponse) {
+        return encoder.isBinaryMode() ? 5 : textResponse.length() + 2;
+    }
+
+    private static int skipResponseSize (ZEPPPCommandEncoder encoder, int count) {
+        return responseSize(encoder, "OK: Address Pointer increased " + count + " positions");
+    }
+
+    // Bytes on the wire when every 32 word block is written as is (or skipped if empty)
+    private static int pgmBytesWithBlocks (ZEPPPCommandEncoder encoder, HexBuffer pgm, byte writeSize) {
+        int bytes = 0;
+        int end = lastWrittenWord(pgm, PicDevice.DEFAULT_MEM_CONTENT);
+        for (int i = 0; i < end; i += BLOCK) {
+            if (isBlockEmpty(pgm, i, PicDevice.DEFAULT_MEM_CONTENT)) {
+                bytes += encoder.commandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) BLOCK).length;
+                bytes += skipResponseSize(encoder, BLOCK);
+            } else {
+                bytes += encoder.pgmWriteCommand(writeSize, (byte) 0, pgm, i, BLOCK).length;
+                bytes += responseSize(encoder, "OK: PGM block written");
+            }
+        }
+        return bytes;
+    }
+
+    private static int pgmBytesWithRuns (ZEPPPCommandEncoder encoder, HexBuffer pgm, byte writeSize) {
+        int bytes = 0;
+        WordRunSegmenter segmenter = new WordRunSegmenter(writeSize, PicDevice.DEFAULT_MEM_CONTENT);
+        for (Segment segment : segmenter.split(pgm, lastWrittenWord(pgm, PicDevice.DEFAULT_MEM_CONTENT))) {
+            bytes += encoder.pgmSegmentCommand(segment, writeSize, (byte) 0, pgm).length;
+            switch (segment.getType()) {
+                case SKIP: bytes += skipResponseSize(encoder, segment.getLength()); break;
+                case FILL: bytes += responseSize(encoder, "OK: PGM block filled"); break;
+                default:   bytes += responseSize(encoder, "OK: PGM block written");
+            }
+        }
+        return bytes;
+    }
+
+    private static int dataBytesWithBlocks (ZEPPPCommandEncoder encoder, HexBuffer data) {
+        int bytes = 0;
+        for (int i = 0; i < DATA_BYTES; i += BLOCK) {
+            if (isBlockEmpty(data, i, PicDevice.DEFAULT_DATA_MEM_CONTENT)) {
+                bytes += encoder.commandWithByte(ZEPPP.ZEPPP_CMD_INCREASE_ADDRESS, (byte) BLOCK).length;
+                bytes += skipResponseSize(encoder, BLOCK);
+            } else {
+                bytes += encoder.dataWriteCommand((byte) 0, data, i, BLOCK).length;
+                bytes += responseSize(encoder, "OK: DATA block written");
+            }
+        }
+        return bytes;
+    }
+
+    private static int dataBytesWithRuns (ZEPPPCommandEncoder encoder, HexBuffer data) {
+        int bytes = 0;
+        WordRunSegmenter segmenter = new WordRunSegmenter(1, PicDevice.DEFAULT_DATA_MEM_CONTENT);
+        for (Segment segment : segmenter.split(data, DATA_BYTES)) {
+            bytes += encoder.dataSegmentCommand(segment, (byte) 0, data).length;
+            switch (segment.getType()) {
+                case SKIP: bytes += skipResponseSize(encoder, segment.getLength()); break;
+                case FILL: bytes += responseSize(encoder, "OK: DATA block filled"); break;
+                default:   bytes += responseSize(encoder, "OK: DATA block written");
+            }
+        }
+        return bytes;
+    }
+
+    private static void assertCoversSequentially (List<Segment> segments, int end) {
+        int pos = 0;
+        for (Segment segment : segments) {
+            Assert.assertEquals("Segments are contiguous", pos, segment.getStart());
+            Assert.assertTrue("Segment not empty", segment.getLength() > 0);
+            pos += segment.getLength();
+        }
+        Assert.assertEquals("Segments cover the whole area", end, pos);
+    }
+
+    @Test
+    public void testRunsOnWordWriteDevice () {
+        HexBuffer pgm = erased(256, PicDevice.DEFAULT_MEM_CONTENT);
+        code(pgm, 0, 10);
+        fill(pgm, 10, 3, 0x0000);   // Too short to be worth a fill
+        code(pgm, 13, 7);
+        fill(pgm, 20, 50, 0x0000);
+        // 20 words of erased value, then more code
+        code(pgm, 90, 10);
+
+        List<Segment> segments = new WordRunSegmenter(1, PicDevice.DEFAULT_MEM_CONTENT).split(pgm, 100);
+        assertCoversSequentially(segments, 100);
+
+        Assert.assertEquals("Short run stays in the write block", SegmentType.WRITE, segments.get(0).getType());
+        Assert.assertEquals("Write block length", 20, segments.get(0).getLength());
+        Assert.assertEquals("Long run is a fill", SegmentType.FILL, segments.get(1).getType());
+        Assert.assertEquals("Fill length is capped", WordRunSegmenter.MAX_FILL_WORDS, segments.get(1).getLength());
+        Assert.assertEquals("Fill value", 0x0000, segments.get(1).getValue());
+        Assert.assertEquals("Rest of the run is still a fill", SegmentType.FILL, segments.get(2).getType());
+        Assert.assertEquals("Erased run is skipped", SegmentType.SKIP, segments.get(3).getType());
+        Assert.assertEquals("Skip length", 20, segments.get(3).getLength());
+        Assert.assertEquals("Trailing code", SegmentType.WRITE, segments.get(4).getType());
+    }
+
+    @Test
+    public void testRunsFollowRowsOnBlockWriteDevice () {
+        HexBuffer pgm = erased(256, PicDevice.DEFAULT_MEM_CONTENT);
+        code(pgm, 0, 3);
+        fill(pgm, 3, 37, 0x0000);
+        code(pgm, 40, 8);
+
+        List<Segment> segments = new WordRunSegmenter(8, PicDevice.DEFAULT_MEM_CONTENT).split(pgm, 48);
+        assertCoversSequentially(segments, 48);
+        for (Segment segment : segments) {
+            Assert.assertEquals("Segment starts on a row", 0, segment.getStart() % 8);
+            Assert.assertEquals("Segment is whole rows", 0, segment.getLength() % 8);
+        }
+        Assert.assertEquals("First row has code", SegmentType.WRITE, segments.get(0).getType());
+        Assert.assertEquals("Run of whole rows is a fill", SegmentType.FILL, segments.get(1).getType());
+        Assert.assertEquals("Fill starts on the next row", 8, segments.get(1).getStart());
+    }
+
+    // On the 16F87/88 each block write erases the 32-word row it starts in: nothing may start in between
+    @Test
+    public void testSegmentsKeepToEraseRows () {
+        HexBuffer pgm = erased(256, PicDevice.DEFAULT_MEM_CONTENT);
+        code(pgm, 0, 4);
+        fill(pgm, 12, 16, 0x0000);
+        code(pgm, 40, 4);
+        code(pgm, 100, 20);
+
+        List<Segment> segments = new WordRunSegmenter(4, PicDevice.DEFAULT_MEM_CONTENT).withEraseRowSize(32).split(pgm, 120);
+        assertCoversSequentially(segments, 120);
+        for (Segment segment : segments) {
+            Assert.assertEquals("Segment starts on an erase row", 0, segment.getStart() % 32);
+            if (segment.getStart() + segment.getLength() < 120) Assert.assertEquals("Whole erase rows", 0, segment.getLength() % 32);
+        }
+        Assert.assertEquals("Rows 0, 1 and 3 written, row 2 skipped", 4, segments.size());
+        Assert.assertEquals("Blank row skipped", SegmentType.SKIP, segments.get(2).getType());
+    }
+
+    @Test
+    public void testNoFillsOnOldFirmware () {
+        HexBuffer pgm = erased(256, PicDevice.DEFAULT_MEM_CONTENT);
+        fill(pgm, 0, 40, 0x0000);
+        code(pgm, 60, 4);
+
+        List<Segment> segments = new WordRunSegmenter(1, PicDevice.DEFAULT_MEM_CONTENT, 16, false).split(pgm, 64);
+        assertCoversSequentially(segments, 64);
+        for (Segment segment : segments) {
+            Assert.assertNotEquals("No fills", SegmentType.FILL, segment.getType());
+            Assert.assertTrue("Write blocks within the firmware limit", segment.getLength() <= 16 || segment.getType() == SegmentType.SKIP);
+        }
+        Assert.assertEquals("Erased run is still skipped", SegmentType.SKIP, segments.get(3).getType());
+    }
+
+    @Test
+    public void testSplitChanged () {
+        BitSet changed = new BitSet();
+        changed.set(3);
+        changed.set(9);
+        changed.set(600);
+        changed.set(601);
+
+        List<Segment> segments = new WordRunSegmenter(8, PicDevice.DEFAULT_MEM_CONTENT).splitChanged(changed, PGM_WORDS);
+        int pos = 0;
+        int written = 0;
+        for (Segment segment : segments) {
+            Assert.assertEquals("Segments are contiguous", pos, segment.getStart());
+            Assert.assertEquals("Whole rows", 0, segment.getLength() % 8);
+            if (segment.getType() == SegmentType.WRITE) written += segment.getLength();
+            pos += segment.getLength();
+        }
+        Assert.assertEquals("Rows 0, 1 and 75 written", 24, written);
+        Assert.assertEquals("Both first rows in one write", 16, segments.get(0).getLength());
+        Assert.assertEquals("Skips within the IAD limit", SegmentType.SKIP, segments.get(1).getType());
+        Assert.assertTrue("Skip length", segments.get(1).getLength() <= WordRunSegmenter.MAX_SKIP_WORDS);
+        Assert.assertEquals("Nothing after the last change", 608, pos);
+
+        Assert.assertTrue("No changes", new WordRunSegmenter(1, PicDevice.DEFAULT_MEM_CONTENT).splitChanged(new BitSet(), PGM_WORDS).isEmpty());
+    }
+
+    @Test
+    public void testBytesOnTheWire () {
+        HexBuffer pgm = typicalPgmImage();
+        HexBuffer data = typicalDataImage();
+
+        for (boolean binary : new boolean[] {false, true}) {
+            ZEPPPCommandEncoder encoder = new ZEPPPCommandEncoder();
+            encoder.setBinaryMode(binary);
+            String mode = binary ? "binary" : "text";
+
+            for (byte writeSize : new byte[] {1, 8}) {
+                int before = pgmBytesWithBlocks(encoder, pgm, writeSize);
+                int after = pgmBytesWithRuns(encoder, pgm, writeSize);
+                Assert.assertTrue(String.format("Fewer PGM bytes with runs (%s, write size %d): %d, %d in blocks",
+                        mode, writeSize, after, before), after < before * 3 / 4);
+            }
+
+            int before = dataBytesWithBlocks(encoder, data);
+            int after = dataBytesWithRuns(encoder, data);
+            Assert.assertTrue(String.format("Fewer DATA bytes with runs (%s): %d, %d in blocks", mode, after, before),
+                    after < before / 2);
+        }
+    }
+}
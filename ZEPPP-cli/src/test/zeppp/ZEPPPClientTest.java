@@ -0,0 +1,37 @@
+package zeppp;
+
+import com.ezv.zeppp.ZEPPPClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+public class ZEPPPClientTest {
+    @Test
+    public void testDecodeBlockBitmap () {
+        BitSet blocks = new BitSet();
+        ZEPPPClient.decodeBlockBitmap(new int[] {0x0003, 0x8000}, 0, blocks);
+        Assert.assertEquals("Blocks 0, 1 and 31", "{0, 1, 31}", blocks.toString());
+
+        // Replies to later commands start further in
+        ZEPPPClient.decodeBlockBitmap(new int[] {0x0001, 0x0000}, 32, blocks);
+        Assert.assertEquals("Second bitmap", "{0, 1, 31, 32}", blocks.toString());
+    }
+
+    @Test
+    public void testBlockRanges () {
+        BitSet blocks = new BitSet();
+        blocks.set(0, 2);
+        blocks.set(5);
+        blocks.set(63);
+
+        List<int[]> ranges = ZEPPPClient.blockRanges(blocks, 2040);
+        Assert.assertEquals("Three runs", 3, ranges.size());
+        Assert.assertArrayEquals("First two blocks", new int[] {0, 64}, ranges.get(0));
+        Assert.assertArrayEquals("Single block", new int[] {160, 32}, ranges.get(1));
+        Assert.assertArrayEquals("Last block ends with the area", new int[] {2016, 24}, ranges.get(2));
+
+        Assert.assertTrue("Blank area", ZEPPPClient.blockRanges(new BitSet(), 2048).isEmpty());
+    }
+}
@@ -0,0 +1,132 @@
+package zeppp;
+
+import com.ezv.zeppp.WordRunSegmenter;
+import com.ezv.zeppp.ZEPPPCommandEncoder;
+import com.ezv.zeppp.ZEPPPCommandException;
+import com.ezv.zeppp.ZEPPPCommandPipeline;
+import com.ezv.zeppp.ZEPPPCommandStream;
+import com.ezv.zeppp.hardware.MemoryCommPort;
+import com.ezv.zeppp.hardware.ZEPPP;
+import com.ezv.zeppp.intelhex.HexBuffer;
+import com.ezv.zeppp.pic.PicDevice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ZEPPPCommandStreamTest {
+    private static final int PGM_WORDS = 1024;
+    private static final Object SETTINGS = Arrays.asList(false, (byte) 1, (byte) 0);
+
+    // Answers every command with its number, a while later. failAt gets an error instead.
+    private static class CountingInterface implements MemoryCommPort.Endpoint {
+        final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+        private final StringBuilder line = new StringBuilder();
+        private final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor();
+        private final int failAt;
+
+        CountingInterface (int failAt) {
+            this.failAt = failAt;
+        }
+
+        public void received (byte[] data, MemoryCommPort port) {
+            for (byte b : data) {
+                if (b != '\r') {
+                    line.append((char) b);
+                    continue;
+                }
+                int n = commands.size();
+                commands.add(line.toString());
+                line.setLength(0);
+                String reply = n == failAt ? ZEPPP.ERR_STR_PREFIX + "Verification failed!" : String.format("%s%04X", ZEPPP.OK_STR_PREFIX, n);
+                byte[] bytes = (reply + "\r\n").getBytes(StandardCharsets.US_ASCII);
+                responder.schedule(() -> port.reply(bytes), 1, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static HexBuffer image () {
+        HexBuffer buffer = new HexBuffer(PGM_WORDS * 2);
+        for (int w = 0; w < PGM_WORDS; w++) buffer.setWord(w * 2, (short) PicDevice.DEFAULT_MEM_CONTENT);
+        for (int w = 0; w < 300; w++) buffer.setWord(w * 2, (short) ((w * 0x1F3 + 0x2000) & 0x3FFF));
+        for (int w = 700; w < 710; w++) buffer.setWord(w * 2, (short) (w + 1));
+        return buffer;
+    }
+
+    private static ZEPPPCommandStream stream (HexBuffer image) {
+        ZEPPPCommandEncoder encoder = new ZEPPPCommandEncoder();
+        List<WordRunSegmenter.Segment> segments = new WordRunSegmenter(1, PicDevice.DEFAULT_MEM_CONTENT).split(image, PGM_WORDS);
+        return ZEPPPCommandStream.encode("PGM Memory", image, segments, SETTINGS,
+                segment -> encoder.pgmSegmentCommand(segment, (byte) 1, (byte) 0, image));
+    }
+
+    private static MemoryCommPort port (CountingInterface endpoint, boolean fullDuplex) {
+        MemoryCommPort port = new MemoryCommPort(endpoint, 115200);
+        port.setFullDuplex(fullDuplex);
+        port.open();
+        return port;
+    }
+
+    @Test
+    public void testEncodeAhead () throws Exception {
+        HexBuffer image = image();
+        ZEPPPCommandStream stream = stream(image);
+        Assert.assertTrue("Encoded", stream.awaitEncoded() > 0);
+        Assert.assertEquals("First block", WordRunSegmenter.SegmentType.WRITE, stream.getSegment(0).getType());
+        Assert.assertTrue("Written as text", new String(stream.getCommand(0), StandardCharsets.US_ASCII).startsWith(ZEPPP.ZEPPP_CMD_PGM_MEM_WRITE + " 00 "));
+        Assert.assertEquals("Action", "Write PGM Memory block 0x0000", stream.getAction(0));
+
+        Assert.assertTrue("Same image", stream.matches(image, Arrays.asList(false, (byte) 1, (byte) 0)));
+        Assert.assertFalse("Other settings", stream.matches(image, Arrays.asList(true, (byte) 1, (byte) 0)));
+        image.setWord(900 * 2, (short) 0);
+        Assert.assertFalse("Image changed", stream.matches(image, SETTINGS));
+    }
+
+    // Same commands in the same order, and every response handled, whether sent from a thread of their own or not
+    @Test
+    public void testSubmitStream () throws Exception {
+        ZEPPPCommandStream stream = stream(image());
+        List<String> sent = null;
+
+        for (boolean fullDuplex : new boolean[] {false, true}) {
+            CountingInterface endpoint = new CountingInterface(-1);
+            ZEPPPCommandPipeline pipeline = new ZEPPPCommandPipeline(port(endpoint, fullDuplex), 4, 384);
+            List<Integer> handled = new ArrayList<>();
+            pipeline.submitStream(stream, (index, response) -> {
+                Assert.assertEquals("Response in order", index, response.getMessageWord());
+                handled.add(index);
+            });
+
+            Assert.assertEquals("Every response (full duplex: " + fullDuplex + ")", stream.size(), handled.size());
+            if (sent != null) Assert.assertEquals("Same commands", sent, endpoint.commands);
+            sent = new ArrayList<>(endpoint.commands);
+        }
+    }
+
+    @Test
+    public void testSubmitStreamFails () throws Exception {
+        ZEPPPCommandStream stream = stream(image());
+        CountingInterface endpoint = new CountingInterface(3);
+        MemoryCommPort port = port(endpoint, true);
+        ZEPPPCommandPipeline pipeline = new ZEPPPCommandPipeline(port, 4, 384);
+
+        try {
+            pipeline.submitStream(stream, null);
+            Assert.fail("Error not reported");
+        } catch (ZEPPPCommandException e) {
+            Assert.assertTrue("Failed command", e.getMessage().contains(stream.getAction(3)));
+        }
+        Assert.assertTrue("Stopped early", endpoint.commands.size() < stream.size());
+
+        // Whatever was in flight was collected: the next command gets its own response
+        int next = endpoint.commands.size();
+        Assert.assertEquals("In sync", next, ZEPPP.sendCommand(port, ZEPPP.ZEPPP_CMD_FIRMWARE_INFO).getMessageWord());
+    }
+}
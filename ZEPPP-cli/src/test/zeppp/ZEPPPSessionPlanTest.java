@@ -0,0 +1,62 @@
+package zeppp;
+
+import com.ezv.zeppp.ZEPPPCLICommand.CLICommandCode;
+import com.ezv.zeppp.ZEPPPSessionPlan;
+import com.ezv.zeppp.ZEPPPSessionPlan.Step;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ezv.zeppp.ZEPPPCLICommand.CLICommandCode.*;
+
+public class ZEPPPSessionPlanTest {
+    private static ZEPPPSessionPlan plan (CLICommandCode... codes) {
+        List<Step> commands = new ArrayList<>();
+        for (CLICommandCode code : codes) commands.add(new Step(code.name(), code, ""));
+        return new ZEPPPSessionPlan(commands);
+    }
+
+    private static void assertStep (ZEPPPSessionPlan plan, int step, CLICommandCode... codes) {
+        List<Step> commands = plan.getSteps().get(step);
+        Assert.assertEquals("Commands in step " + step, codes.length, commands.size());
+        for (int i = 0; i < codes.length; i++) Assert.assertEquals("Step " + step, codes[i], commands.get(i).getCode());
+    }
+
+    @Test
+    public void testAllInAddressOrder () {
+        ZEPPPSessionPlan plan = plan(CLI_COMMAND_COMM, CLI_COMMAND_PROGRAM, CLI_COMMAND_READ_ALL, CLI_COMMAND_VERIFY_ALL);
+        Assert.assertEquals("Steps", 4, plan.getSteps().size());
+        assertStep(plan, 2, CLI_COMMAND_READ_PGM_MEM, CLI_COMMAND_READ_EEPROM, CLI_COMMAND_READ_USER_IDS, CLI_COMMAND_READ_CONF_WORDS);
+        assertStep(plan, 3, CLI_COMMAND_VERIFY_PGM_MEM, CLI_COMMAND_VERIFY_EEPROM, CLI_OOMMAND_VERIFY_USER_IDS, CLI_COMMAND_VERIFY_CONF_WORDS);
+        Assert.assertFalse("Nothing moved", plan.isReordered());
+        Assert.assertEquals("Reads for an output file", 4, plan.readsFrom(1));
+    }
+
+    // Each output file only takes the reads up to the next one
+    @Test
+    public void testReadsForEachOutput () {
+        ZEPPPSessionPlan plan = plan(CLI_COMMAND_COMM, CLI_COMMAND_OUTPUT, CLI_COMMAND_READ_PGM_MEM, CLI_COMMAND_READ_EEPROM,
+                CLI_COMMAND_OUTPUT, CLI_COMMAND_READ_CONF_WORDS);
+        Assert.assertEquals("Steps", 5, plan.getSteps().size());
+        Assert.assertEquals("Reads for the first file", 2, plan.readsFrom(2));
+        Assert.assertEquals("Reads for the second file", 1, plan.readsFrom(4));
+        Assert.assertEquals("Nothing left to read", 0, plan.readsFrom(5));
+    }
+
+    @Test
+    public void testMergedRuns () {
+        ZEPPPSessionPlan plan = plan(CLI_COMMAND_READ_CONF_WORDS, CLI_COMMAND_READ_PGM_MEM, CLI_COMMAND_READ_PGM_MEM,
+                CLI_COMMAND_WRITE_CONF_WORDS, CLI_COMMAND_WRITE_USER_IDS, CLI_COMMAND_WRITE_PGM_MEM,
+                CLI_COMMAND_INPUT, CLI_COMMAND_READ_EEPROM, CLI_COMMAND_READ_PGM_MEM);
+        Assert.assertTrue("Reordered", plan.isReordered());
+        Assert.assertEquals("Steps", 4, plan.getSteps().size());
+        assertStep(plan, 0, CLI_COMMAND_READ_PGM_MEM, CLI_COMMAND_READ_CONF_WORDS);
+        // Config Words written last
+        assertStep(plan, 1, CLI_COMMAND_WRITE_PGM_MEM, CLI_COMMAND_WRITE_USER_IDS, CLI_COMMAND_WRITE_CONF_WORDS);
+        // Nothing moves across other commands
+        assertStep(plan, 2, CLI_COMMAND_INPUT);
+        assertStep(plan, 3, CLI_COMMAND_READ_PGM_MEM, CLI_COMMAND_READ_EEPROM);
+    }
+}
@@ -0,0 +1,76 @@
+package zeppp;
+
+import com.ezv.zeppp.ZEPPPClient;
+import com.ezv.zeppp.ZEPPPTransferStrategy;
+import com.ezv.zeppp.hardware.ZEPPPCapabilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZEPPPTransferStrategyTest {
+    private static final int ALL_CAPS = ZEPPPCapabilities.CAP_PIPELINING | ZEPPPCapabilities.CAP_BINARY_FRAMES |
+                                        ZEPPPCapabilities.CAP_FILL_COMMANDS | ZEPPPCapabilities.CAP_BAUD_RATE |
+                                        ZEPPPCapabilities.CAP_MEMORY_DUMP | ZEPPPCapabilities.CAP_MEMORY_CRC |
+                                        ZEPPPCapabilities.CAP_BLANK_CHECK | ZEPPPCapabilities.CAP_SKIP_UNCHANGED |
+                                        ZEPPPCapabilities.CAP_SET_TIMINGS | ZEPPPCapabilities.CAP_ICSP_CLOCK;
+
+    @Test
+    public void testLegacyFirmware () {
+        ZEPPPTransferStrategy strategy = ZEPPPTransferStrategy.select(ZEPPPCapabilities.LEGACY, false);
+
+        Assert.assertEquals("Stop-and-wait", 1, strategy.getPipelineCommands());
+        Assert.assertFalse("Text commands", strategy.useBinaryFrames());
+        Assert.assertFalse("No fill commands", strategy.useFillCommands());
+        Assert.assertFalse("Block reads", strategy.useMemoryDump());
+        Assert.assertFalse("Verify by reading back", strategy.useMemoryCrc());
+        Assert.assertFalse("No blank check", strategy.useBlankCheck());
+        Assert.assertFalse("Can't skip unchanged words", strategy.supportsSkipUnchanged());
+        Assert.assertFalse("Fixed timings", strategy.useDeviceTimings());
+        Assert.assertFalse("Fixed ICSP clock", strategy.supportsIcspClock());
+        Assert.assertEquals("Write block size", ZEPPPClient.DATA_UNITS_PER_READWRITE, strategy.getMaxWriteWords());
+        Assert.assertEquals("Text reads up to a byte count", ZEPPPClient.RESPONSE_MAX_WORDS, strategy.getMaxReadWords());
+        Assert.assertTrue("Default baud rate", strategy.supportsBaudRate(115200));
+        Assert.assertFalse("No faster baud rates", strategy.supportsBaudRate(250000));
+    }
+
+    @Test
+    public void testFullFirmware () {
+        ZEPPPTransferStrategy strategy = ZEPPPTransferStrategy.select(new ZEPPPCapabilities(ALL_CAPS, 384, 32, 127, 4), false);
+
+        Assert.assertEquals("Pipelined commands", ZEPPPClient.PIPELINE_MAX_COMMANDS, strategy.getPipelineCommands());
+        Assert.assertEquals("Pipeline window", 384, strategy.getPipelineWindowBytes());
+        Assert.assertTrue("Binary frames", strategy.useBinaryFrames());
+        Assert.assertTrue("Fill commands", strategy.useFillCommands());
+        Assert.assertTrue("Memory dump", strategy.useMemoryDump());
+        Assert.assertTrue("Blank check", strategy.useBlankCheck());
+        Assert.assertTrue("Can skip unchanged words", strategy.supportsSkipUnchanged());
+        Assert.assertTrue("Device timings", strategy.useDeviceTimings());
+        Assert.assertTrue("ICSP clock setting", strategy.supportsIcspClock());
+        Assert.assertEquals("Read block size", 127, strategy.getMaxReadWords());
+        Assert.assertTrue("Fastest baud rate", strategy.supportsBaudRate(1000000));
+    }
+
+    @Test
+    public void testPartialFirmware () {
+        // Pipelining only, with a smaller input buffer and only the first two baud rates
+        int caps = ZEPPPCapabilities.CAP_PIPELINING | ZEPPPCapabilities.CAP_BAUD_RATE;
+        ZEPPPTransferStrategy strategy = ZEPPPTransferStrategy.select(new ZEPPPCapabilities(caps, 128, 16, 32, 2), false);
+
+        Assert.assertEquals("Pipeline window", 128, strategy.getPipelineWindowBytes());
+        Assert.assertFalse("Text commands", strategy.useBinaryFrames());
+        Assert.assertFalse("No fill commands", strategy.useFillCommands());
+        Assert.assertEquals("Write block limited by the firmware", 16, strategy.getMaxWriteWords());
+        Assert.assertEquals("Read block limited by the firmware", 32, strategy.getMaxReadWords());
+        Assert.assertTrue("Second baud rate", strategy.supportsBaudRate(250000));
+        Assert.assertFalse("Third baud rate", strategy.supportsBaudRate(500000));
+    }
+
+    @Test
+    public void testTextOnly () {
+        ZEPPPTransferStrategy strategy = ZEPPPTransferStrategy.select(new ZEPPPCapabilities(ALL_CAPS, 384, 32, 127, 4), true);
+
+        Assert.assertFalse("Text commands requested", strategy.useBinaryFrames());
+        Assert.assertTrue("Other features still used", strategy.useFillCommands());
+        Assert.assertFalse("The dump is binary only", strategy.useMemoryDump());
+        Assert.assertTrue("CRC works in text too", strategy.useMemoryCrc());
+    }
+}
@@ -8,8 +8,25 @@
 /* If you add commands or change anything that also requires the CLI to change 
  * please update the version number. That way you can keep the CLI and firmware
  * in sync. Make sure to also update the date string for your releases. */
-#define ZEPPP_VERSION_STRING    "1.0.0"
-#define ZEPPP_RELDATE_STRING    "20180630"
+#define ZEPPP_VERSION_STRING    "1.2.0"
+#define ZEPPP_RELDATE_STRING    "20261016"
+
+/* Capabilities reported by CAP. The CLI only uses the features listed here,
+ * so add a bit for every new one. Never reuse a bit. */
+#define CAP_PIPELINING           0x0001
+#define CAP_BINARY_FRAMES        0x0002
+#define CAP_FILL_COMMANDS        0x0004
+#define CAP_BAUD_RATE            0x0008
+#define CAP_MEMORY_DUMP          0x0010
+#define CAP_MEMORY_CRC           0x0020
+#define CAP_BLANK_CHECK          0x0040
+#define CAP_SKIP_UNCHANGED       0x0080
+#define CAP_SET_TIMINGS          0x0100
+#define CAP_ICSP_CLOCK           0x0200
+#define CAP_HALT_ON_ERROR        0x0400
+#define ZEPPP_CAPABILITIES       (CAP_PIPELINING | CAP_BINARY_FRAMES | CAP_FILL_COMMANDS | CAP_BAUD_RATE | \
+                                  CAP_MEMORY_DUMP | CAP_MEMORY_CRC | CAP_BLANK_CHECK | CAP_SKIP_UNCHANGED | \
+                                  CAP_SET_TIMINGS | CAP_ICSP_CLOCK | CAP_HALT_ON_ERROR)
 
 /* Pin assignment *******************************/
 const int PGM_PIN  = 9;
@@ -18,12 +35,27 @@ const int PGD_PIN  = 7;
 const int MCLR_PIN = 6;
 
 /* Timing and constants *************************/
+/* The delays below are the worst case of all the supported devices. The host
+ * may replace them with the ones of the device it detected (see TIM), and
+ * calibrate the ICSP clock for the board and target (see CLK). */
 #define DELAY_HALFCLOCK_IN_US    2
 #define DELAY_SHORT_IN_US        5
 #define DELAY_LONG_IN_US         10
-#define DELAY_PGM_IN_MS          5
+#define DELAY_PGM_IN_US          5000
+#define DELAY_ERASE_PGM_IN_US    5000
+#define DELAY_DATA_PGM_IN_US     5000
+#define DELAY_ERASE_IN_US        5000
 #define PIC_PGM_ROW              32 
 #define MAX_SERIAL_IN_BUFFER     PIC_PGM_ROW*5 + 10 
+/* Serial link. The host may switch to any of the rates in baudRates[] with
+ * BDR, but has to confirm it within BAUD_CONFIRM_TIMEOUT_MS. */
+#define BAUD_RATE_DEFAULT        115200
+#define BAUD_CONFIRM_TIMEOUT_MS  1000
+const unsigned long baudRates[] = {115200, 250000, 500000, 1000000};
+#define BAUD_RATE_COUNT          (sizeof(baudRates) / sizeof(baudRates[0]))
+/* Room for the commands that arrive while the current one is still running. 
+ * Must fit at least two full-sized write commands. */
+#define IN_QUEUE_SIZE            384
 
 /* ICSP Commands ********************************/
 #define CMD_LOAD_CONFIG          0b000000
@@ -43,21 +75,35 @@ const int MCLR_PIN = 6;
 #define CMD_END_PROGRAMMING      0b010111 
 
 /* Serial Commands ******************************/
+/* These values are also the command IDs used in binary frames, so they must
+ * not change once released. Add new commands at the end. */
 typedef enum {
-  ZEPPP_CMD_UNKNOWN,
-  ZEPPP_CMD_FIRMWARE_INFO,
-  ZEPPP_CMD_ENTER_LVP_MODE,
-  ZEPPP_CMD_EXIT_LVP_MODE,
-  ZEPPP_CMD_CHIP_ERASE,
-  ZEPPP_CMD_PGM_MEM_ERASE,
-  ZEPPP_CMD_DATA_MEM_ERASE,
-  ZEPPP_CMD_SELECT_CFG_MEM,
-  ZEPPP_CMD_INCREASE_ADDRESS,
-  ZEPPP_CMD_DATA_MEM_READ,
-  ZEPPP_CMD_PGM_MEM_READ,
-  ZEPPP_CMD_PGM_MEM_BLOCK_WRITE,
-  ZEPPP_CMD_PGM_MEM_WRITE,
-  ZEPPP_CMD_DATA_MEM_WRITE
+  ZEPPP_CMD_UNKNOWN             = 0,
+  ZEPPP_CMD_FIRMWARE_INFO       = 1,
+  ZEPPP_CMD_ENTER_LVP_MODE      = 2,
+  ZEPPP_CMD_EXIT_LVP_MODE       = 3,
+  ZEPPP_CMD_CHIP_ERASE          = 4,
+  ZEPPP_CMD_PGM_MEM_ERASE       = 5,
+  ZEPPP_CMD_DATA_MEM_ERASE      = 6,
+  ZEPPP_CMD_SELECT_CFG_MEM      = 7,
+  ZEPPP_CMD_INCREASE_ADDRESS    = 8,
+  ZEPPP_CMD_DATA_MEM_READ       = 9,
+  ZEPPP_CMD_PGM_MEM_READ        = 10,
+  ZEPPP_CMD_PGM_MEM_BLOCK_WRITE = 11,
+  ZEPPP_CMD_PGM_MEM_WRITE       = 12,
+  ZEPPP_CMD_DATA_MEM_WRITE      = 13,
+  ZEPPP_CMD_INPUT_QUEUE_SIZE    = 14,
+  ZEPPP_CMD_PGM_MEM_FILL        = 15,
+  ZEPPP_CMD_PGM_MEM_BLOCK_FILL  = 16,
+  ZEPPP_CMD_DATA_MEM_FILL       = 17,
+  ZEPPP_CMD_SET_BAUD_RATE       = 18,
+  ZEPPP_CMD_CAPABILITIES        = 19,
+  ZEPPP_CMD_MEMORY_DUMP         = 20,
+  ZEPPP_CMD_MEMORY_CRC          = 21,
+  ZEPPP_CMD_BLANK_CHECK         = 22,
+  ZEPPP_CMD_SET_TIMINGS         = 23,
+  ZEPPP_CMD_SET_ICSP_CLOCK      = 24,
+  ZEPPP_CMD_RESYNC              = 25
 } ZEPPPCommand;
 
 /* Serial command return codes ******************/
@@ -69,19 +115,95 @@ typedef enum {
   RET_ERR_OUT_OF_RANGE,
   RET_ERR_UNKNOWN_COMMAND,
   RET_ERR_NO_MEMORY_AREA_SELECTED,
+  RET_ERR_CRC_MISMATCH,
   RET_OK
 } ReturnCode;
 
+/* Binary frames ********************************/
+/* Command:  [SYNC] [LEN] [CMD ID] [Args...] [CRC16 L] [CRC16 H]
+ * Response: [SYNC] [LEN] [STATUS] [Data...] [CRC16 L] [CRC16 H]
+ * LEN counts the CMD ID/STATUS byte plus the args/data. The CRC covers LEN
+ * up to the last arg/data byte. Words are sent LSB first. STATUS is 0 when
+ * the command succeeded, or the ReturnCode + 1 otherwise. */
+#define BIN_FRAME_SYNC           0xA5
+#define BIN_STATUS_OK            0
+#define BIN_MAX_FRAME_LEN        (MAX_SERIAL_IN_BUFFER - 3)
+#define BIN_MAX_READ_WORDS       127
+#define DUMP_CHUNK_WORDS         64
+/* Erase mode flag for PMW, PMF, DMW and DMF: words that already hold the
+ * value are not programmed again, and the reply is the number of them. */
+#define WRITE_SKIP_UNCHANGED     0x80
+/* Blank check: one bit per block, 16 blocks per reply word. The bitmap is
+ * built in wordBuffer, so that limits how much can be scanned at once. */
+#define BLANK_CHECK_BLOCK_WORDS  32
+#define BLANK_CHECK_MAX_WORDS    (BLANK_CHECK_BLOCK_WORDS * 16 * PIC_PGM_ROW)
+#define CRC16_INIT               0xFFFF
+#define CRC16_POLY               0x1021
+
 /* Serial Buffer Handling ***********************/
+byte inQueue[IN_QUEUE_SIZE];
+word inQueueHead = 0;
+word inQueueCount = 0;
 char serialBuffer[MAX_SERIAL_IN_BUFFER];
 byte inBufferPos = 0;
 byte bufferParsingPos = 0;
 int  wordBuffer[PIC_PGM_ROW]; 
+bool binaryFrame = false;
+bool inputHalted = false;
+word writeSkipCount;
+
+/* Programming timings **************************/
+word delayPgmUs     = DELAY_PGM_IN_US;
+word delayErasePgmUs = DELAY_ERASE_PGM_IN_US;
+word delayDataPgmUs = DELAY_DATA_PGM_IN_US;
+word delayEraseUs   = DELAY_ERASE_IN_US;
+byte delayShortUs   = DELAY_SHORT_IN_US;
+byte delayLongUs    = DELAY_LONG_IN_US;
+byte delayHalfClockUs = DELAY_HALFCLOCK_IN_US;
+byte binaryFrameEnd = 0;
+word replyCrc;
 
 /* Serial command return strings ****************/
 #define RET_MSG_ERROR       Serial.print(F("ER: "))
 #define RET_MSG_OK          Serial.print(F("OK: "))
 
+/*############################################################################
+ *##                                                                        ##
+ *##                 S E R I A L   I N P U T   Q U E U E                    ##
+ *##                                                                        ##
+ *############################################################################*/
+/* The host may send the next commands before the current one is done. The 
+ * hardware buffer only holds 64 bytes, so whatever arrives is moved into our
+ * own queue while we wait on the PIC or print responses. */
+void serial_poll () {
+  while (inQueueCount < IN_QUEUE_SIZE && Serial.available()) {
+    word tail = inQueueHead + inQueueCount;
+    if (tail >= IN_QUEUE_SIZE) tail -= IN_QUEUE_SIZE;
+    inQueue[tail] = Serial.read();
+    inQueueCount++;
+  }
+}
+
+byte serial_queue_pop () {
+  byte r = inQueue[inQueueHead];
+  inQueueHead++;
+  if (inQueueHead >= IN_QUEUE_SIZE) inQueueHead = 0;
+  inQueueCount--;
+  return r;
+}
+
+/* Replacement for delay() that keeps receiving serial data */
+void wait_ms (word ms) {
+  unsigned long start = micros();
+  unsigned long duration = (unsigned long)ms * 1000;
+  while (micros() - start < duration) serial_poll();
+}
+
+void wait_us (word us) {
+  unsigned long start = micros();
+  while (micros() - start < us) serial_poll();
+}
+
 /*############################################################################
  *##                                                                        ##
  *##                 L V P - S P E C I F I C   R O U T I N E S              ##
@@ -98,15 +220,15 @@ void lvp_enter_pgm_mode () {
 
   /* Now we bring them to their default values again */
   digitalWrite (PGM_PIN, HIGH);
-  delayMicroseconds(DELAY_SHORT_IN_US);
+  delayMicroseconds(delayShortUs);
   digitalWrite (MCLR_PIN, HIGH);
-  delayMicroseconds(DELAY_SHORT_IN_US);
+  delayMicroseconds(delayShortUs);
 }
 
 void lvp_exit_pgm_mode() {
   digitalWrite (MCLR_PIN, LOW);
   pinMode (PGD_PIN, INPUT);
-  delayMicroseconds(DELAY_LONG_IN_US);
+  delayMicroseconds(delayLongUs);
   digitalWrite (PGM_PIN, LOW);
   digitalWrite (MCLR_PIN, HIGH);
 }
@@ -117,15 +239,15 @@ void lvp_exit_pgm_mode() {
  *##                                                                        ##
  *############################################################################*/
 inline void clock_high() {
-  delayMicroseconds(DELAY_HALFCLOCK_IN_US);
+  delayMicroseconds(delayHalfClockUs);
   digitalWrite (PGC_PIN, HIGH);
-  delayMicroseconds(DELAY_HALFCLOCK_IN_US);
+  delayMicroseconds(delayHalfClockUs);
 }
 
 inline void clock_low() {
-  delayMicroseconds(DELAY_HALFCLOCK_IN_US);
+  delayMicroseconds(delayHalfClockUs);
   digitalWrite (PGC_PIN, LOW);
-  delayMicroseconds(DELAY_HALFCLOCK_IN_US);
+  delayMicroseconds(delayHalfClockUs);
 }
 
 void icsp_send_byte (byte data, byte bits) {
@@ -144,7 +266,7 @@ word icsp_recv_word () {
   word w = 0;
   word mask = 1;
   pinMode (PGD_PIN, INPUT);
-  delayMicroseconds(DELAY_SHORT_IN_US);
+  delayMicroseconds(delayShortUs);
 
   // Data is 14 bits. With a start and stop bit (16 bit total). LSB first
   for (byte b = 0; b < 16; b++){
@@ -159,14 +281,14 @@ word icsp_recv_word () {
 void icsp_send_cmd (byte cmd) {
   // Command is 6 bits
   icsp_send_byte (cmd, 6);
-  delayMicroseconds(DELAY_SHORT_IN_US);
+  delayMicroseconds(delayShortUs);
 }
 
 void icsp_load_data (word data) {
   // Data is 14 bits. With a start and stop bit. LSB first
   icsp_send_byte ((byte)((data<<1) & 0xfe), 8);
   icsp_send_byte ((byte)((data>>7) & 0x7f), 8);
-  delayMicroseconds(DELAY_LONG_IN_US);
+  delayMicroseconds(delayLongUs);
 }
 
 /*############################################################################
@@ -176,13 +298,13 @@ void icsp_load_data (word data) {
  *############################################################################*/
 word read_pgm_mem () {
   icsp_send_cmd (CMD_READ_PGM_MEM_DATA);
-  delayMicroseconds(DELAY_SHORT_IN_US);
+  delayMicroseconds(delayShortUs);
   return icsp_recv_word();
 }
 
 word read_data_mem () {
   icsp_send_cmd (CMD_READ_DAT_MEM_DATA);
-  delayMicroseconds(DELAY_SHORT_IN_US);
+  delayMicroseconds(delayShortUs);
   return icsp_recv_word ();
 }
 
@@ -203,32 +325,34 @@ void load_config_mem (word w) {
 
 void increment_addr () {
   icsp_send_cmd (CMD_INCREMENT_ADDRESS);
-  delayMicroseconds(DELAY_SHORT_IN_US);
+  delayMicroseconds(delayShortUs);
 }
 
 void bulk_erase_pgm_mem () {
   icsp_send_cmd (CMD_BULK_ERASE_PGM_MEM);
-  delayMicroseconds(DELAY_LONG_IN_US);
+  delayMicroseconds(delayLongUs);
 }
 
 void bulk_erase_data_mem () {
   icsp_send_cmd (CMD_BULK_ERASE_DAT_MEM);
-  delayMicroseconds(DELAY_LONG_IN_US);
+  delayMicroseconds(delayLongUs);
 }
 
 void chip_erase () {
   icsp_send_cmd (CMD_CHIP_ERASE);
-  delay(DELAY_PGM_IN_MS);
+  wait_us(delayEraseUs);
 }
 
-void program_only_cycle () { 
+/* The program time is delayPgmUs for PGM/config memory, delayDataPgmUs for DATA.
+ * An erase and program cycle on PGM/config memory takes delayErasePgmUs. */
+void program_only_cycle (word us) { 
   icsp_send_cmd (CMD_BEGIN_PGMONLY_CYCLE); 
-  delay(DELAY_PGM_IN_MS); 
+  wait_us(us); 
 } 
 
-void erase_and_program_cycle () {
+void erase_and_program_cycle (word us) {
   icsp_send_cmd (CMD_BEGIN_PGMERASE_CYCLE);
-  delay(DELAY_PGM_IN_MS);
+  wait_us(us);
 }
 
 void end_programming(){ 
@@ -237,7 +361,7 @@ void end_programming(){
  
 void begin_erase(){ 
   icsp_send_cmd (CMD_BEGIN_ERASE); 
-  delay(DELAY_PGM_IN_MS); 
+  wait_us(delayEraseUs); 
 } 
 
 /*############################################################################
@@ -255,13 +379,137 @@ void serial_write_word (word w) {
   serial_write_byte (w & 0xff);
 }
 
+/* CRC-16/CCITT (poly 0x1021, init 0xFFFF) */
+word crc16_update (word crc, byte b) {
+  crc ^= (word)b << 8;
+  for (byte i = 0; i < 8; i++) {
+    if (crc & 0x8000) crc = (crc << 1) ^ CRC16_POLY;
+    else crc <<= 1;
+  }
+  return crc;
+}
+
+/*############################################################################
+ *##                                                                        ##
+ *##                       R E P L Y   H E L P E R S                        ##
+ *##                                                                        ##
+ *############################################################################*/
+/* Replies go out either as text or as a binary frame, depending on how the
+ * command we are answering came in. */
+void reply_frame_begin (byte status, byte dataLen) {
+  Serial.write(BIN_FRAME_SYNC);
+  Serial.write(dataLen + 1);
+  Serial.write(status);
+  replyCrc = crc16_update(crc16_update(CRC16_INIT, dataLen + 1), status);
+}
+
+void reply_frame_byte (byte b) {
+  Serial.write(b);
+  replyCrc = crc16_update(replyCrc, b);
+}
+
+void reply_frame_end () {
+  Serial.write(replyCrc & 0xff);
+  Serial.write(replyCrc >> 8);
+}
+
+void reply_ok (const __FlashStringHelper *msg) {
+  if (binaryFrame) {
+    reply_frame_begin(BIN_STATUS_OK, 0);
+    reply_frame_end();
+    return;
+  }
+  RET_MSG_OK;
+  Serial.println(msg);
+}
+
+/* Replies to the word write commands: the message, or the number of words
+ * skipped if they were asked to skip the unchanged ones */
+void reply_written (const __FlashStringHelper *msg, byte eraseMode) {
+  if (eraseMode & WRITE_SKIP_UNCHANGED) {
+    reply_words_begin (1);
+    reply_word (writeSkipCount);
+    reply_words_end ();
+    return;
+  }
+  reply_ok(msg);
+}
+
+void reply_words_begin (byte count) {
+  if (binaryFrame) {
+    reply_frame_begin(BIN_STATUS_OK, count * 2);
+  } else {
+    RET_MSG_OK;
+  }
+}
+
+void reply_word (word w) {
+  if (binaryFrame) {
+    reply_frame_byte(w & 0xff);
+    reply_frame_byte(w >> 8);
+  } else {
+    serial_write_word (w);
+    Serial.write(' ');
+  }
+}
+
+void reply_words_end () {
+  if (binaryFrame) {
+    reply_frame_end();
+  } else {
+    Serial.write('\n');
+  }
+}
+
+/*############################################################################
+ *##                                                                        ##
+ *##                          B A U D   R A T E                             ##
+ *##                                                                        ##
+ *############################################################################*/
+void serial_set_baud_rate (unsigned long rate) {
+  Serial.flush();   // Let the last reply go out at the old rate
+  Serial.end();
+  Serial.begin(rate);
+  inQueueCount = 0;
+  serial_reset_buffer();
+}
+
+/* Right after switching, the host must send "BDC <word>" at the new rate, and
+ * gets the same word back. Anything else (garbage from a rate mismatch, or 
+ * nothing at all) puts us back at the default rate once the time is up. */
+bool serial_confirm_baud_rate () {
+  unsigned long start = millis();
+  word w;
+
+  while (millis() - start < BAUD_CONFIRM_TIMEOUT_MS) {
+    if (!Serial.available()) continue;
+    char c = Serial.read();
+
+    if (c != '\r') {
+      if (inBufferPos < MAX_SERIAL_IN_BUFFER - 1) serialBuffer[inBufferPos++] = c;
+      continue;
+    }
+    bufferParsingPos = 3;
+    if (strncmp(serialBuffer, "BDC", 3) == 0 && arg_get_word(&w) == RET_OK) {
+      reply_words_begin (1);
+      reply_word (w);
+      reply_words_end ();
+      serial_reset_buffer();
+      return true;
+    }
+    serial_reset_buffer();
+  }
+  serial_set_baud_rate(BAUD_RATE_DEFAULT);
+  return false;
+}
+
 /*############################################################################
  *##                                                                        ##
  *##                                 S E T U P                              ##
  *##                                                                        ##
  *############################################################################*/
 void setup() {
-  Serial.begin(115200);   
+  Serial.begin(BAUD_RATE_DEFAULT);   
   pinMode (MCLR_PIN, OUTPUT);
   pinMode (PGM_PIN, OUTPUT);
   pinMode (PGC_PIN, OUTPUT);
@@ -290,6 +538,7 @@ void setup() {
 void serial_reset_buffer() {
   memset(serialBuffer, 0, MAX_SERIAL_IN_BUFFER);
   inBufferPos = 0;
+  binaryFrame = false;
 }
 
 bool serial_parse_match (char c){
@@ -316,6 +565,7 @@ bool serial_parse_getword (word *dest, byte maxDigits) {
     bufferParsingPos += 1;
     digit = hex_digit_val(serialBuffer[bufferParsingPos]);
   }
+  return true;
 }
 
 bool serial_parse_getbyte (byte *dest) {
@@ -329,23 +579,223 @@ bool serial_parse_getbyte (byte *dest) {
 }
 
 void read_and_print_pgm_mem_words (byte sze){
+  reply_words_begin (sze);
   for (byte n = 0; n < sze; n++) {
     word d = read_pgm_mem();
     increment_addr();
-    serial_write_word (d);
-    Serial.write(' ');
+    reply_word (d);
+    serial_poll();
   }
-  Serial.write('\n');
+  reply_words_end ();
 }
 
 void read_and_print_data_mem_words (byte sze){
+  reply_words_begin (sze);
   for (byte n = 0; n < sze; n++) {
     word d = read_data_mem() & 0xff;
     increment_addr();
-    serial_write_word (d);
-    Serial.write(' ');
+    reply_word (d);
+    serial_poll();
   }
-  Serial.write('\n');
+  reply_words_end ();
+}
+
+/*############################################################################
+ *##                                                                        ##
+ *##               M E M O R Y   W R I T E   H E L P E R S                  ##
+ *##                                                                        ##
+ *############################################################################*/
+/* Shared by the write commands and the fill commands. The source of the 
+ * words is wordBuffer, unless fill is set: then every word is fillValue. 
+ * With WRITE_SKIP_UNCHANGED in eraseMode, words already in memory are only
+ * counted in writeSkipCount. */
+ReturnCode write_pgm_mem_words (byte eraseMode, word count, bool fill, word fillValue) {
+  word w;
+  bool skipUnchanged = eraseMode & WRITE_SKIP_UNCHANGED;
+
+  eraseMode &= ~WRITE_SKIP_UNCHANGED;
+  writeSkipCount = 0;
+  for (word n = 0; n < count; n++) {
+    w = fill ? fillValue : wordBuffer[n];
+    if (skipUnchanged && read_pgm_mem() == w) {
+      writeSkipCount++;
+      increment_addr();
+      serial_poll();
+      continue;
+    }
+    load_pgm_mem(w);
+    if (eraseMode == 0) {
+      erase_and_program_cycle(delayErasePgmUs);
+    } else {
+      program_only_cycle(delayPgmUs);
+      end_programming();
+    }
+    if (read_pgm_mem() != w) return RET_ERR_VERIFICATION_FAILED;
+    increment_addr();
+    serial_poll();
+  }
+  return RET_OK;
+}
+
+/* Programs writeSize words at a time. The last row is padded with 0x3FFF. 
+ * The Begin Erase at the start clears the erase row the address is in (32 
+ * words on the 16F87/88), so the host starts each block on an erase row. */
+void write_pgm_mem_rows (byte writeSize, word count, bool fill, word fillValue) {
+  word w;
+
+  load_pgm_mem(0x3fff);
+  begin_erase(); 
+  end_programming(); 
+  for (word b = 0; b < count; b += writeSize) { 
+    for (byte n = 0; n < writeSize; n++){ 
+      if (b + n >= count) { 
+        w = 0x3fff; 
+      } else {
+        w = fill ? fillValue : wordBuffer[b + n];
+      }
+      load_pgm_mem(w); 
+      if (n < writeSize - 1) increment_addr(); 
+    }
+    program_only_cycle(delayPgmUs); 
+    end_programming(); 
+    increment_addr(); 
+    serial_poll();
+  }
+}
+
+ReturnCode write_data_mem_words (byte eraseMode, word count, bool fill, word fillValue) {
+  word w;
+  bool skipUnchanged = eraseMode & WRITE_SKIP_UNCHANGED;
+
+  eraseMode &= ~WRITE_SKIP_UNCHANGED;
+  writeSkipCount = 0;
+  if (eraseMode != 0) load_data_mem(0xff);
+  for (word n = 0; n < count; n++) {
+    w = fill ? fillValue : wordBuffer[n];
+    if (skipUnchanged && (read_data_mem() & 0xff) == (w & 0xff)) {
+      writeSkipCount++;
+      increment_addr();
+      serial_poll();
+      continue;
+    }
+    if (eraseMode == 0) {
+      load_data_mem(w);
+      erase_and_program_cycle(delayDataPgmUs);
+    } else {
+      begin_erase(); 
+      end_programming();
+      load_data_mem(w);
+      program_only_cycle(delayDataPgmUs);
+      end_programming();
+    }
+    if ((read_data_mem() & 0xff) != (w & 0xff)) return RET_ERR_VERIFICATION_FAILED;
+    increment_addr(); 
+    serial_poll();
+  }
+  return RET_OK;
+}
+
+/* Streams count words from the current address as binary frames of up to
+ * DUMP_CHUNK_WORDS words each, whatever the format of the command was. Each
+ * frame carries its own CRC, so the host can tell exactly which chunk went
+ * wrong. */
+void dump_mem_words (bool dataMem, word count) {
+  byte n;
+  word w;
+
+  if (dataMem) {
+    load_data_mem (0xff);
+  } else {
+    load_pgm_mem (0x3fff);
+  }
+  while (count > 0) {
+    n = count > DUMP_CHUNK_WORDS ? DUMP_CHUNK_WORDS : count;
+    reply_frame_begin(BIN_STATUS_OK, n * 2);
+    for (byte i = 0; i < n; i++) {
+      w = dataMem ? (read_data_mem() & 0xff) : read_pgm_mem();
+      increment_addr();
+      reply_frame_byte(w & 0xff);
+      reply_frame_byte(w >> 8);
+      serial_poll();
+    }
+    reply_frame_end();
+    count -= n;
+  }
+}
+
+/* CRC-16 of the next 'count' words of PGM (or config) or DATA memory, from
+ * the current address on. Words go into the CRC LSB first, the same way they
+ * are sent over the serial link. */
+word crc_mem_words (bool dataMem, word count) {
+  word crc = CRC16_INIT;
+  word w;
+
+  if (dataMem) {
+    load_data_mem (0xff);
+  } else {
+    load_pgm_mem (0x3fff);
+  }
+  for (word i = 0; i < count; i++) {
+    w = dataMem ? (read_data_mem() & 0xff) : read_pgm_mem();
+    increment_addr();
+    crc = crc16_update(crc16_update(crc, w & 0xff), w >> 8);
+    serial_poll();
+  }
+  return crc;
+}
+
+/* Scans the next 'count' words of PGM or DATA memory and leaves in wordBuffer
+ * a bitmap of the blocks holding anything other than the erased value (bit 0
+ * of the first word is the first block). Returns the number of bitmap words.
+ * The reply is only sent once the scan is done, so there are no long gaps in
+ * the middle of it. */
+byte blank_check_mem_words (bool dataMem, word count) {
+  word blank = dataMem ? 0xff : 0x3fff;
+  word block, w;
+  byte words = (count + BLANK_CHECK_BLOCK_WORDS * 16 - 1) / (BLANK_CHECK_BLOCK_WORDS * 16);
+
+  for (byte i = 0; i < words; i++) wordBuffer[i] = 0;
+  if (dataMem) {
+    load_data_mem (0xff);
+  } else {
+    load_pgm_mem (0x3fff);
+  }
+  for (word i = 0; i < count; i++) {
+    w = dataMem ? (read_data_mem() & 0xff) : read_pgm_mem();
+    increment_addr();
+    if (w != blank) {
+      block = i / BLANK_CHECK_BLOCK_WORDS;
+      wordBuffer[block >> 4] |= (word)1 << (block & 0x0f);
+    }
+    serial_poll();
+  }
+  return words;
+}
+
+/* Gets a byte argument, from the text command or from the binary frame */
+ReturnCode arg_get_byte (byte *dest) {
+  if (binaryFrame) {
+    if (bufferParsingPos >= binaryFrameEnd) return RET_ERR_HEX_BYTE_EXPECTED;
+    *dest = (byte)serialBuffer[bufferParsingPos];
+    bufferParsingPos++;
+    return RET_OK;
+  }
+  if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED;
+  if (!serial_parse_getbyte(dest)) return RET_ERR_HEX_BYTE_EXPECTED;
+  return RET_OK;
+}
+
+/* Gets a word argument: 4 HEX digits in text, or 2 bytes (LSB first) in a binary frame */
+ReturnCode arg_get_word (word *dest) {
+  if (binaryFrame) {
+    if (bufferParsingPos + 1 >= binaryFrameEnd) return RET_ERR_HEX_WORD_EXPECTED;
+    *dest = (byte)serialBuffer[bufferParsingPos] | ((word)(byte)serialBuffer[bufferParsingPos + 1] << 8);
+    bufferParsingPos += 2;
+    return RET_OK;
+  }
+  if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED;
+  if (!serial_parse_getword(dest, 4)) return RET_ERR_HEX_WORD_EXPECTED;
+  return RET_OK;
 }
 
 char read_console_into_word_buffer () { 
@@ -360,6 +810,28 @@ char read_console_into_word_buffer () {
   } 
   return count; 
 } 
+
+char read_args_into_word_buffer () {
+  byte count = 0;
+
+  if (!binaryFrame) return read_console_into_word_buffer();
+  if ((binaryFrameEnd - bufferParsingPos) & 1) return -RET_ERR_HEX_WORD_EXPECTED;
+  while (bufferParsingPos < binaryFrameEnd) {
+    if (count >= PIC_PGM_ROW) return -RET_ERR_OUT_OF_RANGE;
+    wordBuffer[count] = (byte)serialBuffer[bufferParsingPos] | ((word)(byte)serialBuffer[bufferParsingPos + 1] << 8);
+    bufferParsingPos += 2;
+    count++;
+  }
+  return count;
+}
+
+bool binary_frame_crc_ok () {
+  byte len = (byte)serialBuffer[0];
+  word crc = CRC16_INIT;
+
+  for (byte i = 0; i <= len; i++) crc = crc16_update(crc, (byte)serialBuffer[i]);
+  return crc == ((byte)serialBuffer[len + 1] | ((word)(byte)serialBuffer[len + 2] << 8));
+}
 /*############################################################################
  *##                                                                        ##
  *##             S E R I A L   C O M M A N D S  P A R S I N G               ##
@@ -381,15 +853,28 @@ ZEPPPCommand getCommand (char *buffer){
   if (strncmp(buffer, "PME", 3) == 0) return ZEPPP_CMD_PGM_MEM_ERASE;
   if (strncmp(buffer, "CHE", 3) == 0) return ZEPPP_CMD_CHIP_ERASE;
   if (strncmp(buffer, "FWI", 3) == 0) return ZEPPP_CMD_FIRMWARE_INFO;
+  if (strncmp(buffer, "IQS", 3) == 0) return ZEPPP_CMD_INPUT_QUEUE_SIZE;
+  if (strncmp(buffer, "PMF", 3) == 0) return ZEPPP_CMD_PGM_MEM_FILL;
+  if (strncmp(buffer, "PBF", 3) == 0) return ZEPPP_CMD_PGM_MEM_BLOCK_FILL;
+  if (strncmp(buffer, "DMF", 3) == 0) return ZEPPP_CMD_DATA_MEM_FILL;
+  if (strncmp(buffer, "BDR", 3) == 0) return ZEPPP_CMD_SET_BAUD_RATE;
+  if (strncmp(buffer, "CAP", 3) == 0) return ZEPPP_CMD_CAPABILITIES;
+  if (strncmp(buffer, "DMP", 3) == 0) return ZEPPP_CMD_MEMORY_DUMP;
+  if (strncmp(buffer, "CRC", 3) == 0) return ZEPPP_CMD_MEMORY_CRC;
+  if (strncmp(buffer, "BLK", 3) == 0) return ZEPPP_CMD_BLANK_CHECK;
+  if (strncmp(buffer, "TIM", 3) == 0) return ZEPPP_CMD_SET_TIMINGS;
+  if (strncmp(buffer, "CLK", 3) == 0) return ZEPPP_CMD_SET_ICSP_CLOCK;
+  if (strncmp(buffer, "RSY", 3) == 0) return ZEPPP_CMD_RESYNC;
   return ZEPPP_CMD_UNKNOWN;
 }
 
 ReturnCode execute_serial_cmd() {
   char ret;
-  byte b, n, count;
-  byte writeSize, eraseMode;
-  word w;
-  ZEPPPCommand cmdCode = getCommand(serialBuffer);
+  ReturnCode rc;
+  byte b;
+  byte writeSize, eraseMode, shortUs, longUs;
+  word w, count, timing, erasePgm;
+  ZEPPPCommand cmdCode;
 
   // WARNING ABOUT COMMANDS:
   // In older devices (without an address reset command) the only way to reset the internal counter
@@ -401,33 +886,38 @@ ReturnCode execute_serial_cmd() {
   // Not a really elegant way of parsing commands and arguments, but hey! it works.
   // (And still way better than using Strings, performance and portability-wise).
   // Skip the 3 characters we just read in getCommand().
-  bufferParsingPos = 3;
+  // Binary frames carry the command ID right after the length, followed by the arguments.
+  if (binaryFrame) {
+    cmdCode = (ZEPPPCommand)serialBuffer[1];
+    bufferParsingPos = 2;
+    binaryFrameEnd = (byte)serialBuffer[0] + 1;
+  } else {
+    cmdCode = getCommand(serialBuffer);
+    bufferParsingPos = 3;
+  }
   switch (cmdCode) {
     // Enter LVP Programming Mode --------
     case ZEPPP_CMD_ENTER_LVP_MODE:
       lvp_enter_pgm_mode ();
-      RET_MSG_OK;
-      Serial.println(F("Entering LVP Programming Mode (Legacy method)"));
+      reply_ok(F("Entering LVP Programming Mode (Legacy method)"));
     break;
 
     // Exit LVP Programming Mode --------
     case ZEPPP_CMD_EXIT_LVP_MODE:
       lvp_exit_pgm_mode ();
-      RET_MSG_OK;
-      Serial.println(F("Exiting LVP Programming Mode"));
+      reply_ok(F("Exiting LVP Programming Mode"));
     break;
 
     // Chip Erase --------
     case ZEPPP_CMD_CHIP_ERASE:
       chip_erase();
-      RET_MSG_OK;
-      Serial.println("CHIP Erase");
+      reply_ok(F("CHIP Erase"));
     break;
 
     // PGM Memory Erase --------
     case ZEPPP_CMD_PGM_MEM_ERASE:
-      if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED; 
-      if (!serial_parse_getbyte(&eraseMode)) return RET_ERR_HEX_BYTE_EXPECTED; 
+      rc = arg_get_byte(&eraseMode);
+      if (rc != RET_OK) return rc;
       // So far only two modes are supported for Pgm Erase: 0 (Bulk erase suffices) and 1 (Begin Erase is required after Bulk Erase)
       if (eraseMode > 1) return RET_ERR_OUT_OF_RANGE; 
 
@@ -435,165 +925,155 @@ ReturnCode execute_serial_cmd() {
       bulk_erase_pgm_mem();
       if (eraseMode != 0) begin_erase(); // Not required for older pics.
 
-      RET_MSG_OK;
-      Serial.println(F("PROGRAM Memory Erased"));
+      reply_ok(F("PROGRAM Memory Erased"));
     break;
 
     // DATA Memory Erase --------
     case ZEPPP_CMD_DATA_MEM_ERASE:
-      if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED; 
-      if (!serial_parse_getbyte(&eraseMode)) return RET_ERR_HEX_BYTE_EXPECTED;
+      rc = arg_get_byte(&eraseMode);
+      if (rc != RET_OK) return rc;
       // So far only two modes are supported for Data Erase: 0 (Bulk erase suffices) and 1 (Begin Erase is required after Bulk Erase)
       if (eraseMode > 1) return RET_ERR_OUT_OF_RANGE; 
 
       bulk_erase_data_mem();
       if (eraseMode != 0) begin_erase(); // Not required for older pics.
-      RET_MSG_OK;
-      Serial.println(F("DATA (EEPROM) Memory Erased"));
+      reply_ok(F("DATA (EEPROM) Memory Erased"));
     break;
 
     // Select Config Memory --------
     case ZEPPP_CMD_SELECT_CFG_MEM:
       load_config_mem(0x3fff);
-      RET_MSG_OK;
-      Serial.println(F("CONFIG Memory Selected"));
+      reply_ok(F("CONFIG Memory Selected"));
     break;
 
     // Increment Address --------
     case ZEPPP_CMD_INCREASE_ADDRESS:
-      if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED;
-      if (!serial_parse_getbyte(&b)) return RET_ERR_HEX_BYTE_EXPECTED;
+      rc = arg_get_byte(&b);
+      if (rc != RET_OK) return rc;
       for (byte n = 0; n < b; n++) {
         increment_addr();
+        serial_poll();
+      }
+      if (binaryFrame) {
+        reply_ok(NULL);
+      } else {
+        RET_MSG_OK;
+        Serial.print(F("Address Pointer increased "));
+        Serial.print(b, DEC);
+        Serial.println(F(" positions"));
       }
-      RET_MSG_OK;
-      Serial.print(F("Address Pointer increased "));
-      Serial.print(b, DEC);
-      Serial.println(F(" positions"));
     break;
 
     // DATA Memory Read --------
     case ZEPPP_CMD_DATA_MEM_READ:
-      if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED;
-      if (!serial_parse_getbyte(&b)) return RET_ERR_HEX_BYTE_EXPECTED;
+      rc = arg_get_byte(&b);
+      if (rc != RET_OK) return rc;
+      if (binaryFrame && b > BIN_MAX_READ_WORDS) return RET_ERR_OUT_OF_RANGE;
 
       load_data_mem (0xff);
-      RET_MSG_OK;
       read_and_print_data_mem_words (b);
     break;
 
     // PGM Memory Read --------
     case ZEPPP_CMD_PGM_MEM_READ:
-      if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED;
-      if (!serial_parse_getbyte(&b)) return RET_ERR_HEX_BYTE_EXPECTED;
+      rc = arg_get_byte(&b);
+      if (rc != RET_OK) return rc;
+      if (binaryFrame && b > BIN_MAX_READ_WORDS) return RET_ERR_OUT_OF_RANGE;
 
       load_pgm_mem (0x3fff);
-      RET_MSG_OK;
       read_and_print_pgm_mem_words (b);
     break;
 
     // PGM Memory Write --------
     case ZEPPP_CMD_PGM_MEM_WRITE:
-      if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED;
-      if (!serial_parse_getbyte(&eraseMode)) return RET_ERR_HEX_BYTE_EXPECTED;
+      rc = arg_get_byte(&eraseMode);
+      if (rc != RET_OK) return rc;
       // So far only two modes are supported for word-based PGM writes: 0 (Use Erase/Pgm cycle) and 1: (Use Program-only cycle)
-      if (eraseMode > 1) return RET_ERR_OUT_OF_RANGE; 
+      if ((eraseMode & ~WRITE_SKIP_UNCHANGED) > 1) return RET_ERR_OUT_OF_RANGE; 
 
       // Negative values are error codes.
-      ret = read_console_into_word_buffer();
+      ret = read_args_into_word_buffer();
       if (ret < 0) return (ReturnCode)(-ret);
-      count = ret;
-      if (eraseMode == 0) {
-        for (b = 0; b < count; b++) {
-          w = wordBuffer[b];
-          load_pgm_mem(w);
-          erase_and_program_cycle();
-          if (read_pgm_mem() != w) return RET_ERR_VERIFICATION_FAILED;
-          increment_addr();
-        }
-      }else {
-        for (b = 0; b < count; b++) {
-          w = wordBuffer[b];
-          load_pgm_mem(w);
-          program_only_cycle();
-          end_programming();
-          if (read_pgm_mem() != w) return RET_ERR_VERIFICATION_FAILED;
-          increment_addr();
-        }
-      }
-      RET_MSG_OK;
-      Serial.println(F("PGM block written"));
+      rc = write_pgm_mem_words(eraseMode, ret, false, 0);
+      if (rc != RET_OK) return rc;
+      reply_written(F("PGM block written"), eraseMode);
+    break;
+
+    // PGM Memory Fill --------
+    case ZEPPP_CMD_PGM_MEM_FILL:
+      rc = arg_get_byte(&eraseMode);
+      if (rc != RET_OK) return rc;
+      if ((eraseMode & ~WRITE_SKIP_UNCHANGED) > 1) return RET_ERR_OUT_OF_RANGE; 
+      rc = arg_get_word(&count);
+      if (rc != RET_OK) return rc;
+      rc = arg_get_word(&w);
+      if (rc != RET_OK) return rc;
+
+      rc = write_pgm_mem_words(eraseMode, count, true, w);
+      if (rc != RET_OK) return rc;
+      reply_written(F("PGM block filled"), eraseMode);
     break;
 
     // PGM Memory Block Write --------
     case ZEPPP_CMD_PGM_MEM_BLOCK_WRITE:
-      if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED;
-      if (!serial_parse_getbyte(&writeSize)) return RET_ERR_HEX_BYTE_EXPECTED;
+      rc = arg_get_byte(&writeSize);
+      if (rc != RET_OK) return rc;
       if (writeSize < 2 || writeSize > PIC_PGM_ROW) return RET_ERR_OUT_OF_RANGE;
 
       // Negative values are error codes.
-      ret = read_console_into_word_buffer();
+      ret = read_args_into_word_buffer();
       if (ret < 0) return (ReturnCode)(-ret);
-      count = ret;
-      load_pgm_mem(0x3fff);
-      begin_erase(); 
-      end_programming(); 
-      for (b = 0; b < count; b += writeSize) { 
-        for (n = 0; n < writeSize; n++){ 
-          if (b + n < count) { 
-            w = wordBuffer[b + n]; 
-          }else { 
-            w = 0x3fff; 
-          }
-          load_pgm_mem(w); 
-          if (n < writeSize - 1) increment_addr(); 
-        }
-        program_only_cycle(); 
-        end_programming(); 
-        increment_addr(); 
-      }
-      RET_MSG_OK;
-      Serial.println(F("PGM block written"));
+      write_pgm_mem_rows(writeSize, ret, false, 0);
+      reply_ok(F("PGM block written"));
+    break;
+
+    // PGM Memory Block Fill --------
+    case ZEPPP_CMD_PGM_MEM_BLOCK_FILL:
+      rc = arg_get_byte(&writeSize);
+      if (rc != RET_OK) return rc;
+      if (writeSize < 2 || writeSize > PIC_PGM_ROW) return RET_ERR_OUT_OF_RANGE;
+      rc = arg_get_word(&count);
+      if (rc != RET_OK) return rc;
+      rc = arg_get_word(&w);
+      if (rc != RET_OK) return rc;
+
+      write_pgm_mem_rows(writeSize, count, true, w);
+      reply_ok(F("PGM block filled"));
     break;
 
     // DATA Memory Write --------
     case ZEPPP_CMD_DATA_MEM_WRITE:
-      if (!serial_parse_match(' ')) return RET_ERR_SPACE_EXPECTED;
-      if (!serial_parse_getbyte(&eraseMode)) return RET_ERR_HEX_BYTE_EXPECTED;
+      rc = arg_get_byte(&eraseMode);
+      if (rc != RET_OK) return rc;
       // So far only two modes are supported for EEPROM  writes: 0 (Use Erase/Pgm cycle) and 1: (Use Program-only cycle with Begin Erase)
-      if (eraseMode > 1) return RET_ERR_OUT_OF_RANGE; 
+      if ((eraseMode & ~WRITE_SKIP_UNCHANGED) > 1) return RET_ERR_OUT_OF_RANGE; 
 
       // Negative values are error codes.
-      ret = read_console_into_word_buffer();
+      ret = read_args_into_word_buffer();
       if (ret < 0) return (ReturnCode)(-ret);
-      count = ret;
-
-      if (eraseMode == 0){
-        for (b = 0; b < count; b++) {
-          w = wordBuffer[b];
-          load_data_mem(w);
-          erase_and_program_cycle();
-          if ((read_data_mem() & 0xff) != (w & 0xff)) return RET_ERR_VERIFICATION_FAILED;
-          increment_addr();
-        }
-      } else {
-        load_data_mem(0xff);
-        for (b = 0; b < count; b ++) { 
-          begin_erase(); 
-          end_programming();
-          w = wordBuffer[b]; 
-          load_data_mem(w);
-          program_only_cycle();
-          end_programming();
-          if ((read_data_mem() & 0xff) != (w & 0xff)) return RET_ERR_VERIFICATION_FAILED;
-          increment_addr(); 
-        }
-      }
-      RET_MSG_OK;
-      Serial.println(F("DATA block written"));
+      rc = write_data_mem_words(eraseMode, ret, false, 0);
+      if (rc != RET_OK) return rc;
+      reply_written(F("DATA block written"), eraseMode);
+    break;
+
+    // DATA Memory Fill --------
+    case ZEPPP_CMD_DATA_MEM_FILL:
+      rc = arg_get_byte(&eraseMode);
+      if (rc != RET_OK) return rc;
+      if ((eraseMode & ~WRITE_SKIP_UNCHANGED) > 1) return RET_ERR_OUT_OF_RANGE; 
+      rc = arg_get_word(&count);
+      if (rc != RET_OK) return rc;
+      rc = arg_get_byte(&b);
+      if (rc != RET_OK) return rc;
+
+      rc = write_data_mem_words(eraseMode, count, true, b);
+      if (rc != RET_OK) return rc;
+      reply_written(F("DATA block filled"), eraseMode);
     break;
 
     case ZEPPP_CMD_FIRMWARE_INFO:
+      // Text only. Clients ask for it before deciding whether to use binary frames at all.
+      if (binaryFrame) return RET_ERR_UNKNOWN_COMMAND;
       RET_MSG_OK;
       Serial.print(F(ZEPPP_NAME_STRING));
       Serial.print(' ');
@@ -602,6 +1082,117 @@ ReturnCode execute_serial_cmd() {
       Serial.println(F(ZEPPP_RELDATE_STRING));
     break;
 
+    // Input queue size: how many bytes of commands the host can have in flight --------
+    case ZEPPP_CMD_INPUT_QUEUE_SIZE:
+      reply_words_begin (1);
+      reply_word (IN_QUEUE_SIZE);
+      reply_words_end ();
+    break;
+
+    // Resync: the host got the last error, and whatever it had in flight was dropped --------
+    case ZEPPP_CMD_RESYNC:
+      reply_ok(F("Resync"));
+    break;
+
+    // Capabilities: feature bits and buffer limits --------
+    case ZEPPP_CMD_CAPABILITIES:
+      reply_words_begin (5);
+      reply_word (ZEPPP_CAPABILITIES);
+      reply_word (IN_QUEUE_SIZE);
+      reply_word (PIC_PGM_ROW);
+      reply_word (BIN_MAX_READ_WORDS);
+      reply_word (BAUD_RATE_COUNT);
+      reply_words_end ();
+    break;
+
+    // Memory Dump --------
+    case ZEPPP_CMD_MEMORY_DUMP:
+      rc = arg_get_byte(&b);
+      if (rc != RET_OK) return rc;
+      // Memory area: 0 = PGM, 1 = DATA
+      if (b > 1) return RET_ERR_OUT_OF_RANGE;
+      rc = arg_get_word(&count);
+      if (rc != RET_OK) return rc;
+
+      dump_mem_words (b == 1, count);
+    break;
+
+    // Memory CRC --------
+    case ZEPPP_CMD_MEMORY_CRC:
+      rc = arg_get_byte(&b);
+      if (rc != RET_OK) return rc;
+      // Memory area: 0 = PGM (or config, after SCM), 1 = DATA
+      if (b > 1) return RET_ERR_OUT_OF_RANGE;
+      rc = arg_get_word(&count);
+      if (rc != RET_OK) return rc;
+
+      reply_words_begin (1);
+      reply_word (crc_mem_words (b == 1, count));
+      reply_words_end ();
+    break;
+
+    // Blank Check --------
+    case ZEPPP_CMD_BLANK_CHECK:
+      rc = arg_get_byte(&b);
+      if (rc != RET_OK) return rc;
+      // Memory area: 0 = PGM, 1 = DATA
+      if (b > 1) return RET_ERR_OUT_OF_RANGE;
+      rc = arg_get_word(&count);
+      if (rc != RET_OK) return rc;
+      if (count > BLANK_CHECK_MAX_WORDS) return RET_ERR_OUT_OF_RANGE;
+
+      ret = blank_check_mem_words (b == 1, count);
+      reply_words_begin (ret);
+      for (byte i = 0; i < ret; i++) reply_word (wordBuffer[i]);
+      reply_words_end ();
+    break;
+
+    // Set Timings --------
+    case ZEPPP_CMD_SET_TIMINGS:
+      // [PGM program us] [PGM erase+program us] [DATA program us] [Erase us] [Short delay us] [Long delay us]
+      rc = arg_get_word(&w);
+      if (rc != RET_OK) return rc;
+      rc = arg_get_word(&erasePgm);
+      if (rc != RET_OK) return rc;
+      rc = arg_get_word(&count);
+      if (rc != RET_OK) return rc;
+      rc = arg_get_word(&timing);
+      if (rc != RET_OK) return rc;
+      rc = arg_get_byte(&shortUs);
+      if (rc != RET_OK) return rc;
+      rc = arg_get_byte(&longUs);
+      if (rc != RET_OK) return rc;
+      if (w == 0 || erasePgm == 0 || count == 0 || timing == 0) return RET_ERR_OUT_OF_RANGE;
+
+      delayPgmUs = w;
+      delayErasePgmUs = erasePgm;
+      delayDataPgmUs = count;
+      delayEraseUs = timing;
+      delayShortUs = shortUs;
+      delayLongUs = longUs;
+      reply_ok(F("Timings set"));
+    break;
+
+    // Set ICSP Clock: half period in microseconds (on top of the time digitalWrite takes) --------
+    case ZEPPP_CMD_SET_ICSP_CLOCK:
+      rc = arg_get_byte(&b);
+      if (rc != RET_OK) return rc;
+
+      delayHalfClockUs = b;
+      reply_ok(F("ICSP clock set"));
+    break;
+
+    // Set Baud Rate --------
+    case ZEPPP_CMD_SET_BAUD_RATE:
+      rc = arg_get_byte(&b);
+      if (rc != RET_OK) return rc;
+      if (b >= BAUD_RATE_COUNT) return RET_ERR_OUT_OF_RANGE;
+
+      reply_ok(F("Switching baud rate"));
+      serial_set_baud_rate(baudRates[b]);
+      serial_confirm_baud_rate();
+    break;
+
     default:
       return RET_ERR_UNKNOWN_COMMAND;
   }
@@ -609,10 +1200,35 @@ ReturnCode execute_serial_cmd() {
   return RET_OK;
 }
 
+/* After an error, the commands the host already had in flight would run on
+ * the wrong addresses (or on nothing at all). Every one of them is framed and
+ * dropped until a text RSY, or the FWI of a new session, comes along. */
+bool input_resumes () {
+  if (binaryFrame) return false;
+  ZEPPPCommand cmdCode = getCommand(serialBuffer);
+  return cmdCode == ZEPPP_CMD_RESYNC || cmdCode == ZEPPP_CMD_FIRMWARE_INFO;
+}
+
 void parse_serial_buff() {
-  ReturnCode ret = execute_serial_cmd();
+  ReturnCode ret;
+
+  if (inputHalted && !input_resumes()) {
+    serial_reset_buffer();
+    return;
+  }
+  inputHalted = false;
+
+  if (binaryFrame && !binary_frame_crc_ok()) {
+    ret = RET_ERR_CRC_MISMATCH;
+  } else {
+    ret = execute_serial_cmd();
+  }
+
+  if (ret != RET_OK && binaryFrame) {
+    reply_frame_begin(ret + 1, 0);
+    reply_frame_end();
 
-  if (ret != RET_OK) {
+  } else if (ret != RET_OK) {
     RET_MSG_ERROR;
 
     switch (ret){
@@ -645,11 +1261,16 @@ void parse_serial_buff() {
         Serial.println(F("Verification failed!"));
         break;
 
+      case RET_ERR_CRC_MISMATCH:
+        Serial.println(F("Frame CRC mismatch"));
+        break;
+
       default:
         Serial.print(F("Unknown Error #"));
         Serial.println(ret, DEC);
     }
   }
+  if (ret != RET_OK) inputHalted = true;
   serial_reset_buffer();
 }
 
@@ -661,10 +1282,30 @@ void parse_serial_buff() {
 void loop() {
   byte r;
 
-  if (Serial.available()) {
-    r = Serial.read();
-    if (r == '\r') {
+  serial_poll();
+  while (inQueueCount > 0) {
+    r = serial_queue_pop();
+    if (binaryFrame) {
+      // Binary frames are delimited by their length, not by a CR.
+      serialBuffer[inBufferPos] = r;
+      inBufferPos++;
+      if (inBufferPos == 1 && (r == 0 || r > BIN_MAX_FRAME_LEN)) {
+        if (!inputHalted) {
+          reply_frame_begin(RET_ERR_OUT_OF_RANGE + 1, 0);
+          reply_frame_end();
+        }
+        inputHalted = true;
+        serial_reset_buffer();
+      } else if (inBufferPos > 1 && inBufferPos == (byte)serialBuffer[0] + 3) {
+        parse_serial_buff();
+        return;
+      }
+    } else if (inBufferPos == 0 && r == BIN_FRAME_SYNC) {
+      // Text commands never start with this byte, so both kinds of commands can be freely mixed.
+      binaryFrame = true;
+    } else if (r == '\r') {
       parse_serial_buff();
+      return;
     } else if (inBufferPos < MAX_SERIAL_IN_BUFFER) {
       serialBuffer[inBufferPos] = r;
       inBufferPos++;